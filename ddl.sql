@@ -23,6 +23,12 @@ COMMENT ON COLUMN report_definition.version IS '配置版本号';
 COMMENT ON COLUMN report_definition.status IS '配置状态 (ENABLED, DISABLED, ARCHIVED)';
 COMMENT ON COLUMN report_definition.created_at IS '创建时间 (带时区)';
 COMMENT ON COLUMN report_definition.updated_at IS '最后更新时间 (带时区, 应用层负责更新)';
+ALTER TABLE report_definition ADD COLUMN render_priority INT NOT NULL DEFAULT 0;
+COMMENT ON COLUMN report_definition.render_priority IS '渲染优先级 (值越大越先渲染, 大报告可设为负数)';
+ALTER TABLE report_definition ADD COLUMN output_format VARCHAR(10) NOT NULL DEFAULT 'DOCX' CHECK (output_format IN ('DOCX', 'XLSX', 'CSV'));
+COMMENT ON COLUMN report_definition.output_format IS '输出格式 (DOCX: poi-tl 模板渲染; XLSX/CSV: 直接流式输出 TABLE_BUILDER 表格)';
+ALTER TABLE report_definition ADD COLUMN memory_budget_mb INT NULL CHECK (memory_budget_mb > 0);
+COMMENT ON COLUMN report_definition.memory_budget_mb IS '单次生成的估算内存上限 (MB, 超过时生成失败), NULL 时使用 report.engine.memory-budget.generation-mb';
 
 
 CREATE TABLE report_datasource
@@ -61,6 +67,13 @@ COMMENT ON COLUMN report_datasource.updated_at IS '最后更新时间 (带时区
 CREATE INDEX idx_report_datasource_report_def_id ON report_datasource (report_def_id);
 ALTER TABLE report_datasource ADD COLUMN datasource_context VARCHAR(50) NULL;
 COMMENT ON COLUMN report_datasource.datasource_context IS '用于选择业务数据源的上下文标识 (e.g., risk, crm)';
+ALTER TABLE report_datasource ADD COLUMN options JSONB NULL;
+COMMENT ON COLUMN report_datasource.options IS '执行器相关的可选配置 (JSONB格式), e.g., {"fetchSize": 1000, "queryTimeout": 30}';
+-- columnar: 列式结果 (共享列名索引 + 类型化列数组), 适合大结果集
+ALTER TABLE report_datasource DROP CONSTRAINT IF EXISTS report_datasource_result_structure_check;
+ALTER TABLE report_datasource ADD CONSTRAINT report_datasource_result_structure_check
+    CHECK (result_structure IN ('list_map', 'single_map', 'scalar', 'columnar'));
+COMMENT ON COLUMN report_datasource.result_structure IS '预期结果结构 (e.g., list_map, single_map, scalar, columnar)';
 
 CREATE TABLE report_transformation_rule
 (
@@ -116,7 +129,7 @@ COMMENT ON COLUMN report_template_mapping.id IS '主键ID, 自增';
 COMMENT ON COLUMN report_template_mapping.report_def_id IS '逻辑外键, 关联 report_definition.id (应用层保证)';
 COMMENT ON COLUMN report_template_mapping.template_tag IS 'poi-tl模板中的标签名 (e.g., {{customer_name}}, {#main_table})';
 COMMENT ON COLUMN report_template_mapping.data_source_ref IS '数据来源引用 (指向一个rule_alias或datasource_alias)';
-COMMENT ON COLUMN report_template_mapping.data_expression IS '可选: 从数据源中提取/转换值的表达式 (e.g., SpEL: #data_source_ref.fieldName)';
+COMMENT ON COLUMN report_template_mapping.data_expression IS '可选: 从数据源中提取/转换值的表达式, 根对象为 data_source_ref 的数据 (e.g., 字段路径 fieldName / a.b[0], SpEL: #data_source_ref.fieldName)';
 COMMENT ON COLUMN report_template_mapping.description IS '映射关系描述信息';
 COMMENT ON COLUMN report_template_mapping.created_at IS '创建时间 (带时区)';
 COMMENT ON COLUMN report_template_mapping.updated_at IS '最后更新时间 (带时区, 应用层负责更新)';
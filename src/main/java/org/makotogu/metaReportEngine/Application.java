@@ -2,9 +2,11 @@ package org.makotogu.metaReportEngine;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceAutoConfiguration;
 import org.springframework.cache.annotation.EnableCaching;
 
-@SpringBootApplication
+// 业务数据源由 BusinessDataSourceRegistrar 按 report.datasource.contexts 注册, 不使用 spring.datasource 自动配置
+@SpringBootApplication(exclude = DataSourceAutoConfiguration.class)
 @EnableCaching
 public class Application extends SpringApplication {
 
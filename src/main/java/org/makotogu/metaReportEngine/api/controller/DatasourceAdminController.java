@@ -0,0 +1,128 @@
+package org.makotogu.metaReportEngine.api.controller;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import lombok.RequiredArgsConstructor;
+import org.apache.ibatis.session.Configuration;
+import org.makotogu.metaReportEngine.datasource.routing.BusinessSqlSessionTemplateRouter;
+import org.makotogu.metaReportEngine.datasource.routing.ReplicaSetDataSource;
+import org.makotogu.metaReportEngine.datasource.support.ReferenceSnapshotStore;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.sql.DataSource;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 数据源上下文的运行状态: 每个连接池的活跃 / 空闲 / 等待连接数、MyBatis 默认设置、舱壁与熔断器状态、副本集成员与对冲统计。
+ */
+@RestController
+@RequiredArgsConstructor
+@RequestMapping("/admin/datasources")
+public class DatasourceAdminController {
+
+    private final BusinessSqlSessionTemplateRouter sqlSessionTemplateRouter;
+    private final ReferenceSnapshotStore referenceSnapshotStore;
+
+    @GetMapping
+    public List<Map<String, Object>> getDatasourceContexts() {
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (BusinessSqlSessionTemplateRouter.Route route : sqlSessionTemplateRouter.getContexts().values()) {
+            Map<String, Object> context = new LinkedHashMap<>();
+            context.put("context", route.getContext());
+            Configuration configuration = route.getSqlSessionTemplate().getConfiguration();
+            context.put("executorType", route.getSqlSessionTemplate().getExecutorType());
+            context.put("statementTimeout", configuration.getDefaultStatementTimeout());
+            context.put("fetchSize", configuration.getDefaultFetchSize());
+            if (route.getDataSource() instanceof ReplicaSetDataSource) {
+                context.put("replicaSet", replicaSetMetrics((ReplicaSetDataSource) route.getDataSource()));
+            } else {
+                context.put("pool", poolMetrics(route.getDataSource()));
+            }
+            context.put("bulkhead", route.getBulkhead().getMetrics());
+            context.put("circuitBreaker", route.getCircuitBreaker().getMetrics());
+            if (route.getHedgedQueryExecutor() != null) {
+                context.put("hedging", route.getHedgedQueryExecutor().getMetrics());
+            }
+            result.add(context);
+        }
+        return result;
+    }
+
+    /**
+     * 参考数据源的本地快照 (文件、行数、大小、生成时间)。
+     */
+    @GetMapping("/reference-snapshots")
+    public List<Map<String, Object>> getReferenceSnapshots() {
+        return referenceSnapshotStore.getSnapshotInfo();
+    }
+
+    /**
+     * 手动关闭 (重置) 上下文的熔断器。
+     */
+    @PostMapping("/{context}/circuit-breaker/reset")
+    public ResponseEntity<Map<String, Object>> resetCircuitBreaker(@PathVariable String context) {
+        BusinessSqlSessionTemplateRouter.Route route = sqlSessionTemplateRouter.getContexts().get(context);
+        if (route == null) {
+            return ResponseEntity.notFound().build();
+        }
+        route.getCircuitBreaker().reset();
+        return ResponseEntity.ok(route.getCircuitBreaker().getMetrics());
+    }
+
+    private Map<String, Object> replicaSetMetrics(ReplicaSetDataSource replicaSet) {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("selection", replicaSet.getSelection());
+        List<Map<String, Object>> members = new ArrayList<>();
+        Map<String, DataSource> dataSources = replicaSet.getMembers();
+        for (Map<String, Object> memberMetrics : replicaSet.getMemberMetrics()) {
+            Map<String, Object> member = new LinkedHashMap<>(memberMetrics);
+            member.put("pool", poolMetrics(dataSources.get(memberMetrics.get("name"))));
+            members.add(member);
+        }
+        metrics.put("members", members);
+        return metrics;
+    }
+
+    private Map<String, Object> poolMetrics(DataSource dataSource) {
+        Map<String, Object> pool = new LinkedHashMap<>();
+        HikariDataSource hikariDataSource = unwrapHikari(dataSource);
+        if (hikariDataSource == null) {
+            pool.put("type", dataSource.getClass().getName());
+            return pool;
+        }
+        pool.put("name", hikariDataSource.getPoolName());
+        pool.put("maximumPoolSize", hikariDataSource.getMaximumPoolSize());
+        pool.put("minimumIdle", hikariDataSource.getMinimumIdle() < 0 ? hikariDataSource.getMaximumPoolSize() : hikariDataSource.getMinimumIdle());
+        HikariPoolMXBean poolMXBean = hikariDataSource.getHikariPoolMXBean();
+        if (poolMXBean == null) {
+            pool.put("started", false); // 连接池在第一次获取连接时启动
+            return pool;
+        }
+        pool.put("started", true);
+        pool.put("active", poolMXBean.getActiveConnections());
+        pool.put("idle", poolMXBean.getIdleConnections());
+        pool.put("total", poolMXBean.getTotalConnections());
+        pool.put("waiting", poolMXBean.getThreadsAwaitingConnection());
+        return pool;
+    }
+
+    private HikariDataSource unwrapHikari(DataSource dataSource) {
+        if (dataSource instanceof HikariDataSource) {
+            return (HikariDataSource) dataSource;
+        }
+        try {
+            return dataSource.isWrapperFor(HikariDataSource.class) ? dataSource.unwrap(HikariDataSource.class) : null;
+        } catch (SQLException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package org.makotogu.metaReportEngine.api.controller;
+
+import lombok.RequiredArgsConstructor;
+import org.makotogu.metaReportEngine.core.service.MemoryBudgetManager;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+/**
+ * 内存预算的运行状态: 全局预算与占用、进行中 / 排队的生成数、准入 / 排队 / 拒绝 / 超预算次数，以及各报告上一次的估算峰值。
+ */
+@RestController
+@RequiredArgsConstructor
+@RequestMapping("/admin/memory-budget")
+public class MemoryBudgetAdminController {
+
+    private final MemoryBudgetManager memoryBudgetManager;
+
+    @GetMapping
+    public Map<String, Object> getMemoryBudget() {
+        return memoryBudgetManager.getMetrics();
+    }
+}
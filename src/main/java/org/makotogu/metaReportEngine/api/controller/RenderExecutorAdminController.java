@@ -0,0 +1,25 @@
+package org.makotogu.metaReportEngine.api.controller;
+
+import lombok.RequiredArgsConstructor;
+import org.makotogu.metaReportEngine.rendering.service.RenderExecutor;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+/**
+ * 渲染线程池的运行状态: 活跃线程、排队数、拒绝 / 超时次数，以及排队等待与渲染耗时。
+ */
+@RestController
+@RequiredArgsConstructor
+@RequestMapping("/admin/render-executor")
+public class RenderExecutorAdminController {
+
+    private final RenderExecutor renderExecutor;
+
+    @GetMapping
+    public Map<String, Object> getRenderExecutor() {
+        return renderExecutor.getMetrics();
+    }
+}
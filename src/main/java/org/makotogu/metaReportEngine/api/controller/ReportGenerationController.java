@@ -2,8 +2,11 @@ package org.makotogu.metaReportEngine.api.controller;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.makotogu.metaReportEngine.core.service.GeneratedReport;
 import org.makotogu.metaReportEngine.core.service.ReportGenerationService;
+import org.makotogu.metaReportEngine.shard.exception.MemoryAdmissionRejectedException;
 import org.makotogu.metaReportEngine.shard.exception.RenderingException;
+import org.makotogu.metaReportEngine.shard.exception.RenderingRejectedException;
 import org.makotogu.metaReportEngine.shard.exception.ReportConfNotFoundException;
 import org.makotogu.metaReportEngine.shard.exception.ReportGenerationException;
 import org.springframework.http.HttpHeaders;
@@ -14,9 +17,14 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
 
 @RestController
 @Slf4j
@@ -25,22 +33,53 @@ public class ReportGenerationController {
 
     private final ReportGenerationService reportGenerationService;
 
+    /**
+     * 生成报告。DOCX 渲染完成后整体返回；XLSX / CSV 在写出响应时逐行生成 (不设置 Content-Length)。
+     */
     @PostMapping("/{reportId}/generate")
-    public ResponseEntity<byte[]> generateReport(
+    public ResponseEntity<StreamingResponseBody> generateReport(
             @PathVariable String reportId,
             @RequestBody(required = false) Map<String, Object> context) {
-        try {
-            Map<String, Object> executionContext = (context == null) ? new HashMap<>() : new HashMap<>(context);
-            byte[] reportBytes = reportGenerationService.generateReport(reportId, executionContext);
+        Map<String, Object> executionContext = (context == null) ? new HashMap<>() : new HashMap<>(context);
+        return respond(reportId, () -> reportGenerationService.generate(reportId, executionContext));
+    }
+
+    /**
+     * 批量生成: 请求体为上下文数组，每个上下文生成一份报告，合并为一个 docx (文档之间分页)。
+     */
+    @PostMapping("/{reportId}/generate-batch")
+    public ResponseEntity<StreamingResponseBody> generateBatch(
+            @PathVariable String reportId,
+            @RequestBody List<Map<String, Object>> contexts) {
+        return respond(reportId, () -> reportGenerationService.generateBatch(reportId, contexts));
+    }
 
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.valueOf("application/vnd.openxmlformats-officedocument.wordprocessingml.document"));
-            // 建议生成一个更具体的文件名
-            String filename = reportId + "_" + System.currentTimeMillis() + ".docx";
-            headers.setContentDispositionFormData("attachment", filename);
-            headers.setContentLength(reportBytes.length);
+    private ResponseEntity<StreamingResponseBody> respond(String reportId, Supplier<GeneratedReport> generation) {
+        try {
+            GeneratedReport report = generation.get();
+            HttpHeaders headers;
+            try {
+                headers = new HttpHeaders();
+                headers.setContentType(MediaType.valueOf(report.getFormat().getContentType()));
+                headers.setContentDispositionFormData("attachment", report.getFilename());
+                if (!report.isStreaming()) {
+                    headers.setContentLength(report.getContent().length);
+                }
+            } catch (RuntimeException e) {
+                report.close();
+                throw e;
+            }
 
-            return new ResponseEntity<>(reportBytes, headers, HttpStatus.OK);
+            return new ResponseEntity<>(outputStream -> {
+                try {
+                    report.writeTo(outputStream);
+                } catch (IOException | RuntimeException e) { // 响应已开始写出, 只能记录日志并中断连接
+                    log.error("Writing {} report failed via API for reportId: {}", report.getFormat(), reportId, e);
+                    throw e;
+                } finally {
+                    report.close(); // 释放报告持有的临时文件等资源
+                }
+            }, headers, HttpStatus.OK);
 
         } catch (ReportConfNotFoundException e) {
             log.warn("Report configuration not found via API for reportId: {}", reportId, e);
@@ -49,13 +88,27 @@ public class ReportGenerationController {
         } catch (RenderingException e) {
             log.error("Rendering failed via API for reportId: {}", reportId, e);
             // 返回 500 Internal Server Error 或其他合适的错误码
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(("Rendering failed: " + e.getMessage()).getBytes());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(message("Rendering failed: " + e.getMessage()));
+        } catch (MemoryAdmissionRejectedException e) { // 全局内存预算不足, 稍后重试
+            log.warn("Generation rejected via API for reportId: {}: {}", reportId, e.getMessage());
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "10")
+                    .body(message("Memory budget busy: " + e.getMessage()));
         } catch (ReportGenerationException e) {
+            if (e.getCause() instanceof RenderingRejectedException) { // 渲染队列已满, 稍后重试
+                log.warn("Rendering rejected via API for reportId: {}: {}", reportId, e.getCause().getMessage());
+                return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "5")
+                        .body(message("Rendering busy: " + e.getCause().getMessage()));
+            }
             log.error("Generation failed via API for reportId: {}", reportId, e);
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(("Generation failed: " + e.getMessage()).getBytes());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(message("Generation failed: " + e.getMessage()));
         } catch (Exception e) {
             log.error("Unexpected error via API for reportId: {}", reportId, e);
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(("Unexpected error").getBytes());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(message("Unexpected error"));
         }
     }
+
+    private static StreamingResponseBody message(String message) {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        return outputStream -> outputStream.write(bytes);
+    }
 }
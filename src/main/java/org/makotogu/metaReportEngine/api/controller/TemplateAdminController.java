@@ -0,0 +1,40 @@
+package org.makotogu.metaReportEngine.api.controller;
+
+import lombok.RequiredArgsConstructor;
+import org.makotogu.metaReportEngine.rendering.service.TemplateCache;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.Map;
+
+/**
+ * 模板缓存的运行状态 (命中率、编译耗时、各模板的内容哈希) 与手动失效。
+ */
+@RestController
+@RequiredArgsConstructor
+@RequestMapping("/admin/templates")
+public class TemplateAdminController {
+
+    private final TemplateCache templateCache;
+
+    @GetMapping
+    public Map<String, Object> getTemplateCache() {
+        return templateCache.getStats();
+    }
+
+    /**
+     * 失效指定模板 (path 为 report_definition.template_path)，不传 path 时清空整个缓存。
+     */
+    @PostMapping("/invalidate")
+    public Map<String, Object> invalidate(@RequestParam(required = false) String path) {
+        if (path == null) {
+            templateCache.invalidateAll();
+        } else {
+            templateCache.invalidate(path);
+        }
+        return templateCache.getStats();
+    }
+}
@@ -0,0 +1,158 @@
+package org.makotogu.metaReportEngine.config;
+
+import lombok.Data;
+import org.apache.ibatis.session.ExecutorType;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 业务数据源上下文配置 (report.datasource.contexts.*)。每个上下文对应一个独立的 Hikari 连接池以及
+ * SqlSessionFactory / SqlSessionTemplate，数据源配置中的 datasource_context 按上下文名称路由。
+ * <pre>
+ * report:
+ *   datasource:
+ *     contexts:
+ *       default:            # 必须存在: 元数据表所在的库, 也是未指定上下文时的默认路由
+ *         url: jdbc:postgresql://localhost:5432/test
+ *         username: admin
+ *         password: ***
+ *         maximum-pool-size: 10
+ *       risk:
+ *         url: ...
+ *         statement-timeout: 30
+ *         fetch-size: 500
+ *         executor-type: REUSE
+ *         mapper-base-packages: org.makotogu.metaReportEngine.test.mapper
+ *         bulkhead:
+ *           max-concurrent-calls: 20
+ *           max-wait-ms: 500
+ *         circuit-breaker:
+ *           failure-rate-threshold: 50
+ *           slow-call-duration-ms: 5000
+ *         replicas:          # 可选: 只读副本, 与主库 (url) 一起组成副本集, 查询按 replica-selection 选择成员
+ *           - url: jdbc:postgresql://replica-1:5432/risk
+ *           - url: jdbc:postgresql://replica-2:5432/risk
+ *         replica-selection: LATENCY_AWARE
+ *         hedging:
+ *           enabled: true
+ *           percentile: 95
+ * </pre>
+ */
+@Data
+public class BusinessDataSourceProperties {
+
+    public static final String PREFIX = "report.datasource";
+    public static final String DEFAULT_CONTEXT = "default";
+
+    private Map<String, ContextProperties> contexts = new LinkedHashMap<>();
+
+    @Data
+    public static class ContextProperties {
+        private String url;
+        private String username;
+        private String password;
+        private String driverClassName;
+
+        // --- Hikari 连接池 ---
+        private int maximumPoolSize = 10;
+        private Integer minimumIdle;             // 为空时与 maximumPoolSize 相同 (Hikari 默认, 固定大小的池)
+        private long connectionTimeoutMs = 30000; // 获取连接的最长等待时间
+        private long idleTimeoutMs = 600000;
+        private long maxLifetimeMs = 1800000;
+        private boolean readOnly;                // 只读库 (报表查询) 可开启
+
+        // --- MyBatis ---
+        private Integer statementTimeout;        // 默认语句超时 (秒)
+        private Integer fetchSize;               // 默认 fetchSize
+        private ExecutorType executorType = ExecutorType.SIMPLE; // REUSE: 同一会话内复用 PreparedStatement
+        private List<String> mapperLocations = new ArrayList<>(); // 可选: Mapper XML 位置 (e.g., classpath:mapper/risk/*.xml)
+        private List<String> mapperBasePackages = new ArrayList<>(); // 可选: 扫描这些包下的 Mapper 接口并绑定到本上下文的 SqlSessionTemplate
+
+        // --- 隔离与熔断 ---
+        private BulkheadProperties bulkhead = new BulkheadProperties();
+        private CircuitBreakerProperties circuitBreaker = new CircuitBreakerProperties();
+
+        // --- 只读副本 ---
+        private List<ReplicaProperties> replicas = new ArrayList<>(); // 为空时上下文只有 url 一个连接池
+        private boolean primaryReads = true;     // 主库是否参与查询的选择; false 时只查副本
+        private ReplicaSelection replicaSelection = ReplicaSelection.LEAST_OUTSTANDING;
+        private HedgingProperties hedging = new HedgingProperties();
+
+        /**
+         * @return 副本集所有参与查询的成员的连接数之和 (没有副本时即 maximumPoolSize)
+         */
+        public int totalPoolSize() {
+            if (replicas.isEmpty()) {
+                return maximumPoolSize;
+            }
+            int total = primaryReads ? maximumPoolSize : 0;
+            for (ReplicaProperties replica : replicas) {
+                total += replica.getMaximumPoolSize() != null ? replica.getMaximumPoolSize() : maximumPoolSize;
+            }
+            return total;
+        }
+    }
+
+    /**
+     * 副本集中选择成员的策略。
+     */
+    public enum ReplicaSelection {
+        /** 选择当前借出连接数 (未完成请求) 最少的成员 */
+        LEAST_OUTSTANDING,
+        /** 按 EWMA 耗时 × (未完成请求 + 1) 打分, 选择分数最低的成员 */
+        LATENCY_AWARE
+    }
+
+    /**
+     * 一个只读副本。连接信息必填，连接池参数为空时沿用上下文的配置。
+     */
+    @Data
+    public static class ReplicaProperties {
+        private String url;
+        private String username;                 // 为空时沿用上下文的 username / password
+        private String password;
+        private Integer maximumPoolSize;
+    }
+
+    /**
+     * 对冲查询: 查询在 percentile 分位耗时内没有返回时，向副本集中的另一个成员再发一次，取先返回的结果。
+     * 只在成员数 >= 2 且已积累 minimumSamples 个耗时样本后生效。
+     */
+    @Data
+    public static class HedgingProperties {
+        private boolean enabled;
+        private double percentile = 95;          // 对冲延迟取最近耗时的该分位数
+        private long minDelayMs = 10;            // 对冲延迟下限, 避免对很快的查询也发第二次
+        private int sampleSize = 512;            // 统计分位数的最近样本数
+        private int minimumSamples = 50;
+    }
+
+    /**
+     * 舱壁隔离: 限制一个上下文同时执行的查询数，超出时最多等待 maxWaitMs，慢库只会占满自己的舱壁。
+     */
+    @Data
+    public static class BulkheadProperties {
+        private boolean enabled = true;
+        private Integer maxConcurrentCalls;  // 为空时等于连接池大小
+        private long maxWaitMs = 1000;       // 等待空位的最长时间, 0 表示不等待
+    }
+
+    /**
+     * 熔断: 按最近 slidingWindowSize 次调用统计失败率与慢调用率，超过阈值后熔断 waitInOpenStateMs，
+     * 之后放行 permittedCallsInHalfOpenState 次试探调用决定恢复还是继续熔断。
+     */
+    @Data
+    public static class CircuitBreakerProperties {
+        private boolean enabled = true;
+        private int slidingWindowSize = 50;
+        private int minimumCalls = 20;               // 窗口内调用数达到该值后才计算比例
+        private float failureRateThreshold = 50;     // 失败率阈值 (%)
+        private long slowCallDurationMs = 10000;     // 超过该耗时视为慢调用
+        private float slowCallRateThreshold = 80;    // 慢调用率阈值 (%)
+        private long waitInOpenStateMs = 30000;      // 熔断持续时间
+        private int permittedCallsInHalfOpenState = 5;
+    }
+}
@@ -0,0 +1,211 @@
+package org.makotogu.metaReportEngine.config;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.makotogu.metaReportEngine.config.handler.JacksonTypeHandler;
+import org.makotogu.metaReportEngine.datasource.routing.ReplicaSetDataSource;
+import org.mybatis.spring.SqlSessionFactoryBean;
+import org.mybatis.spring.SqlSessionTemplate;
+import org.mybatis.spring.mapper.MapperScannerConfigurer;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanCreationException;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.support.AbstractBeanDefinition;
+import org.springframework.beans.factory.support.BeanDefinitionBuilder;
+import org.springframework.beans.factory.support.BeanDefinitionRegistry;
+import org.springframework.beans.factory.support.BeanDefinitionRegistryPostProcessor;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.context.EnvironmentAware;
+import org.springframework.core.env.Environment;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.util.StringUtils;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 启动时按 report.datasource.contexts 注册业务数据源。每个上下文 ctx 注册三个 Bean:
+ * <ul>
+ *     <li>ctxBusinessDataSource: HikariDataSource (连接池名为 ctx); 配置了 replicas 时为 {@link ReplicaSetDataSource}，
+ *     成员为主库 (ctx-primary, primary-reads 为 false 时不参与查询) 与各副本 (ctx-replica-1, ctx-replica-2 ...) 的连接池</li>
+ *     <li>ctxBusinessSqlSessionFactory: 注册 JsonNode TypeHandler、驼峰映射、默认语句超时 / fetchSize / 执行器类型</li>
+ *     <li>ctxBusinessSqlSessionTemplate: 使用上下文配置的 ExecutorType</li>
+ * </ul>
+ * 配置了 mapper-base-packages 的上下文另外注册 ctxMapperScannerConfigurer，把这些包下的 Mapper 接口绑定到 ctxBusinessSqlSessionTemplate
+ * (取代按固定上下文名称引用模板的 @MapperScan，没有配置该上下文时不会因为找不到模板而启动失败)。
+ * 绑定后的 {@link BusinessDataSourceProperties} 也注册为 Bean (businessDataSourceProperties)。
+ * 需要在 Bean 定义阶段完成注册，MapperScan 等按名称引用这些 Bean，因此直接用 Binder 读取配置，而不是 @ConfigurationProperties。
+ */
+@Slf4j
+public class BusinessDataSourceRegistrar implements BeanDefinitionRegistryPostProcessor, EnvironmentAware {
+
+    public static final String DATA_SOURCE_SUFFIX = "BusinessDataSource";
+    public static final String SQL_SESSION_FACTORY_SUFFIX = "BusinessSqlSessionFactory";
+    public static final String SQL_SESSION_TEMPLATE_SUFFIX = "BusinessSqlSessionTemplate";
+    public static final String MAPPER_SCANNER_SUFFIX = "MapperScannerConfigurer";
+    public static final String PROPERTIES_BEAN_NAME = "businessDataSourceProperties";
+
+    private Environment environment;
+    private ConfigurableListableBeanFactory beanFactory;
+
+    @Override
+    public void setEnvironment(Environment environment) {
+        this.environment = environment;
+    }
+
+    @Override
+    public void postProcessBeanDefinitionRegistry(BeanDefinitionRegistry registry) throws BeansException {
+        BusinessDataSourceProperties properties = Binder.get(environment)
+                .bind(BusinessDataSourceProperties.PREFIX, BusinessDataSourceProperties.class)
+                .orElseGet(BusinessDataSourceProperties::new);
+        if (!properties.getContexts().containsKey(BusinessDataSourceProperties.DEFAULT_CONTEXT)) {
+            throw new IllegalStateException("Datasource context '" + BusinessDataSourceProperties.DEFAULT_CONTEXT
+                    + "' must be configured under " + BusinessDataSourceProperties.PREFIX + ".contexts (metadata tables live there).");
+        }
+        // 绑定后的配置同时注册为 Bean, 供 Router 读取舱壁 / 熔断配置
+        registry.registerBeanDefinition(PROPERTIES_BEAN_NAME,
+                BeanDefinitionBuilder.genericBeanDefinition(BusinessDataSourceProperties.class, () -> properties).getBeanDefinition());
+        for (Map.Entry<String, BusinessDataSourceProperties.ContextProperties> entry : properties.getContexts().entrySet()) {
+            registerContext(registry, entry.getKey(), entry.getValue());
+        }
+        log.info("Registered business datasource contexts: {}", properties.getContexts().keySet());
+    }
+
+    @Override
+    public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) throws BeansException {
+        this.beanFactory = beanFactory; // Bean 创建时 (晚于本方法) 才会用到
+    }
+
+    private void registerContext(BeanDefinitionRegistry registry, String context, BusinessDataSourceProperties.ContextProperties props) {
+        if (!StringUtils.hasText(props.getUrl())) {
+            throw new IllegalStateException("Datasource context '" + context + "' requires 'url'.");
+        }
+        String dataSourceName = context + DATA_SOURCE_SUFFIX;
+        String sqlSessionFactoryName = context + SQL_SESSION_FACTORY_SUFFIX;
+        String sqlSessionTemplateName = context + SQL_SESSION_TEMPLATE_SUFFIX;
+
+        AbstractBeanDefinition dataSourceDefinition = props.getReplicas().isEmpty()
+                ? BeanDefinitionBuilder.genericBeanDefinition(HikariDataSource.class, () -> createDataSource(context, props))
+                .setDestroyMethodName("close")
+                .getBeanDefinition()
+                : BeanDefinitionBuilder.genericBeanDefinition(ReplicaSetDataSource.class, () -> createReplicaSet(context, props))
+                .setDestroyMethodName("close")
+                .getBeanDefinition();
+        registry.registerBeanDefinition(dataSourceName, dataSourceDefinition);
+
+        AbstractBeanDefinition factoryDefinition = BeanDefinitionBuilder
+                .genericBeanDefinition(SqlSessionFactory.class,
+                        () -> createSqlSessionFactory(context, props, beanFactory.getBean(dataSourceName, DataSource.class)))
+                .getBeanDefinition();
+        registry.registerBeanDefinition(sqlSessionFactoryName, factoryDefinition);
+
+        AbstractBeanDefinition templateDefinition = BeanDefinitionBuilder
+                .genericBeanDefinition(SqlSessionTemplate.class,
+                        () -> new SqlSessionTemplate(beanFactory.getBean(sqlSessionFactoryName, SqlSessionFactory.class), props.getExecutorType()))
+                .getBeanDefinition();
+        registry.registerBeanDefinition(sqlSessionTemplateName, templateDefinition);
+
+        if (!props.getMapperBasePackages().isEmpty()) {
+            // MapperScannerConfigurer 本身也是 BeanDefinitionRegistryPostProcessor, 在本方法之后被调用
+            AbstractBeanDefinition scannerDefinition = BeanDefinitionBuilder.genericBeanDefinition(MapperScannerConfigurer.class)
+                    .addPropertyValue("basePackage", StringUtils.collectionToCommaDelimitedString(props.getMapperBasePackages()))
+                    .addPropertyValue("sqlSessionTemplateBeanName", sqlSessionTemplateName)
+                    .getBeanDefinition();
+            registry.registerBeanDefinition(context + MAPPER_SCANNER_SUFFIX, scannerDefinition);
+        }
+    }
+
+    private HikariDataSource createDataSource(String context, BusinessDataSourceProperties.ContextProperties props) {
+        log.info("Creating datasource context [{}]: pool size {}, executor {}, statement timeout {}s, fetch size {}",
+                context, props.getMaximumPoolSize(), props.getExecutorType(), props.getStatementTimeout(), props.getFetchSize());
+        return createPool(context, props, props.getUrl(), props.getUsername(), props.getPassword(), props.getMaximumPoolSize());
+    }
+
+    private ReplicaSetDataSource createReplicaSet(String context, BusinessDataSourceProperties.ContextProperties props) {
+        Map<String, DataSource> members = new LinkedHashMap<>();
+        if (props.isPrimaryReads()) {
+            members.put(context + "-primary",
+                    createPool(context + "-primary", props, props.getUrl(), props.getUsername(), props.getPassword(), props.getMaximumPoolSize()));
+        }
+        int index = 1;
+        for (BusinessDataSourceProperties.ReplicaProperties replica : props.getReplicas()) {
+            String name = context + "-replica-" + index++;
+            if (!StringUtils.hasText(replica.getUrl())) {
+                throw new IllegalStateException("Replica '" + name + "' of datasource context '" + context + "' requires 'url'.");
+            }
+            boolean ownCredentials = StringUtils.hasText(replica.getUsername());
+            members.put(name, createPool(name, props, replica.getUrl(),
+                    ownCredentials ? replica.getUsername() : props.getUsername(),
+                    ownCredentials ? replica.getPassword() : props.getPassword(),
+                    replica.getMaximumPoolSize() != null ? replica.getMaximumPoolSize() : props.getMaximumPoolSize()));
+        }
+        log.info("Creating datasource context [{}] as replica set {}: selection {}, hedging {}, executor {}, statement timeout {}s, fetch size {}",
+                context, members.keySet(), props.getReplicaSelection(), props.getHedging().isEnabled(), props.getExecutorType(),
+                props.getStatementTimeout(), props.getFetchSize());
+        return new ReplicaSetDataSource(context, props.getReplicaSelection(), members);
+    }
+
+    private HikariDataSource createPool(String poolName, BusinessDataSourceProperties.ContextProperties props,
+                                        String url, String username, String password, int maximumPoolSize) {
+        HikariConfig hikariConfig = new HikariConfig();
+        hikariConfig.setPoolName(poolName);
+        hikariConfig.setJdbcUrl(url);
+        hikariConfig.setUsername(username);
+        hikariConfig.setPassword(password);
+        if (StringUtils.hasText(props.getDriverClassName())) {
+            hikariConfig.setDriverClassName(props.getDriverClassName());
+        }
+        hikariConfig.setMaximumPoolSize(maximumPoolSize);
+        if (props.getMinimumIdle() != null) {
+            hikariConfig.setMinimumIdle(props.getMinimumIdle());
+        }
+        hikariConfig.setConnectionTimeout(props.getConnectionTimeoutMs());
+        hikariConfig.setIdleTimeout(props.getIdleTimeoutMs());
+        hikariConfig.setMaxLifetime(props.getMaxLifetimeMs());
+        hikariConfig.setReadOnly(props.isReadOnly());
+        // 与 DataSourceBuilder 一致: 连接池在第一次获取连接时启动, 启动时不连接数据库
+        HikariDataSource dataSource = new HikariDataSource();
+        hikariConfig.copyStateTo(dataSource);
+        return dataSource;
+    }
+
+    private SqlSessionFactory createSqlSessionFactory(String context, BusinessDataSourceProperties.ContextProperties props, DataSource dataSource) {
+        org.apache.ibatis.session.Configuration configuration = new org.apache.ibatis.session.Configuration();
+        // 注册 JsonNode 类型的 TypeHandler
+        configuration.getTypeHandlerRegistry().register(JsonNode.class, new JacksonTypeHandler<>(JsonNode.class));
+        // 启用自动驼峰命名规则映射
+        configuration.setMapUnderscoreToCamelCase(true);
+        configuration.setDefaultStatementTimeout(props.getStatementTimeout());
+        configuration.setDefaultFetchSize(props.getFetchSize());
+        configuration.setDefaultExecutorType(props.getExecutorType());
+
+        SqlSessionFactoryBean sessionFactoryBean = new SqlSessionFactoryBean();
+        sessionFactoryBean.setDataSource(dataSource);
+        sessionFactoryBean.setConfiguration(configuration);
+        try {
+            if (!props.getMapperLocations().isEmpty()) {
+                PathMatchingResourcePatternResolver resolver = new PathMatchingResourcePatternResolver();
+                List<Resource> resources = new ArrayList<>();
+                for (String location : props.getMapperLocations()) {
+                    for (Resource resource : resolver.getResources(location)) {
+                        resources.add(resource);
+                    }
+                }
+                sessionFactoryBean.setMapperLocations(resources.toArray(new Resource[0]));
+            }
+            return sessionFactoryBean.getObject();
+        } catch (IOException e) {
+            throw new BeanCreationException(context + SQL_SESSION_FACTORY_SUFFIX, "Cannot resolve mapper locations " + props.getMapperLocations(), e);
+        } catch (Exception e) {
+            throw new BeanCreationException(context + SQL_SESSION_FACTORY_SUFFIX, "Failed to create SqlSessionFactory for context " + context, e);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package org.makotogu.metaReportEngine.core.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.Getter;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+import org.makotogu.metaReportEngine.datasource.spi.AggregateColumn;
+import org.makotogu.metaReportEngine.metadata.dto.ReportConfigurationDto;
+import org.makotogu.metaReportEngine.transformer.aggregate.AggregationSpec;
+import org.makotogu.metaReportEngine.transformer.aggregate.PreAggregatedResult;
+import org.makotogu.metaReportEngine.transformer.aggregate.PushDownAggregation;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.CollectionUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * 聚合下推计划器。
+ * <p>
+ * 找出只被 AGGREGATOR 规则消费的列表数据源，为其生成聚合查询计划。满足以下条件时数据源会被下推:
+ * <ul>
+ *     <li>result_structure 为 list_map / list / columnar;</li>
+ *     <li>至少有一个消费者，且所有以它为输入的规则都是 AGGREGATOR (作为第一个输入)，配置可下推 (无 groupBy);</li>
+ *     <li>模板映射、其他规则的配置、数据源参数映射中都没有引用该数据源 (按别名做整词匹配, 宁可错过也不误判)。</li>
+ * </ul>
+ * 不满足条件或下推执行失败时，数据源按原方式查询并在内存中聚合。
+ */
+@Component
+@Slf4j
+public class AggregationPushDownPlanner {
+
+    private static final String AGGREGATOR_TYPE = "AGGREGATOR";
+
+    @Value("${report.engine.aggregation-push-down.enabled:true}")
+    private boolean enabled;
+
+    /**
+     * 为报表配置生成下推计划。
+     *
+     * @return datasourceAlias → 下推计划，没有可下推的数据源时返回空 Map
+     */
+    public Map<String, PushDownPlan> plan(ReportConfigurationDto config) {
+        if (!enabled || CollectionUtils.isEmpty(config.getDataSources()) || CollectionUtils.isEmpty(config.getTransformationRules())) {
+            return Collections.emptyMap();
+        }
+        Map<String, PushDownPlan> plans = new HashMap<>();
+        for (ReportConfigurationDto.DataSourceConfig dsConfig : config.getDataSources()) {
+            PushDownPlan plan = planDatasource(dsConfig, config);
+            if (plan != null) {
+                log.debug("Aggregation of datasource '{}' will be pushed down: {}", dsConfig.getDatasourceAlias(), plan.getColumns());
+                plans.put(dsConfig.getDatasourceAlias(), plan);
+            }
+        }
+        return plans;
+    }
+
+    private PushDownPlan planDatasource(ReportConfigurationDto.DataSourceConfig dsConfig, ReportConfigurationDto config) {
+        String alias = dsConfig.getDatasourceAlias();
+        String resultStructure = dsConfig.getResultStructure();
+        if (alias == null || !("list_map".equalsIgnoreCase(resultStructure) || "list".equalsIgnoreCase(resultStructure)
+                || "columnar".equalsIgnoreCase(resultStructure))) {
+            return null;
+        }
+
+        // 1. 所有以该数据源为输入的规则都必须是可下推的 AGGREGATOR
+        Map<JsonNode, AggregationSpec> specs = new LinkedHashMap<>();
+        List<ReportConfigurationDto.RuleConfig> otherRules = new ArrayList<>();
+        for (ReportConfigurationDto.RuleConfig rule : config.getTransformationRules()) {
+            List<String> inputRefs = rule.getInputRefs();
+            if (inputRefs == null || !inputRefs.contains(alias)) {
+                otherRules.add(rule);
+                continue;
+            }
+            if (!AGGREGATOR_TYPE.equals(rule.getTransformerType()) || inputRefs.indexOf(alias) != 0) {
+                return null;
+            }
+            AggregationSpec spec;
+            try {
+                spec = AggregationSpec.parse(rule.getConfig());
+            } catch (IllegalArgumentException e) {
+                return null; // 配置错误交给规则执行时报告
+            }
+            if (!PushDownAggregation.supports(spec)) {
+                return null;
+            }
+            specs.put(rule.getConfig(), spec);
+        }
+        if (specs.isEmpty()) {
+            return null;
+        }
+
+        // 2. 不能被模板、其他规则或参数映射直接引用
+        if (isReferenced(alias, config, otherRules)) {
+            return null;
+        }
+
+        // 3. 合并所有规则需要的基础聚合列
+        Map<String, PushDownAggregation.Column> merged = new LinkedHashMap<>();
+        try {
+            for (AggregationSpec spec : specs.values()) {
+                for (Map.Entry<String, PushDownAggregation.Column> entry : PushDownAggregation.columns(spec).entrySet()) {
+                    PushDownAggregation.Column existing = merged.putIfAbsent(entry.getKey(), entry.getValue());
+                    if (existing != null && !existing.equals(entry.getValue())) {
+                        return null;
+                    }
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            log.debug("Aggregation of datasource '{}' cannot be pushed down: {}", alias, e.getMessage());
+            return null;
+        }
+        List<AggregateColumn> columns = new ArrayList<>(merged.size());
+        for (Map.Entry<String, PushDownAggregation.Column> entry : merged.entrySet()) {
+            PushDownAggregation.Column column = entry.getValue();
+            columns.add(new AggregateColumn(column.getFunction().name(), column.getField(), entry.getKey()));
+        }
+        return new PushDownPlan(alias, columns, specs);
+    }
+
+    private boolean isReferenced(String alias, ReportConfigurationDto config, List<ReportConfigurationDto.RuleConfig> otherRules) {
+        Pattern reference = Pattern.compile("(?<![\\w$])" + Pattern.quote(alias) + "(?![\\w$])");
+        if (config.getTemplateMappings() != null) {
+            for (ReportConfigurationDto.MappingConfig mapping : config.getTemplateMappings()) {
+                if (alias.equals(mapping.getDataSourceRef())
+                        || (mapping.getDataExpression() != null && reference.matcher(mapping.getDataExpression()).find())) {
+                    return true;
+                }
+            }
+        }
+        for (ReportConfigurationDto.RuleConfig rule : otherRules) {
+            if ((rule.getConfig() != null && reference.matcher(rule.getConfig().toString()).find())
+                    || (rule.getDependencyRefs() != null && rule.getDependencyRefs().contains(alias))) {
+                return true;
+            }
+        }
+        for (ReportConfigurationDto.DataSourceConfig dsConfig : config.getDataSources()) {
+            if (dsConfig.getParamMapping() != null && reference.matcher(dsConfig.getParamMapping().toString()).find()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 一个数据源的聚合下推计划。
+     */
+    @Getter
+    @ToString
+    public static class PushDownPlan {
+        private final String datasourceAlias;
+        private final List<AggregateColumn> columns;          // 聚合查询需要计算的列
+        private final Map<JsonNode, AggregationSpec> specs;   // 规则 config → 解析后的聚合配置
+
+        PushDownPlan(String datasourceAlias, List<AggregateColumn> columns, Map<JsonNode, AggregationSpec> specs) {
+            this.datasourceAlias = datasourceAlias;
+            this.columns = columns;
+            this.specs = specs;
+        }
+
+        /**
+         * 根据聚合查询返回的单行结果计算每条规则的输出。
+         *
+         * @throws IllegalStateException 如果结果行缺少需要的列
+         */
+        public PreAggregatedResult finish(Map<String, Object> row) {
+            Map<JsonNode, Object> results = new HashMap<>();
+            for (Map.Entry<JsonNode, AggregationSpec> entry : specs.entrySet()) {
+                results.put(entry.getKey(), PushDownAggregation.finish(entry.getValue(), row));
+            }
+            return new PreAggregatedResult(datasourceAlias, results);
+        }
+    }
+}
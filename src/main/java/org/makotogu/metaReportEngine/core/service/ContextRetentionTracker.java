@@ -0,0 +1,113 @@
+package org.makotogu.metaReportEngine.core.service;
+
+import org.makotogu.metaReportEngine.shard.util.MemoryEstimator;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 一次报告生成中执行上下文保留的数据量估算: 记录每个数据源结果 / 规则输出的估算大小，按存活分析释放后扣除，
+ * 并记录峰值及其所在阶段。同一个对象被多个名称引用 (例如规则原地修改并输出输入列表) 时只计一次。
+ * 当前估算同时计入本次生成的内存预算 ({@link MemoryBudgetManager.Lease} 的 context 类别)。
+ * 延迟求值时值在计算时才计入 (可能在渲染线程或写出响应的线程中)，因此方法都是同步的。
+ */
+public class ContextRetentionTracker {
+
+    private final LazyContextMap executionContext;
+    private final boolean releaseEntries;            // 为 false 时只估算，不释放
+    private final MemoryBudgetManager.Lease lease;
+    private final Map<String, Object> retained = new HashMap<>();          // 名称 -> 值
+    private final Map<Object, long[]> objects = new IdentityHashMap<>();   // 值 -> {估算字节数, 引用计数}
+    private long retainedBytes;
+    private long peakBytes;
+    private String peakStage = "start";
+    private int releasedCount;
+    private long releasedBytes;
+
+    public ContextRetentionTracker(LazyContextMap executionContext, boolean releaseEntries, MemoryBudgetManager.Lease lease) {
+        this.executionContext = executionContext;
+        this.releaseEntries = releaseEntries;
+        this.lease = lease;
+    }
+
+    /**
+     * 记录放入上下文的值 (替换同名的已记录值)。
+     *
+     * @throws org.makotogu.metaReportEngine.shard.exception.MemoryBudgetExceededException 超过本次生成的内存预算
+     */
+    public synchronized void retain(String name, Object value, String stage) {
+        untrack(name);
+        if (value != null) {
+            retained.put(name, value);
+            long[] entry = objects.get(value);
+            if (entry == null) {
+                long bytes = MemoryEstimator.estimateRetainedBytes(value);
+                objects.put(value, new long[]{bytes, 1});
+                retainedBytes += bytes;
+            } else {
+                entry[1]++;
+            }
+        }
+        if (retainedBytes > peakBytes) {
+            peakBytes = retainedBytes;
+            peakStage = stage;
+        }
+        lease.charge(MemoryBudgetManager.CONTEXT, retainedBytes);
+    }
+
+    /**
+     * 从上下文中释放这些名称的值 (替换为墓碑)。
+     */
+    public synchronized void release(List<String> names) {
+        if (!releaseEntries) {
+            return;
+        }
+        for (String name : names) {
+            if (executionContext.containsKey(name) && !executionContext.isReleased(name)) {
+                executionContext.release(name);
+                releasedCount++;
+                releasedBytes += untrack(name);
+            }
+        }
+        lease.charge(MemoryBudgetManager.CONTEXT, retainedBytes);
+    }
+
+    /**
+     * @return 不再被任何名称引用而释放的字节数
+     */
+    private long untrack(String name) {
+        Object value = retained.remove(name);
+        if (value == null) {
+            return 0;
+        }
+        long[] entry = objects.get(value);
+        if (--entry[1] > 0) {
+            return 0;
+        }
+        objects.remove(value);
+        retainedBytes -= entry[0];
+        return entry[0];
+    }
+
+    public synchronized long getRetainedBytes() {
+        return retainedBytes;
+    }
+
+    public synchronized long getPeakBytes() {
+        return peakBytes;
+    }
+
+    public synchronized String getPeakStage() {
+        return peakStage;
+    }
+
+    /**
+     * 用于日志的摘要，例如 "peak ~12.5 MB after rule 'detailTable', released 4 entries (~10.1 MB) before rendering"。
+     */
+    public synchronized String summary() {
+        return "peak ~" + MemoryEstimator.formatBytes(peakBytes) + " after " + peakStage
+                + ", released " + releasedCount + " entries (~" + MemoryEstimator.formatBytes(releasedBytes) + ") before rendering";
+    }
+}
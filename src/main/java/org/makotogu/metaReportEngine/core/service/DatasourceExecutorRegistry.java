@@ -0,0 +1,120 @@
+package org.makotogu.metaReportEngine.core.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.makotogu.metaReportEngine.datasource.routing.BusinessSqlSessionTemplateRouter;
+import org.makotogu.metaReportEngine.datasource.spi.DatasourceExecutor;
+import org.makotogu.metaReportEngine.datasource.support.QueryParamResolver;
+import org.makotogu.metaReportEngine.datasource.support.ReferenceSnapshotStore;
+import org.makotogu.metaReportEngine.datasource.support.ResultSizeLimiter;
+import org.makotogu.metaReportEngine.metadata.dto.ReportConfigurationDto;
+import org.makotogu.metaReportEngine.shard.exception.DatasourceConfigurationException;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+import org.springframework.util.CollectionUtils;
+import org.springframework.util.StringUtils;
+
+import javax.annotation.PostConstruct;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * 数据源执行器注册表。
+ * 负责管理所有 DatasourceExecutor 实现，并根据 report_datasource.query_type 查找对应的执行器。
+ * 查询在数据源上下文的舱壁与熔断器保护下执行 (见 {@link BusinessSqlSessionTemplateRouter#execute})。
+ * 配置了 options.reference 的参考数据源优先读取本地快照 (见 {@link ReferenceSnapshotStore})。
+ */
+@Service
+@Slf4j
+public class DatasourceExecutorRegistry {
+
+    private static final String DEFAULT_QUERY_TYPE = "mybatis"; // query_type 为空时使用的执行器
+
+    private final List<DatasourceExecutor> executorList; // 注入所有实现了 DatasourceExecutor 接口的 Spring Bean
+    private Map<String, DatasourceExecutor> executorMap; // 以 queryType (小写) 为 key 的注册表
+    private final BusinessSqlSessionTemplateRouter sqlSessionTemplateRouter;
+    private final ReferenceSnapshotStore referenceSnapshotStore;
+    private final QueryParamResolver queryParamResolver;
+
+    @Autowired
+    public DatasourceExecutorRegistry(List<DatasourceExecutor> executorList, BusinessSqlSessionTemplateRouter sqlSessionTemplateRouter,
+                                      ReferenceSnapshotStore referenceSnapshotStore, QueryParamResolver queryParamResolver) {
+        this.executorList = CollectionUtils.isEmpty(executorList) ? Collections.emptyList() : executorList;
+        this.sqlSessionTemplateRouter = sqlSessionTemplateRouter;
+        this.referenceSnapshotStore = referenceSnapshotStore;
+        this.queryParamResolver = queryParamResolver;
+    }
+
+    @PostConstruct
+    public void initializeExecutorMap() {
+        this.executorMap = this.executorList.stream()
+                .peek(e -> log.debug("Registering DatasourceExecutor: type={}, class={}", e.getQueryType(), e.getClass().getName()))
+                .collect(Collectors.toMap(
+                        e -> e.getQueryType().toLowerCase(Locale.ROOT),
+                        Function.identity(),
+                        (existing, replacement) -> {
+                            log.warn("Duplicate DatasourceExecutor detected for type: '{}'. Existing: {}, Replacement: {}. Using existing.",
+                                    existing.getQueryType(), existing.getClass().getName(), replacement.getClass().getName());
+                            return existing;
+                        }
+                ));
+        log.info("Initialized DatasourceExecutorRegistry with {} executors for types: {}", executorMap.size(), executorMap.keySet());
+    }
+
+    /**
+     * 根据查询类型获取执行器。
+     *
+     * @param queryType report_datasource.query_type (不区分大小写, 为空时使用 mybatis)
+     * @throws DatasourceConfigurationException 如果没有注册该类型的执行器
+     */
+    public DatasourceExecutor getExecutor(String queryType) {
+        String type = StringUtils.hasText(queryType) ? queryType.trim().toLowerCase(Locale.ROOT) : DEFAULT_QUERY_TYPE;
+        DatasourceExecutor executor = executorMap.get(type);
+        if (executor == null) {
+            log.error("No DatasourceExecutor registered for query type: {}", queryType);
+            throw new DatasourceConfigurationException("Unsupported query type: " + queryType + ". Registered types: " + executorMap.keySet());
+        }
+        return executor;
+    }
+
+    /**
+     * 使用数据源配置对应的执行器执行查询。参考数据源返回本地快照 (快照过期或不存在时才实际查询)。
+     */
+    public Object execute(ReportConfigurationDto.DataSourceConfig datasourceConfig, Map<String, Object> executionContext) {
+        DatasourceExecutor executor = getExecutor(datasourceConfig.getQueryType());
+        // 参数在调用线程中解析一次，查询本身不再读取执行上下文: 对冲查询的第二次尝试在其他线程执行，
+        // 落后的那次可能在请求继续写入 / 释放上下文之后才结束
+        Map<String, Object> queryParams = resolveParams(datasourceConfig, executionContext);
+        ResultSizeLimiter.GenerationBudget budget = ResultSizeLimiter.generationBudget(executionContext);
+        Supplier<Object> query = () -> executeInContext(datasourceConfig, () -> executor.execute(datasourceConfig, queryParams, budget));
+        ReferenceSnapshotStore.ReferenceSpec referenceSpec = referenceSnapshotStore.getReferenceSpec(datasourceConfig);
+        if (referenceSpec != null) {
+            // 后台刷新在请求结束后才可能执行: 不计入本次生成的结果预算
+            return referenceSnapshotStore.load(referenceSpec, datasourceConfig, queryParams, query,
+                    () -> executeInContext(datasourceConfig, () -> executor.execute(datasourceConfig, queryParams, null)));
+        }
+        return query.get();
+    }
+
+    /**
+     * 按 param_mapping 解析数据源的查询参数 (在进入舱壁之前调用，见 {@link #execute})。
+     */
+    public Map<String, Object> resolveParams(ReportConfigurationDto.DataSourceConfig datasourceConfig, Map<String, Object> executionContext) {
+        return queryParamResolver.resolve(datasourceConfig.getParamMapping(), executionContext);
+    }
+
+    /**
+     * 在数据源所属上下文的舱壁与熔断器保护下执行一次查询 (普通查询、聚合下推等)。
+     * query 不能读取执行上下文: 延迟求值的数据源 / 规则会在持有本上下文名额时执行嵌套查询，
+     * 舱壁满时等待自己直到超时。参数应先用 {@link #resolveParams} 解析。
+     *
+     * @throws org.makotogu.metaReportEngine.shard.exception.DatasourceUnavailableException 熔断器打开或舱壁已满
+     */
+    public <T> T executeInContext(ReportConfigurationDto.DataSourceConfig datasourceConfig, Supplier<T> query) {
+        return sqlSessionTemplateRouter.execute(datasourceConfig.getDatasourceContext(), query);
+    }
+}
@@ -0,0 +1,114 @@
+package org.makotogu.metaReportEngine.core.service;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.makotogu.metaReportEngine.rendering.export.OutputFormat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 生成的报告: DOCX 已在渲染线程池中渲染为字节数组；XLSX / CSV 在写出时才逐行生成 (直接写入响应流，不在内存中保留整个文件)。
+ * <p>
+ * 报告可能持有写出前需要的资源 (批量合并的临时文件等，见 {@link #onClose(Runnable)})，调用方在写出后、
+ * 或决定不写出时必须 {@link #close()}。
+ */
+@Slf4j
+@Getter
+public class GeneratedReport implements Closeable {
+
+    /**
+     * 报告内容的写出逻辑 (不关闭输出流)。
+     */
+    @FunctionalInterface
+    public interface ContentWriter {
+        void write(OutputStream outputStream) throws IOException;
+    }
+
+    private final String reportId;
+    private final OutputFormat format;
+    private final byte[] content;       // 已渲染的内容, 流式输出时为 null
+    private final ContentWriter writer; // 流式输出的写出逻辑, 已渲染时为 null
+    @Getter(AccessLevel.NONE)
+    private final List<Runnable> closeHooks = new ArrayList<>();
+    @Getter(AccessLevel.NONE)
+    private boolean closed;
+
+    private GeneratedReport(String reportId, OutputFormat format, byte[] content, ContentWriter writer) {
+        this.reportId = reportId;
+        this.format = format;
+        this.content = content;
+        this.writer = writer;
+    }
+
+    public static GeneratedReport rendered(String reportId, OutputFormat format, byte[] content) {
+        return new GeneratedReport(reportId, format, content, null);
+    }
+
+    public static GeneratedReport streaming(String reportId, OutputFormat format, ContentWriter writer) {
+        return new GeneratedReport(reportId, format, null, writer);
+    }
+
+    /**
+     * 登记关闭时执行的清理 (按登记顺序执行)。
+     */
+    public GeneratedReport onClose(Runnable hook) {
+        closeHooks.add(hook);
+        return this;
+    }
+
+    public boolean isStreaming() {
+        return content == null;
+    }
+
+    /**
+     * 报告内容写入输出流 (不关闭输出流)。流式报告只能写出一次。
+     */
+    public void writeTo(OutputStream outputStream) throws IOException {
+        if (content != null) {
+            outputStream.write(content);
+        } else {
+            writer.write(outputStream);
+        }
+        outputStream.flush();
+    }
+
+    /**
+     * 报告内容的字节数组 (流式报告会在内存中生成完整文件，仅用于兼容 byte[] 接口)。
+     */
+    public byte[] toByteArray() throws IOException {
+        if (content != null) {
+            return content;
+        }
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        writer.write(baos);
+        return baos.toByteArray();
+    }
+
+    /**
+     * 执行登记的清理，多次调用只执行一次。一个清理失败不影响其他清理。
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Runnable hook : closeHooks) {
+            try {
+                hook.run();
+            } catch (RuntimeException e) {
+                log.warn("Failed to release resources of report {}: {}", reportId, e.getMessage(), e);
+            }
+        }
+    }
+
+    public String getFilename() {
+        return reportId + "_" + System.currentTimeMillis() + "." + format.getExtension();
+    }
+}
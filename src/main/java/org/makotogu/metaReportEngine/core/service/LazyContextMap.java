@@ -0,0 +1,205 @@
+package org.makotogu.metaReportEngine.core.service;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * 支持延迟求值的执行上下文 / 渲染数据 Map: {@link #putLazy(String, Supplier)} 登记的值在第一次 {@link #get(Object)}
+ * (规则输入解析、SpEL 的 #context['alias']、模板映射或 poi-tl 渲染时取值) 时才计算，计算结果 (或异常) 被缓存，之后直接返回。
+ * <p>
+ * containsKey / keySet / size 不触发计算；遍历 entrySet / values 时，读取某个条目的值才会计算该条目。
+ * 延迟值可能在渲染线程中计算，计算过程按条目加锁，同一个值只计算一次。
+ * <p>
+ * {@link #release(String)} 把不再需要的值替换为墓碑，释放对值的引用；之后再读取该 key 抛出 IllegalStateException
+ * (说明存活分析漏掉了某个使用者)，而不是静默返回 null。
+ * <p>
+ * {@link #onEvaluated(BiConsumer)} 登记的监听器在每个延迟值计算成功后被调用 (在计算所在的线程中)，用于计入内存估算;
+ * 监听器抛出的异常与计算失败一样被缓存。
+ */
+public class LazyContextMap extends AbstractMap<String, Object> {
+
+    private static final Object RELEASED = new Object();
+
+    private final Map<String, Object> values = new LinkedHashMap<>();
+    private volatile BiConsumer<String, Object> evaluationListener;
+
+    public LazyContextMap() {
+    }
+
+    public LazyContextMap(Map<String, Object> initialValues) {
+        values.putAll(initialValues);
+    }
+
+    /**
+     * 登记延迟计算的值 (替换同名的已有值)。
+     */
+    public void putLazy(String key, Supplier<Object> supplier) {
+        values.put(key, new LazyValue(supplier));
+    }
+
+    /**
+     * 登记延迟值计算成功后的监听器 (key, 计算结果)，替换之前登记的监听器。
+     */
+    public void onEvaluated(BiConsumer<String, Object> listener) {
+        this.evaluationListener = listener;
+    }
+
+    /**
+     * 释放 key 对应的值 (替换为墓碑)，返回被释放的值；未计算的延迟值不会被计算，返回 null。
+     */
+    public Object release(String key) {
+        if (!values.containsKey(key)) {
+            return null;
+        }
+        Object previous = values.put(key, RELEASED);
+        if (previous instanceof LazyValue) {
+            return ((LazyValue) previous).isEvaluated() ? ((LazyValue) previous).get(key, null) : null;
+        }
+        return previous == RELEASED ? null : previous;
+    }
+
+    public boolean isReleased(String key) {
+        return values.get(key) == RELEASED;
+    }
+
+    /**
+     * 值是否已经计算 (普通值总是已计算)。
+     */
+    public boolean isEvaluated(String key) {
+        Object value = values.get(key);
+        return !(value instanceof LazyValue) || ((LazyValue) value).isEvaluated();
+    }
+
+    @Override
+    public Object get(Object key) {
+        return unwrap(key, values.get(key));
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return values.containsKey(key);
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        Object previous = values.put(key, value);
+        return previous instanceof LazyValue || previous == RELEASED ? null : previous;
+    }
+
+    @Override
+    public Object remove(Object key) {
+        Object previous = values.remove(key);
+        return previous instanceof LazyValue || previous == RELEASED ? null : previous;
+    }
+
+    private Object unwrap(Object key, Object value) {
+        if (value == RELEASED) {
+            throw new IllegalStateException("Context entry '" + key + "' was released after its last planned consumer");
+        }
+        return value instanceof LazyValue ? ((LazyValue) value).get(String.valueOf(key), evaluationListener) : value;
+    }
+
+    @Override
+    public int size() {
+        return values.size();
+    }
+
+    @Override
+    public Set<String> keySet() {
+        return values.keySet();
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return new AbstractSet<Entry<String, Object>>() {
+            @Override
+            public Iterator<Entry<String, Object>> iterator() {
+                Iterator<Entry<String, Object>> iterator = values.entrySet().iterator();
+                return new Iterator<Entry<String, Object>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public Entry<String, Object> next() {
+                        Entry<String, Object> entry = iterator.next();
+                        return new Entry<String, Object>() {
+                            @Override
+                            public String getKey() {
+                                return entry.getKey();
+                            }
+
+                            @Override
+                            public Object getValue() {
+                                return unwrap(entry.getKey(), entry.getValue());
+                            }
+
+                            @Override
+                            public Object setValue(Object value) {
+                                return entry.setValue(value);
+                            }
+                        };
+                    }
+
+                    @Override
+                    public void remove() {
+                        iterator.remove();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return values.size();
+            }
+        };
+    }
+
+    /**
+     * 延迟计算且只计算一次的值。
+     */
+    private static final class LazyValue {
+        private Supplier<Object> supplier;
+        private volatile boolean evaluated;
+        private Object value;
+        private RuntimeException failure;
+
+        LazyValue(Supplier<Object> supplier) {
+            this.supplier = supplier;
+        }
+
+        boolean isEvaluated() {
+            return evaluated;
+        }
+
+        Object get(String key, BiConsumer<String, Object> listener) {
+            if (!evaluated) {
+                synchronized (this) {
+                    if (!evaluated) {
+                        try {
+                            value = supplier.get();
+                            if (listener != null) {
+                                listener.accept(key, value);
+                            }
+                        } catch (RuntimeException e) {
+                            failure = e;
+                        }
+                        supplier = null;
+                        evaluated = true;
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return value;
+        }
+    }
+}
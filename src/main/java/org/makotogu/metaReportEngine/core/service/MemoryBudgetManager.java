@@ -0,0 +1,242 @@
+package org.makotogu.metaReportEngine.core.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.makotogu.metaReportEngine.shard.exception.MemoryAdmissionRejectedException;
+import org.makotogu.metaReportEngine.shard.exception.MemoryBudgetExceededException;
+import org.makotogu.metaReportEngine.shard.util.MemoryEstimator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 报告生成的内存预算: 数据源结果、规则输出 (包括 TABLE_BUILDER 表格) 与渲染缓冲区的估算字节数计入本次生成的 {@link Lease}。
+ * <ul>
+ *     <li>单次生成预算: report_definition.memory_budget_mb，未配置时为 report.engine.memory-budget.generation-mb
+ *         (0 = 不限制)。估算超过预算时抛出 {@link MemoryBudgetExceededException}，生成被终止。</li>
+ *     <li>全局预算: 所有进行中的生成共享 (global-mb，0 = 最大堆的 global-heap-percent)。生成开始时按该报告上一次的
+ *         估算峰值 (没有记录时为 initial-reservation-mb，不超过单次预算) 预留；全局预算不足时排队等待，
+ *         等待超过 admission-timeout-ms 抛出 {@link MemoryAdmissionRejectedException}。没有进行中的生成时总是准入。</li>
+ *     <li>已准入的生成增长超过预留时不等待 (避免互相等待)，全局占用可以暂时超过预算，之后的生成在占用回落前排队。</li>
+ * </ul>
+ * 估算来自 {@link MemoryEstimator}，不是精确值；统计见 GET /admin/memory-budget。
+ */
+@Slf4j
+@Component
+public class MemoryBudgetManager {
+
+    public static final String CONTEXT = "context"; // 执行上下文中的数据源结果与规则输出
+    public static final String RENDER = "render";   // 渲染缓冲区
+
+    private static final long MB = 1024L * 1024L;
+
+    private final boolean enabled;
+    private final long globalBytes;
+    private final long generationBytes;
+    private final long initialReservationBytes;
+    private final long admissionTimeoutMillis;
+
+    private final Object lock = new Object();
+    private long reservedBytes; // 所有进行中生成的占用 (每个生成取预留与当前估算的较大者)
+    private int active;
+    private int waiting;
+    private final Cache<String, Long> observedPeaks = Caffeine.newBuilder().maximumSize(10_000).build(); // reportId -> 上一次的估算峰值
+
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong queued = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong exceeded = new AtomicLong();
+    private final AtomicLong queueWaitNanos = new AtomicLong();
+    private final AtomicLong maxQueueWaitNanos = new AtomicLong();
+    private final AtomicLong maxReservedBytes = new AtomicLong();
+
+    public MemoryBudgetManager(@Value("${report.engine.memory-budget.enabled:true}") boolean enabled,
+                               @Value("${report.engine.memory-budget.global-mb:0}") long globalMb,
+                               @Value("${report.engine.memory-budget.global-heap-percent:60}") int globalHeapPercent,
+                               @Value("${report.engine.memory-budget.generation-mb:0}") long generationMb,
+                               @Value("${report.engine.memory-budget.initial-reservation-mb:32}") long initialReservationMb,
+                               @Value("${report.engine.memory-budget.admission-timeout-ms:30000}") long admissionTimeoutMillis) {
+        this.enabled = enabled;
+        this.globalBytes = globalMb > 0 ? globalMb * MB : Runtime.getRuntime().maxMemory() / 100 * globalHeapPercent;
+        this.generationBytes = generationMb * MB;
+        this.initialReservationBytes = initialReservationMb * MB;
+        this.admissionTimeoutMillis = admissionTimeoutMillis;
+        log.info("Memory budget {}: global {}, per generation {}, admission timeout {} ms", enabled ? "enabled" : "disabled",
+                MemoryEstimator.formatBytes(globalBytes), generationBytes > 0 ? MemoryEstimator.formatBytes(generationBytes) : "unlimited",
+                admissionTimeoutMillis);
+    }
+
+    /**
+     * 为一次生成申请预算，全局预算不足时等待。返回的 Lease 必须关闭。
+     *
+     * @param reportBudgetMb report_definition.memory_budget_mb，为 null 时使用全局的单次生成预算
+     * @throws MemoryAdmissionRejectedException 等待超时或被中断
+     */
+    public Lease admit(String reportId, Integer reportBudgetMb) {
+        long limit = reportBudgetMb != null && reportBudgetMb > 0 ? reportBudgetMb * MB : generationBytes;
+        if (!enabled) {
+            return new Lease(reportId, 0, 0);
+        }
+        Long observed = observedPeaks.getIfPresent(reportId);
+        long reservation = observed != null ? observed : initialReservationBytes;
+        if (limit > 0) {
+            reservation = Math.min(reservation, limit);
+        }
+        long start = System.nanoTime();
+        synchronized (lock) {
+            if (active > 0 && reservedBytes + reservation > globalBytes) {
+                queued.incrementAndGet();
+                waiting++;
+                log.info("Report {} waits for memory budget: needs ~{}, in use ~{} of {}", reportId,
+                        MemoryEstimator.formatBytes(reservation), MemoryEstimator.formatBytes(reservedBytes), MemoryEstimator.formatBytes(globalBytes));
+                try {
+                    long deadline = start + TimeUnit.MILLISECONDS.toNanos(admissionTimeoutMillis);
+                    while (active > 0 && reservedBytes + reservation > globalBytes) {
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0) {
+                            rejected.incrementAndGet();
+                            throw new MemoryAdmissionRejectedException("Memory budget exhausted (~" + MemoryEstimator.formatBytes(reservedBytes) + " of "
+                                    + MemoryEstimator.formatBytes(globalBytes) + " in use), try again later: " + reportId);
+                        }
+                        TimeUnit.NANOSECONDS.timedWait(lock, remaining);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    rejected.incrementAndGet();
+                    throw new MemoryAdmissionRejectedException("Interrupted while waiting for memory budget: " + reportId);
+                } finally {
+                    waiting--;
+                }
+            }
+            active++;
+            reservedBytes += reservation;
+            maxReservedBytes.accumulateAndGet(reservedBytes, Math::max);
+        }
+        long waited = System.nanoTime() - start;
+        admitted.incrementAndGet();
+        queueWaitNanos.addAndGet(waited);
+        maxQueueWaitNanos.accumulateAndGet(waited, Math::max);
+        return new Lease(reportId, reservation, limit);
+    }
+
+    private void adjust(long delta, boolean finished) {
+        synchronized (lock) {
+            reservedBytes += delta;
+            if (finished) {
+                active--;
+            }
+            maxReservedBytes.accumulateAndGet(reservedBytes, Math::max);
+            if (delta < 0 || finished) {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("globalBytes", globalBytes);
+        metrics.put("generationBytes", generationBytes);
+        synchronized (lock) {
+            metrics.put("active", active);
+            metrics.put("waiting", waiting);
+            metrics.put("reservedBytes", reservedBytes);
+        }
+        metrics.put("maxReservedBytes", maxReservedBytes.get());
+        metrics.put("admitted", admitted.get());
+        metrics.put("queued", queued.get());
+        metrics.put("rejected", rejected.get());
+        metrics.put("exceeded", exceeded.get());
+        metrics.put("avgQueueWaitMillis", admitted.get() == 0 ? 0.0 : queueWaitNanos.get() / 1_000_000.0 / admitted.get());
+        metrics.put("maxQueueWaitMillis", maxQueueWaitNanos.get() / 1_000_000.0);
+        metrics.put("observedPeakBytes", new LinkedHashMap<>(observedPeaks.asMap()));
+        return metrics;
+    }
+
+    /**
+     * 一次生成的内存账户: 按类别记录当前估算字节数，合计超过单次预算时失败。
+     * 生成完成后直到报告写出 (关闭) 前仍然有效: 已渲染的字节数组、流式写出的缓冲区与写出时才计算的延迟值继续计入，
+     * 这些更新可能来自渲染线程或写出响应的线程，因此方法都是同步的。
+     */
+    public class Lease implements AutoCloseable {
+        private final String reportId;
+        private final long reservation;
+        private final long limit; // 0 = 不限制
+        private final Map<String, Long> charges = new LinkedHashMap<>();
+        private long used;
+        private long peak;
+        private long held; // 计入全局占用的字节数 = max(reservation, used)
+        private boolean closed;
+
+        Lease(String reportId, long reservation, long limit) {
+            this.reportId = reportId;
+            this.reservation = reservation;
+            this.limit = limit;
+            this.held = reservation;
+        }
+
+        /**
+         * 设置某一类别的当前估算字节数 (替换该类别之前的值)。
+         *
+         * @throws MemoryBudgetExceededException 合计超过单次生成预算
+         */
+        public synchronized void charge(String category, long bytes) {
+            Long previous = charges.put(category, bytes);
+            used += bytes - (previous != null ? previous : 0);
+            peak = Math.max(peak, used);
+            if (enabled && !closed) {
+                long nextHeld = Math.max(reservation, used);
+                if (nextHeld != held) {
+                    adjust(nextHeld - held, false);
+                    held = nextHeld;
+                }
+            }
+            if (limit > 0 && used > limit) {
+                exceeded.incrementAndGet();
+                throw new MemoryBudgetExceededException("Report " + reportId + " exceeds its memory budget of " + MemoryEstimator.formatBytes(limit)
+                        + ": ~" + MemoryEstimator.formatBytes(used) + " " + describeCharges());
+            }
+        }
+
+        public synchronized long getUsedBytes() {
+            return used;
+        }
+
+        public synchronized long getPeakBytes() {
+            return peak;
+        }
+
+        private String describeCharges() {
+            StringBuilder description = new StringBuilder("(");
+            for (Map.Entry<String, Long> entry : charges.entrySet()) {
+                if (description.length() > 1) {
+                    description.append(", ");
+                }
+                description.append(entry.getKey()).append(" ~").append(MemoryEstimator.formatBytes(entry.getValue()));
+            }
+            return description.append(')').toString();
+        }
+
+        /**
+         * 归还预算，并记录本次的估算峰值 (下一次生成同一报告时按它预留)。
+         */
+        @Override
+        public synchronized void close() {
+            if (closed || !enabled) {
+                closed = true;
+                return;
+            }
+            closed = true;
+            adjust(-held, true);
+            if (peak > 0) {
+                observedPeaks.put(reportId, peak);
+            }
+            log.debug("Report {} memory budget released: peak ~{} {}", reportId, MemoryEstimator.formatBytes(peak), describeCharges());
+        }
+    }
+}
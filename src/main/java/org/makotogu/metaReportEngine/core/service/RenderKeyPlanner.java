@@ -0,0 +1,284 @@
+package org.makotogu.metaReportEngine.core.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.Getter;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+import org.makotogu.metaReportEngine.metadata.dto.ReportConfigurationDto;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * 渲染键计划器: 按模板中实际存在的标签 (TemplateCache 加载模板时提取的标签) 裁剪一次生成需要计算的内容。
+ * <ul>
+ *     <li>模板映射的标签在模板中不存在时跳过该映射 (计划生成时记录警告，同一配置与模板只记录一次)。</li>
+ *     <li>从保留的映射出发反向求出需要的规则与数据源: 规则的输出被需要时，其 input_refs、dependency_refs 以及 config 中
+ *         引用到的别名也被需要；数据源参数映射中引用到的别名同理。其余规则与数据源不执行。</li>
+ * </ul>
+ * 别名引用按整词匹配 (与聚合下推相同，宁可多算也不误跳过)，因此 SpEL 中通过 #context['alias'] 读取的数据也会被保留。
+ * <p>
+ * 计划同时包含执行上下文的存活分析: 每个数据源结果 / 规则输出在最后一个使用者 (按执行顺序的规则，或模板映射) 之后即可释放，
+ * 引用的判断方式与裁剪相同。
+ * 计划按配置对象 (配置缓存失效后为新对象) 与模板内容哈希缓存。
+ */
+@Component
+@Slf4j
+public class RenderKeyPlanner {
+
+    private static final Pattern TAG_DECORATION = Pattern.compile("[{}]");
+    private static final Pattern TAG_SIGN = Pattern.compile("^[#@?*+]");
+    private static final String UNPRUNED = ""; // 不裁剪时计划的模板哈希
+    private static final int DATASOURCE_STAGE = -1;
+    private static final int MAPPING_STAGE = Integer.MAX_VALUE;
+
+    @Value("${report.engine.render-keys.prune:true}")
+    private boolean enabled;
+
+    private final Cache<ReportConfigurationDto, RenderKeyPlan> plans = Caffeine.newBuilder().weakKeys().maximumSize(1000).build();
+
+    /**
+     * 模板标签对应的渲染数据 key: 去掉 {{ }} 与 poi-tl 的标签类型符号 (# @ ? * +)。
+     */
+    public static String renderKey(String templateTag) {
+        return TAG_SIGN.matcher(TAG_DECORATION.matcher(templateTag).replaceAll("").trim()).replaceFirst("");
+    }
+
+    /**
+     * @param templateTags 模板中的标签名，为 null 时不裁剪 (例如 XLSX / CSV 输出不使用模板)
+     */
+    public RenderKeyPlan plan(ReportConfigurationDto config, String templateHash, Set<String> templateTags) {
+        if (!enabled || templateTags == null) {
+            templateHash = UNPRUNED;
+            templateTags = null;
+        }
+        RenderKeyPlan cached = plans.getIfPresent(config);
+        if (cached != null && cached.getTemplateHash().equals(templateHash)) {
+            return cached;
+        }
+        RenderKeyPlan plan = buildPlan(config, templateHash, templateTags);
+        plans.put(config, plan);
+        return plan;
+    }
+
+    /**
+     * @param templateTags 为 null 时保留所有映射、规则与数据源，只做存活分析
+     */
+    private RenderKeyPlan buildPlan(ReportConfigurationDto config, String templateHash, Set<String> templateTags) {
+        String reportId = config.getDefinition().getReportId();
+        List<ReportConfigurationDto.MappingConfig> mappings = new ArrayList<>();
+        Set<String> missingTags = new LinkedHashSet<>();
+        for (ReportConfigurationDto.MappingConfig mapping : nullToEmpty(config.getTemplateMappings())) {
+            if (templateTags == null || isUsed(renderKey(mapping.getTemplateTag()), templateTags)) {
+                mappings.add(mapping);
+            } else {
+                missingTags.add(mapping.getTemplateTag());
+            }
+        }
+        if (!missingTags.isEmpty()) {
+            log.warn("Report '{}': template tags {} are mapped but not found in template {}, their mappings are skipped",
+                    reportId, missingTags, config.getDefinition().getTemplatePath());
+        }
+
+        // 从保留的映射反向求需要的名称 (规则输出 / 数据源别名)，直到不再变化
+        List<String> names = new ArrayList<>();
+        for (ReportConfigurationDto.RuleConfig rule : nullToEmpty(config.getTransformationRules())) {
+            names.add(rule.getOutputVariableName());
+        }
+        for (ReportConfigurationDto.DataSourceConfig dsConfig : nullToEmpty(config.getDataSources())) {
+            names.add(dsConfig.getDatasourceAlias());
+        }
+        Set<String> needed = new HashSet<>();
+        for (ReportConfigurationDto.MappingConfig mapping : mappings) {
+            needed.add(mapping.getDataSourceRef());
+            addReferences(mapping.getDataExpression(), names, needed);
+        }
+        Set<String> neededRules = new HashSet<>();
+        Set<String> neededDatasources = new HashSet<>();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (ReportConfigurationDto.RuleConfig rule : nullToEmpty(config.getTransformationRules())) {
+                if (!neededRules.contains(rule.getRuleAlias()) && (needed.contains(rule.getOutputVariableName()) || needed.contains(rule.getRuleAlias()))) {
+                    neededRules.add(rule.getRuleAlias());
+                    needed.addAll(nullToEmpty(rule.getInputRefs()));
+                    needed.addAll(nullToEmpty(rule.getDependencyRefs()));
+                    addReferences(rule.getConfig() != null ? rule.getConfig().toString() : null, names, needed);
+                    changed = true;
+                }
+            }
+            for (ReportConfigurationDto.DataSourceConfig dsConfig : nullToEmpty(config.getDataSources())) {
+                if (!neededDatasources.contains(dsConfig.getDatasourceAlias()) && needed.contains(dsConfig.getDatasourceAlias())) {
+                    neededDatasources.add(dsConfig.getDatasourceAlias());
+                    addReferences(dsConfig.getParamMapping() != null ? dsConfig.getParamMapping().toString() : null, names, needed);
+                    changed = true;
+                }
+            }
+        }
+
+        Set<String> skippedRules = new LinkedHashSet<>();
+        for (ReportConfigurationDto.RuleConfig rule : nullToEmpty(config.getTransformationRules())) {
+            if (!neededRules.contains(rule.getRuleAlias())) {
+                skippedRules.add(rule.getRuleAlias());
+            }
+        }
+        Set<String> skippedDatasources = new LinkedHashSet<>();
+        for (ReportConfigurationDto.DataSourceConfig dsConfig : nullToEmpty(config.getDataSources())) {
+            if (!neededDatasources.contains(dsConfig.getDatasourceAlias())) {
+                skippedDatasources.add(dsConfig.getDatasourceAlias());
+            }
+        }
+        if (!skippedRules.isEmpty() || !skippedDatasources.isEmpty()) {
+            log.info("Report '{}': rules {} and datasources {} feed no template tag and will be skipped", reportId, skippedRules, skippedDatasources);
+        }
+        RenderKeyPlan plan = new RenderKeyPlan(templateHash, mappings, missingTags, skippedRules, skippedDatasources);
+        planReleases(config, plan, names);
+        log.debug("Report '{}': context release plan after datasources {}, after rules {}, after mappings {}",
+                reportId, plan.getReleaseAfterDatasources(), plan.getReleaseAfterRule(), plan.getReleaseAfterMappings());
+        return plan;
+    }
+
+    /**
+     * 存活分析: 求出每个数据源结果 / 规则输出的最后一个使用者 (按列表顺序执行的规则，或模板映射)，
+     * 在该阶段之后释放。没有任何使用者的数据在产生它的阶段之后立即释放。
+     */
+    private static void planReleases(ReportConfigurationDto config, RenderKeyPlan plan, List<String> names) {
+        List<ReportConfigurationDto.RuleConfig> executedRules = new ArrayList<>();
+        for (ReportConfigurationDto.RuleConfig rule : nullToEmpty(config.getTransformationRules())) {
+            if (!plan.isRuleSkipped(rule.getRuleAlias())) {
+                executedRules.add(rule);
+            }
+        }
+        // 名称 -> 释放阶段 (DATASOURCE_STAGE: 数据源执行后；i: 第 i 条执行的规则之后；MAPPING_STAGE: 渲染数据准备后)
+        Map<String, Integer> releaseStage = new LinkedHashMap<>();
+        for (ReportConfigurationDto.DataSourceConfig dsConfig : nullToEmpty(config.getDataSources())) {
+            if (!plan.isDatasourceSkipped(dsConfig.getDatasourceAlias())) {
+                releaseStage.put(dsConfig.getDatasourceAlias(), DATASOURCE_STAGE);
+            }
+        }
+        for (int i = 0; i < executedRules.size(); i++) {
+            releaseStage.merge(executedRules.get(i).getOutputVariableName(), i, Math::max);
+        }
+        for (int i = 0; i < executedRules.size(); i++) {
+            ReportConfigurationDto.RuleConfig rule = executedRules.get(i);
+            Set<String> consumed = new HashSet<>(nullToEmpty(rule.getInputRefs()));
+            consumed.addAll(nullToEmpty(rule.getDependencyRefs()));
+            addReferences(rule.getConfig() != null ? rule.getConfig().toString() : null, names, consumed);
+            markConsumed(consumed, i, releaseStage);
+        }
+        Set<String> mapped = new HashSet<>();
+        for (ReportConfigurationDto.MappingConfig mapping : plan.getMappings()) {
+            mapped.add(mapping.getDataSourceRef());
+            addReferences(mapping.getDataExpression(), names, mapped);
+        }
+        markConsumed(mapped, MAPPING_STAGE, releaseStage);
+
+        for (Map.Entry<String, Integer> entry : releaseStage.entrySet()) {
+            int stage = entry.getValue();
+            if (stage == DATASOURCE_STAGE) {
+                plan.releaseAfterDatasources.add(entry.getKey());
+            } else if (stage == MAPPING_STAGE) {
+                plan.releaseAfterMappings.add(entry.getKey());
+            } else {
+                plan.releaseAfterRule.computeIfAbsent(executedRules.get(stage).getRuleAlias(), k -> new ArrayList<>()).add(entry.getKey());
+            }
+        }
+    }
+
+    private static void markConsumed(Set<String> consumed, int stage, Map<String, Integer> releaseStage) {
+        for (String name : consumed) {
+            if (releaseStage.containsKey(name)) { // 只释放数据源结果与规则输出，初始上下文保留
+                releaseStage.merge(name, stage, Math::max);
+            }
+        }
+    }
+
+    /**
+     * 渲染键被模板使用: 某个标签就是该键，或以该键为根 (例如 customer.name、customer['name'])。
+     */
+    private static boolean isUsed(String renderKey, Set<String> templateTags) {
+        if (templateTags.contains(renderKey)) {
+            return true;
+        }
+        Pattern reference = reference(renderKey);
+        for (String tag : templateTags) {
+            if (reference.matcher(tag).find()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void addReferences(String text, List<String> names, Set<String> needed) {
+        if (text == null || text.isEmpty()) {
+            return;
+        }
+        for (String name : names) {
+            if (name != null && !needed.contains(name) && reference(name).matcher(text).find()) {
+                needed.add(name);
+            }
+        }
+    }
+
+    private static Pattern reference(String name) {
+        return Pattern.compile("(?<![\\w$])" + Pattern.quote(name) + "(?![\\w$])");
+    }
+
+    private static <T> Collection<T> nullToEmpty(Collection<T> collection) {
+        return collection != null ? collection : Collections.emptyList();
+    }
+
+    /**
+     * 一次配置 + 模板的渲染键计划。
+     */
+    @Getter
+    @ToString
+    public static class RenderKeyPlan {
+        private static final List<String> NONE = Collections.emptyList();
+
+        private final String templateHash;
+        private final List<ReportConfigurationDto.MappingConfig> mappings;  // 模板中存在的映射
+        private final Set<String> missingTags;                              // 模板中不存在的映射标签
+        private final Set<String> skippedRules;                             // 不需要执行的规则别名
+        private final Set<String> skippedDatasources;                       // 不需要查询的数据源别名
+        private final List<String> releaseAfterDatasources = new ArrayList<>(); // 所有数据源执行后即可释放的数据
+        private final Map<String, List<String>> releaseAfterRule = new HashMap<>(); // 规则别名 -> 该规则执行后即可释放的数据
+        private final List<String> releaseAfterMappings = new ArrayList<>();    // 渲染数据准备后即可释放的数据
+
+        RenderKeyPlan(String templateHash, List<ReportConfigurationDto.MappingConfig> mappings, Set<String> missingTags,
+                      Set<String> skippedRules, Set<String> skippedDatasources) {
+            this.templateHash = templateHash;
+            this.mappings = mappings;
+            this.missingTags = missingTags;
+            this.skippedRules = skippedRules;
+            this.skippedDatasources = skippedDatasources;
+        }
+
+        public boolean isRuleSkipped(String ruleAlias) {
+            return skippedRules.contains(ruleAlias);
+        }
+
+        public boolean isDatasourceSkipped(String datasourceAlias) {
+            return skippedDatasources.contains(datasourceAlias);
+        }
+
+        /**
+         * 规则执行后不再被之后的规则与模板映射使用的数据。
+         */
+        public List<String> releasesAfterRule(String ruleAlias) {
+            return releaseAfterRule.getOrDefault(ruleAlias, NONE);
+        }
+    }
+}
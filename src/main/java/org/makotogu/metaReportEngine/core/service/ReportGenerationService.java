@@ -2,15 +2,26 @@ package org.makotogu.metaReportEngine.core.service;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.makotogu.metaReportEngine.datasource.impl.MybatisDatasourceExecutor;
+import org.makotogu.metaReportEngine.datasource.spi.AggregateQueryExecutor;
 import org.makotogu.metaReportEngine.datasource.spi.DatasourceExecutor;
+import org.makotogu.metaReportEngine.datasource.support.ResultSizeLimiter;
 import org.makotogu.metaReportEngine.metadata.dto.ReportConfigurationDto;
 import org.makotogu.metaReportEngine.metadata.service.MetadataService;
+import org.makotogu.metaReportEngine.rendering.export.DocxBatchMerger;
+import org.makotogu.metaReportEngine.rendering.export.OutputFormat;
+import org.makotogu.metaReportEngine.rendering.export.TabularExportService;
 import org.makotogu.metaReportEngine.rendering.service.PoiTlRenderingService;
+import org.makotogu.metaReportEngine.rendering.service.TemplateCache;
 import org.makotogu.metaReportEngine.shard.exception.*;
+import org.makotogu.metaReportEngine.shard.util.DataExpressionEvaluator;
+import org.makotogu.metaReportEngine.shard.util.MemoryEstimator;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.util.CollectionUtils;
+import org.springframework.util.StringUtils;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.time.LocalDate;
 import java.util.*;
 import java.util.stream.Collectors;
@@ -22,46 +33,134 @@ public class ReportGenerationService {
 
     private final MetadataService metadataService;
     private final TransformerExecutor transformerExecutor;
-    private final DatasourceExecutor datasourceExecutor;
+    private final DatasourceExecutorRegistry datasourceExecutorRegistry;
     private final PoiTlRenderingService renderingService;
+    private final AggregationPushDownPlanner aggregationPushDownPlanner;
+    private final ResultSizeLimiter resultSizeLimiter;
+    private final TabularExportService tabularExportService;
+    private final RenderKeyPlanner renderKeyPlanner;
+    private final DataExpressionEvaluator dataExpressionEvaluator;
+    private final MemoryBudgetManager memoryBudgetManager;
+
+    @Value("${report.engine.lazy-evaluation.enabled:false}")
+    private boolean lazyEvaluation; // 数据源与规则登记为延迟值，第一次被引用时才执行
+    @Value("${report.engine.context-liveness.enabled:true}")
+    private boolean contextLiveness; // 数据在最后一个使用者之后从执行上下文中释放 (仅立即执行时)
+    @Value("${report.engine.memory-budget.render-buffer-factor:8}")
+    private int renderBufferFactor; // 渲染缓冲区估算 = 模板大小 x 系数 (模板 XML 展开为对象树)
+
+    @Value("${report.engine.batch.max-documents:5000}")
+    private int batchMaxDocuments;
+    @Value("${report.engine.batch.temp-directory:}")
+    private String batchTempDirectory; // 为空时使用系统临时目录
 
     public byte[] generateReport(String reportId, Map<String, Object> initialContext) throws ReportConfNotFoundException, RenderingException, ReportGenerationException {
+        try (GeneratedReport report = generate(reportId, initialContext)) {
+            return report.toByteArray();
+        } catch (IOException e) { // 只包装写出流式报告时的 IO 异常, 其他异常按声明原样抛出
+            log.error("Export failed for reportId: {}", reportId, e);
+            throw new ReportGenerationException("Export failed for " + reportId, e);
+        }
+    }
+
+    /**
+     * 生成报告。按 report_definition.output_format: DOCX 渲染模板后返回字节数组；
+     * XLSX / CSV 返回流式报告，调用方写出时才逐行生成文件内容。
+     */
+    public GeneratedReport generate(String reportId, Map<String, Object> initialContext) throws ReportConfNotFoundException, RenderingException, ReportGenerationException {
         log.info("Starting report generation for reportId: {}, context: {}", reportId, initialContext);
 
         // 1. 加载配置 (已有 MetadataService 实现)
         ReportConfigurationDto config = metadataService.getReportConfiguration(reportId);
         log.debug("Loaded report configuration for reportId: {}", reportId);
+        OutputFormat format;
+        try {
+            format = OutputFormat.of(config.getDefinition().getOutputFormat());
+        } catch (IllegalArgumentException e) {
+            throw new ReportGenerationException("Invalid output_format for " + reportId + ": " + e.getMessage(), e);
+        }
+        // 按模板中实际存在的标签裁剪映射、规则与数据源 (XLSX / CSV 不使用模板，不裁剪)
+        RenderKeyPlanner.RenderKeyPlan renderKeyPlan;
+        long renderBufferBytes = 0;
+        if (format == OutputFormat.DOCX) {
+            TemplateCache.CachedTemplate template;
+            try {
+                template = renderingService.getTemplate(config.getDefinition().getTemplatePath(), templateVersion(config.getDefinition()));
+            } catch (RenderingException e) {
+                log.error("Template loading failed for reportId: {}", reportId, e);
+                throw new ReportGenerationException("Rendering failed for " + reportId, e);
+            }
+            renderKeyPlan = renderKeyPlanner.plan(config, template.getContentHash(), template.getTagNames());
+            renderBufferBytes = (long) template.getSize() * renderBufferFactor;
+        } else {
+            renderKeyPlan = renderKeyPlanner.plan(config, null, null);
+        }
+
+        // 按单次生成 / 全局内存预算准入 (全局预算不足时排队)。预算在报告关闭 (写出之后) 时才归还:
+        // XLSX / CSV 在写出时才生成内容，已渲染的 DOCX 在写出前一直保留字节数组
+        MemoryBudgetManager.Lease lease = memoryBudgetManager.admit(reportId, config.getDefinition().getMemoryBudgetMb());
+        GeneratedReport report;
+        try {
+            report = generate(reportId, initialContext, config, format, renderKeyPlan, renderBufferBytes, lease);
+        } catch (RuntimeException | Error e) {
+            lease.close();
+            throw e;
+        }
+        return report.onClose(() -> {
+            log.info("Memory estimate for reportId {}: peak ~{}", reportId, MemoryEstimator.formatBytes(lease.getPeakBytes()));
+            lease.close();
+        });
+    }
+
+    /**
+     * 执行数据源与规则、准备渲染数据并渲染，估算的内存计入 lease。
+     */
+    private GeneratedReport generate(String reportId, Map<String, Object> initialContext, ReportConfigurationDto config, OutputFormat format,
+                                     RenderKeyPlanner.RenderKeyPlan renderKeyPlan, long renderBufferBytes, MemoryBudgetManager.Lease lease) {
 
         // 2. 初始化执行上下文 (可以简单合并初始上下文)
-        Map<String, Object> executionContext = new HashMap<>(initialContext);
+        LazyContextMap executionContext = new LazyContextMap(initialContext);
         // 可选: 放入一些默认上下文信息, 如 reportId, definition 等
         executionContext.put("reportId", reportId);
         executionContext.put("definition", config.getDefinition());
         executionContext.put("customerId", "客户编号");
         executionContext.put("custId", "custId");
         executionContext.put("reportGenDate", LocalDate.now()); // 或者 new Date() 等
+        executionContext.put(ResultSizeLimiter.GENERATION_BUDGET_KEY, resultSizeLimiter.newGenerationBudget()); // 本次生成的结果大小预算
         // ...
+        // 估算上下文保留的数据量 (计入内存预算)，并按存活分析释放中间结果。
+        // 延迟求值时数据按需计算: 值在计算时才计入估算，不做释放
+        ContextRetentionTracker retention = new ContextRetentionTracker(executionContext, contextLiveness && !lazyEvaluation, lease);
+        if (lazyEvaluation) {
+            executionContext.onEvaluated((name, value) -> retention.retain(name, value, "lazy '" + name + "'"));
+        }
 
         // 3. (占位/模拟) 执行数据源查询
         // 3. 执行数据源查询
         log.info("Executing data sources...");
         if (config.getDataSources() != null) {
+            // 只被 AGGREGATOR 规则消费的数据源直接在数据库中聚合
+            Map<String, AggregationPushDownPlanner.PushDownPlan> pushDownPlans = aggregationPushDownPlanner.plan(config);
             // 注意：这里简单按列表顺序执行，如果需要按 executionOrder 或依赖执行，需要先排序或构建执行计划
             for (ReportConfigurationDto.DataSourceConfig dsConfig : config.getDataSources()) {
-                try {
-                    log.debug("Executing datasource: {}", dsConfig.getDatasourceAlias());
-                    Object result = datasourceExecutor.execute(dsConfig, executionContext);
+                if (renderKeyPlan.isDatasourceSkipped(dsConfig.getDatasourceAlias())) {
+                    log.debug("Skipping datasource {}: it feeds no template tag", dsConfig.getDatasourceAlias());
+                    continue;
+                }
+                AggregationPushDownPlanner.PushDownPlan pushDownPlan = pushDownPlans.get(dsConfig.getDatasourceAlias());
+                if (lazyEvaluation) { // 第一次被规则输入、#context 引用或模板取值时才查询
+                    // 被其他数据源的 param_mapping 引用时，在解析参数时 (获取舱壁名额之前) 执行，不会嵌套在外层查询的名额中
+                    executionContext.putLazy(dsConfig.getDatasourceAlias(), () -> executeDatasource(pushDownPlan, dsConfig, executionContext));
+                } else {
                     // 将查询结果放入上下文，使用 alias 作为 key
+                    Object result = executeDatasource(pushDownPlan, dsConfig, executionContext);
                     executionContext.put(dsConfig.getDatasourceAlias(), result);
-                    log.debug("Datasource {} executed successfully.", dsConfig.getDatasourceAlias());
-                } catch (DatasourceExecutionException e) {
-                    log.error("Failed to execute datasource: {}", dsConfig.getDatasourceAlias(), e);
-                    // 根据业务需求决定是继续执行其他数据源还是直接失败抛出异常
-                    throw new ReportGenerationException("Datasource execution failed for alias: " + dsConfig.getDatasourceAlias(), e);
+                    retention.retain(dsConfig.getDatasourceAlias(), result, "datasource '" + dsConfig.getDatasourceAlias() + "'");
                 }
             }
+            retention.release(renderKeyPlan.getReleaseAfterDatasources());
         }
-        log.info("Data sources executed.");
+        log.info(lazyEvaluation ? "Data sources registered for lazy evaluation." : "Data sources executed.");
 
         // 4. 执行转换规则 (替换模拟逻辑)
         log.info("Executing transformation rules for reportId: {}", reportId);
@@ -71,33 +170,18 @@ public class ReportGenerationService {
             // List<ReportConfigurationDto.RuleConfig> rulesToExecute = determineExecutionOrder(config.getTransformationRules()); // 未来替换为这行
 
             for (ReportConfigurationDto.RuleConfig ruleConfig : rulesToExecute) {
-                try {
-                    // 4.1 解析输入数据
-                    log.debug("Resolving inputs for rule: {}", ruleConfig.getRuleAlias());
-                    List<Object> inputs = resolveInputs(ruleConfig.getInputRefs(), executionContext, ruleConfig.getRuleAlias());
-                    log.debug("Inputs resolved for rule {}: {}", ruleConfig.getRuleAlias(), inputs); // 注意：日志中打印对象可能暴露敏感信息
-
-                    // 4.2 调用 TransformerExecutor 执行转换
-                    log.debug("Executing transformer for rule: {}", ruleConfig.getRuleAlias());
-                    Object result = transformerExecutor.executeTransformer(
-                            ruleConfig.getTransformerType(),
-                            inputs,
-                            ruleConfig.getConfig(), // 传入 JsonNode 配置
-                            executionContext,       // 传入完整上下文
-                            ruleConfig.getRuleAlias() // 传入规则别名用于错误报告
-                    );
-
-                    // 4.3 将结果放入上下文
+                if (renderKeyPlan.isRuleSkipped(ruleConfig.getRuleAlias())) {
+                    log.debug("Skipping rule {}: it feeds no template tag", ruleConfig.getRuleAlias());
+                    continue;
+                }
+                if (lazyEvaluation) { // 输出第一次被引用时才执行规则
+                    executionContext.putLazy(ruleConfig.getOutputVariableName(), () -> executeRule(ruleConfig, executionContext));
+                } else {
+                    // 将结果放入上下文
+                    Object result = executeRule(ruleConfig, executionContext);
                     executionContext.put(ruleConfig.getOutputVariableName(), result);
-                    log.debug("Rule '{}' executed successfully, output variable '{}' set.", ruleConfig.getRuleAlias(), ruleConfig.getOutputVariableName());
-
-                } catch (TransformationException | ReportGenerationException e) { // 捕获转换异常和输入解析异常
-                    log.error("Failed to execute transformation rule: {}", ruleConfig.getRuleAlias(), e);
-                    // 决定是继续执行其他规则还是立即失败
-                    throw new ReportGenerationException("Transformation rule execution failed for alias: " + ruleConfig.getRuleAlias(), e);
-                } catch (Exception e) { // 捕获其他未预料异常
-                    log.error("Unexpected error during transformation rule execution: {}", ruleConfig.getRuleAlias(), e);
-                    throw new ReportGenerationException("Unexpected error during transformation for alias: " + ruleConfig.getRuleAlias(), e);
+                    retention.retain(ruleConfig.getOutputVariableName(), result, "rule '" + ruleConfig.getRuleAlias() + "'");
+                    retention.release(renderKeyPlan.releasesAfterRule(ruleConfig.getRuleAlias()));
                 }
             }
         }
@@ -106,43 +190,82 @@ public class ReportGenerationService {
 
         // 5. 准备渲染数据
         log.info("Preparing render data for reportId: {}", reportId);
-        Map<String, Object> renderData = new HashMap<>();
+        LazyContextMap renderData = new LazyContextMap();
+        if (lazyEvaluation) {
+            renderData.onEvaluated((key, value) -> retention.retain("renderData." + key, value, "render data"));
+        }
         List<String> tableRenderKeys = new ArrayList<>();
-        if (!CollectionUtils.isEmpty(config.getTemplateMappings())) {
-            // TODO: 实现 SpEL 支持 dataExpression (如果需要)
-            for (ReportConfigurationDto.MappingConfig mappingConfig : config.getTemplateMappings()) {
+        if (!CollectionUtils.isEmpty(renderKeyPlan.getMappings())) {
+            for (ReportConfigurationDto.MappingConfig mappingConfig : renderKeyPlan.getMappings()) { // 只包含模板中存在的标签
                 String dataSourceRef = mappingConfig.getDataSourceRef();
                 String templateTag = mappingConfig.getTemplateTag();
-                // 从执行上下文中获取最终的数据
-                Object dataValue = executionContext.get(dataSourceRef);
-
-                // 简单的去除标签符号获取key (可能需要更健壮的逻辑)
-                String renderKey = templateTag.replaceAll("[{}]", "").replace("#", "").replace("@", "");
+                // 去除标签符号获取key
+                String renderKey = RenderKeyPlanner.renderKey(templateTag);
+                boolean extracted = StringUtils.hasText(mappingConfig.getDataExpression());
+                boolean tableBuilderOutput = "TABLE_BUILDER".equals(getProducingTransformerType(dataSourceRef, config)); // 获取来源类型
 
+                if (lazyEvaluation) { // 渲染时取值才计算 (未显示的条件区块中的标签不会触发查询)
+                    renderData.putLazy(renderKey, () -> resolveMappingValue(mappingConfig, executionContext));
+                    if (tableBuilderOutput && !extracted) {
+                        tableRenderKeys.add(renderKey);
+                    }
+                    continue;
+                }
+                Object dataValue = resolveMappingValue(mappingConfig, executionContext);
                 if (dataValue != null) {
-                    // TODO: 如果 mappingConfig.getDataExpression() 不为空, 在这里使用 SpEL 对 dataValue 求值
                     renderData.put(renderKey, dataValue);
-                    if ("TABLE_BUILDER".equals(getProducingTransformerType(dataSourceRef, config))) { // 获取来源类型
+                    if (tableBuilderOutput && (!extracted || dataValue instanceof Collection)) {
                         tableRenderKeys.add(renderKey);
                     }
                     log.trace("Mapping template tag '{}' to render key '{}' with value from ref '{}'", templateTag, renderKey, dataSourceRef);
-                } else {
-                    log.warn("Data source ref '{}' for template tag '{}' not found in execution context. Tag will likely be empty.", dataSourceRef, templateTag);
-                    // 可以选择放入 null 或空字符串，或不放入
-                    // renderData.put(renderKey, null);
                 }
             }
         }
         log.info("Render data prepared for reportId: {}", reportId);
-        log.debug("Final render data map: {}", renderData); // 注意：可能包含敏感信息
+        if (!lazyEvaluation) {
+            // 渲染只读取 renderData, 执行上下文中的数据不再需要 (渲染数据引用的对象继续计入估算)
+            for (Map.Entry<String, Object> entry : renderData.entrySet()) {
+                retention.retain("renderData." + entry.getKey(), entry.getValue(), "render data");
+            }
+            retention.release(renderKeyPlan.getReleaseAfterMappings());
+            log.info("Execution context for reportId {}: {}", reportId, retention.summary());
+        }
+        if (lazyEvaluation) {
+            log.debug("Final render data keys: {}", renderData.keySet()); // 打印值会触发延迟计算
+        } else {
+            log.debug("Final render data map: {}", renderData); // 注意：可能包含敏感信息
+        }
 
 
         // 6. 调用渲染层 (已有 RenderingService 实现)
+        if (format != OutputFormat.DOCX) { // 表格数据直接流式输出, 不经过模板渲染
+            Map<String, Iterable<?>> tables;
+            try {
+                tables = tabularExportService.selectTables(renderData, tableRenderKeys);
+            } catch (RenderingException e) {
+                throw new ReportGenerationException("Export failed for " + reportId + ": " + e.getMessage(), e);
+            }
+            log.info("Report prepared for {} export, reportId: {}, tables: {}", format, reportId, tables.keySet());
+            if (format == OutputFormat.XLSX) {
+                lease.charge(MemoryBudgetManager.RENDER, tabularExportService.estimateXlsxBufferBytes(tables)); // 写出时的 SXSSF 行窗口
+                return GeneratedReport.streaming(reportId, format, out -> tabularExportService.writeXlsx(tables, out));
+            }
+            if (tables.size() > 1) {
+                log.warn("CSV output contains only the first table '{}', ignoring: {}", tables.keySet().iterator().next(), tables.keySet());
+            }
+            Iterable<?> firstTable = tables.values().iterator().next();
+            lease.charge(MemoryBudgetManager.RENDER, TabularExportService.CSV_BUFFER_BYTES); // 写出时的字符缓冲区
+            return GeneratedReport.streaming(reportId, format, out -> tabularExportService.writeCsv(firstTable, out));
+        }
+        lease.charge(MemoryBudgetManager.RENDER, renderBufferBytes); // 渲染期间的文档对象树
+        byte[] reportBytes;
         try {
             log.debug("Calling rendering service for template: {}", config.getDefinition().getTemplatePath());
-            byte[] reportBytes = renderingService.renderReport(config.getDefinition().getTemplatePath(), renderData, tableRenderKeys);
+            reportBytes = renderingService.renderReport(config.getDefinition().getTemplatePath(), templateVersion(config.getDefinition()),
+                    config.getDefinition().getRenderPriority(), renderData, tableRenderKeys);
             log.info("Report successfully rendered for reportId: {}", reportId);
-            return reportBytes;
+        } catch (MemoryBudgetExceededException e) { // 渲染时计算的延迟值超出预算
+            throw e;
         } catch (RenderingException e) {
             log.error("Rendering failed for reportId: {}", reportId, e);
             throw new ReportGenerationException("Rendering failed for " + reportId, e); // 包装成生成异常
@@ -150,6 +273,172 @@ public class ReportGenerationService {
             log.error("Unexpected error during report generation for reportId: {}", reportId, e);
             throw new ReportGenerationException("Unexpected error during report generation for " + reportId, e); // 假设有这个异常
         }
+        lease.charge(MemoryBudgetManager.RENDER, reportBytes.length); // 文档对象树已释放, 写出前保留字节数组
+        return GeneratedReport.rendered(reportId, format, reportBytes);
+    }
+
+    /**
+     * 批量生成: 按顺序为每个上下文生成同一报告 (共用缓存的模板)，逐个追加到 {@link DocxBatchMerger}，文档之间分页。
+     * 每个文档渲染后只把正文写入临时文件，不保留各文档的字节数组；返回的报告写出时拼接为一个 docx，关闭时删除临时文件
+     * (任何一个文档生成失败时立即删除)。
+     *
+     * @param contexts 每个文档的初始上下文
+     */
+    public GeneratedReport generateBatch(String reportId, List<Map<String, Object>> contexts) throws ReportConfNotFoundException, RenderingException, ReportGenerationException {
+        if (CollectionUtils.isEmpty(contexts)) {
+            throw new ReportGenerationException("Batch generation for " + reportId + " requires at least one context");
+        }
+        if (contexts.size() > batchMaxDocuments) {
+            throw new ReportGenerationException("Batch generation for " + reportId + " exceeds " + batchMaxDocuments + " documents: " + contexts.size());
+        }
+        log.info("Starting batch generation for reportId: {}, documents: {}", reportId, contexts.size());
+        DocxBatchMerger merger;
+        try {
+            merger = new DocxBatchMerger(StringUtils.hasText(batchTempDirectory) ? Paths.get(batchTempDirectory) : null);
+        } catch (IOException e) {
+            throw new ReportGenerationException("Failed to create batch merge directory for " + reportId, e);
+        }
+        boolean handedOver = false;
+        try {
+            for (int i = 0; i < contexts.size(); i++) {
+                Map<String, Object> context = contexts.get(i);
+                try (GeneratedReport report = generate(reportId, context != null ? context : new HashMap<>())) {
+                    if (report.getFormat() != OutputFormat.DOCX) {
+                        throw new ReportGenerationException("Batch generation supports DOCX reports only, " + reportId + " is " + report.getFormat());
+                    }
+                    merger.append(report.getContent());
+                } catch (IOException e) {
+                    throw new ReportGenerationException("Failed to merge document " + (i + 1) + " of batch " + reportId, e);
+                }
+            }
+            log.info("Batch generation finished for reportId: {}, {} documents merged", reportId, merger.getDocumentCount());
+            // 临时文件在报告关闭时删除 (写出后，或调用方决定不写出时)
+            GeneratedReport batch = GeneratedReport.streaming(reportId + "_batch", OutputFormat.DOCX, merger::writeTo).onClose(merger::close);
+            handedOver = true;
+            return batch;
+        } finally {
+            if (!handedOver) {
+                merger.close();
+            }
+        }
+    }
+
+    /**
+     * 执行一个数据源 (优先使用聚合下推)。
+     *
+     * @throws ReportGenerationException 数据源执行失败
+     */
+    private Object executeDatasource(AggregationPushDownPlanner.PushDownPlan pushDownPlan, ReportConfigurationDto.DataSourceConfig dsConfig,
+                                     Map<String, Object> executionContext) {
+        try {
+            log.debug("Executing datasource: {}", dsConfig.getDatasourceAlias());
+            Object result = executePushDown(pushDownPlan, dsConfig, executionContext);
+            if (result == null) {
+                // 按 query_type 选择执行器
+                result = datasourceExecutorRegistry.execute(dsConfig, executionContext);
+            }
+            log.debug("Datasource {} executed successfully.", dsConfig.getDatasourceAlias());
+            return result;
+        } catch (DatasourceExecutionException | DatasourceConfigurationException e) {
+            log.error("Failed to execute datasource: {}", dsConfig.getDatasourceAlias(), e);
+            // 根据业务需求决定是继续执行其他数据源还是直接失败抛出异常
+            throw new ReportGenerationException("Datasource execution failed for alias: " + dsConfig.getDatasourceAlias(), e);
+        }
+    }
+
+    /**
+     * 执行一条转换规则。
+     *
+     * @throws ReportGenerationException 输入解析或转换失败
+     */
+    private Object executeRule(ReportConfigurationDto.RuleConfig ruleConfig, Map<String, Object> executionContext) {
+        try {
+            // 4.1 解析输入数据
+            log.debug("Resolving inputs for rule: {}", ruleConfig.getRuleAlias());
+            List<Object> inputs = resolveInputs(ruleConfig.getInputRefs(), executionContext, ruleConfig.getRuleAlias());
+            log.debug("Inputs resolved for rule {}: {}", ruleConfig.getRuleAlias(), inputs); // 注意：日志中打印对象可能暴露敏感信息
+
+            // 4.2 调用 TransformerExecutor 执行转换
+            log.debug("Executing transformer for rule: {}", ruleConfig.getRuleAlias());
+            Object result = transformerExecutor.executeTransformer(
+                    ruleConfig.getTransformerType(),
+                    inputs,
+                    ruleConfig.getConfig(), // 传入 JsonNode 配置
+                    executionContext,       // 传入完整上下文
+                    ruleConfig.getRuleAlias() // 传入规则别名用于错误报告
+            );
+            log.debug("Rule '{}' executed successfully, output variable '{}' set.", ruleConfig.getRuleAlias(), ruleConfig.getOutputVariableName());
+            return result;
+
+        } catch (TransformationException | ReportGenerationException e) { // 捕获转换异常和输入解析异常
+            log.error("Failed to execute transformation rule: {}", ruleConfig.getRuleAlias(), e);
+            // 决定是继续执行其他规则还是立即失败
+            throw new ReportGenerationException("Transformation rule execution failed for alias: " + ruleConfig.getRuleAlias(), e);
+        } catch (Exception e) { // 捕获其他未预料异常
+            log.error("Unexpected error during transformation rule execution: {}", ruleConfig.getRuleAlias(), e);
+            throw new ReportGenerationException("Unexpected error during transformation for alias: " + ruleConfig.getRuleAlias(), e);
+        }
+    }
+
+    /**
+     * 模板映射的渲染值: data_source_ref 对应的数据，配置了 data_expression 时为表达式的结果
+     * (字段路径直接取值，其他表达式按缓存的 SpEL 求值)。
+     *
+     * @throws ReportGenerationException data_expression 求值失败
+     */
+    private Object resolveMappingValue(ReportConfigurationDto.MappingConfig mappingConfig, Map<String, Object> executionContext) {
+        String dataSourceRef = mappingConfig.getDataSourceRef();
+        String templateTag = mappingConfig.getTemplateTag();
+        // 从执行上下文中获取最终的数据
+        Object dataValue = executionContext.get(dataSourceRef);
+        if (StringUtils.hasText(mappingConfig.getDataExpression())) {
+            try {
+                dataValue = dataExpressionEvaluator.evaluate(mappingConfig.getDataExpression(), dataValue, executionContext);
+            } catch (SpelEvaluationException e) {
+                log.error("Failed to evaluate data_expression for template tag '{}'", templateTag, e);
+                throw new ReportGenerationException("Data expression failed for template tag '" + templateTag + "': " + mappingConfig.getDataExpression(), e);
+            }
+            if (dataValue == null) {
+                log.debug("Data expression '{}' for template tag '{}' evaluated to null", mappingConfig.getDataExpression(), templateTag);
+            }
+        } else if (dataValue == null) {
+            log.warn("Data source ref '{}' for template tag '{}' not found in execution context. Tag will likely be empty.", dataSourceRef, templateTag);
+            // 可以选择放入 null 或空字符串，或不放入
+        }
+        return dataValue;
+    }
+
+    /**
+     * 模板版本: report_definition 的 version 与 updated_at，定义更新后模板缓存会重新读取模板文件。
+     */
+    private static String templateVersion(ReportConfigurationDto.ReportDefinitionInfo definition) {
+        return definition.getVersion() + "@" + definition.getUpdatedAt();
+    }
+
+    /**
+     * 执行数据源的聚合下推查询。
+     *
+     * @return 下推结果；没有下推计划、执行器不支持或下推失败时返回 null (回退为普通查询 + 内存聚合)
+     */
+    private Object executePushDown(AggregationPushDownPlanner.PushDownPlan plan, ReportConfigurationDto.DataSourceConfig dsConfig,
+                                   Map<String, Object> executionContext) {
+        if (plan == null) {
+            return null;
+        }
+        try {
+            DatasourceExecutor datasourceExecutor = datasourceExecutorRegistry.getExecutor(dsConfig.getQueryType());
+            if (!(datasourceExecutor instanceof AggregateQueryExecutor)) {
+                return null;
+            }
+            Map<String, Object> queryParams = datasourceExecutorRegistry.resolveParams(dsConfig, executionContext);
+            Map<String, Object> row = datasourceExecutorRegistry.executeInContext(dsConfig,
+                    () -> ((AggregateQueryExecutor) datasourceExecutor).executeAggregate(dsConfig, queryParams, plan.getColumns()));
+            return row != null ? plan.finish(row) : null;
+        } catch (RuntimeException e) {
+            log.warn("Aggregation push-down failed for datasource '{}', falling back to in-memory aggregation: {}",
+                    dsConfig.getDatasourceAlias(), e.getMessage());
+            return null;
+        }
     }
 
     private String getProducingTransformerType(String dataSourceRef, ReportConfigurationDto config) {
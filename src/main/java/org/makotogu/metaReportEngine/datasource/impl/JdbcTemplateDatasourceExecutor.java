@@ -0,0 +1,222 @@
+package org.makotogu.metaReportEngine.datasource.impl;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.makotogu.metaReportEngine.datasource.result.ColumnarTable;
+import org.makotogu.metaReportEngine.datasource.result.CompactRow;
+import org.makotogu.metaReportEngine.datasource.routing.BusinessSqlSessionTemplateRouter;
+import org.makotogu.metaReportEngine.datasource.spi.DatasourceExecutor;
+import org.makotogu.metaReportEngine.datasource.support.QueryParamResolver;
+import org.makotogu.metaReportEngine.datasource.support.ResultCollector;
+import org.makotogu.metaReportEngine.datasource.support.ResultSizeLimiter;
+import org.makotogu.metaReportEngine.metadata.dto.ReportConfigurationDto;
+import org.makotogu.metaReportEngine.shard.exception.DatasourceConfigurationException;
+import org.makotogu.metaReportEngine.shard.exception.DatasourceExecutionException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ArgumentPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ResultSetExtractor;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterUtils;
+import org.springframework.jdbc.core.namedparam.ParsedSql;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.StreamUtils;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 轻量 JDBC 数据源执行器 (query_type = jdbc_template)。
+ * <p>
+ * query_ref 为带命名参数的 SQL (例如 "select * from loan where customer_id = :customerId")，
+ * 或以 classpath: / file: 开头的 SQL 文件路径。参数由 param_mapping 计算，与 mybatis 执行器一致。
+ * <p>
+ * 结果行映射为共享列结构的 {@link CompactRow}，而不是每行一个 HashMap; result_structure = columnar 时直接按列构建
+ * {@link ColumnarTable}。查询在只读事务中按 fetchSize 分批拉取
+ * (PostgreSQL 只有在关闭 autocommit 时才会使用游标分批返回)。
+ * 可在 report_datasource.options 中配置 fetchSize / queryTimeout (秒) / maxRows。
+ * 行在读取时经过 {@link ResultCollector}，超出结果大小上限时立即失败或溢出到磁盘 (见 {@link ResultSizeLimiter})。
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class JdbcTemplateDatasourceExecutor implements DatasourceExecutor {
+
+    private static final String QUERY_TYPE = "jdbc_template";
+    private static final String OPTION_FETCH_SIZE = "fetchSize";       // 每批从数据库拉取的行数
+    private static final String OPTION_QUERY_TIMEOUT = "queryTimeout"; // 查询超时 (秒)
+    private static final String OPTION_MAX_ROWS = "maxRows";           // 最多读取的行数
+    private static final int MAX_CACHED_SQL = 512;
+
+    private final BusinessSqlSessionTemplateRouter sqlSessionTemplateRouter;
+    private final QueryParamResolver queryParamResolver;
+    private final ResourceLoader resourceLoader;
+    private final ResultSizeLimiter resultSizeLimiter;
+
+    @Value("${report.engine.jdbc.default-fetch-size:500}")
+    private int defaultFetchSize;
+
+    // 解析后的命名参数 SQL (按 query_ref 缓存)
+    private final Cache<String, ParsedSql> parsedSqlCache = Caffeine.newBuilder().maximumSize(MAX_CACHED_SQL).build();
+    // 每个业务 DataSource 对应的 JdbcTemplate / 只读事务模板
+    private final Map<DataSource, JdbcTemplate> jdbcTemplates = new ConcurrentHashMap<>();
+    private final Map<DataSource, TransactionTemplate> transactionTemplates = new ConcurrentHashMap<>();
+
+    @Override
+    public String getQueryType() {
+        return QUERY_TYPE;
+    }
+
+    @Override
+    public Object execute(ReportConfigurationDto.DataSourceConfig datasourceConfig, Map<String, Object> executionContext) {
+        Map<String, Object> queryParams = queryParamResolver.resolve(datasourceConfig.getParamMapping(), executionContext);
+        return execute(datasourceConfig, queryParams, ResultSizeLimiter.generationBudget(executionContext));
+    }
+
+    @Override
+    public Object execute(ReportConfigurationDto.DataSourceConfig datasourceConfig, Map<String, Object> queryParams,
+                          ResultSizeLimiter.GenerationBudget budget) {
+        String queryRef = datasourceConfig.getQueryRef();
+        String resultStructure = datasourceConfig.getResultStructure();
+        String datasourceContext = datasourceConfig.getDatasourceContext();
+        JsonNode options = datasourceConfig.getOptions();
+
+        boolean columnarResult = "columnar".equalsIgnoreCase(resultStructure);
+        boolean listResult = columnarResult || "list_map".equalsIgnoreCase(resultStructure) || "list".equalsIgnoreCase(resultStructure);
+        boolean mapResult = "single_map".equalsIgnoreCase(resultStructure) || "map".equalsIgnoreCase(resultStructure);
+        if (!listResult && !mapResult && !"scalar".equalsIgnoreCase(resultStructure)) {
+            log.error("Unsupported result structure: {} for query: {}", resultStructure, datasourceConfig.getDatasourceAlias());
+            throw new DatasourceExecutionException("Unsupported result structure: " + resultStructure);
+        }
+
+        // 1. 获取 SQL 与参数
+        ParsedSql parsedSql = parsedSqlCache.get(queryRef, ref -> NamedParameterUtils.parseSqlStatement(loadSql(ref)));
+        MapSqlParameterSource parameterSource = new MapSqlParameterSource(queryParams);
+        String sql = NamedParameterUtils.substituteNamedParameters(parsedSql, parameterSource);
+        Object[] args = NamedParameterUtils.buildValueArray(parsedSql, parameterSource, null);
+
+        int fetchSize = options != null ? options.path(OPTION_FETCH_SIZE).asInt(defaultFetchSize) : defaultFetchSize;
+        int queryTimeout = options != null ? options.path(OPTION_QUERY_TIMEOUT).asInt(0) : 0;
+        // 单行结果最多读取两行, 用于检测多行结果
+        int maxRows = listResult ? (options != null ? options.path(OPTION_MAX_ROWS).asInt(0) : 0) : 2;
+
+        // 2. 在只读事务中执行查询
+        DataSource dataSource = sqlSessionTemplateRouter.getDataSource(datasourceContext);
+        JdbcTemplate jdbcTemplate = jdbcTemplates.computeIfAbsent(dataSource, JdbcTemplate::new);
+        TransactionTemplate transactionTemplate = transactionTemplates.computeIfAbsent(dataSource, ds -> {
+            TransactionTemplate template = new TransactionTemplate(new DataSourceTransactionManager(ds));
+            template.setReadOnly(true);
+            return template;
+        });
+        ResultSetExtractor<List<?>> extractor = rs -> extract(rs,
+                resultSizeLimiter.newCollector(datasourceConfig, budget, lookupColumnNames(rs), columnarResult));
+        List<?> rows;
+        try {
+            rows = transactionTemplate.execute(status -> jdbcTemplate.query(con -> {
+                PreparedStatement ps = con.prepareStatement(sql);
+                if (fetchSize > 0) {
+                    ps.setFetchSize(fetchSize);
+                }
+                if (queryTimeout > 0) {
+                    ps.setQueryTimeout(queryTimeout);
+                }
+                if (maxRows > 0) {
+                    ps.setMaxRows(maxRows);
+                }
+                new ArgumentPreparedStatementSetter(args).setValues(ps);
+                return ps;
+            }, extractor));
+        } catch (DataAccessException e) {
+            log.error("JDBC execution failed for datasource: {} using context [{}], params: {}",
+                    datasourceConfig.getDatasourceAlias(), datasourceContext, queryParams, e);
+            throw new DatasourceExecutionException("Failed to execute query: " + datasourceConfig.getDatasourceAlias(), e);
+        }
+
+        // 3. 按 result_structure 返回
+        Object result;
+        if (columnarResult) {
+            if (rows instanceof ColumnarTable && log.isDebugEnabled()) {
+                log.debug("Columnar datasource [{}]: {}", datasourceConfig.getDatasourceAlias(), ((ColumnarTable) rows).describeMemory());
+            }
+            result = rows; // 超限溢出时为 MappedRowTable
+        } else if (listResult) {
+            result = rows;
+        } else {
+            if (rows.size() > 1) {
+                throw new DatasourceExecutionException("Expected one row (or null) for " + resultStructure + " datasource '"
+                        + datasourceConfig.getDatasourceAlias() + "', but found more.");
+            }
+            Map<?, ?> row = rows.isEmpty() ? null : (Map<?, ?>) rows.get(0); // 通常为 CompactRow
+            result = mapResult ? row : (row == null || row.isEmpty() ? null : row.values().iterator().next());
+        }
+        log.debug("Executed JDBC query for datasource [{}] using context [{}], params [{}], {} rows fetched",
+                datasourceConfig.getDatasourceAlias(), datasourceContext, queryParams, rows.size());
+        return result;
+    }
+
+    /**
+     * 读取结果集: 列结构只解析一次，list 模式每行一个值数组 (CompactRow)，columnar 模式按列写入且每行复用同一个数组。
+     */
+    private List<?> extract(ResultSet rs, ResultCollector collector) throws SQLException {
+        int columnCount = rs.getMetaData().getColumnCount();
+        Object[] reused = collector.isColumnar() ? new Object[columnCount] : null;
+        try {
+            while (rs.next()) {
+                Object[] values = reused != null ? reused : new Object[columnCount];
+                for (int i = 0; i < columnCount; i++) {
+                    values[i] = rs.getObject(i + 1);
+                }
+                collector.addValues(values);
+            }
+            return collector.finish();
+        } catch (SQLException | RuntimeException e) {
+            collector.abort();
+            throw e;
+        }
+    }
+
+    private String[] lookupColumnNames(ResultSet rs) throws SQLException {
+        ResultSetMetaData metaData = rs.getMetaData();
+        String[] columnNames = new String[metaData.getColumnCount()];
+        for (int i = 0; i < columnNames.length; i++) {
+            columnNames[i] = JdbcUtils.lookupColumnName(metaData, i + 1);
+        }
+        return columnNames;
+    }
+
+    /**
+     * query_ref 以 classpath: / file: 开头时从资源文件读取 SQL，否则 query_ref 本身就是 SQL。
+     */
+    private String loadSql(String queryRef) {
+        if (queryRef == null || queryRef.trim().isEmpty()) {
+            throw new DatasourceConfigurationException("query_ref is empty for jdbc_template datasource.");
+        }
+        if (!queryRef.startsWith(ResourceLoader.CLASSPATH_URL_PREFIX) && !queryRef.startsWith("file:")) {
+            return queryRef;
+        }
+        Resource resource = resourceLoader.getResource(queryRef);
+        try (InputStream in = resource.getInputStream()) {
+            return StreamUtils.copyToString(in, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new DatasourceConfigurationException("Cannot read SQL resource: " + queryRef + " (" + e.getMessage() + ")");
+        }
+    }
+}
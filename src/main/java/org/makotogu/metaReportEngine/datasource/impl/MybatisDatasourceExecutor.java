@@ -1,51 +1,106 @@
 package org.makotogu.metaReportEngine.datasource.impl;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.ibatis.exceptions.PersistenceException;
+import org.apache.ibatis.mapping.BoundSql;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.mapping.ParameterMapping;
+import org.apache.ibatis.mapping.ResultMap;
+import org.apache.ibatis.mapping.ResultMapping;
+import org.apache.ibatis.mapping.SqlCommandType;
+import org.apache.ibatis.mapping.StatementType;
+import org.apache.ibatis.scripting.defaults.DefaultParameterHandler;
+import org.apache.ibatis.session.Configuration;
+import org.makotogu.metaReportEngine.datasource.result.ColumnarTable;
 import org.makotogu.metaReportEngine.datasource.routing.BusinessSqlSessionTemplateRouter;
+import org.makotogu.metaReportEngine.datasource.spi.AggregateColumn;
+import org.makotogu.metaReportEngine.datasource.spi.AggregateQueryExecutor;
 import org.makotogu.metaReportEngine.datasource.spi.DatasourceExecutor;
+import org.makotogu.metaReportEngine.datasource.support.BatchingQueryLoader;
+import org.makotogu.metaReportEngine.datasource.support.QueryParamResolver;
+import org.makotogu.metaReportEngine.datasource.support.ResultCollector;
+import org.makotogu.metaReportEngine.datasource.support.ResultSizeLimiter;
 import org.makotogu.metaReportEngine.metadata.dto.ReportConfigurationDto;
 import org.makotogu.metaReportEngine.shard.exception.DatasourceConfigurationException;
 import org.makotogu.metaReportEngine.shard.exception.DatasourceExecutionException;
 import org.mybatis.spring.SqlSessionTemplate;
-import org.springframework.expression.EvaluationContext;
-import org.springframework.expression.Expression;
-import org.springframework.expression.ExpressionParser;
-import org.springframework.expression.spel.standard.SpelExpressionParser;
-import org.springframework.expression.spel.support.StandardEvaluationContext;
+import org.springframework.jdbc.datasource.DataSourceUtils;
 import org.springframework.stereotype.Service;
 
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
-public class MybatisDatasourceExecutor implements DatasourceExecutor {
+public class MybatisDatasourceExecutor implements DatasourceExecutor, AggregateQueryExecutor {
+
+    private static final String AGGREGATE_STATEMENT_SUFFIX = "Aggregate"; // 声明式聚合语句: <queryRef>Aggregate
+    private static final String AGGREGATES_PARAM = "aggregates";           // 传给声明式聚合语句的聚合列参数
+
+    private static final String QUERY_TYPE = "mybatis";
+    private static final Pattern SIMPLE_IDENTIFIER = Pattern.compile("[A-Za-z_][A-Za-z0-9_]*");
+
+    // 包装执行失败过的 "上下文/语句/聚合列"，一段时间内不再下推 (直接回退到普通查询，避免每次生成多一次失败的查询)
+    private final Cache<String, String> failedPushDowns = Caffeine.newBuilder().expireAfterWrite(10, TimeUnit.MINUTES).maximumSize(1000).build();
 
-    private final ExpressionParser expressionParser = new SpelExpressionParser();
     private final BusinessSqlSessionTemplateRouter sqlSessionTemplateRouter;
+    private final QueryParamResolver queryParamResolver;
+    private final BatchingQueryLoader batchingQueryLoader;
+    private final ResultSizeLimiter resultSizeLimiter;
+
+    @Override
+    public String getQueryType() {
+        return QUERY_TYPE;
+    }
 
     @Override
     public Object execute(ReportConfigurationDto.DataSourceConfig datasourceConfig, Map<String, Object> executionContext) {
         JsonNode paramMappingNode = datasourceConfig.getParamMapping();
         log.debug("MybatisDatasourceExecutor execute paramMappingNode: {}", paramMappingNode);
+        // 使用SpringEL处理查询参数
+        Map<String, Object> queryParams = queryParamResolver.resolve(paramMappingNode, executionContext);
+        return execute(datasourceConfig, queryParams, ResultSizeLimiter.generationBudget(executionContext));
+    }
+
+    @Override
+    public Object execute(ReportConfigurationDto.DataSourceConfig datasourceConfig, Map<String, Object> queryParams,
+                          ResultSizeLimiter.GenerationBudget budget) {
         String statementId = datasourceConfig.getQueryRef();
         String resultStructure = datasourceConfig.getResultStructure();
         String datasourceContext = datasourceConfig.getDatasourceContext(); // 获取数据源上下文标识
 
         // 1. 获取当前查询所需的 SqlSessionTemplate
         SqlSessionTemplate currentSqlSessionTemplate = sqlSessionTemplateRouter.getSqlSessionTemplate(datasourceContext);
-        // 2. 使用SpringEL处理查询参数
-        Map<String, Object> queryParams = prepareQueryParams(paramMappingNode, executionContext);
-        // 3. 使用获取到的 Template 执行 MyBatis 查询
+        // 2. 使用获取到的 Template 执行 MyBatis 查询
         Object result = null;
         try {
-            if ("list_map".equalsIgnoreCase(resultStructure) || "list".equalsIgnoreCase(resultStructure)) {
-                result = currentSqlSessionTemplate.selectList(statementId, queryParams);
+            // 配置了 options.batch 时与其他请求合并为批量查询 (scalar 结果不支持批量)
+            BatchingQueryLoader.BatchSpec batchSpec = "scalar".equalsIgnoreCase(resultStructure)
+                    ? null : batchingQueryLoader.getBatchSpec(datasourceConfig.getOptions());
+            if (batchSpec != null) {
+                List<Map<String, Object>> rows = batchingQueryLoader.load(batchSpec, datasourceContext, currentSqlSessionTemplate, queryParams);
+                result = toBatchResult(rows, datasourceConfig, budget);
+            } else if ("list_map".equalsIgnoreCase(resultStructure) || "list".equalsIgnoreCase(resultStructure)) {
+                result = selectCollected(currentSqlSessionTemplate, datasourceConfig, queryParams,
+                        resultSizeLimiter.newCollector(datasourceConfig, budget, null, false));
+            } else if ("columnar".equalsIgnoreCase(resultStructure)) {
+                result = selectCollected(currentSqlSessionTemplate, datasourceConfig, queryParams,
+                        resultSizeLimiter.newCollector(datasourceConfig, budget, null, true));
             } else if ("single_map".equalsIgnoreCase(resultStructure) || "map".equalsIgnoreCase(resultStructure)) {
                 result = currentSqlSessionTemplate.selectOne(statementId, queryParams);
             } else if ("scalar".equalsIgnoreCase(resultStructure)) {
@@ -69,49 +124,233 @@ public class MybatisDatasourceExecutor implements DatasourceExecutor {
         return result;
     }
 
-    private Map<String, Object> prepareQueryParams(JsonNode paramMappingNode, Map<String, Object> executionContext) {
-        Map<String, Object> queryParams = new HashMap<>();
-        if (paramMappingNode == null || paramMappingNode.isNull() || !paramMappingNode.isObject()) {
-            return queryParams; // 没有参数需要映射
+    /**
+     * 将批量查询分发得到的行转换为数据源的 result_structure。列表结果同样检查结果大小上限。
+     */
+    private Object toBatchResult(List<Map<String, Object>> rows, ReportConfigurationDto.DataSourceConfig datasourceConfig,
+                                 ResultSizeLimiter.GenerationBudget budget) {
+        String resultStructure = datasourceConfig.getResultStructure();
+        boolean columnar = "columnar".equalsIgnoreCase(resultStructure);
+        if (columnar || "list_map".equalsIgnoreCase(resultStructure) || "list".equalsIgnoreCase(resultStructure)) {
+            ResultCollector collector = resultSizeLimiter.newCollector(datasourceConfig, budget, null, columnar);
+            try {
+                rows.forEach(collector::add);
+            } catch (RuntimeException e) {
+                collector.abort();
+                throw e;
+            }
+            return collector.finish();
+        } else if ("single_map".equalsIgnoreCase(resultStructure) || "map".equalsIgnoreCase(resultStructure)) {
+            if (rows.size() > 1) {
+                throw new DatasourceExecutionException("Expected one row (or null) for datasource '" + datasourceConfig.getDatasourceAlias()
+                        + "' from batched statement, but found " + rows.size() + ".");
+            }
+            return rows.isEmpty() ? null : rows.get(0);
         }
+        log.error("Unsupported result structure: {} for statement: {}", resultStructure, datasourceConfig.getQueryRef());
+        throw new DatasourceExecutionException("Unsupported result structure: " + resultStructure);
+    }
 
-        // 为每次执行创建新的上下文，避免如果上下文被修改可能导致的并发问题
-        EvaluationContext evaluationContext = new StandardEvaluationContext();
-        // 将整个 executionContext Map 作为一个名为 'context' 的变量设置进去
-        // 这样表达式可以写成 '#context.customerId' 或 '#context.someList[0]'
-        evaluationContext.setVariable("context", executionContext);
-
-        Iterator<Map.Entry<String, JsonNode>> fields = paramMappingNode.fields();
-        while (fields.hasNext()) {
-            Map.Entry<String, JsonNode> entry = fields.next();
-            String paramName = entry.getKey();
-            JsonNode expressionNode = entry.getValue();
-
-            if (expressionNode == null || !expressionNode.isTextual()) {
-                log.warn("Invalid expression for parameter '{}', expected a string expression, got: {}", paramName, expressionNode);
-                continue;  // 跳过无效的表达式
+    /**
+     * 以 ResultHandler 逐行读取 MyBatis 结果并交给收集器 (列式结构或行列表)，超出结果大小上限时在读取过程中失败或溢出到磁盘。
+     * 列式结构下每行的 Map 读取后即可回收，不保留整个 List&lt;Map&gt;。
+     */
+    private List<?> selectCollected(SqlSessionTemplate sqlSessionTemplate, ReportConfigurationDto.DataSourceConfig datasourceConfig,
+                                    Map<String, Object> queryParams, ResultCollector collector) {
+        List<?> result;
+        try {
+            sqlSessionTemplate.select(datasourceConfig.getQueryRef(), queryParams, resultContext -> collector.add(resultContext.getResultObject()));
+            result = collector.finish();
+        } catch (RuntimeException e) {
+            collector.abort();
+            // ResultHandler 中抛出的超限异常会被 MyBatis 包装，取出原异常以保留清晰的错误信息
+            for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if (cause instanceof DatasourceExecutionException) {
+                    throw (DatasourceExecutionException) cause;
+                }
             }
+            throw e;
+        }
+        if (result instanceof ColumnarTable && log.isDebugEnabled()) {
+            log.debug("Columnar datasource [{}]: {}", datasourceConfig.getDatasourceAlias(), ((ColumnarTable) result).describeMemory());
+        }
+        return result;
+    }
 
-            String expressionString = expressionNode.asText();
+    /**
+     * 执行查询的聚合变体:
+     * <ol>
+     *     <li>如果存在与 queryRef 同名、以 "Aggregate" 结尾的语句 (例如 getActiveLoansAggregate)，执行该语句。
+     *         语句收到原查询参数以及 "aggregates" 参数 ([{label, function, field}, ...])，必须返回包含这些 label 列的单行结果。</li>
+     *     <li>否则对 SELECT 语句生成的 SQL 包装一层 SELECT agg(...) FROM (原 SQL)，沿用原语句的参数绑定。</li>
+     * </ol>
+     */
+    @Override
+    public Map<String, Object> executeAggregate(ReportConfigurationDto.DataSourceConfig datasourceConfig, Map<String, Object> queryParams,
+                                                List<AggregateColumn> columns) {
+        String statementId = datasourceConfig.getQueryRef();
+        String datasourceContext = datasourceConfig.getDatasourceContext();
+        SqlSessionTemplate currentSqlSessionTemplate = sqlSessionTemplateRouter.getSqlSessionTemplate(datasourceContext);
+        Configuration configuration = currentSqlSessionTemplate.getConfiguration();
 
+        // 1. 声明式聚合语句
+        String aggregateStatementId = statementId + AGGREGATE_STATEMENT_SUFFIX;
+        if (configuration.hasStatement(aggregateStatementId)) {
+            Map<String, Object> aggregateParams = new HashMap<>(queryParams);
+            aggregateParams.put(AGGREGATES_PARAM, toAggregatesParam(columns));
+            Object row;
             try {
-                // 解析表达式字符串
-                Expression exp = expressionParser.parseExpression(expressionString);
+                row = currentSqlSessionTemplate.selectOne(aggregateStatementId, aggregateParams);
+            } catch (PersistenceException e) {
+                log.error("MyBatis aggregate statement failed: {} using context [{}], params: {}", aggregateStatementId, datasourceContext, queryParams, e);
+                throw new DatasourceExecutionException("Failed to execute aggregate query: " + aggregateStatementId, e);
+            }
+            if (row != null && !(row instanceof Map)) {
+                throw new DatasourceExecutionException("Aggregate statement " + aggregateStatementId + " must return a single map row, but returned: " + row.getClass().getName());
+            }
+            @SuppressWarnings("unchecked")
+            Map<String, Object> result = row != null ? (Map<String, Object>) row : new HashMap<>();
+            log.debug("Executed aggregate statement [{}] using context [{}], result {}", aggregateStatementId, datasourceContext, result);
+            return result;
+        }
 
-                // 使用上下文计算表达式的值
-                Object paramValue = exp.getValue(evaluationContext);
+        // 2. 包装原 SELECT 语句
+        if (!configuration.hasStatement(statementId)) {
+            return null; // 由普通查询报告语句不存在
+        }
+        MappedStatement mappedStatement = configuration.getMappedStatement(statementId);
+        if (mappedStatement.getSqlCommandType() != SqlCommandType.SELECT || mappedStatement.getStatementType() == StatementType.CALLABLE) {
+            log.debug("Statement [{}] is not a plain SELECT, aggregation cannot be pushed down.", statementId);
+            return null;
+        }
+        String pushDownKey = datasourceContext + "/" + statementId + "/" + columns;
+        String previousFailure = failedPushDowns.getIfPresent(pushDownKey);
+        if (previousFailure != null) {
+            log.debug("Skipping aggregate push-down of [{}], it failed recently: {}", statementId, previousFailure);
+            return null;
+        }
+        List<String> fieldColumns = new ArrayList<>(columns.size());
+        for (AggregateColumn column : columns) {
+            String fieldColumn = column.getField() == null ? null : resolveColumn(configuration, mappedStatement, column.getField());
+            if (column.getField() != null && fieldColumn == null) {
+                log.debug("Field '{}' of statement [{}] does not map to a plain column, aggregation cannot be pushed down.", column.getField(), statementId);
+                return null;
+            }
+            fieldColumns.add(fieldColumn);
+        }
+        BoundSql originalSql = mappedStatement.getBoundSql(queryParams);
+        String aggregateSql = buildAggregateSql(originalSql.getSql(), columns, fieldColumns);
+        BoundSql aggregateBoundSql = new BoundSql(configuration, aggregateSql, originalSql.getParameterMappings(), queryParams);
+        for (ParameterMapping parameterMapping : originalSql.getParameterMappings()) {
+            // foreach 等动态标签生成的参数保存在 additionalParameters 中
+            String property = parameterMapping.getProperty();
+            if (originalSql.hasAdditionalParameter(property)) {
+                aggregateBoundSql.setAdditionalParameter(property, originalSql.getAdditionalParameter(property));
+            }
+        }
 
-                queryParams.put(paramName, paramValue);
-                log.trace("Param mapping: '{}' evaluated from expression '{}' to value: {}", paramName, expressionString, paramValue);
+        DataSource dataSource = configuration.getEnvironment().getDataSource();
+        Connection connection = DataSourceUtils.getConnection(dataSource);
+        try (PreparedStatement ps = connection.prepareStatement(aggregateSql)) {
+            Integer timeout = mappedStatement.getTimeout() != null ? mappedStatement.getTimeout() : configuration.getDefaultStatementTimeout();
+            if (timeout != null) {
+                ps.setQueryTimeout(timeout);
+            }
+            new DefaultParameterHandler(mappedStatement, queryParams, aggregateBoundSql).setParameters(ps);
+            Map<String, Object> result = new LinkedHashMap<>();
+            try (ResultSet rs = ps.executeQuery()) {
+                if (rs.next()) {
+                    for (int i = 0; i < columns.size(); i++) {
+                        result.put(columns.get(i).getLabel(), rs.getObject(i + 1));
+                    }
+                }
+            }
+            log.debug("Executed pushed-down aggregate of [{}] using context [{}], params [{}], result {}",
+                    statementId, datasourceContext, queryParams, result);
+            return result;
+        } catch (SQLException e) {
+            log.error("Aggregate query failed for statement: {} using context [{}], sql: {}", statementId, datasourceContext, aggregateSql, e);
+            failedPushDowns.put(pushDownKey, e.getMessage() != null ? e.getMessage() : e.getClass().getName());
+            throw new DatasourceExecutionException("Failed to execute aggregate query for: " + statementId, e);
+        } finally {
+            DataSourceUtils.releaseConnection(connection, dataSource);
+        }
+    }
 
-            } catch (Exception e) { // 捕获 SpringEL 计算过程中可能抛出的各种异常
-                log.error("Failed to evaluate SpEL expression '{}' for parameter '{}'", expressionString, paramName, e);
-                // 决定如何处理错误：跳过该参数、使用 null，还是抛出异常？
-                // 抛出异常通常更安全，以便提示配置问题
-                throw new DatasourceExecutionException("Failed to evaluate parameter expression: " + expressionString, e);
+    /**
+     * 结果字段 (结果 Map 的 key / 结果对象的属性) 在原 SQL 中对应的列引用:
+     * <ul>
+     *     <li>resultMap 中显式映射的属性: 映射的列名 (不加引号，由数据库按自身规则处理大小写)。</li>
+     *     <li>结果类型不是 Map 且开启了 mapUnderscoreToCamelCase: 属性名转为下划线列名 (不加引号)。</li>
+     *     <li>其他情况 (Map 结果自动映射): 结果 key 就是列标签，加引号以保持大小写一致。</li>
+     * </ul>
+     *
+     * @return 列引用，无法对应到普通列 (嵌套映射、非简单标识符的列名) 时为 null
+     */
+    private static String resolveColumn(Configuration configuration, MappedStatement mappedStatement, String field) {
+        for (ResultMap resultMap : mappedStatement.getResultMaps()) {
+            for (ResultMapping mapping : resultMap.getResultMappings()) {
+                if (field.equals(mapping.getProperty())) {
+                    boolean plainColumn = mapping.getColumn() != null && mapping.getNestedQueryId() == null && mapping.getNestedResultMapId() == null
+                            && SIMPLE_IDENTIFIER.matcher(mapping.getColumn()).matches();
+                    return plainColumn ? mapping.getColumn() : null;
+                }
+            }
+            if (!Map.class.isAssignableFrom(resultMap.getType()) && configuration.isMapUnderscoreToCamelCase()) {
+                String column = field.replaceAll("([a-z0-9])([A-Z])", "$1_$2").toLowerCase();
+                return SIMPLE_IDENTIFIER.matcher(column).matches() ? column : null;
             }
         }
-        return queryParams;
+        return "\"" + field.replace("\"", "\"\"") + "\"";
+    }
+
+    /**
+     * 生成 SELECT agg(...) FROM (原 SQL) 形式的聚合 SQL。
+     *
+     * @param fieldColumns 各聚合列的字段对应的列引用 (见 {@link #resolveColumn})，COUNT 行数时为 null
+     */
+    private String buildAggregateSql(String originalSql, List<AggregateColumn> columns, List<String> fieldColumns) {
+        String innerSql = originalSql.trim();
+        while (innerSql.endsWith(";")) {
+            innerSql = innerSql.substring(0, innerSql.length() - 1).trim();
+        }
+        StringBuilder sql = new StringBuilder("SELECT ");
+        for (int i = 0; i < columns.size(); i++) {
+            AggregateColumn column = columns.get(i);
+            if (i > 0) {
+                sql.append(", ");
+            }
+            String field = fieldColumns.get(i);
+            switch (column.getFunction()) {
+                case "SUM":
+                case "MIN":
+                case "MAX":
+                    sql.append(column.getFunction()).append('(').append(field).append(')');
+                    break;
+                case "COUNT":
+                    sql.append("COUNT(").append(field == null ? "*" : field).append(')');
+                    break;
+                case "COUNT_DISTINCT":
+                    sql.append("COUNT(DISTINCT ").append(field).append(')');
+                    break;
+                default:
+                    throw new DatasourceExecutionException("Unsupported aggregate function for push-down: " + column.getFunction());
+            }
+            sql.append(" AS m").append(i);
+        }
+        return sql.append(" FROM (").append(innerSql).append(") mre_agg").toString();
+    }
+
+    private List<Map<String, Object>> toAggregatesParam(List<AggregateColumn> columns) {
+        List<Map<String, Object>> aggregates = new ArrayList<>(columns.size());
+        for (AggregateColumn column : columns) {
+            Map<String, Object> aggregate = new HashMap<>();
+            aggregate.put("label", column.getLabel());
+            aggregate.put("function", column.getFunction());
+            aggregate.put("field", column.getField());
+            aggregates.add(aggregate);
+        }
+        return aggregates;
     }
 
 }
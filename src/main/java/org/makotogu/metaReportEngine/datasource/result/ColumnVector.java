@@ -0,0 +1,429 @@
+package org.makotogu.metaReportEngine.datasource.result;
+
+import org.makotogu.metaReportEngine.shard.util.MemoryEstimator;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 列式结果中的一列。按第一个非 null 值选择存储方式:
+ * <ul>
+ *     <li>Integer / Long: long[] (读取时按原类型装箱)</li>
+ *     <li>Double: double[]</li>
+ *     <li>BigDecimal: BigDecimal[]</li>
+ *     <li>String: 字典编码 (int[] 编码 + 去重后的字符串表)</li>
+ *     <li>其他类型或类型混杂的列: Object[]</li>
+ * </ul>
+ * null 值用 BitSet 记录。
+ */
+public abstract class ColumnVector {
+
+    /**
+     * 列的存储类型。
+     */
+    public enum Type {
+        LONG, DOUBLE, DECIMAL, STRING, OBJECT
+    }
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    protected int size;
+    protected final BitSet nulls = new BitSet();
+
+    public abstract Type getType();
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isNull(int row) {
+        return nulls.get(row);
+    }
+
+    /**
+     * 读取一个值 (按需装箱)。
+     */
+    public abstract Object get(int row);
+
+    /**
+     * 估算该列占用的堆内存 (字节)。
+     */
+    public abstract long estimateBytes();
+
+    /**
+     * 追加一个值。值的类型与列不兼容时返回 false, 由调用方改用 Object 列。
+     */
+    abstract boolean append(Object value);
+
+    /**
+     * 修改一个值。值的类型与列不兼容时返回 false。
+     */
+    abstract boolean set(int row, Object value);
+
+    /**
+     * 释放预留的容量。
+     */
+    abstract void trim();
+
+    /**
+     * 按值的类型创建合适的空列。
+     */
+    static ColumnVector forValue(Object value) {
+        if (value instanceof Long || value instanceof Integer) {
+            return new LongVector(value instanceof Integer);
+        } else if (value instanceof Double) {
+            return new DoubleVector();
+        } else if (value instanceof BigDecimal) {
+            return new DecimalVector();
+        } else if (value instanceof String) {
+            return new StringVector();
+        }
+        return new ObjectVector();
+    }
+
+    /**
+     * 把列复制为 Object 列 (类型不兼容的值出现时使用)。
+     */
+    ObjectVector toObjectVector() {
+        ObjectVector vector = new ObjectVector();
+        for (int i = 0; i < size; i++) {
+            vector.append(get(i));
+        }
+        return vector;
+    }
+
+    protected long nullsBytes() {
+        return MemoryEstimator.OBJECT_HEADER + MemoryEstimator.arrayBytes(nulls.size() / 64, 8);
+    }
+
+    protected static int grow(int capacity, int minCapacity) {
+        int newCapacity = Math.max(capacity + (capacity >> 1), INITIAL_CAPACITY);
+        return Math.max(newCapacity, minCapacity);
+    }
+
+    /**
+     * 整数列。Integer 与 Long 不混用, 以保证读取的类型与查询结果一致。
+     */
+    static final class LongVector extends ColumnVector {
+        private final boolean intValues;
+        private long[] values = new long[INITIAL_CAPACITY];
+
+        LongVector(boolean intValues) {
+            this.intValues = intValues;
+        }
+
+        @Override
+        public Type getType() {
+            return Type.LONG;
+        }
+
+        public long getLong(int row) {
+            return values[row];
+        }
+
+        @Override
+        public Object get(int row) {
+            if (nulls.get(row)) {
+                return null;
+            }
+            return intValues ? Integer.valueOf((int) values[row]) : Long.valueOf(values[row]);
+        }
+
+        @Override
+        boolean append(Object value) {
+            if (value != null && !accepts(value)) {
+                return false;
+            }
+            if (size == values.length) {
+                values = Arrays.copyOf(values, grow(values.length, size + 1));
+            }
+            store(size++, value);
+            return true;
+        }
+
+        @Override
+        boolean set(int row, Object value) {
+            if (value != null && !accepts(value)) {
+                return false;
+            }
+            store(row, value);
+            return true;
+        }
+
+        private boolean accepts(Object value) {
+            return intValues ? value instanceof Integer : value instanceof Long;
+        }
+
+        private void store(int row, Object value) {
+            if (value == null) {
+                nulls.set(row);
+                values[row] = 0L;
+            } else {
+                nulls.clear(row);
+                values[row] = ((Number) value).longValue();
+            }
+        }
+
+        @Override
+        void trim() {
+            values = Arrays.copyOf(values, size);
+        }
+
+        @Override
+        public long estimateBytes() {
+            return MemoryEstimator.OBJECT_HEADER + MemoryEstimator.arrayBytes(values.length, 8) + nullsBytes();
+        }
+    }
+
+    /**
+     * 浮点列。
+     */
+    static final class DoubleVector extends ColumnVector {
+        private double[] values = new double[INITIAL_CAPACITY];
+
+        @Override
+        public Type getType() {
+            return Type.DOUBLE;
+        }
+
+        public double getDouble(int row) {
+            return values[row];
+        }
+
+        @Override
+        public Object get(int row) {
+            return nulls.get(row) ? null : Double.valueOf(values[row]);
+        }
+
+        @Override
+        boolean append(Object value) {
+            if (value != null && !(value instanceof Double)) {
+                return false;
+            }
+            if (size == values.length) {
+                values = Arrays.copyOf(values, grow(values.length, size + 1));
+            }
+            store(size++, value);
+            return true;
+        }
+
+        @Override
+        boolean set(int row, Object value) {
+            if (value != null && !(value instanceof Double)) {
+                return false;
+            }
+            store(row, value);
+            return true;
+        }
+
+        private void store(int row, Object value) {
+            if (value == null) {
+                nulls.set(row);
+                values[row] = 0d;
+            } else {
+                nulls.clear(row);
+                values[row] = (Double) value;
+            }
+        }
+
+        @Override
+        void trim() {
+            values = Arrays.copyOf(values, size);
+        }
+
+        @Override
+        public long estimateBytes() {
+            return MemoryEstimator.OBJECT_HEADER + MemoryEstimator.arrayBytes(values.length, 8) + nullsBytes();
+        }
+    }
+
+    /**
+     * 定点数列 (numeric / decimal)。
+     */
+    static final class DecimalVector extends ColumnVector {
+        private BigDecimal[] values = new BigDecimal[INITIAL_CAPACITY];
+
+        @Override
+        public Type getType() {
+            return Type.DECIMAL;
+        }
+
+        @Override
+        public Object get(int row) {
+            return values[row];
+        }
+
+        @Override
+        boolean append(Object value) {
+            if (value != null && !(value instanceof BigDecimal)) {
+                return false;
+            }
+            if (size == values.length) {
+                values = Arrays.copyOf(values, grow(values.length, size + 1));
+            }
+            return set(size++, value);
+        }
+
+        @Override
+        boolean set(int row, Object value) {
+            if (value != null && !(value instanceof BigDecimal)) {
+                return false;
+            }
+            nulls.set(row, value == null);
+            values[row] = (BigDecimal) value;
+            return true;
+        }
+
+        @Override
+        void trim() {
+            values = Arrays.copyOf(values, size);
+        }
+
+        @Override
+        public long estimateBytes() {
+            long bytes = MemoryEstimator.OBJECT_HEADER + MemoryEstimator.arrayBytes(values.length, MemoryEstimator.REFERENCE) + nullsBytes();
+            for (int i = 0; i < size; i++) {
+                bytes += MemoryEstimator.estimateValueBytes(values[i]);
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * 字典编码的字符串列: 每行一个 int 编码，相同的字符串只保存一份 (状态、机构、币种等低基数列收益明显)。
+     */
+    static final class StringVector extends ColumnVector {
+        private int[] codes = new int[INITIAL_CAPACITY];
+        private final List<String> dictionary = new ArrayList<>();
+        private Map<String, Integer> dictionaryIndex = new HashMap<>();
+
+        @Override
+        public Type getType() {
+            return Type.STRING;
+        }
+
+        /**
+         * @return 不同字符串的个数
+         */
+        public int getDictionarySize() {
+            return dictionary.size();
+        }
+
+        @Override
+        public Object get(int row) {
+            return nulls.get(row) ? null : dictionary.get(codes[row]);
+        }
+
+        @Override
+        boolean append(Object value) {
+            if (value != null && !(value instanceof String)) {
+                return false;
+            }
+            if (size == codes.length) {
+                codes = Arrays.copyOf(codes, grow(codes.length, size + 1));
+            }
+            return set(size++, value);
+        }
+
+        @Override
+        boolean set(int row, Object value) {
+            if (value == null) {
+                nulls.set(row);
+                codes[row] = 0;
+                return true;
+            }
+            if (!(value instanceof String)) {
+                return false;
+            }
+            if (dictionaryIndex == null) {
+                // trim 后释放了索引, 修改时重建
+                dictionaryIndex = new HashMap<>(dictionary.size() * 2);
+                for (int i = 0; i < dictionary.size(); i++) {
+                    dictionaryIndex.put(dictionary.get(i), i);
+                }
+            }
+            Integer code = dictionaryIndex.get(value);
+            if (code == null) {
+                code = dictionary.size();
+                dictionary.add((String) value);
+                dictionaryIndex.put((String) value, code);
+            }
+            nulls.clear(row);
+            codes[row] = code;
+            return true;
+        }
+
+        @Override
+        void trim() {
+            codes = Arrays.copyOf(codes, size);
+            dictionaryIndex = null; // 只读阶段不需要反向索引
+            ((ArrayList<String>) dictionary).trimToSize();
+        }
+
+        @Override
+        public long estimateBytes() {
+            long bytes = MemoryEstimator.OBJECT_HEADER + MemoryEstimator.arrayBytes(codes.length, 4) + nullsBytes()
+                    + MemoryEstimator.OBJECT_HEADER + MemoryEstimator.arrayBytes(dictionary.size(), MemoryEstimator.REFERENCE);
+            for (String value : dictionary) {
+                bytes += MemoryEstimator.estimateValueBytes(value);
+            }
+            return bytes;
+        }
+    }
+
+    /**
+     * 通用列: 日期、布尔等其他类型，或类型混杂的列。
+     */
+    static final class ObjectVector extends ColumnVector {
+        private Object[] values = new Object[INITIAL_CAPACITY];
+
+        @Override
+        public Type getType() {
+            return Type.OBJECT;
+        }
+
+        @Override
+        public Object get(int row) {
+            return values[row];
+        }
+
+        @Override
+        boolean append(Object value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, grow(values.length, size + 1));
+            }
+            return set(size++, value);
+        }
+
+        @Override
+        boolean set(int row, Object value) {
+            nulls.set(row, value == null);
+            values[row] = value;
+            return true;
+        }
+
+        @Override
+        void trim() {
+            values = Arrays.copyOf(values, size);
+        }
+
+        @Override
+        ObjectVector toObjectVector() {
+            return this;
+        }
+
+        @Override
+        public long estimateBytes() {
+            long bytes = MemoryEstimator.OBJECT_HEADER + MemoryEstimator.arrayBytes(values.length, MemoryEstimator.REFERENCE) + nullsBytes();
+            for (int i = 0; i < size; i++) {
+                bytes += MemoryEstimator.estimateValueBytes(values[i]);
+            }
+            return bytes;
+        }
+    }
+}
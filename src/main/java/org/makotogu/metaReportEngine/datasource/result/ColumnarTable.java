@@ -0,0 +1,348 @@
+package org.makotogu.metaReportEngine.datasource.result;
+
+import org.makotogu.metaReportEngine.shard.util.MemoryEstimator;
+
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * 列式查询结果 (result_structure = columnar): 一个共享的列名索引 + 每列一个类型化的数组 ({@link ColumnVector})。
+ * <p>
+ * 为了兼容现有的规则，本身实现 List&lt;Map&lt;String, Object&gt;&gt;: get(i) 返回第 i 行的视图 (不复制数据)，
+ * TABLE_BUILDER 的 #row['col']、列表模式的 field 等都可以直接读取。AGGREGATOR 直接按列扫描 (见 HashAggregation)。
+ * <p>
+ * 行视图支持 put: 修改已有列，或新增一列 (例如列表模式的 targetField，其他行的新列为 null)。
+ * 不支持增删行。
+ */
+public final class ColumnarTable extends AbstractList<Map<String, Object>> implements RandomAccess, MemoryEstimator.Sized {
+
+    private RowSchema schema;
+    private ColumnVector[] columns;
+    private final int rowCount;
+
+    private ColumnarTable(RowSchema schema, ColumnVector[] columns, int rowCount) {
+        this.schema = schema;
+        this.columns = columns;
+        this.rowCount = rowCount;
+    }
+
+    public RowSchema getSchema() {
+        return schema;
+    }
+
+    /**
+     * 按列名获取列，不存在时返回 null。
+     */
+    public ColumnVector getColumn(String columnName) {
+        int index = schema.indexOf(columnName);
+        return index >= 0 ? columns[index] : null;
+    }
+
+    public ColumnVector getColumn(int index) {
+        return columns[index];
+    }
+
+    public int getColumnCount() {
+        return columns.length;
+    }
+
+    @Override
+    public int size() {
+        return rowCount;
+    }
+
+    /**
+     * 返回第 rowIndex 行的视图。
+     */
+    @Override
+    public Map<String, Object> get(int rowIndex) {
+        if (rowIndex < 0 || rowIndex >= rowCount) {
+            throw new IndexOutOfBoundsException("Row index: " + rowIndex + ", size: " + rowCount);
+        }
+        return new Row(rowIndex);
+    }
+
+    /**
+     * 读取单个值，列不存在时返回 null。
+     */
+    public Object getValue(int rowIndex, String columnName) {
+        int index = schema.indexOf(columnName);
+        return index >= 0 ? columns[index].get(rowIndex) : null;
+    }
+
+    /**
+     * 修改单个值。列不存在时新增一列; 值类型与列不一致时该列转为 Object 列。
+     *
+     * @return 原来的值
+     */
+    public Object setValue(int rowIndex, String columnName, Object value) {
+        int index = schema.indexOf(columnName);
+        if (index < 0) {
+            index = addColumn(columnName);
+        }
+        ColumnVector column = columns[index];
+        Object previous = column.get(rowIndex);
+        if (!column.set(rowIndex, value)) {
+            column = column.toObjectVector();
+            column.set(rowIndex, value);
+            columns[index] = column;
+        }
+        return previous;
+    }
+
+    private int addColumn(String columnName) {
+        List<String> names = new ArrayList<>(schema.getColumnNames());
+        names.add(columnName);
+        ColumnVector column = new ColumnVector.ObjectVector();
+        for (int i = 0; i < rowCount; i++) {
+            column.append(null);
+        }
+        columns = Arrays.copyOf(columns, columns.length + 1);
+        columns[columns.length - 1] = column;
+        schema = new RowSchema(names.toArray(new String[0]));
+        return columns.length - 1;
+    }
+
+    /**
+     * 估算本表占用的堆内存 (字节)。
+     */
+    @Override
+    public long estimateBytes() {
+        long bytes = MemoryEstimator.OBJECT_HEADER + MemoryEstimator.arrayBytes(columns.length, MemoryEstimator.REFERENCE);
+        for (ColumnVector column : columns) {
+            bytes += column.estimateBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * 估算同样的数据以 List&lt;HashMap&gt; 保存时占用的堆内存 (字节)，用于对比。
+     */
+    public long estimateListMapBytes() {
+        long bytes = MemoryEstimator.OBJECT_HEADER + MemoryEstimator.arrayBytes(rowCount, MemoryEstimator.REFERENCE);
+        for (int i = 0; i < rowCount; i++) {
+            bytes += MemoryEstimator.estimateMapRowBytes(new Row(i));
+        }
+        return bytes;
+    }
+
+    /**
+     * 内存对比的描述 (用于调试日志)，例如 "1000 rows x 8 columns, ~120.0 KB (List<Map> ~640.0 KB, saved ~520.0 KB)"。
+     * 需要遍历全部数据，调用前应先判断日志级别。
+     */
+    public String describeMemory() {
+        long columnarBytes = estimateBytes();
+        long mapBytes = estimateListMapBytes();
+        return String.format("%d rows x %d columns, ~%s (List<Map> ~%s, saved ~%s)", rowCount, columns.length,
+                MemoryEstimator.formatBytes(columnarBytes), MemoryEstimator.formatBytes(mapBytes),
+                MemoryEstimator.formatBytes(mapBytes - columnarBytes));
+    }
+
+    /**
+     * 行视图: 按列下标读取各列的值，只持有行号。
+     */
+    private final class Row extends AbstractMap<String, Object> {
+        private final int rowIndex;
+
+        private Row(int rowIndex) {
+            this.rowIndex = rowIndex;
+        }
+
+        @Override
+        public Object get(Object key) {
+            int index = schema.indexOf(key);
+            return index >= 0 ? columns[index].get(rowIndex) : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return schema.indexOf(key) >= 0;
+        }
+
+        @Override
+        public Object put(String key, Object value) {
+            return setValue(rowIndex, key, value);
+        }
+
+        @Override
+        public int size() {
+            return columns.length;
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            return new AbstractSet<Entry<String, Object>>() {
+                @Override
+                public Iterator<Entry<String, Object>> iterator() {
+                    return new Iterator<Entry<String, Object>>() {
+                        private int next;
+
+                        @Override
+                        public boolean hasNext() {
+                            return next < columns.length;
+                        }
+
+                        @Override
+                        public Entry<String, Object> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            final int index = next++;
+                            return new SimpleEntry<String, Object>(schema.getColumnName(index), columns[index].get(rowIndex)) {
+                                @Override
+                                public Object setValue(Object value) {
+                                    ColumnarTable.this.setValue(rowIndex, getKey(), value);
+                                    return super.setValue(value);
+                                }
+                            };
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return columns.length;
+                }
+            };
+        }
+    }
+
+    /**
+     * 逐行构建列式结果。
+     * <ul>
+     *     <li>Builder(String[]) + addRow(Object[]): 列结构已知 (JDBC ResultSet)，重复列名只保留最后一列;</li>
+     *     <li>Builder() + addRow(Map): 按 Map 行构建 (MyBatis 结果)，新出现的列自动补齐之前行的 null。</li>
+     * </ul>
+     */
+    public static final class Builder {
+        private final Map<String, ColumnBuilder> columnBuilders = new LinkedHashMap<>();
+        private final ColumnBuilder[] positional; // 按结果集列下标对应的列, 被同名列覆盖的为 null
+        private int rowCount;
+
+        public Builder() {
+            this.positional = null;
+        }
+
+        public Builder(String[] columnNames) {
+            this.positional = new ColumnBuilder[columnNames.length];
+            for (int i = 0; i < columnNames.length; i++) {
+                ColumnBuilder columnBuilder = new ColumnBuilder(0);
+                ColumnBuilder shadowed = columnBuilders.put(columnNames[i], columnBuilder);
+                if (shadowed != null) {
+                    for (int j = 0; j < i; j++) {
+                        if (positional[j] == shadowed) {
+                            positional[j] = null;
+                        }
+                    }
+                }
+                positional[i] = columnBuilder;
+            }
+        }
+
+        /**
+         * 追加一行，values 与构造时的列名一一对应。
+         */
+        public Builder addRow(Object[] values) {
+            if (positional == null || values.length != positional.length) {
+                throw new IllegalArgumentException("Row has " + values.length + " values but builder expects "
+                        + (positional == null ? "map rows" : positional.length + " columns"));
+            }
+            for (int i = 0; i < values.length; i++) {
+                if (positional[i] != null) {
+                    positional[i].append(values[i]);
+                }
+            }
+            rowCount++;
+            return this;
+        }
+
+        /**
+         * 追加一个 Map 行，缺少的列记为 null。
+         */
+        public Builder addRow(Map<String, ?> row) {
+            for (Map.Entry<String, ?> entry : row.entrySet()) {
+                ColumnBuilder columnBuilder = columnBuilders.get(entry.getKey());
+                if (columnBuilder == null) {
+                    columnBuilder = new ColumnBuilder(rowCount);
+                    columnBuilders.put(entry.getKey(), columnBuilder);
+                }
+                columnBuilder.append(entry.getValue());
+            }
+            rowCount++;
+            for (ColumnBuilder columnBuilder : columnBuilders.values()) {
+                if (columnBuilder.size() < rowCount) {
+                    columnBuilder.append(null);
+                }
+            }
+            return this;
+        }
+
+        public int getRowCount() {
+            return rowCount;
+        }
+
+        public ColumnarTable build() {
+            String[] names = columnBuilders.keySet().toArray(new String[0]);
+            ColumnVector[] columns = new ColumnVector[names.length];
+            int i = 0;
+            for (ColumnBuilder columnBuilder : columnBuilders.values()) {
+                columns[i++] = columnBuilder.build();
+            }
+            return new ColumnarTable(new RowSchema(names), columns, rowCount);
+        }
+    }
+
+    /**
+     * 单列的构建器: 第一个非 null 值出现之前只计数，之后按值类型选择列的存储方式。
+     */
+    private static final class ColumnBuilder {
+        private int leadingNulls;
+        private ColumnVector vector;
+
+        private ColumnBuilder(int leadingNulls) {
+            this.leadingNulls = leadingNulls;
+        }
+
+        int size() {
+            return vector != null ? vector.size() : leadingNulls;
+        }
+
+        void append(Object value) {
+            if (vector == null) {
+                if (value == null) {
+                    leadingNulls++;
+                    return;
+                }
+                vector = ColumnVector.forValue(value);
+                for (int i = 0; i < leadingNulls; i++) {
+                    vector.append(null);
+                }
+            }
+            if (!vector.append(value)) {
+                vector = vector.toObjectVector();
+                vector.append(value);
+            }
+        }
+
+        ColumnVector build() {
+            if (vector == null) {
+                vector = new ColumnVector.ObjectVector();
+                for (int i = 0; i < leadingNulls; i++) {
+                    vector.append(null);
+                }
+            }
+            vector.trim();
+            return vector;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package org.makotogu.metaReportEngine.datasource.result;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * 紧凑的结果行: 列名由共享的 {@link RowSchema} 保存，每行只持有一个值数组，
+ * 避免每行一个 HashMap (以及其中的 Entry / 列名引用)。
+ * <p>
+ * 实现 Map&lt;String, Object&gt;，下游的 TABLE_BUILDER、AGGREGATOR、SpEL (#row['col']) 可以直接按列名读取。
+ * 支持修改已有列; 写入新列 (例如列表模式的 targetField) 时存入少量的额外列 Map。不支持删除列。
+ */
+public final class CompactRow extends AbstractMap<String, Object> {
+
+    private final RowSchema schema;
+    private final Object[] values;
+    private Map<String, Object> extraColumns; // schema 之外新增的列 (按需创建)
+
+    public CompactRow(RowSchema schema, Object[] values) {
+        if (values.length != schema.size()) {
+            throw new IllegalArgumentException("Row has " + values.length + " values but schema has " + schema.size() + " columns.");
+        }
+        this.schema = schema;
+        this.values = values;
+    }
+
+    public RowSchema getSchema() {
+        return schema;
+    }
+
+    /**
+     * 按列下标读取值。
+     */
+    public Object get(int index) {
+        return values[index];
+    }
+
+    @Override
+    public Object get(Object key) {
+        int index = schema.indexOf(key);
+        if (index >= 0) {
+            return values[index];
+        }
+        return extraColumns != null ? extraColumns.get(key) : null;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return schema.indexOf(key) >= 0 || (extraColumns != null && extraColumns.containsKey(key));
+    }
+
+    @Override
+    public Object put(String key, Object value) {
+        int index = schema.indexOf(key);
+        if (index >= 0) {
+            Object previous = values[index];
+            values[index] = value;
+            return previous;
+        }
+        if (extraColumns == null) {
+            extraColumns = new LinkedHashMap<>(4);
+        }
+        return extraColumns.put(key, value);
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (!schema.isShadowed(i)) {
+                size++;
+            }
+        }
+        return size + (extraColumns != null ? extraColumns.size() : 0);
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+        return new AbstractSet<Entry<String, Object>>() {
+            @Override
+            public Iterator<Entry<String, Object>> iterator() {
+                return new EntryIterator();
+            }
+
+            @Override
+            public int size() {
+                return CompactRow.this.size();
+            }
+        };
+    }
+
+    /**
+     * 先按 schema 顺序遍历查询列，再遍历新增列。
+     */
+    private final class EntryIterator implements Iterator<Entry<String, Object>> {
+        private int next = advance(0);
+        private Iterator<Entry<String, Object>> extraIterator;
+
+        private int advance(int from) {
+            int i = from;
+            while (i < values.length && schema.isShadowed(i)) {
+                i++;
+            }
+            return i;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next < values.length) {
+                return true;
+            }
+            if (extraIterator == null && extraColumns != null) {
+                extraIterator = extraColumns.entrySet().iterator();
+            }
+            return extraIterator != null && extraIterator.hasNext();
+        }
+
+        @Override
+        public Entry<String, Object> next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            if (next < values.length) {
+                final int index = next;
+                next = advance(next + 1);
+                return new SimpleEntry<String, Object>(schema.getColumnName(index), values[index]) {
+                    @Override
+                    public Object setValue(Object value) {
+                        values[index] = value;
+                        return super.setValue(value);
+                    }
+                };
+            }
+            return extraIterator.next();
+        }
+    }
+}
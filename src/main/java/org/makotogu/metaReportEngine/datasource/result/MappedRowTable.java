@@ -0,0 +1,575 @@
+package org.makotogu.metaReportEngine.datasource.result;
+
+import org.makotogu.metaReportEngine.shard.util.MemoryEstimator;
+import org.makotogu.metaReportEngine.shard.util.NumberUtil;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.AbstractList;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+
+/**
+ * 内存映射的行文件: 参考数据快照 ({@code ReferenceSnapshotStore}) 与超限结果的溢出文件 ({@code ResultCollector}) 共用。
+ * <p>
+ * 行数据与行偏移保存在本地文件中，通过 {@link MappedByteBuffer} 只读映射 (堆外)，堆上只有列名以及可选的 key 索引
+ * (key 列的值 -> 行号)。{@link #get(int)} / {@link #lookup(Object)} 返回按需解码的行视图，不复制整行。
+ * 文件由 {@link Writer} 逐行写入，不需要先把所有行放在内存中。
+ * <p>
+ * 文件格式 (大端):
+ * <pre>
+ * [行数据]   每行: int 值个数 n + 前 n 列的值 (1 字节类型 + 值); 写入该行时还不存在的列 (n 之后) 为 null
+ * [列名]     每列 int 长度 + UTF-8 字节
+ * [行偏移]   rowCount 个 int, 行数据在文件中的起始位置
+ * [尾部]     magic(int) version(int) createdAt(long) rowCount(int) columnCount(int) namesPos(int) offsetsPos(int)
+ * </pre>
+ * 支持的值类型: null、String、Integer、Long、Short、Double、Float、BigDecimal、Boolean、Timestamp、java.sql.Date、
+ * java.util.Date、LocalDate、LocalDateTime，其他类型写入时抛出 IllegalArgumentException。
+ * 单个文件不超过 2GB (一个 MappedByteBuffer 的上限)。
+ * <p>
+ * 默认只读 (参考快照由多个报告共享)；以 writable 打开时 (溢出文件只属于一次报告生成)，写入的值保存在堆上的覆盖表中，
+ * 与 ColumnarTable / CompactRow 一样支持列表模式的 targetField。
+ */
+public final class MappedRowTable extends AbstractList<Map<String, Object>> implements RandomAccess, MemoryEstimator.Sized {
+
+    private static final int MAGIC = 0x4D524553; // "MRES"
+    private static final int VERSION = 2;
+    private static final int FOOTER_BYTES = 4 + 4 + 8 + 4 + 4 + 4 + 4;
+
+    private static final byte T_NULL = 0;
+    private static final byte T_STRING = 1;
+    private static final byte T_INT = 2;
+    private static final byte T_LONG = 3;
+    private static final byte T_SHORT = 4;
+    private static final byte T_DOUBLE = 5;
+    private static final byte T_FLOAT = 6;
+    private static final byte T_DECIMAL = 7;
+    private static final byte T_BOOLEAN = 8;
+    private static final byte T_TIMESTAMP = 9;
+    private static final byte T_SQL_DATE = 10;
+    private static final byte T_DATE = 11;
+    private static final byte T_LOCAL_DATE = 12;
+    private static final byte T_LOCAL_DATE_TIME = 13;
+
+    private final ByteBuffer buffer;          // 只读映射, 只使用绝对位置读取, 多线程共享
+    private final String[] columns;
+    private final Map<String, Integer> columnIndex;
+    private final int rowCount;
+    private final int offsetsPos;
+    private final long createdAt;
+    private final long fileBytes;
+    private final String keyColumn;
+    private final Map<Object, Integer> keyIndex; // 未指定 key 列时为 null
+    private final boolean writable;
+    private Map<Integer, Map<String, Object>> overrides; // 行号 -> 写入的值 (writable 时按需创建)
+
+    private MappedRowTable(ByteBuffer buffer, String keyColumn, boolean writable) {
+        this.buffer = buffer;
+        this.writable = writable;
+        this.fileBytes = buffer.limit();
+        int footer = buffer.limit() - FOOTER_BYTES;
+        if (footer < 0 || buffer.getInt(footer) != MAGIC) {
+            throw new IllegalArgumentException("Not a mapped row file");
+        }
+        if (buffer.getInt(footer + 4) != VERSION) {
+            throw new IllegalArgumentException("Unsupported mapped row file version: " + buffer.getInt(footer + 4));
+        }
+        this.createdAt = buffer.getLong(footer + 8);
+        this.rowCount = buffer.getInt(footer + 16);
+        int columnCount = buffer.getInt(footer + 20);
+        int namesPos = buffer.getInt(footer + 24);
+        this.offsetsPos = buffer.getInt(footer + 28);
+
+        this.columns = new String[columnCount];
+        this.columnIndex = new HashMap<>(columnCount * 2);
+        int pos = namesPos;
+        for (int i = 0; i < columnCount; i++) {
+            int length = buffer.getInt(pos);
+            columns[i] = readUtf8(pos + 4, length);
+            columnIndex.put(columns[i], i);
+            pos += 4 + length;
+        }
+
+        this.keyColumn = keyColumn;
+        Integer keyColumnIndex = keyColumn != null ? columnIndex.get(keyColumn) : null;
+        if (keyColumn != null && keyColumnIndex == null) {
+            throw new IllegalArgumentException("Key column '" + keyColumn + "' not found in columns " + getColumns());
+        }
+        if (keyColumnIndex != null) {
+            this.keyIndex = new HashMap<>(Math.max(16, rowCount * 4 / 3 + 1));
+            for (int row = 0; row < rowCount; row++) {
+                Object key = normalizeKey(decode(row, keyColumnIndex));
+                keyIndex.putIfAbsent(key, row); // 重复 key 取第一行
+            }
+        } else {
+            this.keyIndex = null;
+        }
+    }
+
+    /**
+     * 只读映射行文件。文件映射后即可关闭通道，映射在缓冲区被回收前一直有效 (文件被替换或删除也不影响)。
+     *
+     * @param keyColumn 建立索引的列，为 null 时不建索引
+     * @throws IOException              读取失败
+     * @throws IllegalArgumentException 文件格式不正确，或 key 列不存在
+     */
+    public static MappedRowTable open(Path file, String keyColumn) throws IOException {
+        return open(file, keyColumn, false);
+    }
+
+    /**
+     * @param writable 是否允许通过行视图写入 (写入的值保存在堆上，不修改文件)
+     */
+    public static MappedRowTable open(Path file, String keyColumn, boolean writable) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Mapped row file larger than 2GB: " + file);
+            }
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            return new MappedRowTable(mapped, keyColumn, writable);
+        }
+    }
+
+    /**
+     * 将行写入文件。列为所有行中出现过的 key (按首次出现的顺序)，缺失的列为 null。
+     *
+     * @throws IOException              写入失败
+     * @throws IllegalArgumentException 有不支持的值类型，或文件超过 2GB
+     */
+    public static void write(List<? extends Map<String, ?>> rows, Path file, long createdAt) throws IOException {
+        try (Writer writer = new Writer(file)) {
+            for (Map<String, ?> row : rows) {
+                writer.writeRow(row);
+            }
+            writer.finish(createdAt);
+        }
+    }
+
+    @Override
+    public Map<String, Object> get(int index) {
+        if (index < 0 || index >= rowCount) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + rowCount);
+        }
+        return new Row(index);
+    }
+
+    @Override
+    public int size() {
+        return rowCount;
+    }
+
+    /**
+     * 按 key 列查找行 (数字按数值比较)。
+     *
+     * @return 行视图，没有匹配的行时返回 null
+     * @throws IllegalStateException 如果没有建立 key 索引
+     */
+    public Map<String, Object> lookup(Object key) {
+        if (keyIndex == null) {
+            throw new IllegalStateException("Mapped row table has no key column");
+        }
+        Integer row = keyIndex.get(normalizeKey(key));
+        return row != null ? new Row(row) : null;
+    }
+
+    /**
+     * 按 key 列查找某一列的值，不创建行视图。
+     */
+    public Object lookupValue(Object key, String column) {
+        if (keyIndex == null) {
+            throw new IllegalStateException("Mapped row table has no key column");
+        }
+        Integer row = keyIndex.get(normalizeKey(key));
+        Integer columnPosition = columnIndex.get(column);
+        return row != null && columnPosition != null ? decode(row, columnPosition) : null;
+    }
+
+    public List<String> getColumns() {
+        return Collections.unmodifiableList(Arrays.asList(columns));
+    }
+
+    public String getKeyColumn() {
+        return keyColumn;
+    }
+
+    /**
+     * @return 数据的生成时间 (毫秒)
+     */
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    /**
+     * @return 映射的文件大小 (堆外)
+     */
+    public long getFileBytes() {
+        return fileBytes;
+    }
+
+    /**
+     * 估算堆上占用的字节数: 行数据在堆外，只计 key 索引与写入的覆盖值。
+     */
+    @Override
+    public long estimateBytes() {
+        long bytes = MemoryEstimator.OBJECT_HEADER + MemoryEstimator.arrayBytes(columns.length, MemoryEstimator.REFERENCE);
+        if (keyIndex != null) {
+            bytes += MemoryEstimator.estimateRetainedBytes(keyIndex);
+        }
+        if (overrides != null) {
+            bytes += MemoryEstimator.estimateRetainedBytes(overrides);
+        }
+        return bytes;
+    }
+
+    private Object decode(int row, int column) {
+        int pos = buffer.getInt(offsetsPos + row * 4);
+        if (column >= buffer.getInt(pos)) {
+            return null; // 该行写入时还没有这一列
+        }
+        pos += 4;
+        for (int i = 0; i < column; i++) {
+            pos = skip(pos);
+        }
+        return readValue(pos);
+    }
+
+    private int skip(int pos) {
+        switch (buffer.get(pos)) {
+            case T_NULL:
+                return pos + 1;
+            case T_BOOLEAN:
+                return pos + 2;
+            case T_SHORT:
+                return pos + 3;
+            case T_INT:
+            case T_FLOAT:
+                return pos + 5;
+            case T_LONG:
+            case T_DOUBLE:
+            case T_SQL_DATE:
+            case T_DATE:
+            case T_LOCAL_DATE:
+                return pos + 9;
+            case T_TIMESTAMP:
+            case T_LOCAL_DATE_TIME:
+                return pos + 13;
+            case T_STRING:
+                return pos + 5 + buffer.getInt(pos + 1);
+            case T_DECIMAL:
+                return pos + 9 + buffer.getInt(pos + 5);
+            default:
+                throw new IllegalStateException("Corrupted mapped row file at position " + pos);
+        }
+    }
+
+    private Object readValue(int pos) {
+        byte type = buffer.get(pos);
+        switch (type) {
+            case T_NULL:
+                return null;
+            case T_STRING:
+                return readUtf8(pos + 5, buffer.getInt(pos + 1));
+            case T_INT:
+                return buffer.getInt(pos + 1);
+            case T_LONG:
+                return buffer.getLong(pos + 1);
+            case T_SHORT:
+                return buffer.getShort(pos + 1);
+            case T_DOUBLE:
+                return buffer.getDouble(pos + 1);
+            case T_FLOAT:
+                return buffer.getFloat(pos + 1);
+            case T_DECIMAL: {
+                int scale = buffer.getInt(pos + 1);
+                byte[] unscaled = readBytes(pos + 9, buffer.getInt(pos + 5));
+                return new BigDecimal(new BigInteger(unscaled), scale);
+            }
+            case T_BOOLEAN:
+                return buffer.get(pos + 1) != 0;
+            case T_TIMESTAMP: {
+                Timestamp timestamp = new Timestamp(buffer.getLong(pos + 1));
+                timestamp.setNanos(buffer.getInt(pos + 9));
+                return timestamp;
+            }
+            case T_SQL_DATE:
+                return new java.sql.Date(buffer.getLong(pos + 1));
+            case T_DATE:
+                return new java.util.Date(buffer.getLong(pos + 1));
+            case T_LOCAL_DATE:
+                return LocalDate.ofEpochDay(buffer.getLong(pos + 1));
+            case T_LOCAL_DATE_TIME:
+                return LocalDateTime.ofEpochSecond(buffer.getLong(pos + 1), buffer.getInt(pos + 9), ZoneOffset.UTC);
+            default:
+                throw new IllegalStateException("Corrupted mapped row file at position " + pos);
+        }
+    }
+
+    private String readUtf8(int pos, int length) {
+        return new String(readBytes(pos, length), StandardCharsets.UTF_8);
+    }
+
+    private byte[] readBytes(int pos, int length) {
+        byte[] bytes = new byte[length];
+        // duplicate 只复制位置信息, 不复制数据; 共享的 buffer 不能修改 position
+        ByteBuffer view = buffer.duplicate();
+        view.position(pos);
+        view.get(bytes);
+        return bytes;
+    }
+
+    private static void writeValue(CountingDataOutput out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(T_NULL);
+        } else if (value instanceof String) {
+            byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+            out.writeByte(T_STRING);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        } else if (value instanceof Integer) {
+            out.writeByte(T_INT);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(T_LONG);
+            out.writeLong((Long) value);
+        } else if (value instanceof Short) {
+            out.writeByte(T_SHORT);
+            out.writeShort((Short) value);
+        } else if (value instanceof Double) {
+            out.writeByte(T_DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Float) {
+            out.writeByte(T_FLOAT);
+            out.writeFloat((Float) value);
+        } else if (value instanceof BigDecimal) {
+            BigDecimal decimal = (BigDecimal) value;
+            byte[] unscaled = decimal.unscaledValue().toByteArray();
+            out.writeByte(T_DECIMAL);
+            out.writeInt(decimal.scale());
+            out.writeInt(unscaled.length);
+            out.write(unscaled);
+        } else if (value instanceof Boolean) {
+            out.writeByte(T_BOOLEAN);
+            out.writeByte((Boolean) value ? 1 : 0);
+        } else if (value instanceof Timestamp) {
+            Timestamp timestamp = (Timestamp) value;
+            out.writeByte(T_TIMESTAMP);
+            out.writeLong(timestamp.getTime());
+            out.writeInt(timestamp.getNanos());
+        } else if (value instanceof java.sql.Date) {
+            out.writeByte(T_SQL_DATE);
+            out.writeLong(((java.sql.Date) value).getTime());
+        } else if (value.getClass() == java.util.Date.class) {
+            out.writeByte(T_DATE);
+            out.writeLong(((java.util.Date) value).getTime());
+        } else if (value instanceof LocalDate) {
+            out.writeByte(T_LOCAL_DATE);
+            out.writeLong(((LocalDate) value).toEpochDay());
+        } else if (value instanceof LocalDateTime) {
+            LocalDateTime dateTime = (LocalDateTime) value;
+            out.writeByte(T_LOCAL_DATE_TIME);
+            out.writeLong(dateTime.toEpochSecond(ZoneOffset.UTC));
+            out.writeInt(dateTime.getNano());
+        } else {
+            throw new IllegalArgumentException("Unsupported value type for mapped row file: " + value.getClass().getName());
+        }
+    }
+
+    /**
+     * 索引 key 的比较方式与批量加载一致: 数字按数值比较 (Integer 1、Long 1、"1.0" 的 BigDecimal 视为同一个 key)。
+     */
+    private static Object normalizeKey(Object key) {
+        if (NumberUtil.isIntegral(key)) {
+            return ((Number) key).longValue(); // 最常见的整数 key 不经过 BigDecimal
+        }
+        if (key instanceof Number) {
+            BigDecimal decimal;
+            try {
+                decimal = NumberUtil.toBigDecimal((Number) key).stripTrailingZeros();
+            } catch (NumberFormatException e) {
+                return key; // NaN / Infinity
+            }
+            if (decimal.scale() <= 0) {
+                try {
+                    return decimal.longValueExact(); // 与整数 key 一致
+                } catch (ArithmeticException e) {
+                    return decimal; // 超出 long 范围
+                }
+            }
+            return decimal;
+        }
+        return key;
+    }
+
+    /**
+     * 行视图: get 只解码请求的列; 遍历时解码整行。
+     */
+    private final class Row extends AbstractMap<String, Object> {
+        private final int row;
+
+        private Row(int row) {
+            this.row = row;
+        }
+
+        @Override
+        public Object get(Object key) {
+            Map<String, Object> written = overrides != null ? overrides.get(row) : null;
+            if (written != null && written.containsKey(key)) {
+                return written.get(key);
+            }
+            Integer column = columnIndex.get(key);
+            return column != null ? decode(row, column) : null;
+        }
+
+        @Override
+        public Object put(String key, Object value) {
+            if (!writable) {
+                throw new UnsupportedOperationException("Mapped row table is read-only");
+            }
+            if (overrides == null) {
+                overrides = new HashMap<>();
+            }
+            Object previous = get(key);
+            overrides.computeIfAbsent(row, r -> new HashMap<>()).put(key, value);
+            return previous;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            Map<String, Object> written = overrides != null ? overrides.get(row) : null;
+            return columnIndex.containsKey(key) || written != null && written.containsKey(key);
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            Map<String, Object> values = new LinkedHashMap<>(columns.length * 2);
+            int pos = buffer.getInt(offsetsPos + row * 4);
+            int count = buffer.getInt(pos);
+            pos += 4;
+            for (int i = 0; i < columns.length; i++) {
+                if (i < count) {
+                    values.put(columns[i], readValue(pos));
+                    pos = skip(pos);
+                } else {
+                    values.put(columns[i], null);
+                }
+            }
+            Map<String, Object> written = overrides != null ? overrides.get(row) : null;
+            if (written != null) {
+                values.putAll(written);
+            }
+            return Collections.unmodifiableMap(values).entrySet();
+        }
+    }
+
+    /**
+     * 逐行写入行文件。列在第一次出现时追加到列表末尾; 写完后调用 {@link #finish(long)} 写入列名、行偏移与尾部。
+     */
+    public static final class Writer implements Closeable {
+        private final CountingDataOutput out;
+        private final List<String> columns = new ArrayList<>();
+        private final Map<String, Integer> columnPositions = new HashMap<>();
+        private int[] offsets = new int[1024];
+        private int rowCount;
+
+        public Writer(Path file) throws IOException {
+            this.out = new CountingDataOutput(new BufferedOutputStream(Files.newOutputStream(file, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE), 64 * 1024));
+        }
+
+        /**
+         * @throws IllegalArgumentException 有不支持的值类型，或文件超过 2GB
+         */
+        public void writeRow(Map<String, ?> row) throws IOException {
+            for (String key : row.keySet()) {
+                if (!columnPositions.containsKey(key)) {
+                    columnPositions.put(key, columns.size());
+                    columns.add(key);
+                }
+            }
+            if (rowCount == offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            }
+            offsets[rowCount++] = out.position();
+            int count = columns.size();
+            out.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                writeValue(out, row.get(columns.get(i)));
+            }
+        }
+
+        public int getRowCount() {
+            return rowCount;
+        }
+
+        /**
+         * 写入列名、行偏移与尾部并关闭文件。
+         */
+        public void finish(long createdAt) throws IOException {
+            int namesPos = out.position();
+            for (String column : columns) {
+                byte[] bytes = column.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            int offsetsPos = out.position();
+            for (int i = 0; i < rowCount; i++) {
+                out.writeInt(offsets[i]);
+            }
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(createdAt);
+            out.writeInt(rowCount);
+            out.writeInt(columns.size());
+            out.writeInt(namesPos);
+            out.writeInt(offsetsPos);
+            out.position(); // 检查文件总大小
+            out.close();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close(); // finish 之后重复关闭没有影响
+        }
+    }
+
+    /**
+     * 记录已写入字节数的 DataOutputStream (DataOutputStream.size() 超过 int 范围后会停在 Integer.MAX_VALUE)。
+     */
+    private static final class CountingDataOutput extends DataOutputStream {
+        private CountingDataOutput(OutputStream out) {
+            super(out);
+        }
+
+        int position() {
+            if (written >= Integer.MAX_VALUE - FOOTER_BYTES) {
+                throw new IllegalArgumentException("Mapped row file exceeds 2GB");
+            }
+            return written;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package org.makotogu.metaReportEngine.datasource.result;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 查询结果的列结构: 列名数组 + 列名到下标的索引。同一结果集的所有行共享一个实例。
+ */
+public final class RowSchema {
+
+    private final String[] columnNames;
+    private final Map<String, Integer> indexes;
+
+    public RowSchema(String[] columnNames) {
+        this.columnNames = columnNames.clone();
+        this.indexes = new HashMap<>(columnNames.length * 2);
+        for (int i = 0; i < columnNames.length; i++) {
+            // 重复列名与 MyBatis 的 Map 结果一致: 后出现的列覆盖前面的列
+            indexes.put(columnNames[i], i);
+        }
+    }
+
+    public int size() {
+        return columnNames.length;
+    }
+
+    public String getColumnName(int index) {
+        return columnNames[index];
+    }
+
+    public List<String> getColumnNames() {
+        return Collections.unmodifiableList(Arrays.asList(columnNames));
+    }
+
+    /**
+     * 列名对应的下标，不存在时返回 -1。
+     */
+    public int indexOf(Object columnName) {
+        Integer index = indexes.get(columnName);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * 列名是否重复 (重复时同名列只保留最后一列)。
+     */
+    boolean isShadowed(int index) {
+        return indexes.get(columnNames[index]) != index;
+    }
+}
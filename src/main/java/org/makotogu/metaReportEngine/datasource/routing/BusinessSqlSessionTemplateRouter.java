@@ -1,33 +1,73 @@
 package org.makotogu.metaReportEngine.datasource.routing;
 
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.makotogu.metaReportEngine.config.BusinessDataSourceProperties;
+import org.makotogu.metaReportEngine.config.BusinessDataSourceRegistrar;
 import org.makotogu.metaReportEngine.shard.exception.DatasourceConfigurationException;
+import org.makotogu.metaReportEngine.shard.exception.DatasourceUnavailableException;
 import org.mybatis.spring.SqlSessionTemplate;
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
-import java.util.Map;
-
-import lombok.extern.slf4j.Slf4j;
 
-import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
+/**
+ * 按 datasource_context 路由到业务 SqlSessionTemplate / DataSource。
+ * <p>
+ * 路由表在启动时一次性构建: 上下文名 (ctxBusinessSqlSessionTemplate 的 ctx) 和 Bean 名称都可以作为 key，
+ * 每次查询只做一次 Map 查找。context 为空或找不到时使用 default 上下文。
+ * <p>
+ * 每个上下文有独立的舱壁 ({@link ContextBulkhead}) 与熔断器 ({@link ContextCircuitBreaker})，
+ * 查询通过 {@link #execute(String, Supplier)} 执行: 慢库只会占满自己的并发名额，故障库快速失败，不拖累其他上下文的报告。
+ * <p>
+ * 配置了只读副本的上下文，DataSource 为 {@link ReplicaSetDataSource}，开启 hedging 时查询经 {@link HedgedQueryExecutor} 执行。
+ */
 @Component
 @Slf4j
 public class BusinessSqlSessionTemplateRouter {
 
-    // 注入所有业务 SqlSessionTemplate Bean，使用 Map (Key 是 Bean 的名称/Qualifier)
-    @Autowired
-    private Map<String, SqlSessionTemplate> businessSqlSessionTemplates;
-
-    // (可选) 定义一个默认的 SqlSessionTemplate，如果 context 为 null 或找不到时使用
-    @Autowired(required = false) // required = false 避免没有默认配置时启动失败
-    @Qualifier("defaultBusinessSqlSessionTemplate") // 假设你配置了一个名为 defaultBusinessSqlSessionTemplate 的 Bean
-    private SqlSessionTemplate defaultSqlSessionTemplate;
+    private final Map<String, Route> routes;            // key -> 路由 (包含上下文名与 Bean 名称两种 key)
+    private final Map<String, Route> contexts;          // 上下文名 -> 路由 (按注册顺序, 用于管理接口)
+    private final Route defaultRoute;
+    private ThreadPoolExecutor hedgeExecutor;           // 只有开启对冲的上下文才会创建
 
-    @PostConstruct
-    public void init() {
-        log.info("Initialized BusinessSqlSessionTemplateRouter with templates for contexts: {}", businessSqlSessionTemplates.keySet());
-        if (defaultSqlSessionTemplate == null) {
+    public BusinessSqlSessionTemplateRouter(Map<String, SqlSessionTemplate> businessSqlSessionTemplates,
+                                            BusinessDataSourceProperties businessDataSourceProperties) {
+        Map<String, Route> routeTable = new HashMap<>();
+        Map<String, Route> contextTable = new LinkedHashMap<>();
+        for (Map.Entry<String, SqlSessionTemplate> entry : businessSqlSessionTemplates.entrySet()) {
+            String beanName = entry.getKey();
+            String context = beanName.endsWith(BusinessDataSourceRegistrar.SQL_SESSION_TEMPLATE_SUFFIX)
+                    ? beanName.substring(0, beanName.length() - BusinessDataSourceRegistrar.SQL_SESSION_TEMPLATE_SUFFIX.length())
+                    : beanName;
+            SqlSessionTemplate template = entry.getValue();
+            BusinessDataSourceProperties.ContextProperties contextProperties = businessDataSourceProperties.getContexts()
+                    .getOrDefault(context, new BusinessDataSourceProperties.ContextProperties());
+            DataSource dataSource = template.getConfiguration().getEnvironment().getDataSource();
+            ContextBulkhead bulkhead = new ContextBulkhead(context, contextProperties.getBulkhead(), contextProperties.totalPoolSize());
+            Route route = new Route(context, template, dataSource, bulkhead,
+                    new ContextCircuitBreaker(context, contextProperties.getCircuitBreaker()),
+                    createHedgedQueryExecutor(context, contextProperties, dataSource, bulkhead));
+            routeTable.put(beanName, route);
+            routeTable.put(context, route);
+            contextTable.put(context, route);
+        }
+        this.routes = routeTable;
+        this.contexts = Collections.unmodifiableMap(contextTable);
+        this.defaultRoute = contextTable.get(BusinessDataSourceProperties.DEFAULT_CONTEXT);
+        log.info("Initialized BusinessSqlSessionTemplateRouter with contexts: {}", contextTable.keySet());
+        if (defaultRoute == null) {
             log.warn("No default Business SqlSessionTemplate configured.");
         }
     }
@@ -35,35 +75,144 @@ public class BusinessSqlSessionTemplateRouter {
     /**
      * 根据上下文标识符获取对应的 SqlSessionTemplate。
      *
-     * @param contextIdentifier 上下文标识符 (e.g., "risk", "crm")，对应 SqlSessionTemplate Bean 的 Qualifier/Name
+     * @param contextIdentifier 上下文标识符 (e.g., "risk", "crm")，对应 report.datasource.contexts 中的名称
      * @return 对应的 SqlSessionTemplate
      * @throws DatasourceConfigurationException 如果找不到对应的 Template 且没有默认值
      */
     public SqlSessionTemplate getSqlSessionTemplate(String contextIdentifier) {
-        SqlSessionTemplate selectedTemplate = null;
+        return route(contextIdentifier).getSqlSessionTemplate();
+    }
+
+    /**
+     * 获取上下文对应的业务 DataSource (与 SqlSessionTemplate 使用同一个连接池)。
+     *
+     * @throws DatasourceConfigurationException 如果找不到对应的 Template 且没有默认值
+     */
+    public DataSource getDataSource(String contextIdentifier) {
+        return route(contextIdentifier).getDataSource();
+    }
 
-        if (contextIdentifier != null && businessSqlSessionTemplates.containsKey(contextIdentifier + "DbSqlSessionTemplate")) {
-            // 尝试根据 contextIdentifier + "DbSqlSessionTemplate" 获取 (匹配我们之前的 Bean 名称)
-            selectedTemplate = businessSqlSessionTemplates.get(contextIdentifier + "DbSqlSessionTemplate");
-            log.debug("Routing to SqlSessionTemplate with key: {}", contextIdentifier + "DbSqlSessionTemplate");
-        } else if (contextIdentifier != null && businessSqlSessionTemplates.containsKey(contextIdentifier)) {
-            // 或者直接尝试使用 contextIdentifier 作为 Key (如果 Bean 名称就是它)
-            selectedTemplate = businessSqlSessionTemplates.get(contextIdentifier);
-            log.debug("Routing to SqlSessionTemplate with key: {}", contextIdentifier);
+    /**
+     * 在上下文的舱壁与熔断器保护下执行查询: 先检查熔断器，再获取舱壁名额，执行结果 (耗时、是否失败) 计入熔断器。
+     * 只有数据库返回的错误计为失败 (见 {@link ContextCircuitBreaker#isRecordedFailure})；舱壁拒绝、配置错误、
+     * 结果超限等没有反映数据库状态的异常不计入，半开状态下归还试探名额。
+     *
+     * @throws DatasourceUnavailableException 熔断器打开或舱壁已满
+     */
+    public <T> T execute(String contextIdentifier, Supplier<T> query) {
+        Route route = route(contextIdentifier);
+        ContextCircuitBreaker circuitBreaker = route.getCircuitBreaker();
+        ContextBulkhead bulkhead = route.getBulkhead();
+        HedgedQueryExecutor hedgedQueryExecutor = route.getHedgedQueryExecutor();
+        circuitBreaker.acquirePermission();
+        try {
+            bulkhead.acquire();
+        } catch (RuntimeException e) {
+            circuitBreaker.onIgnored();
+            throw e;
+        }
+        long start = System.nanoTime();
+        Throwable error = null;
+        try {
+            // 对冲时名额交给执行器: 每次尝试各占一个名额，在该尝试结束时归还
+            return hedgedQueryExecutor != null ? hedgedQueryExecutor.execute(query, bulkhead) : query.get();
+        } catch (RuntimeException | Error e) {
+            error = e;
+            throw e;
+        } finally {
+            if (hedgedQueryExecutor == null) {
+                bulkhead.release();
+            }
+            if (error == null || ContextCircuitBreaker.isRecordedFailure(error)) {
+                circuitBreaker.onResult(System.nanoTime() - start, error != null);
+            } else {
+                circuitBreaker.onIgnored();
+            }
         }
+    }
 
+    @PreDestroy
+    public void shutdown() {
+        if (hedgeExecutor != null) {
+            hedgeExecutor.shutdownNow();
+        }
+    }
 
-        if (selectedTemplate != null) {
-            return selectedTemplate;
-        } else {
-            // 如果找不到指定的，尝试返回默认的
-            if (defaultSqlSessionTemplate != null) {
+    /**
+     * @return 所有已注册的上下文 (上下文名 -> 路由)
+     */
+    public Map<String, Route> getContexts() {
+        return contexts;
+    }
+
+    /**
+     * 查找上下文的路由，找不到时使用 default 上下文。
+     *
+     * @throws DatasourceConfigurationException 如果找不到且没有默认上下文
+     */
+    public Route route(String contextIdentifier) {
+        if (contextIdentifier != null) {
+            Route route = routes.get(contextIdentifier);
+            if (route != null) {
+                return route;
+            }
+        }
+        if (defaultRoute != null) {
+            if (contextIdentifier != null) {
                 log.warn("SqlSessionTemplate not found for context '{}', falling back to default.", contextIdentifier);
-                return defaultSqlSessionTemplate;
-            } else {
-                log.error("SqlSessionTemplate not found for context '{}' and no default is configured.", contextIdentifier);
-                throw new DatasourceConfigurationException("No suitable SqlSessionTemplate found for context: " + contextIdentifier); // 需要定义这个异常
             }
+            return defaultRoute;
+        }
+        log.error("SqlSessionTemplate not found for context '{}' and no default is configured.", contextIdentifier);
+        throw new DatasourceConfigurationException("No suitable SqlSessionTemplate found for context: " + contextIdentifier);
+    }
+
+    private HedgedQueryExecutor createHedgedQueryExecutor(String context, BusinessDataSourceProperties.ContextProperties properties,
+                                                         DataSource dataSource, ContextBulkhead bulkhead) {
+        if (!properties.getHedging().isEnabled()) {
+            return null;
+        }
+        if (!(dataSource instanceof ReplicaSetDataSource) || ((ReplicaSetDataSource) dataSource).size() < 2) {
+            log.warn("Hedging is enabled for datasource context '{}' but it has fewer than 2 members; hedging ignored.", context);
+            return null;
+        }
+        // 每次尝试都占用一个舱壁名额, 线程数上限为各对冲上下文的名额之和 (舱壁关闭时为连接池大小); 线程按需创建, 空闲 60 秒回收。
+        // 线程池已满时不排队: 第一次尝试在调用线程执行, 第二次尝试放弃
+        int threads = bulkhead.isEnabled() ? bulkhead.getMaxConcurrentCalls() : properties.totalPoolSize();
+        if (hedgeExecutor == null) {
+            AtomicInteger threadCount = new AtomicInteger();
+            ThreadFactory threadFactory = runnable -> {
+                Thread thread = new Thread(runnable, "report-hedge-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+            hedgeExecutor = new ThreadPoolExecutor(0, threads, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), threadFactory);
+        } else {
+            hedgeExecutor.setMaximumPoolSize(hedgeExecutor.getMaximumPoolSize() + threads);
+        }
+        return new HedgedQueryExecutor(context, (ReplicaSetDataSource) dataSource, properties.getHedging(), hedgeExecutor);
+    }
+
+    /**
+     * 一个数据源上下文的路由目标。
+     */
+    @Getter
+    public static final class Route {
+        private final String context;
+        private final SqlSessionTemplate sqlSessionTemplate;
+        private final DataSource dataSource;
+        private final ContextBulkhead bulkhead;
+        private final ContextCircuitBreaker circuitBreaker;
+        private final HedgedQueryExecutor hedgedQueryExecutor; // 未开启对冲时为 null
+
+        private Route(String context, SqlSessionTemplate sqlSessionTemplate, DataSource dataSource,
+                      ContextBulkhead bulkhead, ContextCircuitBreaker circuitBreaker, HedgedQueryExecutor hedgedQueryExecutor) {
+            this.context = context;
+            this.sqlSessionTemplate = sqlSessionTemplate;
+            this.dataSource = dataSource;
+            this.bulkhead = bulkhead;
+            this.circuitBreaker = circuitBreaker;
+            this.hedgedQueryExecutor = hedgedQueryExecutor;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,87 @@
+package org.makotogu.metaReportEngine.datasource.routing;
+
+import org.makotogu.metaReportEngine.config.BusinessDataSourceProperties;
+import org.makotogu.metaReportEngine.shard.exception.DatasourceExecutionException;
+import org.makotogu.metaReportEngine.shard.exception.DatasourceUnavailableException;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 一个数据源上下文的舱壁: 用信号量限制同时执行的查询数，获取不到时最多等待 maxWaitMs 后拒绝。
+ */
+public class ContextBulkhead {
+
+    private final String context;
+    private final boolean enabled;
+    private final int maxConcurrentCalls;
+    private final long maxWaitMs;
+    private final Semaphore semaphore;
+    private final LongAdder rejectedCalls = new LongAdder();
+
+    public ContextBulkhead(String context, BusinessDataSourceProperties.BulkheadProperties properties, int defaultMaxConcurrentCalls) {
+        this.context = context;
+        this.enabled = properties.isEnabled();
+        this.maxConcurrentCalls = properties.getMaxConcurrentCalls() != null ? properties.getMaxConcurrentCalls() : defaultMaxConcurrentCalls;
+        this.maxWaitMs = properties.getMaxWaitMs();
+        this.semaphore = new Semaphore(maxConcurrentCalls, true);
+    }
+
+    /**
+     * 获取一个执行许可。
+     *
+     * @throws DatasourceUnavailableException 等待超时
+     */
+    public void acquire() {
+        if (!enabled) {
+            return;
+        }
+        boolean acquired;
+        try {
+            acquired = maxWaitMs > 0 ? semaphore.tryAcquire(maxWaitMs, TimeUnit.MILLISECONDS) : semaphore.tryAcquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DatasourceExecutionException("Interrupted while waiting for bulkhead of datasource context: " + context, e);
+        }
+        if (!acquired) {
+            rejectedCalls.increment();
+            throw new DatasourceUnavailableException("Bulkhead full for datasource context '" + context + "': "
+                    + maxConcurrentCalls + " concurrent calls, waited " + maxWaitMs + "ms");
+        }
+    }
+
+    /**
+     * 不等待地获取一个执行许可 (对冲查询的第二次尝试使用: 舱壁已满时不对冲，而不是排队)。
+     */
+    public boolean tryAcquire() {
+        return !enabled || semaphore.tryAcquire();
+    }
+
+    public void release() {
+        if (enabled) {
+            semaphore.release();
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getMaxConcurrentCalls() {
+        return maxConcurrentCalls;
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", enabled);
+        metrics.put("maxConcurrentCalls", maxConcurrentCalls);
+        metrics.put("maxWaitMs", maxWaitMs);
+        metrics.put("inFlight", enabled ? maxConcurrentCalls - semaphore.availablePermits() : null);
+        metrics.put("waiting", semaphore.getQueueLength());
+        metrics.put("rejected", rejectedCalls.sum());
+        return metrics;
+    }
+}
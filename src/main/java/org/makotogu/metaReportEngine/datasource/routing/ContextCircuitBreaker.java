@@ -0,0 +1,215 @@
+package org.makotogu.metaReportEngine.datasource.routing;
+
+import lombok.extern.slf4j.Slf4j;
+import org.makotogu.metaReportEngine.config.BusinessDataSourceProperties;
+import org.makotogu.metaReportEngine.shard.exception.DatasourceUnavailableException;
+
+import java.sql.SQLDataException;
+import java.sql.SQLException;
+import java.sql.SQLSyntaxErrorException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 一个数据源上下文的熔断器 (按调用次数的滑动窗口)。
+ * <ul>
+ *     <li>CLOSED: 正常放行，记录最近 slidingWindowSize 次调用的结果; 调用数达到 minimumCalls 且失败率或慢调用率超过阈值时打开。</li>
+ *     <li>OPEN: 直接拒绝，waitInOpenStateMs 后进入 HALF_OPEN。</li>
+ *     <li>HALF_OPEN: 放行 permittedCallsInHalfOpenState 次试探调用，全部完成后按同样的阈值决定关闭还是重新打开。</li>
+ * </ul>
+ * 只有数据库返回的错误计为失败 ({@link #isRecordedFailure})，其他异常的调用通过 {@link #onIgnored()} 不计入结果。
+ * 调用量不大 (每次查询一次)，状态变更用 synchronized 保护即可。
+ */
+@Slf4j
+public class ContextCircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String context;
+    private final BusinessDataSourceProperties.CircuitBreakerProperties properties;
+    private final long slowCallNanos;
+
+    // 滑动窗口: 环形数组记录每次调用的结果
+    private final byte[] outcomes;
+    private int windowIndex;
+    private int windowCount;
+    private int failureCount;
+    private int slowCount;
+
+    private State state = State.CLOSED;
+    private long openUntilNanos;
+    private int halfOpenPermits;    // HALF_OPEN 剩余可放行的调用数
+    private int halfOpenCompleted;  // HALF_OPEN 已完成的调用数
+    private final LongAdder notPermittedCalls = new LongAdder();
+
+    private static final byte SUCCESS = 0;
+    private static final byte FAILURE = 1;
+    private static final byte SLOW = 2;            // 成功但超过慢调用阈值
+    private static final byte SLOW_FAILURE = 3;    // 失败且超过慢调用阈值
+
+    public ContextCircuitBreaker(String context, BusinessDataSourceProperties.CircuitBreakerProperties properties) {
+        this.context = context;
+        this.properties = properties;
+        this.slowCallNanos = TimeUnit.MILLISECONDS.toNanos(properties.getSlowCallDurationMs());
+        this.outcomes = new byte[Math.max(1, properties.getSlidingWindowSize())];
+    }
+
+    /**
+     * 检查是否允许调用。
+     *
+     * @throws DatasourceUnavailableException 熔断器打开 (或半开状态的试探名额已用完)
+     */
+    public synchronized void acquirePermission() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        if (state == State.OPEN && System.nanoTime() - openUntilNanos >= 0) {
+            transitionTo(State.HALF_OPEN);
+        }
+        if (state == State.CLOSED) {
+            return;
+        }
+        if (state == State.HALF_OPEN && halfOpenPermits > 0) {
+            halfOpenPermits--;
+            return;
+        }
+        notPermittedCalls.increment();
+        throw new DatasourceUnavailableException("Circuit breaker is " + state + " for datasource context '" + context + "'");
+    }
+
+    /**
+     * 记录一次已放行调用的结果。
+     */
+    public synchronized void onResult(long durationNanos, boolean failure) {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        boolean slow = durationNanos >= slowCallNanos;
+        if (state == State.HALF_OPEN) {
+            record(failure, slow);
+            halfOpenCompleted++;
+            if (halfOpenCompleted >= properties.getPermittedCallsInHalfOpenState()) {
+                transitionTo(exceedsThresholds() ? State.OPEN : State.CLOSED);
+            }
+        } else if (state == State.CLOSED) {
+            record(failure, slow);
+            if (windowCount >= properties.getMinimumCalls() && exceedsThresholds()) {
+                transitionTo(State.OPEN);
+            }
+        }
+        // OPEN 状态下完成的调用 (打开前已放行) 不再计入
+    }
+
+    /**
+     * 已放行的调用没有得到可以反映数据库状态的结果 (舱壁拒绝、配置错误、结果超限等)，不计入窗口;
+     * 半开状态下归还试探名额，否则这些调用会占用名额而永远不完成试探。
+     */
+    public synchronized void onIgnored() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        if (state == State.HALF_OPEN) {
+            halfOpenPermits = Math.min(halfOpenPermits + 1, properties.getPermittedCallsInHalfOpenState() - halfOpenCompleted);
+        }
+    }
+
+    /**
+     * 异常是否计为熔断器的失败: 异常链中包含数据库返回的 SQLException (连接失败、超时、执行错误等)。
+     * SQL 语法错误与数据错误 (配置问题)、参数求值失败、结果超限、舱壁拒绝等不计入，
+     * 否则一个配置错误的查询就会让该上下文的所有报告快速失败。
+     */
+    public static boolean isRecordedFailure(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLException) {
+                return !(cause instanceof SQLSyntaxErrorException) && !(cause instanceof SQLDataException);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 手动重置为 CLOSED (管理接口使用)。
+     */
+    public synchronized void reset() {
+        transitionTo(State.CLOSED);
+    }
+
+    public synchronized Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", properties.isEnabled());
+        metrics.put("state", state);
+        metrics.put("bufferedCalls", windowCount);
+        metrics.put("failureRate", windowCount == 0 ? 0f : failureRate());
+        metrics.put("slowCallRate", windowCount == 0 ? 0f : slowCallRate());
+        metrics.put("notPermittedCalls", notPermittedCalls.sum());
+        metrics.put("failureRateThreshold", properties.getFailureRateThreshold());
+        metrics.put("slowCallRateThreshold", properties.getSlowCallRateThreshold());
+        metrics.put("slowCallDurationMs", properties.getSlowCallDurationMs());
+        return metrics;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    private void record(boolean failure, boolean slow) {
+        byte outcome = failure ? (slow ? SLOW_FAILURE : FAILURE) : (slow ? SLOW : SUCCESS);
+        if (windowCount == outcomes.length) {
+            // 窗口已满, 覆盖最早的结果
+            byte evicted = outcomes[windowIndex];
+            if (evicted == FAILURE || evicted == SLOW_FAILURE) {
+                failureCount--;
+            }
+            if (evicted == SLOW || evicted == SLOW_FAILURE) {
+                slowCount--;
+            }
+        } else {
+            windowCount++;
+        }
+        outcomes[windowIndex] = outcome;
+        windowIndex = (windowIndex + 1) % outcomes.length;
+        if (failure) {
+            failureCount++;
+        }
+        if (slow) {
+            slowCount++;
+        }
+    }
+
+    private boolean exceedsThresholds() {
+        return failureRate() >= properties.getFailureRateThreshold() || slowCallRate() >= properties.getSlowCallRateThreshold();
+    }
+
+    private float failureRate() {
+        return failureCount * 100f / windowCount;
+    }
+
+    private float slowCallRate() {
+        return slowCount * 100f / windowCount;
+    }
+
+    private void transitionTo(State newState) {
+        if (newState == state) {
+            return;
+        }
+        if (newState == State.OPEN) {
+            log.warn("Circuit breaker for datasource context '{}' OPEN: failure rate {}%, slow call rate {}% over {} calls",
+                    context, failureRate(), slowCallRate(), windowCount);
+            openUntilNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(properties.getWaitInOpenStateMs());
+        } else {
+            log.info("Circuit breaker for datasource context '{}' {} -> {}", context, state, newState);
+        }
+        state = newState;
+        // 每个状态重新统计
+        windowIndex = 0;
+        windowCount = 0;
+        failureCount = 0;
+        slowCount = 0;
+        halfOpenPermits = newState == State.HALF_OPEN ? properties.getPermittedCallsInHalfOpenState() : 0;
+        halfOpenCompleted = 0;
+    }
+}
@@ -0,0 +1,269 @@
+package org.makotogu.metaReportEngine.datasource.routing;
+
+import org.makotogu.metaReportEngine.config.BusinessDataSourceProperties;
+import org.makotogu.metaReportEngine.shard.exception.DatasourceExecutionException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 一个副本集上下文的对冲查询执行器。
+ * <p>
+ * 查询先在选中的成员上执行，超过最近耗时的 percentile 分位 (不低于 minDelayMs) 仍未返回时，
+ * 向另一个成员再发一次，取先成功的结果; 两次都失败时抛出后失败的异常。
+ * 落后的那次不会被中断 (中断 JDBC 调用可能让连接处于不确定状态)，完成后结果直接丢弃，连接照常归还。
+ * 报表查询都是只读的，重复执行没有副作用。查询只使用调用前解析好的参数，不读取请求的执行上下文
+ * (执行上下文不是线程安全的，落后的尝试结束时请求可能已经在写入或释放其中的数据)。
+ * <p>
+ * 每次尝试各自占用一个舱壁名额 ({@link ContextBulkhead})，在该尝试结束时 (包括落后的那次) 才归还，
+ * 因此同时占用的连接数不会超过舱壁上限; 舱壁或对冲线程池已满时不对冲。
+ * 落后的尝试完成后，执行 {@link #onResultDiscarded(Runnable)} 注册的清理 (例如归还该结果计入的生成结果预算)。
+ * <p>
+ * 每次尝试的耗时都计入样本 (环形数组)，样本数不足 minimumSamples 时不对冲，只在调用线程直接执行。
+ */
+public class HedgedQueryExecutor {
+
+    private static final int RECOMPUTE_INTERVAL = 32; // 每新增多少个样本重新计算一次分位数
+
+    // 当前线程正在执行的对冲尝试的清理动作 (不在对冲尝试中时为 null)
+    private static final ThreadLocal<List<Runnable>> DISCARD_ACTIONS = new ThreadLocal<>();
+
+    private final String context;
+    private final ReplicaSetDataSource replicaSet;
+    private final BusinessDataSourceProperties.HedgingProperties properties;
+    private final Executor executor;
+    private final long minDelayNanos;
+
+    private final long[] samples;
+    private int sampleIndex;
+    private int sampleCount;
+    private int samplesSinceRecompute;
+    private volatile long hedgeDelayNanos = -1; // -1: 样本不足, 不对冲
+
+    private final LongAdder hedgedCalls = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+    private final LongAdder skippedHedges = new LongAdder();   // 舱壁或线程池已满而没有对冲
+    private final LongAdder discardedResults = new LongAdder();
+    private final LongAdder calls = new LongAdder();
+
+    public HedgedQueryExecutor(String context, ReplicaSetDataSource replicaSet,
+                               BusinessDataSourceProperties.HedgingProperties properties, Executor executor) {
+        this.context = context;
+        this.replicaSet = replicaSet;
+        this.properties = properties;
+        this.executor = executor;
+        this.minDelayNanos = TimeUnit.MILLISECONDS.toNanos(properties.getMinDelayMs());
+        this.samples = new long[Math.max(1, properties.getSampleSize())];
+    }
+
+    /**
+     * 注册当前尝试的结果被丢弃 (对冲中落后的一次成功返回) 时执行的清理。不在对冲尝试中调用时什么也不做。
+     */
+    public static void onResultDiscarded(Runnable action) {
+        List<Runnable> actions = DISCARD_ACTIONS.get();
+        if (actions != null) {
+            actions.add(action);
+        }
+    }
+
+    /**
+     * 执行查询，必要时对冲。
+     *
+     * @param bulkhead 上下文的舱壁。调用方已为第一次尝试获取一个名额，该名额在第一次尝试结束时由本方法 (或执行线程) 归还;
+     *                 第二次尝试另外获取名额，获取不到时不对冲
+     */
+    public <T> T execute(Supplier<T> query, ContextBulkhead bulkhead) {
+        calls.increment();
+        long delayNanos = hedgeDelayNanos;
+        ReplicaSetDataSource.Attempt primary = new ReplicaSetDataSource.Attempt(-1);
+        if (delayNanos < 0 || replicaSet.size() < 2) {
+            return runInCaller(primary, query, bulkhead);
+        }
+
+        HedgedCall<T> call = new HedgedCall<>();
+        if (!submit(primary, query, call, bulkhead, false)) {
+            skippedHedges.increment();
+            return runInCaller(primary, query, bulkhead);
+        }
+        try {
+            return call.result.get(delayNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            // 主请求慢于分位耗时: 向另一个成员再发一次 (主请求恰好已失败、舱壁或线程池已满时不再对冲)
+            hedge(new ReplicaSetDataSource.Attempt(primary.getChosen()), query, call, bulkhead);
+            return await(call.result);
+        } catch (InterruptedException | ExecutionException e) {
+            return unwrap(e);
+        }
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        metrics.put("enabled", true);
+        metrics.put("percentile", properties.getPercentile());
+        long delay = hedgeDelayNanos;
+        metrics.put("hedgeDelayMs", delay < 0 ? null : TimeUnit.NANOSECONDS.toMillis(delay));
+        metrics.put("calls", calls.sum());
+        metrics.put("hedgedCalls", hedgedCalls.sum());
+        metrics.put("hedgeWins", hedgeWins.sum());
+        metrics.put("skippedHedges", skippedHedges.sum());
+        metrics.put("discardedResults", discardedResults.sum());
+        return metrics;
+    }
+
+    private <T> T runInCaller(ReplicaSetDataSource.Attempt attempt, Supplier<T> query, ContextBulkhead bulkhead) {
+        long start = System.nanoTime();
+        try {
+            T result = replicaSet.callOn(attempt, query);
+            recordSample(System.nanoTime() - start);
+            return result;
+        } finally {
+            bulkhead.release();
+        }
+    }
+
+    private <T> void hedge(ReplicaSetDataSource.Attempt attempt, Supplier<T> query, HedgedCall<T> call, ContextBulkhead bulkhead) {
+        if (!bulkhead.tryAcquire()) {
+            skippedHedges.increment();
+            return;
+        }
+        if (!call.addAttempt()) {
+            bulkhead.release();
+            return;
+        }
+        if (submit(attempt, query, call, bulkhead, true)) {
+            hedgedCalls.increment();
+        } else {
+            skippedHedges.increment();
+            bulkhead.release();
+            call.attemptAbandoned();
+        }
+    }
+
+    /**
+     * 在对冲线程池中执行一次尝试，该尝试结束时归还它的舱壁名额。
+     *
+     * @return false 表示线程池已满，尝试没有执行 (名额仍由调用方持有)
+     */
+    private <T> boolean submit(ReplicaSetDataSource.Attempt attempt, Supplier<T> query, HedgedCall<T> call,
+                               ContextBulkhead bulkhead, boolean hedge) {
+        try {
+            executor.execute(() -> {
+                List<Runnable> discardActions = new ArrayList<>();
+                DISCARD_ACTIONS.set(discardActions);
+                long start = System.nanoTime();
+                try {
+                    T value = replicaSet.callOn(attempt, query);
+                    recordSample(System.nanoTime() - start);
+                    if (call.result.complete(value)) {
+                        if (hedge) {
+                            hedgeWins.increment();
+                        }
+                    } else {
+                        discardedResults.increment();
+                        discardActions.forEach(Runnable::run);
+                    }
+                } catch (Throwable t) {
+                    call.attemptFailed(t);
+                } finally {
+                    DISCARD_ACTIONS.remove();
+                    bulkhead.release();
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    private <T> T await(CompletableFuture<T> result) {
+        try {
+            return result.get();
+        } catch (InterruptedException | ExecutionException e) {
+            return unwrap(e);
+        }
+    }
+
+    private <T> T unwrap(Exception e) {
+        if (e instanceof InterruptedException) {
+            Thread.currentThread().interrupt();
+            throw new DatasourceExecutionException("Interrupted while waiting for hedged query on datasource context: " + context, e);
+        }
+        Throwable cause = e.getCause();
+        if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        }
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        throw new DatasourceExecutionException("Hedged query failed on datasource context: " + context, cause);
+    }
+
+    private synchronized void recordSample(long nanos) {
+        samples[sampleIndex] = nanos;
+        sampleIndex = (sampleIndex + 1) % samples.length;
+        if (sampleCount < samples.length) {
+            sampleCount++;
+        }
+        if (sampleCount < properties.getMinimumSamples() || ++samplesSinceRecompute < RECOMPUTE_INTERVAL && hedgeDelayNanos >= 0) {
+            return;
+        }
+        samplesSinceRecompute = 0;
+        long[] sorted = Arrays.copyOf(samples, sampleCount);
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(properties.getPercentile() / 100d * sorted.length) - 1;
+        long percentileNanos = sorted[Math.max(0, Math.min(sorted.length - 1, rank))];
+        hedgeDelayNanos = Math.max(minDelayNanos, percentileNanos);
+    }
+
+    /**
+     * 一次对冲调用: 先成功的尝试完成 result; 所有尝试都失败时以最后一次失败结束。
+     */
+    private static final class HedgedCall<T> {
+        private final CompletableFuture<T> result = new CompletableFuture<>();
+        private final AtomicInteger pending = new AtomicInteger(1); // 尚未结束的尝试数
+        private volatile Throwable lastFailure;
+
+        /**
+         * 增加一次尝试; 所有尝试都已失败时返回 false。
+         */
+        private boolean addAttempt() {
+            for (;;) {
+                int current = pending.get();
+                if (current == 0) {
+                    return false;
+                }
+                if (pending.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        private void attemptFailed(Throwable failure) {
+            lastFailure = failure;
+            if (pending.decrementAndGet() == 0) {
+                result.completeExceptionally(failure);
+            }
+        }
+
+        /**
+         * 已计入的尝试没能执行。
+         */
+        private void attemptAbandoned() {
+            if (pending.decrementAndGet() == 0) {
+                result.completeExceptionally(lastFailure);
+            }
+        }
+    }
+}
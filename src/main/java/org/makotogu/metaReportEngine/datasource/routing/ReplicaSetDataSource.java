@@ -0,0 +1,251 @@
+package org.makotogu.metaReportEngine.datasource.routing;
+
+import lombok.extern.slf4j.Slf4j;
+import org.makotogu.metaReportEngine.config.BusinessDataSourceProperties;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 由多个连接池 (主库 + 只读副本) 组成的 DataSource。每次 getConnection 按选择策略挑一个成员:
+ * <ul>
+ *     <li>LEAST_OUTSTANDING: 借出连接数最少的成员，相同时轮询</li>
+ *     <li>LATENCY_AWARE: EWMA 耗时 × (借出连接数 + 1) 最低的成员，没有样本的成员优先 (预热)</li>
+ * </ul>
+ * 借出的连接被代理，close 时归还计数并按借出时长更新该成员的 EWMA 耗时 (一次查询一个连接, 借出时长即查询耗时)。
+ * SqlSessionFactory / JdbcTemplate 直接使用本 DataSource，不需要感知副本。
+ * <p>
+ * 对冲查询需要把两次尝试放到不同成员上: {@link #callOn(Attempt, Supplier)} 在当前线程绑定一次尝试，
+ * 尝试内获取的连接会避开 {@link Attempt#excluded} 成员，并记录选中的成员。
+ */
+@Slf4j
+public class ReplicaSetDataSource extends AbstractDataSource implements Closeable {
+
+    private static final double EWMA_ALPHA = 0.2;
+
+    private final String context;
+    private final BusinessDataSourceProperties.ReplicaSelection selection;
+    private final Member[] members;
+    private final AtomicInteger roundRobin = new AtomicInteger();
+    private final ThreadLocal<Attempt> currentAttempt = new ThreadLocal<>();
+
+    public ReplicaSetDataSource(String context, BusinessDataSourceProperties.ReplicaSelection selection,
+                                Map<String, DataSource> members) {
+        if (members.isEmpty()) {
+            throw new IllegalArgumentException("Replica set of datasource context '" + context + "' has no members.");
+        }
+        this.context = context;
+        this.selection = selection;
+        this.members = new Member[members.size()];
+        int i = 0;
+        for (Map.Entry<String, DataSource> entry : members.entrySet()) {
+            this.members[i] = new Member(i, entry.getKey(), entry.getValue());
+            i++;
+        }
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return borrow(null, null);
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return borrow(username, password);
+    }
+
+    public int size() {
+        return members.length;
+    }
+
+    /**
+     * 在当前线程绑定一次尝试后执行查询。
+     */
+    public <T> T callOn(Attempt attempt, Supplier<T> query) {
+        Attempt previous = currentAttempt.get();
+        currentAttempt.set(attempt);
+        try {
+            return query.get();
+        } finally {
+            if (previous == null) {
+                currentAttempt.remove();
+            } else {
+                currentAttempt.set(previous);
+            }
+        }
+    }
+
+    /**
+     * @return 成员名 -> DataSource (用于管理接口展示各连接池状态)
+     */
+    public Map<String, DataSource> getMembers() {
+        Map<String, DataSource> result = new LinkedHashMap<>();
+        for (Member member : members) {
+            result.put(member.name, member.dataSource);
+        }
+        return result;
+    }
+
+    public List<Map<String, Object>> getMemberMetrics() {
+        List<Map<String, Object>> result = new ArrayList<>(members.length);
+        for (Member member : members) {
+            Map<String, Object> metrics = new LinkedHashMap<>();
+            metrics.put("name", member.name);
+            metrics.put("outstanding", member.outstanding.get());
+            metrics.put("selected", member.selected.sum());
+            metrics.put("ewmaLatencyMs", member.latencySampled ? Math.round(member.ewmaNanos / 1e4) / 100d : null);
+            result.add(metrics);
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    public BusinessDataSourceProperties.ReplicaSelection getSelection() {
+        return selection;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Member member : members) {
+            if (member.dataSource instanceof Closeable) {
+                try {
+                    ((Closeable) member.dataSource).close();
+                } catch (IOException e) {
+                    log.warn("Failed to close replica '{}' of datasource context '{}'", member.name, context, e);
+                }
+            }
+        }
+    }
+
+    private Connection borrow(String username, String password) throws SQLException {
+        Attempt attempt = currentAttempt.get();
+        Member member = select(attempt != null ? attempt.excluded : -1);
+        if (attempt != null) {
+            attempt.chosen = member.index;
+        }
+        member.selected.increment();
+        member.outstanding.incrementAndGet();
+        Connection connection;
+        try {
+            connection = username == null ? member.dataSource.getConnection() : member.dataSource.getConnection(username, password);
+        } catch (SQLException | RuntimeException e) {
+            member.outstanding.decrementAndGet();
+            throw e;
+        }
+        return (Connection) Proxy.newProxyInstance(ReplicaSetDataSource.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, new TrackedConnection(connection, member));
+    }
+
+    private Member select(int excluded) {
+        int n = members.length;
+        if (n == 1) {
+            return members[0];
+        }
+        int start = Math.floorMod(roundRobin.getAndIncrement(), n);
+        Member best = null;
+        double bestScore = Double.MAX_VALUE;
+        for (int k = 0; k < n; k++) {
+            Member member = members[(start + k) % n];
+            if (member.index == excluded) {
+                continue;
+            }
+            double score = selection == BusinessDataSourceProperties.ReplicaSelection.LATENCY_AWARE
+                    ? (member.latencySampled ? member.ewmaNanos : 0d) * (member.outstanding.get() + 1)
+                    : member.outstanding.get();
+            if (score < bestScore) {
+                best = member;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 一次查询尝试: excluded 为需要避开的成员下标 (-1 表示不限)，chosen 为实际选中的成员下标。
+     */
+    public static final class Attempt {
+        private final int excluded;
+        private volatile int chosen = -1;
+
+        public Attempt(int excluded) {
+            this.excluded = excluded;
+        }
+
+        public int getChosen() {
+            return chosen;
+        }
+    }
+
+    private static final class Member {
+        private final int index;
+        private final String name;
+        private final DataSource dataSource;
+        private final AtomicInteger outstanding = new AtomicInteger();
+        private final LongAdder selected = new LongAdder();
+        // 并发更新时可能丢失个别样本, 对平滑后的耗时影响可以忽略
+        private volatile double ewmaNanos;
+        private volatile boolean latencySampled;
+
+        private Member(int index, String name, DataSource dataSource) {
+            this.index = index;
+            this.name = name;
+            this.dataSource = dataSource;
+        }
+
+        private void recordLatency(long nanos) {
+            ewmaNanos = latencySampled ? ewmaNanos + EWMA_ALPHA * (nanos - ewmaNanos) : nanos;
+            latencySampled = true;
+        }
+    }
+
+    /**
+     * 连接代理: 第一次 close 时归还借出计数并记录借出时长。
+     */
+    private static final class TrackedConnection implements InvocationHandler {
+        private final Connection target;
+        private final Member member;
+        private final long borrowedAt = System.nanoTime();
+        private boolean closed;
+
+        private TrackedConnection(Connection target, Member member) {
+            this.target = target;
+            this.member = member;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if ("close".equals(name) && !closed) {
+                closed = true;
+                member.outstanding.decrementAndGet();
+                member.recordLatency(System.nanoTime() - borrowedAt);
+            } else if ("equals".equals(name)) {
+                return proxy == args[0];
+            } else if ("hashCode".equals(name)) {
+                return System.identityHashCode(proxy);
+            } else if ("unwrap".equals(name) && ((Class<?>) args[0]).isInstance(proxy)) {
+                return proxy;
+            }
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getTargetException();
+            }
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package org.makotogu.metaReportEngine.datasource.spi;
+
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * 聚合下推查询中的一个输出列。
+ */
+@Getter
+@ToString
+public class AggregateColumn {
+
+    private final String function; // SUM, COUNT, MIN, MAX, COUNT_DISTINCT
+    private final String field;    // 原查询结果中的列名, COUNT 行数时为 null
+    private final String label;    // 结果行中的 key
+
+    public AggregateColumn(String function, String field, String label) {
+        this.function = function;
+        this.field = field;
+        this.label = label;
+    }
+}
@@ -0,0 +1,25 @@
+package org.makotogu.metaReportEngine.datasource.spi;
+
+import org.makotogu.metaReportEngine.metadata.dto.ReportConfigurationDto;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 支持聚合下推的数据源执行器: 在数据库中执行查询的聚合变体，只返回一行聚合结果，而不是把明细行加载到内存。
+ */
+public interface AggregateQueryExecutor {
+
+    /**
+     * 执行数据源查询的聚合变体。
+     *
+     * @param datasourceConfig 数据源配置 DTO
+     * @param queryParams      按 param_mapping 解析后的查询参数 (查询不读取执行上下文，见 DatasourceExecutor)
+     * @param columns          需要计算的聚合列
+     * @return label → 聚合值；返回 null 表示该数据源无法下推，调用方应回退为普通查询 + 内存聚合
+     * @throws org.makotogu.metaReportEngine.shard.exception.DatasourceExecutionException 如果聚合查询执行失败
+     */
+    Map<String, Object> executeAggregate(ReportConfigurationDto.DataSourceConfig datasourceConfig, Map<String, Object> queryParams,
+                                         List<AggregateColumn> columns);
+
+}
@@ -1,11 +1,19 @@
 package org.makotogu.metaReportEngine.datasource.spi;
 
+import org.makotogu.metaReportEngine.datasource.support.ResultSizeLimiter;
 import org.makotogu.metaReportEngine.metadata.dto.ReportConfigurationDto;
 
 import java.util.Map;
 
 public interface DatasourceExecutor {
 
+    /**
+     * 获取此执行器支持的查询类型标识 (对应 report_datasource.query_type, e.g., mybatis, jdbc_template)。
+     *
+     * @return 查询类型字符串 (小写)
+     */
+    String getQueryType();
+
     /**
      * 根据数据源配置执行查询并返回结果。
      *
@@ -16,4 +24,16 @@ public interface DatasourceExecutor {
      */
     Object execute(ReportConfigurationDto.DataSourceConfig datasourceConfig, Map<String, Object> executionContext);
 
+    /**
+     * 使用已解析的查询参数执行查询，不读取执行上下文 (例如参考快照的后台刷新，执行时请求可能已经结束)。
+     *
+     * @param datasourceConfig 数据源配置 DTO
+     * @param queryParams      按 param_mapping 解析后的查询参数
+     * @param budget           结果计入的生成预算，为 null 时不计入
+     * @return 查询结果
+     * @throws org.makotogu.metaReportEngine.shard.exception.DatasourceExecutionException 如果查询执行失败
+     */
+    Object execute(ReportConfigurationDto.DataSourceConfig datasourceConfig, Map<String, Object> queryParams,
+                   ResultSizeLimiter.GenerationBudget budget);
+
 }
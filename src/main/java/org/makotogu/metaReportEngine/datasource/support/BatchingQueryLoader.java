@@ -0,0 +1,306 @@
+package org.makotogu.metaReportEngine.datasource.support;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+import org.makotogu.metaReportEngine.shard.exception.DatasourceConfigurationException;
+import org.makotogu.metaReportEngine.shard.exception.DatasourceExecutionException;
+import org.mybatis.spring.SqlSessionTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import javax.annotation.PreDestroy;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 跨请求的批量查询加载器 (DataLoader 风格)。
+ * <p>
+ * 大量并发的单客户报告往往执行同一个语句，只是 customerId 不同。数据源在 options 中配置 batch 后，
+ * 同一语句 (且除 key 以外的参数相同) 的调用会在 windowMillis 内或凑满 maxBatchSize 个 key 后合并为一次批量查询:
+ * <pre>
+ * "options": {"batch": {"statement": "getLoansByCustomerIds", "keyParam": "customerId",
+ *                       "keysParam": "customerIds", "keyColumn": "customer_id",
+ *                       "maxBatchSize": 100, "windowMillis": 5}}
+ * </pre>
+ * 批量语句收到原参数 (不含 keyParam) 以及 keysParam (去重后的 key 列表)，返回所有 key 的行;
+ * 结果按 keyColumn 分发给各个等待的请求。数字 key 按数值比较 (Integer 1 与 Long 1 视为同一个 key)。
+ * 同一 key 有多个等待的请求时，每个请求得到自己的列表与行副本: 规则可能原地修改行 (例如 FORMATTER 的 targetField)。
+ */
+@Slf4j
+@Component
+public class BatchingQueryLoader {
+
+    private static final String OPTION_BATCH = "batch";
+
+    private final ScheduledExecutorService windowTimer;
+    private final ThreadPoolExecutor flushExecutor;
+    private final ConcurrentHashMap<BatchKey, PendingBatch> pendingBatches = new ConcurrentHashMap<>();
+
+    @Value("${report.engine.batch-loader.enabled:true}")
+    private boolean enabled;
+    @Value("${report.engine.batch-loader.wait-timeout-ms:30000}")
+    private long waitTimeoutMillis;
+
+    public BatchingQueryLoader(@Value("${report.engine.batch-loader.flush-threads:4}") int flushThreads) {
+        this.windowTimer = new ScheduledThreadPoolExecutor(1, daemonThreadFactory("report-batch-timer-"));
+        this.flushExecutor = new ThreadPoolExecutor(flushThreads, flushThreads, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), daemonThreadFactory("report-batch-flush-"));
+        this.flushExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 解析数据源的批量配置。未配置 batch 或全局关闭时返回 null。
+     *
+     * @throws DatasourceConfigurationException 如果 batch 配置不完整
+     */
+    public BatchSpec getBatchSpec(JsonNode options) {
+        if (!enabled || options == null || !options.hasNonNull(OPTION_BATCH)) {
+            return null;
+        }
+        return BatchSpec.parse(options.get(OPTION_BATCH));
+    }
+
+    /**
+     * 读取单个 key 的行: 加入当前窗口的批次并等待批量查询完成。key 参数为 null 时直接返回空列表。
+     *
+     * @throws DatasourceExecutionException 批量查询失败或等待超时
+     */
+    public List<Map<String, Object>> load(BatchSpec spec, String datasourceContext, SqlSessionTemplate sqlSessionTemplate,
+                                          Map<String, Object> queryParams) {
+        Object keyValue = queryParams.get(spec.getKeyParam());
+        Map<String, Object> sharedParams = new HashMap<>(queryParams);
+        sharedParams.remove(spec.getKeyParam());
+        if (keyValue == null) {
+            return Collections.emptyList(); // 与 "WHERE key IN (...)" 语义一致: null key 没有匹配的行
+        }
+
+        BatchKey batchKey = new BatchKey(datasourceContext, spec.getStatement(), sharedParams);
+        CompletableFuture<List<Map<String, Object>>> future = new CompletableFuture<>();
+        PendingBatch[] fullBatch = new PendingBatch[1];
+        pendingBatches.compute(batchKey, (key, batch) -> {
+            if (batch == null) {
+                PendingBatch newBatch = new PendingBatch(spec, sqlSessionTemplate, sharedParams);
+                windowTimer.schedule(() -> flushOnTimer(key, newBatch), spec.getWindowMillis(), TimeUnit.MILLISECONDS);
+                batch = newBatch;
+            }
+            batch.add(keyValue, future);
+            if (batch.keyCount() >= spec.getMaxBatchSize()) {
+                fullBatch[0] = batch;
+                return null; // 移出等待表, 后续调用开始新批次
+            }
+            return batch;
+        });
+        if (fullBatch[0] != null) {
+            // 凑满的批次由当前线程直接执行 (当前线程本来就要等待结果)
+            fullBatch[0].flush();
+        }
+        return await(future, spec);
+    }
+
+    private List<Map<String, Object>> await(CompletableFuture<List<Map<String, Object>>> future, BatchSpec spec) {
+        try {
+            return future.get(waitTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DatasourceExecutionException("Interrupted while waiting for batched statement: " + spec.getStatement(), e);
+        } catch (TimeoutException e) {
+            throw new DatasourceExecutionException("Timed out after " + waitTimeoutMillis + "ms waiting for batched statement: " + spec.getStatement(), e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof DatasourceExecutionException) {
+                throw (DatasourceExecutionException) cause;
+            }
+            throw new DatasourceExecutionException("Batched statement failed: " + spec.getStatement(), cause);
+        }
+    }
+
+    /**
+     * 窗口到期: 如果批次仍在等待表中 (没有因凑满而被取走)，交给 flush 线程池执行。
+     */
+    private void flushOnTimer(BatchKey key, PendingBatch batch) {
+        if (pendingBatches.remove(key, batch)) {
+            flushExecutor.execute(batch::flush);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        windowTimer.shutdownNow();
+        flushExecutor.shutdown();
+    }
+
+    /**
+     * 批量查询的 key 比较: 数字按数值比较，其他类型按 equals。
+     */
+    static Object normalizeKey(Object key) {
+        if (key instanceof Number) {
+            try {
+                return new BigDecimal(key.toString()).stripTrailingZeros();
+            } catch (NumberFormatException e) {
+                return key; // NaN / Infinity
+            }
+        }
+        return key;
+    }
+
+    private static ThreadFactory daemonThreadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * 数据源 options.batch 的配置。
+     */
+    @Getter
+    @ToString
+    public static final class BatchSpec {
+        private static final int DEFAULT_MAX_BATCH_SIZE = 100;
+        private static final long DEFAULT_WINDOW_MILLIS = 5;
+
+        private final String statement;  // 接收 key 集合的批量语句
+        private final String keyParam;   // 原查询中的 key 参数名 (param_mapping 中的参数)
+        private final String keysParam;  // 传给批量语句的 key 集合参数名
+        private final String keyColumn;  // 批量语句结果中用于分发的 key 列
+        private final int maxBatchSize;
+        private final long windowMillis;
+
+        private BatchSpec(String statement, String keyParam, String keysParam, String keyColumn, int maxBatchSize, long windowMillis) {
+            this.statement = statement;
+            this.keyParam = keyParam;
+            this.keysParam = keysParam;
+            this.keyColumn = keyColumn;
+            this.maxBatchSize = maxBatchSize;
+            this.windowMillis = windowMillis;
+        }
+
+        static BatchSpec parse(JsonNode node) {
+            String statement = node.path("statement").asText(null);
+            String keyParam = node.path("keyParam").asText(null);
+            String keyColumn = node.path("keyColumn").asText(null);
+            if (!StringUtils.hasText(statement) || !StringUtils.hasText(keyParam) || !StringUtils.hasText(keyColumn)) {
+                throw new DatasourceConfigurationException("Batch option requires 'statement', 'keyParam' and 'keyColumn': " + node);
+            }
+            String keysParam = node.path("keysParam").asText("keys");
+            int maxBatchSize = node.path("maxBatchSize").asInt(DEFAULT_MAX_BATCH_SIZE);
+            long windowMillis = node.path("windowMillis").asLong(DEFAULT_WINDOW_MILLIS);
+            if (maxBatchSize < 1 || windowMillis < 0) {
+                throw new DatasourceConfigurationException("Batch option 'maxBatchSize' must be >= 1 and 'windowMillis' >= 0: " + node);
+            }
+            return new BatchSpec(statement, keyParam, keysParam, keyColumn, maxBatchSize, windowMillis);
+        }
+    }
+
+    /**
+     * 可以合并为同一批次的调用: 相同的数据源上下文、批量语句以及除 key 以外的参数。
+     */
+    @EqualsAndHashCode
+    private static final class BatchKey {
+        private final String datasourceContext;
+        private final String statement;
+        private final Map<String, Object> sharedParams;
+
+        private BatchKey(String datasourceContext, String statement, Map<String, Object> sharedParams) {
+            this.datasourceContext = datasourceContext;
+            this.statement = statement;
+            this.sharedParams = sharedParams;
+        }
+    }
+
+    /**
+     * 一个等待执行的批次。add 只在 pendingBatches.compute 中调用，flush 只会执行一次 (批次移出等待表之后)。
+     */
+    private static final class PendingBatch {
+        private final BatchSpec spec;
+        private final SqlSessionTemplate sqlSessionTemplate;
+        private final Map<String, Object> sharedParams;
+        // 归一化后的 key -> (原始 key, 等待该 key 的请求)
+        private final Map<Object, Object> originalKeys = new LinkedHashMap<>();
+        private final Map<Object, List<CompletableFuture<List<Map<String, Object>>>>> waiters = new HashMap<>();
+
+        private PendingBatch(BatchSpec spec, SqlSessionTemplate sqlSessionTemplate, Map<String, Object> sharedParams) {
+            this.spec = spec;
+            this.sqlSessionTemplate = sqlSessionTemplate;
+            this.sharedParams = sharedParams;
+        }
+
+        void add(Object keyValue, CompletableFuture<List<Map<String, Object>>> future) {
+            Object normalized = normalizeKey(keyValue);
+            originalKeys.putIfAbsent(normalized, keyValue);
+            waiters.computeIfAbsent(normalized, k -> new ArrayList<>(1)).add(future);
+        }
+
+        int keyCount() {
+            return originalKeys.size();
+        }
+
+        void flush() {
+            Map<String, Object> batchParams = new HashMap<>(sharedParams);
+            batchParams.put(spec.getKeysParam(), new ArrayList<>(originalKeys.values()));
+            try {
+                List<Object> rows = sqlSessionTemplate.selectList(spec.getStatement(), batchParams);
+                Map<Object, List<Map<String, Object>>> rowsByKey = new HashMap<>();
+                for (Object row : rows) {
+                    if (!(row instanceof Map)) {
+                        throw new DatasourceExecutionException("Batched statement " + spec.getStatement() + " must return map rows, but returned: "
+                                + (row != null ? row.getClass().getName() : "null"));
+                    }
+                    @SuppressWarnings("unchecked")
+                    Map<String, Object> mapRow = (Map<String, Object>) row;
+                    rowsByKey.computeIfAbsent(normalizeKey(mapRow.get(spec.getKeyColumn())), k -> new ArrayList<>()).add(mapRow);
+                }
+                for (Map.Entry<Object, List<CompletableFuture<List<Map<String, Object>>>>> entry : waiters.entrySet()) {
+                    List<Map<String, Object>> keyRows = rowsByKey.getOrDefault(entry.getKey(), Collections.emptyList());
+                    List<CompletableFuture<List<Map<String, Object>>>> futures = entry.getValue();
+                    for (int i = 0; i < futures.size(); i++) {
+                        // 同一 key 的多个请求各自持有一份列表与行, 避免原地修改互相影响 (第一个请求使用原始行)
+                        futures.get(i).complete(i == 0 ? keyRows : copyRows(keyRows));
+                    }
+                }
+                log.debug("Batched statement [{}] executed for {} keys ({} rows)", spec.getStatement(), originalKeys.size(), rows.size());
+            } catch (RuntimeException e) { // PersistenceException 以及分发时的异常, 通知所有等待的请求
+                log.error("Batched statement [{}] failed for {} keys", spec.getStatement(), originalKeys.size(), e);
+                completeExceptionally(e);
+            }
+        }
+
+        private static List<Map<String, Object>> copyRows(List<Map<String, Object>> rows) {
+            List<Map<String, Object>> copy = new ArrayList<>(rows.size());
+            for (Map<String, Object> row : rows) {
+                copy.add(new LinkedHashMap<>(row));
+            }
+            return copy;
+        }
+
+        private void completeExceptionally(Throwable e) {
+            for (List<CompletableFuture<List<Map<String, Object>>>> futures : waiters.values()) {
+                for (CompletableFuture<List<Map<String, Object>>> waiter : futures) {
+                    waiter.completeExceptionally(e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package org.makotogu.metaReportEngine.datasource.support;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.makotogu.metaReportEngine.shard.exception.DatasourceExecutionException;
+import org.makotogu.metaReportEngine.shard.util.SpelEvaluator;
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * 数据源查询参数解析器, 供各 DatasourceExecutor 共用。
+ * <p>
+ * param_mapping 中每个参数对应一个 SpEL 表达式，表达式通过 #context 访问执行上下文
+ * (例如 '#context.customerId' 或 '#context.someList[0]')。解析后的表达式由 SpelEvaluator 缓存。
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class QueryParamResolver {
+
+    private final SpelEvaluator spelEvaluator;
+
+    /**
+     * 按 param_mapping 计算查询参数。
+     *
+     * @throws DatasourceExecutionException 如果参数表达式求值失败
+     */
+    public Map<String, Object> resolve(JsonNode paramMappingNode, Map<String, Object> executionContext) {
+        Map<String, Object> queryParams = new HashMap<>();
+        if (paramMappingNode == null || paramMappingNode.isNull() || !paramMappingNode.isObject()) {
+            return queryParams; // 没有参数需要映射
+        }
+
+        // 为每次执行创建新的上下文，避免如果上下文被修改可能导致的并发问题
+        EvaluationContext evaluationContext = new StandardEvaluationContext();
+        // 将整个 executionContext Map 作为一个名为 'context' 的变量设置进去
+        evaluationContext.setVariable("context", executionContext);
+
+        Iterator<Map.Entry<String, JsonNode>> fields = paramMappingNode.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> entry = fields.next();
+            String paramName = entry.getKey();
+            JsonNode expressionNode = entry.getValue();
+
+            if (expressionNode == null || !expressionNode.isTextual()) {
+                log.warn("Invalid expression for parameter '{}', expected a string expression, got: {}", paramName, expressionNode);
+                continue;  // 跳过无效的表达式
+            }
+
+            String expressionString = expressionNode.asText();
+
+            try {
+                // 解析表达式字符串 (缓存)
+                Expression exp = spelEvaluator.getExpression(expressionString);
+
+                // 使用上下文计算表达式的值
+                Object paramValue = exp.getValue(evaluationContext);
+
+                queryParams.put(paramName, paramValue);
+                log.trace("Param mapping: '{}' evaluated from expression '{}' to value: {}", paramName, expressionString, paramValue);
+
+            } catch (Exception e) { // 捕获 SpringEL 计算过程中可能抛出的各种异常
+                log.error("Failed to evaluate SpEL expression '{}' for parameter '{}'", expressionString, paramName, e);
+                // 抛出异常通常更安全，以便提示配置问题
+                throw new DatasourceExecutionException("Failed to evaluate parameter expression: " + expressionString, e);
+            }
+        }
+        return queryParams;
+    }
+}
@@ -0,0 +1,305 @@
+package org.makotogu.metaReportEngine.datasource.support;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.Getter;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+import org.makotogu.metaReportEngine.datasource.result.MappedRowTable;
+import org.makotogu.metaReportEngine.metadata.dto.ReportConfigurationDto;
+import org.makotogu.metaReportEngine.shard.exception.DatasourceConfigurationException;
+import org.makotogu.metaReportEngine.shard.util.MemoryEstimator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+import org.springframework.util.StringUtils;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * 参考数据 (码表、机构 / 产品字典等) 的本地快照。
+ * <p>
+ * 数据源在 options 中配置 reference 后，查询结果写入本地二进制文件并以内存映射的 {@link MappedRowTable} 返回:
+ * <pre>
+ * "options": {"reference": {"keyColumn": "branch_code", "refreshSeconds": 3600, "maxStaleSeconds": 86400}}
+ * "options": {"reference": true}   // 全部使用默认值, 不建 key 索引
+ * </pre>
+ * <ul>
+ *     <li>快照按 (上下文, query_type, query_ref, result_structure, 解析后的参数) 区分，文件名为其摘要，重启后可直接复用。</li>
+ *     <li>快照超过 refreshSeconds 后，访问时照常返回当前快照，同时在后台用本次请求解析后的参数重新查询并生成新快照
+ *         (每个快照同时只有一个刷新)。刷新不读取请求的执行上下文，也不计入其结果预算: 刷新执行时请求可能已经结束。</li>
+ *     <li>快照超过 maxStaleSeconds (或不存在) 时，在调用线程执行实时查询并重新生成快照; 同一快照的并发请求只查询一次。</li>
+ *     <li>新快照先写入临时文件，再原子替换正式文件; 正在使用旧快照的报告不受影响 (旧映射在回收前一直有效)。</li>
+ *     <li>结果不是列表、包含不支持的值类型或写文件失败时，该快照退化为实时查询。</li>
+ * </ul>
+ * 只适用于 list_map / list / columnar 结果; 返回的是只读列表，行视图按需解码。
+ */
+@Slf4j
+@Component
+public class ReferenceSnapshotStore {
+
+    private static final String OPTION_REFERENCE = "reference";
+    private static final String SNAPSHOT_SUFFIX = ".snap";
+
+    private final ConcurrentHashMap<String, Snapshot> snapshots = new ConcurrentHashMap<>();
+    private final ThreadPoolExecutor refreshExecutor;
+
+    @Value("${report.engine.reference-snapshot.enabled:true}")
+    private boolean enabled;
+    @Value("${report.engine.reference-snapshot.directory:${java.io.tmpdir}/meta-report-engine/reference}")
+    private String directory;
+
+    public ReferenceSnapshotStore() {
+        // 刷新是后台低频任务, 一个线程即可; 队列中的重复刷新由 Snapshot.refreshing 过滤
+        this.refreshExecutor = new ThreadPoolExecutor(1, 1, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "report-reference-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.refreshExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * 解析数据源的参考快照配置。未配置 reference、全局关闭或结果结构不是列表时返回 null。
+     *
+     * @throws DatasourceConfigurationException 如果 reference 配置不正确
+     */
+    public ReferenceSpec getReferenceSpec(ReportConfigurationDto.DataSourceConfig datasourceConfig) {
+        JsonNode options = datasourceConfig.getOptions();
+        if (!enabled || options == null || !options.hasNonNull(OPTION_REFERENCE)) {
+            return null;
+        }
+        JsonNode node = options.get(OPTION_REFERENCE);
+        if (node.isBoolean() && !node.asBoolean()) {
+            return null;
+        }
+        String resultStructure = datasourceConfig.getResultStructure();
+        if (!"list_map".equalsIgnoreCase(resultStructure) && !"list".equalsIgnoreCase(resultStructure)
+                && !"columnar".equalsIgnoreCase(resultStructure)) {
+            log.warn("Reference snapshot ignored for datasource [{}]: result structure {} is not a list",
+                    datasourceConfig.getDatasourceAlias(), resultStructure);
+            return null;
+        }
+        return ReferenceSpec.parse(node);
+    }
+
+    /**
+     * 读取参考数据: 快照新鲜时直接返回映射的快照，否则执行 liveQuery 并重新生成快照。
+     *
+     * @param queryParams  按 param_mapping 解析后的查询参数 (区分快照)
+     * @param liveQuery    在调用线程执行的实时查询 (通常已包含上下文的舱壁 / 熔断保护)
+     * @param refreshQuery 后台刷新使用的查询: 只使用 queryParams，不读取执行上下文
+     */
+    public Object load(ReferenceSpec spec, ReportConfigurationDto.DataSourceConfig datasourceConfig, Map<String, Object> queryParams,
+                       Supplier<Object> liveQuery, Supplier<Object> refreshQuery) {
+        String key = snapshotKey(datasourceConfig, queryParams);
+        Snapshot snapshot = snapshots.computeIfAbsent(key, k -> new Snapshot(datasourceConfig.getDatasourceAlias(), snapshotFile(datasourceConfig, k)));
+        if (snapshot.disabled) {
+            return liveQuery.get();
+        }
+
+        MappedRowTable table = snapshot.current(spec);
+        long now = System.currentTimeMillis();
+        if (table != null && now - table.getCreatedAt() <= spec.getMaxStaleMillis()) {
+            if (now - table.getCreatedAt() > spec.getRefreshMillis() && snapshot.refreshing.compareAndSet(false, true)) {
+                refreshExecutor.execute(() -> {
+                    try {
+                        snapshot.materialize(spec, refreshQuery.get());
+                    } catch (RuntimeException e) {
+                        log.warn("Background refresh of reference snapshot [{}] failed, keeping the current snapshot", snapshot.alias, e);
+                    } finally {
+                        snapshot.refreshing.set(false);
+                    }
+                });
+            }
+            return table;
+        }
+
+        // 没有快照或已过期: 实时查询 (同一快照的并发请求只查询一次)
+        synchronized (snapshot) {
+            table = snapshot.table;
+            if (table != null && System.currentTimeMillis() - table.getCreatedAt() <= spec.getMaxStaleMillis()) {
+                return table;
+            }
+            if (table != null) {
+                log.info("Reference snapshot [{}] is stale ({}s old), querying live", snapshot.alias,
+                        TimeUnit.MILLISECONDS.toSeconds(now - table.getCreatedAt()));
+            }
+            Object result = liveQuery.get();
+            MappedRowTable materialized = snapshot.materialize(spec, result);
+            return materialized != null ? materialized : result;
+        }
+    }
+
+    /**
+     * @return 快照状态 (别名、文件、行数、文件大小、生成时间)
+     */
+    public List<Map<String, Object>> getSnapshotInfo() {
+        List<Map<String, Object>> result = new ArrayList<>();
+        for (Snapshot snapshot : snapshots.values()) {
+            Map<String, Object> info = new LinkedHashMap<>();
+            info.put("alias", snapshot.alias);
+            info.put("file", snapshot.file.toString());
+            MappedRowTable table = snapshot.table;
+            info.put("rows", table != null ? table.size() : null);
+            info.put("fileSize", table != null ? MemoryEstimator.formatBytes(table.getFileBytes()) : null);
+            info.put("createdAt", table != null ? table.getCreatedAt() : null);
+            info.put("disabled", snapshot.disabled);
+            result.add(info);
+        }
+        return result;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        refreshExecutor.shutdownNow();
+    }
+
+    private static String snapshotKey(ReportConfigurationDto.DataSourceConfig datasourceConfig, Map<String, Object> queryParams) {
+        return datasourceConfig.getDatasourceContext() + '|' + datasourceConfig.getQueryType() + '|' + datasourceConfig.getQueryRef()
+                + '|' + datasourceConfig.getResultStructure() + '|' + new TreeMap<>(queryParams);
+    }
+
+    private Path snapshotFile(ReportConfigurationDto.DataSourceConfig datasourceConfig, String key) {
+        String alias = datasourceConfig.getDatasourceAlias() == null ? "datasource"
+                : datasourceConfig.getDatasourceAlias().replaceAll("[^A-Za-z0-9_-]", "_");
+        return Paths.get(directory, alias + '-' + DigestUtils.md5DigestAsHex(key.getBytes(StandardCharsets.UTF_8)) + SNAPSHOT_SUFFIX);
+    }
+
+    /**
+     * 数据源 options.reference 的配置。
+     */
+    @Getter
+    @ToString
+    public static final class ReferenceSpec {
+        private static final long DEFAULT_REFRESH_SECONDS = 3600;
+        private static final long DEFAULT_MAX_STALE_SECONDS = 86400;
+
+        private final String keyColumn;      // 建立索引的列 (MappedRowTable.lookup), 可为空
+        private final long refreshMillis;    // 超过后后台刷新
+        private final long maxStaleMillis;   // 超过后改为实时查询
+
+        private ReferenceSpec(String keyColumn, long refreshMillis, long maxStaleMillis) {
+            this.keyColumn = keyColumn;
+            this.refreshMillis = refreshMillis;
+            this.maxStaleMillis = maxStaleMillis;
+        }
+
+        static ReferenceSpec parse(JsonNode node) {
+            if (node.isBoolean()) {
+                return new ReferenceSpec(null, TimeUnit.SECONDS.toMillis(DEFAULT_REFRESH_SECONDS), TimeUnit.SECONDS.toMillis(DEFAULT_MAX_STALE_SECONDS));
+            }
+            if (!node.isObject()) {
+                throw new DatasourceConfigurationException("Reference option must be true or an object: " + node);
+            }
+            String keyColumn = node.path("keyColumn").asText(null);
+            long refreshSeconds = node.path("refreshSeconds").asLong(DEFAULT_REFRESH_SECONDS);
+            long maxStaleSeconds = node.path("maxStaleSeconds").asLong(Math.max(DEFAULT_MAX_STALE_SECONDS, refreshSeconds));
+            if (refreshSeconds <= 0 || maxStaleSeconds < refreshSeconds) {
+                throw new DatasourceConfigurationException("Reference option requires 'refreshSeconds' > 0 and 'maxStaleSeconds' >= 'refreshSeconds': " + node);
+            }
+            return new ReferenceSpec(StringUtils.hasText(keyColumn) ? keyColumn : null,
+                    TimeUnit.SECONDS.toMillis(refreshSeconds), TimeUnit.SECONDS.toMillis(maxStaleSeconds));
+        }
+    }
+
+    /**
+     * 一个快照文件及其当前映射。table 的替换在 synchronized 中完成，读取无锁 (volatile)。
+     */
+    private static final class Snapshot {
+        private final String alias;
+        private final Path file;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+        private volatile MappedRowTable table;
+        private volatile boolean loadedFromDisk;
+        private volatile boolean disabled;   // 结果无法写成快照, 之后一直实时查询
+
+        private Snapshot(String alias, Path file) {
+            this.alias = alias;
+            this.file = file;
+        }
+
+        /**
+         * 当前映射; 第一次访问时尝试复用磁盘上已有的快照文件 (例如重启前生成的)。
+         */
+        MappedRowTable current(ReferenceSpec spec) {
+            MappedRowTable current = table;
+            if (current != null || loadedFromDisk) {
+                return current;
+            }
+            synchronized (this) {
+                if (!loadedFromDisk) {
+                    loadedFromDisk = true;
+                    if (Files.exists(file)) {
+                        try {
+                            table = MappedRowTable.open(file, spec.getKeyColumn());
+                            log.info("Reference snapshot [{}] loaded from {} ({} rows)", alias, file, table.size());
+                        } catch (IOException | RuntimeException e) {
+                            log.warn("Ignoring unreadable reference snapshot {}", file, e);
+                        }
+                    }
+                }
+                return table;
+            }
+        }
+
+        /**
+         * 把查询结果写成新快照并替换当前映射。
+         *
+         * @return 新快照; 结果无法写成快照时返回 null (该快照退化为实时查询)
+         */
+        synchronized MappedRowTable materialize(ReferenceSpec spec, Object result) {
+            if (!(result instanceof List)) {
+                log.warn("Reference datasource [{}] returned {}, not a list; snapshot disabled",
+                        alias, result == null ? null : result.getClass().getName());
+                disabled = true;
+                return null;
+            }
+            @SuppressWarnings("unchecked")
+            List<? extends Map<String, ?>> rows = (List<? extends Map<String, ?>>) result;
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            try {
+                Files.createDirectories(file.getParent());
+                long createdAt = System.currentTimeMillis();
+                MappedRowTable.write(rows, temp, createdAt);
+                try {
+                    Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+                }
+                MappedRowTable materialized = MappedRowTable.open(file, spec.getKeyColumn());
+                table = materialized;
+                loadedFromDisk = true;
+                log.info("Reference snapshot [{}] materialized: {} rows, {} mapped from {}",
+                        alias, materialized.size(), MemoryEstimator.formatBytes(materialized.getFileBytes()), file);
+                return materialized;
+            } catch (IOException | RuntimeException e) {
+                log.warn("Failed to materialize reference snapshot [{}] to {}; snapshot disabled", alias, file, e);
+                disabled = true;
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored) {
+                    // 临时文件下次写入时会被覆盖
+                }
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,261 @@
+package org.makotogu.metaReportEngine.datasource.support;
+
+import lombok.extern.slf4j.Slf4j;
+import org.makotogu.metaReportEngine.datasource.result.ColumnarTable;
+import org.makotogu.metaReportEngine.datasource.result.CompactRow;
+import org.makotogu.metaReportEngine.datasource.result.MappedRowTable;
+import org.makotogu.metaReportEngine.datasource.result.RowSchema;
+import org.makotogu.metaReportEngine.datasource.routing.HedgedQueryExecutor;
+import org.makotogu.metaReportEngine.shard.exception.DatasourceExecutionException;
+import org.makotogu.metaReportEngine.shard.util.MemoryEstimator;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 逐行收集一次查询的结果并检查结果大小上限 (见 {@link ResultSizeLimiter})。
+ * <p>
+ * 未超限时结果与原来相同: list 模式为行列表 (JDBC 为 CompactRow, MyBatis 为原始行对象)，columnar 模式为 ColumnarTable。
+ * 超限且 policy = SPILL 时，已收集的行与之后的行写入临时行文件，{@link #finish()} 返回可写的 {@link MappedRowTable}
+ * (文件映射后即删除，映射在结果被回收前一直有效)。
+ * 非线程安全: 一个收集器只在一次查询的读取线程中使用。
+ */
+@Slf4j
+public final class ResultCollector {
+
+    private static final int COMPACT_ROW_SHALLOW = MemoryEstimator.OBJECT_HEADER + 3 * MemoryEstimator.REFERENCE + 4;
+    private static final int UNKNOWN_ROW_BYTES = 64; // 非 Map 行 (POJO) 的粗略估算
+
+    private final String alias;
+    private final ResultSizeLimiter.Limits limits;
+    private final ResultSizeLimiter.GenerationBudget budget; // 可为 null
+    private final Path spillDirectory;
+    private final RowSchema schema;            // 列名已知时 (JDBC)
+    private final boolean columnar;
+
+    private List<Object> rows;
+    private ColumnarTable.Builder builder;
+    private long rowCount;                      // 留在堆上的行数
+    private long heapBytes;                      // 留在堆上的估算字节数
+
+    private MappedRowTable.Writer spillWriter;
+    private Path spillFile;
+    private String spillReason;
+
+    ResultCollector(String alias, ResultSizeLimiter.Limits limits, ResultSizeLimiter.GenerationBudget budget, Path spillDirectory,
+                    String[] columnNames, boolean columnar) {
+        this.alias = alias;
+        this.limits = limits;
+        this.budget = budget;
+        this.spillDirectory = spillDirectory;
+        this.schema = columnNames != null ? new RowSchema(columnNames) : null;
+        this.columnar = columnar;
+        if (columnar) {
+            this.builder = columnNames != null ? new ColumnarTable.Builder(columnNames) : new ColumnarTable.Builder();
+        } else {
+            this.rows = new ArrayList<>();
+        }
+    }
+
+    /**
+     * 加入一行 (Map 或 MyBatis 映射的对象)。
+     *
+     * @throws DatasourceExecutionException 超出上限且 policy = FAIL，或无法溢出到磁盘
+     */
+    public void add(Object row) {
+        if (spillWriter != null) {
+            spill(row);
+            return;
+        }
+        if (columnar) {
+            if (!(row instanceof Map)) {
+                throw new DatasourceExecutionException("Columnar result requires map rows, but datasource '" + alias
+                        + "' returned: " + (row != null ? row.getClass().getName() : "null"));
+            }
+            @SuppressWarnings("unchecked")
+            Map<String, ?> mapRow = (Map<String, ?>) row;
+            builder.addRow(mapRow);
+        } else {
+            rows.add(row);
+        }
+        account(estimateRowBytes(row));
+    }
+
+    /**
+     * 加入一行按列名顺序排列的值 (JDBC 结果集)。columnar 模式下 values 可以每行复用; list 模式下 values 被行持有。
+     */
+    public void addValues(Object[] values) {
+        if (schema == null) {
+            throw new IllegalStateException("Column names are required for addValues");
+        }
+        if (spillWriter != null) {
+            spill(new CompactRow(schema, values));
+            return;
+        }
+        if (columnar) {
+            builder.addRow(values);
+            account(estimateValuesBytes(values));
+        } else {
+            CompactRow row = new CompactRow(schema, values);
+            rows.add(row);
+            account(estimateRowBytes(row));
+        }
+    }
+
+    public boolean isColumnar() {
+        return columnar;
+    }
+
+    /**
+     * @return 查询结果: 行列表、ColumnarTable，或溢出时的 MappedRowTable
+     */
+    public List<?> finish() {
+        if (spillWriter == null) {
+            if (budget != null && rowCount > 0) {
+                // 对冲查询中落后的一次: 结果被丢弃, 归还它计入的生成结果预算
+                long keptRows = rowCount;
+                long keptBytes = heapBytes;
+                HedgedQueryExecutor.onResultDiscarded(() -> budget.release(keptRows, keptBytes));
+            }
+            return columnar ? builder.build() : rows;
+        }
+        try {
+            int spilledRows = spillWriter.getRowCount();
+            spillWriter.finish(System.currentTimeMillis());
+            spillWriter = null;
+            MappedRowTable table = MappedRowTable.open(spillFile, null, true);
+            log.warn("Datasource [{}] {}; spilled {} rows ({} on disk) to {}", alias, spillReason, spilledRows,
+                    MemoryEstimator.formatBytes(table.getFileBytes()), spillFile);
+            return table;
+        } catch (IOException | RuntimeException e) {
+            throw new DatasourceExecutionException("Failed to spill result of datasource '" + alias + "' to " + spillFile, e);
+        } finally {
+            deleteSpillFile();
+        }
+    }
+
+    /**
+     * 查询失败时释放预算并删除溢出文件。
+     */
+    public void abort() {
+        if (budget != null) {
+            budget.release(rowCount, heapBytes);
+        }
+        rowCount = 0;
+        heapBytes = 0;
+        if (spillWriter != null) {
+            try {
+                spillWriter.close();
+            } catch (IOException ignored) {
+                // 下面删除文件
+            }
+            spillWriter = null;
+        }
+        deleteSpillFile();
+    }
+
+    private void account(long rowBytes) {
+        rowCount++;
+        heapBytes += rowBytes;
+        boolean withinBudget = budget == null || budget.reserve(rowBytes);
+        String exceeded = null;
+        if (limits.getMaxRows() > 0 && rowCount > limits.getMaxRows()) {
+            exceeded = "exceeded max rows " + limits.getMaxRows();
+        } else if (limits.getMaxBytes() > 0 && heapBytes > limits.getMaxBytes()) {
+            exceeded = "exceeded max bytes " + MemoryEstimator.formatBytes(limits.getMaxBytes()) + " (estimated)";
+        } else if (!withinBudget) {
+            exceeded = "exceeded generation result budget: " + budget.describe();
+        }
+        if (exceeded == null) {
+            return;
+        }
+        if (limits.getPolicy() == ResultSizeLimiter.Policy.FAIL) {
+            abort();
+            throw new DatasourceExecutionException("Result of datasource '" + alias + "' " + exceeded
+                    + ". Narrow the query, raise options.limits, or set policy SPILL.");
+        }
+        startSpill(exceeded);
+    }
+
+    /**
+     * 切换到溢出模式: 已收集的行写入文件，释放它们占用的预算。
+     */
+    private void startSpill(String reason) {
+        spillReason = reason;
+        try {
+            Files.createDirectories(spillDirectory);
+            spillFile = Files.createTempFile(spillDirectory, "spill-", ".rows");
+            spillWriter = new MappedRowTable.Writer(spillFile);
+        } catch (IOException e) {
+            abort();
+            throw new DatasourceExecutionException("Result of datasource '" + alias + "' " + reason
+                    + " and cannot create spill file in " + spillDirectory, e);
+        }
+        List<?> collected = columnar ? builder.build() : rows;
+        rows = null;
+        builder = null;
+        for (Object row : collected) {
+            spill(row);
+        }
+        if (budget != null) {
+            budget.release(rowCount, heapBytes);
+        }
+        rowCount = 0;
+        heapBytes = 0;
+    }
+
+    private void spill(Object row) {
+        if (!(row instanceof Map)) {
+            abort();
+            throw new DatasourceExecutionException("Result of datasource '" + alias + "' " + spillReason
+                    + ", but rows of type " + (row != null ? row.getClass().getName() : "null") + " cannot be spilled (map rows required)");
+        }
+        try {
+            @SuppressWarnings("unchecked")
+            Map<String, ?> mapRow = (Map<String, ?>) row;
+            spillWriter.writeRow(mapRow);
+        } catch (IOException | IllegalArgumentException e) {
+            abort();
+            throw new DatasourceExecutionException("Failed to spill result of datasource '" + alias + "' to " + spillFile, e);
+        }
+    }
+
+    private void deleteSpillFile() {
+        if (spillFile == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(spillFile);
+        } catch (IOException e) {
+            spillFile.toFile().deleteOnExit(); // 映射中的文件在部分系统上不能删除
+        }
+    }
+
+    private static long estimateRowBytes(Object row) {
+        if (row instanceof CompactRow) {
+            CompactRow compactRow = (CompactRow) row;
+            int size = compactRow.getSchema().size();
+            long bytes = COMPACT_ROW_SHALLOW + MemoryEstimator.arrayBytes(size, MemoryEstimator.REFERENCE);
+            for (int i = 0; i < size; i++) {
+                bytes += MemoryEstimator.estimateValueBytes(compactRow.get(i));
+            }
+            return bytes;
+        }
+        if (row instanceof Map) {
+            return MemoryEstimator.estimateMapRowBytes((Map<?, ?>) row);
+        }
+        return UNKNOWN_ROW_BYTES;
+    }
+
+    private static long estimateValuesBytes(Object[] values) {
+        long bytes = (long) values.length * 8; // 列数组中的槽位
+        for (Object value : values) {
+            bytes += MemoryEstimator.estimateValueBytes(value);
+        }
+        return bytes;
+    }
+}
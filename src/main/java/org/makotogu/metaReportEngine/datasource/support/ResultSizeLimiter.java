@@ -0,0 +1,173 @@
+package org.makotogu.metaReportEngine.datasource.support;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.Getter;
+import lombok.ToString;
+import org.makotogu.metaReportEngine.metadata.dto.ReportConfigurationDto;
+import org.makotogu.metaReportEngine.shard.exception.DatasourceConfigurationException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 数据源结果大小的上限 (行数与估算的堆内存)，防止一个配置错误的查询把数百万行放进执行上下文。
+ * <ul>
+ *     <li>单个数据源: report.engine.result-limits.max-rows / max-bytes，可在 options.limits 中按数据源覆盖:
+ *     <pre>"options": {"limits": {"maxRows": 5000000, "maxBytes": "1GB", "policy": "SPILL"}}</pre></li>
+ *     <li>一次报告生成: generation-max-rows / generation-max-bytes，所有数据源留在堆上的结果合计
+ *     (预算对象由 ReportGenerationService 放入执行上下文的 {@link #GENERATION_BUDGET_KEY})。</li>
+ * </ul>
+ * 超出任一上限时按 policy 处理: FAIL 立即抛出 DatasourceExecutionException; SPILL 把结果写入临时行文件，
+ * 以内存映射的 MappedRowTable 返回 (溢出的行不再计入堆内存预算)。上限 &lt;= 0 表示不限制。
+ * 结果逐行经过 {@link ResultCollector}，超限时在读取过程中就会处理，不会先把所有行读入内存。
+ */
+@Component
+public class ResultSizeLimiter {
+
+    public static final String GENERATION_BUDGET_KEY = "_resultBudget";
+    private static final String OPTION_LIMITS = "limits";
+
+    public enum Policy {
+        FAIL, SPILL
+    }
+
+    private final Limits defaultLimits;
+    private final long generationMaxRows;
+    private final long generationMaxBytes;
+    private final Path spillDirectory;
+
+    public ResultSizeLimiter(@Value("${report.engine.result-limits.max-rows:1000000}") long maxRows,
+                             @Value("${report.engine.result-limits.max-bytes:256MB}") String maxBytes,
+                             @Value("${report.engine.result-limits.policy:FAIL}") String policy,
+                             @Value("${report.engine.result-limits.generation-max-rows:2000000}") long generationMaxRows,
+                             @Value("${report.engine.result-limits.generation-max-bytes:512MB}") String generationMaxBytes,
+                             @Value("${report.engine.result-limits.spill-directory:${java.io.tmpdir}/meta-report-engine/spill}") String spillDirectory) {
+        this.defaultLimits = new Limits(maxRows, DataSize.parse(maxBytes).toBytes(), parsePolicy(policy));
+        this.generationMaxRows = generationMaxRows;
+        this.generationMaxBytes = DataSize.parse(generationMaxBytes).toBytes();
+        this.spillDirectory = Paths.get(spillDirectory);
+    }
+
+    /**
+     * 为一次报告生成创建结果预算。
+     */
+    public GenerationBudget newGenerationBudget() {
+        return new GenerationBudget(generationMaxRows, generationMaxBytes);
+    }
+
+    /**
+     * @return 执行上下文中本次生成的结果预算，没有时为 null
+     */
+    public static GenerationBudget generationBudget(Map<String, Object> executionContext) {
+        Object budget = executionContext != null ? executionContext.get(GENERATION_BUDGET_KEY) : null;
+        return budget instanceof GenerationBudget ? (GenerationBudget) budget : null;
+    }
+
+    /**
+     * 为一次查询创建结果收集器。
+     *
+     * @param budget      本次生成的结果预算 (见 {@link #generationBudget})，为 null 时只检查单个数据源的上限
+     * @param columnNames 结果列名 (JDBC 结果集已知时传入，MyBatis Map 结果传 null)
+     * @param columnar    是否构建 ColumnarTable (result_structure = columnar)
+     * @throws DatasourceConfigurationException 如果 options.limits 配置不正确
+     */
+    public ResultCollector newCollector(ReportConfigurationDto.DataSourceConfig datasourceConfig, GenerationBudget budget,
+                                        String[] columnNames, boolean columnar) {
+        return new ResultCollector(datasourceConfig.getDatasourceAlias(), getLimits(datasourceConfig.getOptions()),
+                budget, spillDirectory, columnNames, columnar);
+    }
+
+    Limits getLimits(JsonNode options) {
+        JsonNode node = options != null ? options.get(OPTION_LIMITS) : null;
+        if (node == null || node.isNull()) {
+            return defaultLimits;
+        }
+        if (!node.isObject()) {
+            throw new DatasourceConfigurationException("Limits option must be an object: " + node);
+        }
+        long maxRows = node.path("maxRows").asLong(defaultLimits.getMaxRows());
+        long maxBytes = defaultLimits.getMaxBytes();
+        JsonNode maxBytesNode = node.get("maxBytes");
+        if (maxBytesNode != null && !maxBytesNode.isNull()) {
+            try {
+                maxBytes = maxBytesNode.isNumber() ? maxBytesNode.asLong() : DataSize.parse(maxBytesNode.asText()).toBytes();
+            } catch (IllegalArgumentException e) {
+                throw new DatasourceConfigurationException("Invalid 'maxBytes' in limits option: " + node);
+            }
+        }
+        Policy policy = node.hasNonNull("policy") ? parsePolicy(node.get("policy").asText()) : defaultLimits.getPolicy();
+        return new Limits(maxRows, maxBytes, policy);
+    }
+
+    private static Policy parsePolicy(String policy) {
+        try {
+            return Policy.valueOf(policy.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new DatasourceConfigurationException("Unknown result limit policy: " + policy + " (expected FAIL or SPILL)");
+        }
+    }
+
+    /**
+     * 单个数据源的上限。
+     */
+    @Getter
+    @ToString
+    public static final class Limits {
+        private final long maxRows;
+        private final long maxBytes;
+        private final Policy policy;
+
+        Limits(long maxRows, long maxBytes, Policy policy) {
+            this.maxRows = maxRows;
+            this.maxBytes = maxBytes;
+            this.policy = policy;
+        }
+    }
+
+    /**
+     * 一次报告生成中所有数据源留在堆上的结果合计。
+     */
+    public static final class GenerationBudget {
+        private final long maxRows;
+        private final long maxBytes;
+        private final AtomicLong rows = new AtomicLong();
+        private final AtomicLong bytes = new AtomicLong();
+
+        GenerationBudget(long maxRows, long maxBytes) {
+            this.maxRows = maxRows;
+            this.maxBytes = maxBytes;
+        }
+
+        /**
+         * 计入一行，返回是否仍在上限内。
+         */
+        boolean reserve(long rowBytes) {
+            long totalRows = rows.incrementAndGet();
+            long totalBytes = bytes.addAndGet(rowBytes);
+            return (maxRows <= 0 || totalRows <= maxRows) && (maxBytes <= 0 || totalBytes <= maxBytes);
+        }
+
+        void release(long releasedRows, long releasedBytes) {
+            rows.addAndGet(-releasedRows);
+            bytes.addAndGet(-releasedBytes);
+        }
+
+        public long getRows() {
+            return rows.get();
+        }
+
+        public long getBytes() {
+            return bytes.get();
+        }
+
+        String describe() {
+            return rows.get() + " rows / " + bytes.get() + " bytes in this generation (limits " + maxRows + " rows / " + maxBytes + " bytes)";
+        }
+    }
+}
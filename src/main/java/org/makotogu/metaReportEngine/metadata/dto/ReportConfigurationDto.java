@@ -6,6 +6,7 @@ import org.makotogu.metaReportEngine.metadata.entity.ReportDefinition;
 import org.makotogu.metaReportEngine.metadata.entity.ReportTemplateMapping;
 import org.makotogu.metaReportEngine.metadata.entity.ReportTransformationRule;
 
+import java.time.OffsetDateTime;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -43,6 +44,10 @@ public class ReportConfigurationDto {
         private String templatePath;
         private String version;
         private String description;
+        private OffsetDateTime updatedAt; // 模板缓存按 version + updatedAt 判断定义是否变更
+        private int renderPriority;       // 渲染优先级, 值越大越先渲染
+        private String outputFormat;      // 输出格式: DOCX (默认) / XLSX / CSV
+        private Integer memoryBudgetMb;   // 单次生成的内存预算 (MB), 为 null 时使用全局配置
         // 可以根据需要添加 status 等其他字段
 
         public ReportDefinitionInfo (ReportDefinition reportDefinition) {
@@ -51,6 +56,10 @@ public class ReportConfigurationDto {
             this.templatePath = reportDefinition.getTemplatePath();
             this.version = reportDefinition.getVersion();
             this.description = reportDefinition.getDescription();
+            this.updatedAt = reportDefinition.getUpdatedAt();
+            this.renderPriority = reportDefinition.getRenderPriority() != null ? reportDefinition.getRenderPriority() : 0;
+            this.outputFormat = reportDefinition.getOutputFormat();
+            this.memoryBudgetMb = reportDefinition.getMemoryBudgetMb();
         }
     }
 
@@ -63,6 +72,7 @@ public class ReportConfigurationDto {
         private String resultStructure;
         private String datasourceContext;
         private int executionOrder;
+        private JsonNode options; // 执行器相关的可选配置
 
         public DataSourceConfig(ReportDataSource reportDataSource) {
             this.datasourceAlias = reportDataSource.getDatasourceAlias();
@@ -72,6 +82,7 @@ public class ReportConfigurationDto {
             this.resultStructure = reportDataSource.getResultStructure();
             this.datasourceContext = reportDataSource.getDatasourceContext();
             this.executionOrder = reportDataSource.getExecutionOrder();
+            this.options = reportDataSource.getOptions();
         }
     }
 
@@ -21,4 +21,5 @@ public class ReportDataSource {
     private OffsetDateTime createdAt;
     private OffsetDateTime updatedAt;
     private String datasourceContext;
+    private JsonNode options; // 执行器相关的可选配置 (e.g., fetchSize)
 }
@@ -15,6 +15,9 @@ public class ReportDefinition {
     private String description;
     private String version;
     private String status;
+    private Integer renderPriority;
+    private String outputFormat;
+    private Integer memoryBudgetMb;
     private OffsetDateTime createdAt;
     private OffsetDateTime updatedAt;
 
@@ -14,7 +14,8 @@ public interface ReportDataSourceMapper {
 
     @Select("select * from report_datasource where report_def_id = #{reportDefId}")
     @Results({
-        @Result(property = "paramMapping", column = "param_mapping", jdbcType = JdbcType.OTHER, typeHandler = org.makotogu.metaReportEngine.config.handler.JacksonTypeHandler.class)
+        @Result(property = "paramMapping", column = "param_mapping", jdbcType = JdbcType.OTHER, typeHandler = org.makotogu.metaReportEngine.config.handler.JacksonTypeHandler.class),
+        @Result(property = "options", column = "options", jdbcType = JdbcType.OTHER, typeHandler = org.makotogu.metaReportEngine.config.handler.JacksonTypeHandler.class)
     })
     List<ReportDataSource> getReportDataSourcesByReportDefId(Long reportDefId);
 }
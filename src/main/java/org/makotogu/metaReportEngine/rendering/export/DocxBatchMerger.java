@@ -0,0 +1,430 @@
+package org.makotogu.metaReportEngine.rendering.export;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.util.StreamUtils;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * 把同一模板渲染出的多个 docx 依次合并为一个文档 (批量打印)，文档之间插入分页符。
+ * <ul>
+ *     <li>{@link #append(byte[])} 每追加一个文档，只把 document.xml 的正文 (body 中除最后的 sectPr 以外的内容) 写入临时文件，
+ *         文档本身的字节数组随即可以丢弃；堆上只保留第一个文档 (作为合并结果的骨架) 与关系 / 内容类型的增量。</li>
+ *     <li>后续文档中模板以外的关系 (图片、图表、超链接等) 重新编号为 rIdMb*，引用的部件 (含其自身的关系) 以 mb&lt;序号&gt;_ 前缀
+ *         复制到临时目录，正文中的 r:id / r:embed 等引用同步改写；wp:docPr 的 id 重新编号，避免重复。</li>
+ *     <li>{@link #writeTo(OutputStream)} 按第一个文档的部件顺序写出 zip，document.xml、document.xml.rels 与 [Content_Types].xml
+ *         在写出时拼接，其余新增部件从临时文件复制。</li>
+ * </ul>
+ * 合并结果只有一个节 (sectPr 取自第一个文档)，页眉页脚、脚注与批注使用第一个文档的内容；要求各文档来自同一模板 (命名空间前缀、
+ * 样式与编号定义相同)。一个实例对应一次合并，用完后调用 {@link #close()} 删除临时文件。
+ */
+@Slf4j
+public class DocxBatchMerger implements Closeable {
+
+    private static final String DOCUMENT_PART = "word/document.xml";
+    private static final String DOCUMENT_RELS_PART = "word/_rels/document.xml.rels";
+    private static final String CONTENT_TYPES_PART = "[Content_Types].xml";
+    private static final String RELATIONSHIPS_NAMESPACE = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+
+    private static final Pattern BODY_START = Pattern.compile("<(\\w+:)?body>");
+    private static final Pattern RELATIONSHIP = Pattern.compile("<Relationship\\b([^>]*?)/?>");
+    private static final Pattern ATTRIBUTE = Pattern.compile("([\\w:]+)=\"([^\"]*)\"");
+    private static final Pattern CONTENT_TYPE = Pattern.compile("<(Default|Override)\\b([^>]*?)/?>");
+    private static final Pattern DRAWING_ID = Pattern.compile("(<wp:docPr\\b[^>]*?\\bid=\")(\\d+)(\")");
+
+    private final Path workDirectory;
+    private final Path bodyFile;
+    private final Writer bodyWriter;
+    private final Map<String, Path> addedParts = new LinkedHashMap<>(); // 新增部件名 -> 临时文件
+
+    private byte[] baseDocx;
+    private Map<String, byte[]> baseParts;
+    private Map<String, Map<String, String>> baseRelationships;
+    private String documentPrefix;  // document.xml 中 body 开始标签及之前的内容
+    private String documentSuffix;  // 最后的 sectPr 与 body / document 结束标签
+    private String pageBreak;
+    private final StringBuilder addedRelationships = new StringBuilder();
+    private final StringBuilder addedContentTypes = new StringBuilder();
+    private final Set<String> knownExtensions = new HashSet<>();
+
+    private int documentCount;
+    private int relationshipSequence;
+    private long drawingId = 100_000;
+
+    /**
+     * @param tempDirectory 临时文件目录，为 null 时使用系统临时目录
+     */
+    public DocxBatchMerger(Path tempDirectory) throws IOException {
+        this.workDirectory = tempDirectory != null ? Files.createTempDirectory(Files.createDirectories(tempDirectory), "report-batch-")
+                : Files.createTempDirectory("report-batch-");
+        this.bodyFile = workDirectory.resolve("body.xml");
+        this.bodyWriter = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(bodyFile), StandardCharsets.UTF_8), 64 * 1024);
+    }
+
+    public int getDocumentCount() {
+        return documentCount;
+    }
+
+    /**
+     * 追加一个渲染后的 docx。
+     */
+    public void append(byte[] docx) throws IOException {
+        Map<String, byte[]> parts = readParts(docx);
+        byte[] documentBytes = parts.get(DOCUMENT_PART);
+        if (documentBytes == null) {
+            throw new IOException("Not a docx document: " + DOCUMENT_PART + " not found");
+        }
+        String xml = new String(documentBytes, StandardCharsets.UTF_8);
+        Matcher bodyMatcher = BODY_START.matcher(xml);
+        if (!bodyMatcher.find()) {
+            throw new IOException("Document body not found in " + DOCUMENT_PART);
+        }
+        String prefix = bodyMatcher.group(1) != null ? bodyMatcher.group(1) : "";
+        int bodyStart = bodyMatcher.end();
+        int bodyEnd = xml.lastIndexOf("</" + prefix + "body>");
+        int contentEnd = bodySectionStart(xml, prefix, bodyStart, bodyEnd);
+
+        documentCount++;
+        if (documentCount == 1) {
+            baseDocx = docx;
+            baseParts = parts;
+            baseParts.remove(DOCUMENT_PART);
+            baseRelationships = indexById(parseRelationships(parts.get(DOCUMENT_RELS_PART)));
+            documentPrefix = xml.substring(0, bodyStart);
+            documentSuffix = xml.substring(contentEnd);
+            pageBreak = "<" + prefix + "p><" + prefix + "r><" + prefix + "br " + prefix + "type=\"page\"/></" + prefix + "r></" + prefix + "p>";
+            for (Map<String, String> contentType : parseContentTypes(parts, "Default")) {
+                knownExtensions.add(contentType.get("Extension").toLowerCase(Locale.ROOT));
+            }
+            bodyWriter.write(xml, bodyStart, contentEnd - bodyStart);
+            return;
+        }
+
+        String body = xml.substring(bodyStart, contentEnd);
+        String relationshipPrefix = relationshipPrefix(xml);
+        Set<String> referencedIds = referencedIds(body, relationshipPrefix);
+        Map<String, String> idMapping = new HashMap<>();
+        for (Map<String, String> relationship : parseRelationships(parts.get(DOCUMENT_RELS_PART))) {
+            String id = relationship.get("Id");
+            if (!referencedIds.contains(id) || isTemplateRelationship(relationship, parts)) {
+                continue; // 正文未引用 (样式、编号、页眉页脚等使用第一个文档的) 或与模板相同 (模板中的图片等)
+            }
+            String newId = "rIdMb" + (++relationshipSequence);
+            String target = relationship.get("Target");
+            if (!"External".equals(relationship.get("TargetMode"))) {
+                target = copyPart("word/", target, parts);
+            }
+            addedRelationships.append(relationshipXml(relationship, newId, target));
+            idMapping.put(id, newId);
+        }
+
+        bodyWriter.write(pageBreak);
+        body = replaceRelationshipIds(body, relationshipPrefix, idMapping);
+        body = renumberDrawings(body);
+        bodyWriter.write(body);
+    }
+
+    /**
+     * 写出合并后的 docx (不关闭输出流)。
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        if (documentCount == 0) {
+            throw new IOException("No document to merge");
+        }
+        bodyWriter.flush();
+        ZipOutputStream zipOut = new ZipOutputStream(out);
+        try (ZipInputStream zipIn = new ZipInputStream(new ByteArrayInputStream(baseDocx))) {
+            ZipEntry entry;
+            while ((entry = zipIn.getNextEntry()) != null) {
+                String name = entry.getName();
+                zipOut.putNextEntry(new ZipEntry(name));
+                if (DOCUMENT_PART.equals(name)) {
+                    zipOut.write(documentPrefix.getBytes(StandardCharsets.UTF_8));
+                    Files.copy(bodyFile, zipOut);
+                    zipOut.write(documentSuffix.getBytes(StandardCharsets.UTF_8));
+                } else if (DOCUMENT_RELS_PART.equals(name)) {
+                    zipOut.write(insertBefore(StreamUtils.copyToString(zipIn, StandardCharsets.UTF_8), "</Relationships>", addedRelationships));
+                } else if (CONTENT_TYPES_PART.equals(name)) {
+                    zipOut.write(insertBefore(StreamUtils.copyToString(zipIn, StandardCharsets.UTF_8), "</Types>", addedContentTypes));
+                } else {
+                    StreamUtils.copy(zipIn, zipOut);
+                }
+                zipOut.closeEntry();
+            }
+        }
+        for (Map.Entry<String, Path> part : addedParts.entrySet()) {
+            zipOut.putNextEntry(new ZipEntry(part.getKey()));
+            Files.copy(part.getValue(), zipOut);
+            zipOut.closeEntry();
+        }
+        zipOut.finish();
+        log.debug("Merged {} documents ({} added parts)", documentCount, addedParts.size());
+    }
+
+    @Override
+    public void close() {
+        try {
+            bodyWriter.close();
+        } catch (IOException e) {
+            log.debug("Failed to close batch body file: {}", e.getMessage());
+        }
+        try {
+            FileSystemUtils.deleteRecursively(workDirectory);
+        } catch (IOException e) {
+            log.warn("Failed to delete batch merge directory {}: {}", workDirectory, e.getMessage());
+        }
+    }
+
+    /**
+     * body 末尾 sectPr 的起始位置 (正文内容到此为止)；没有 body 级 sectPr 时为 body 结束位置。
+     */
+    private static int bodySectionStart(String xml, String prefix, int bodyStart, int bodyEnd) {
+        int sectPr = xml.lastIndexOf("<" + prefix + "sectPr", bodyEnd);
+        if (sectPr < bodyStart) {
+            return bodyEnd;
+        }
+        String endTag = "</" + prefix + "sectPr>";
+        int sectPrEnd = xml.indexOf(endTag, sectPr);
+        int after = sectPrEnd >= 0 ? sectPrEnd + endTag.length() : xml.indexOf("/>", sectPr) + 2;
+        // 最后一个 sectPr 位于段落属性中 (节分隔符) 时不是 body 级的 sectPr
+        return xml.substring(after, bodyEnd).trim().isEmpty() ? sectPr : bodyEnd;
+    }
+
+    /**
+     * 与第一个文档中同 Id 的关系目标相同 (内部部件的内容也相同) 时沿用第一个文档的关系。
+     */
+    private boolean isTemplateRelationship(Map<String, String> relationship, Map<String, byte[]> parts) {
+        Map<String, String> base = baseRelationships.get(relationship.get("Id"));
+        if (base == null || !base.get("Target").equals(relationship.get("Target"))) {
+            return false;
+        }
+        if ("External".equals(relationship.get("TargetMode"))) {
+            return true;
+        }
+        String partName = resolve("word/", relationship.get("Target"));
+        return Arrays.equals(baseParts.get(partName), parts.get(partName));
+    }
+
+    /**
+     * 以新名称复制部件 (及其关系引用的部件) 到临时目录，登记内容类型。
+     *
+     * @return 指向新部件的关系目标
+     */
+    private String copyPart(String sourceDirectory, String target, Map<String, byte[]> parts) throws IOException {
+        String partName = resolve(sourceDirectory, target);
+        byte[] bytes = parts.get(partName);
+        if (bytes == null) {
+            throw new IOException("Related part not found: " + partName);
+        }
+        String directory = partName.substring(0, partName.lastIndexOf('/') + 1);
+        String fileName = partName.substring(directory.length());
+        String newFileName = "mb" + documentCount + "_" + fileName;
+        String newPartName = directory + newFileName;
+
+        String relsName = directory + "_rels/" + fileName + ".rels";
+        if (parts.containsKey(relsName)) { // 部件自身的关系 (例如图表引用的内嵌工作簿)
+            StringBuilder rels = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>")
+                    .append("<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">");
+            for (Map<String, String> relationship : parseRelationships(parts.get(relsName))) {
+                String relTarget = relationship.get("Target");
+                if (!"External".equals(relationship.get("TargetMode"))) {
+                    relTarget = copyPart(directory, relTarget, parts);
+                }
+                rels.append(relationshipXml(relationship, relationship.get("Id"), relTarget));
+            }
+            rels.append("</Relationships>");
+            addPart(directory + "_rels/" + newFileName + ".rels", rels.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        addPart(newPartName, bytes);
+        registerContentType(partName, newPartName, parts);
+
+        int slash = target.lastIndexOf('/');
+        return (slash >= 0 ? target.substring(0, slash + 1) : "") + newFileName;
+    }
+
+    private void addPart(String partName, byte[] bytes) throws IOException {
+        Path file = workDirectory.resolve("part-" + addedParts.size());
+        Files.write(file, bytes);
+        addedParts.put(partName, file);
+    }
+
+    private void registerContentType(String partName, String newPartName, Map<String, byte[]> parts) {
+        for (Map<String, String> contentType : parseContentTypes(parts, "Override")) {
+            if (("/" + partName).equals(contentType.get("PartName"))) {
+                addedContentTypes.append("<Override PartName=\"/").append(newPartName).append("\" ContentType=\"").append(contentType.get("ContentType")).append("\"/>");
+                return;
+            }
+        }
+        String extension = partName.substring(partName.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT);
+        if (knownExtensions.contains(extension)) {
+            return;
+        }
+        for (Map<String, String> contentType : parseContentTypes(parts, "Default")) {
+            if (extension.equalsIgnoreCase(contentType.get("Extension"))) {
+                addedContentTypes.append("<Default Extension=\"").append(contentType.get("Extension")).append("\" ContentType=\"").append(contentType.get("ContentType")).append("\"/>");
+                knownExtensions.add(extension);
+                return;
+            }
+        }
+        log.warn("No content type found for merged part: {}", partName);
+    }
+
+    private static Set<String> referencedIds(String body, String relationshipPrefix) {
+        Set<String> ids = new HashSet<>();
+        if (relationshipPrefix != null) {
+            Matcher matcher = relationshipAttribute(relationshipPrefix).matcher(body);
+            while (matcher.find()) {
+                ids.add(matcher.group(2));
+            }
+        }
+        return ids;
+    }
+
+    private static Pattern relationshipAttribute(String relationshipPrefix) {
+        return Pattern.compile("(\\b" + Pattern.quote(relationshipPrefix) + ":\\w+=\")([^\"]+)(\")");
+    }
+
+    private static String replaceRelationshipIds(String body, String relationshipPrefix, Map<String, String> idMapping) {
+        if (idMapping.isEmpty() || relationshipPrefix == null) {
+            return body;
+        }
+        Matcher matcher = relationshipAttribute(relationshipPrefix).matcher(body);
+        StringBuffer result = new StringBuffer(body.length());
+        while (matcher.find()) {
+            String newId = idMapping.get(matcher.group(2));
+            matcher.appendReplacement(result, Matcher.quoteReplacement(newId != null ? matcher.group(1) + newId + matcher.group(3) : matcher.group()));
+        }
+        matcher.appendTail(result);
+        return result.toString();
+    }
+
+    private String renumberDrawings(String body) {
+        Matcher matcher = DRAWING_ID.matcher(body);
+        StringBuffer result = new StringBuffer(body.length());
+        while (matcher.find()) {
+            matcher.appendReplacement(result, matcher.group(1) + (++drawingId) + matcher.group(3));
+        }
+        matcher.appendTail(result);
+        return result.toString();
+    }
+
+    private static String relationshipPrefix(String xml) {
+        Matcher matcher = Pattern.compile("xmlns:(\\w+)=\"" + Pattern.quote(RELATIONSHIPS_NAMESPACE) + "\"").matcher(xml);
+        return matcher.find() ? matcher.group(1) : null;
+    }
+
+    private static String relationshipXml(Map<String, String> relationship, String id, String target) {
+        StringBuilder xml = new StringBuilder("<Relationship Id=\"").append(id).append("\" Type=\"").append(relationship.get("Type"))
+                .append("\" Target=\"").append(target).append('"');
+        if (relationship.containsKey("TargetMode")) {
+            xml.append(" TargetMode=\"").append(relationship.get("TargetMode")).append('"');
+        }
+        return xml.append("/>").toString();
+    }
+
+    private static List<Map<String, String>> parseRelationships(byte[] rels) {
+        List<Map<String, String>> relationships = new ArrayList<>();
+        if (rels == null) {
+            return relationships;
+        }
+        Matcher matcher = RELATIONSHIP.matcher(new String(rels, StandardCharsets.UTF_8));
+        while (matcher.find()) {
+            relationships.add(attributes(matcher.group(1)));
+        }
+        return relationships;
+    }
+
+    private static Map<String, String> attributes(String element) {
+        Map<String, String> attributes = new HashMap<>();
+        Matcher attribute = ATTRIBUTE.matcher(element);
+        while (attribute.find()) {
+            attributes.put(attribute.group(1), attribute.group(2));
+        }
+        return attributes;
+    }
+
+    private static Map<String, Map<String, String>> indexById(List<Map<String, String>> relationships) {
+        Map<String, Map<String, String>> index = new HashMap<>();
+        for (Map<String, String> relationship : relationships) {
+            index.put(relationship.get("Id"), relationship);
+        }
+        return index;
+    }
+
+    /**
+     * 解析相对于 sourceDirectory 的关系目标为部件名 (不带开头的 /)。
+     */
+    private static String resolve(String sourceDirectory, String target) {
+        String path = target.startsWith("/") ? target.substring(1) : sourceDirectory + target;
+        Deque<String> segments = new ArrayDeque<>();
+        for (String segment : path.split("/")) {
+            if ("..".equals(segment)) {
+                segments.pollLast();
+            } else if (!segment.isEmpty() && !".".equals(segment)) {
+                segments.addLast(segment);
+            }
+        }
+        return String.join("/", segments);
+    }
+
+    /**
+     * [Content_Types].xml 中的 Default 或 Override 元素的属性。
+     */
+    private static List<Map<String, String>> parseContentTypes(Map<String, byte[]> parts, String element) {
+        List<Map<String, String>> contentTypes = new ArrayList<>();
+        byte[] bytes = parts.get(CONTENT_TYPES_PART);
+        if (bytes == null) {
+            return contentTypes;
+        }
+        Matcher matcher = CONTENT_TYPE.matcher(new String(bytes, StandardCharsets.UTF_8));
+        while (matcher.find()) {
+            if (matcher.group(1).equals(element)) {
+                contentTypes.add(attributes(matcher.group(2)));
+            }
+        }
+        return contentTypes;
+    }
+
+    private static byte[] insertBefore(String xml, String endTag, CharSequence addition) {
+        int index = xml.lastIndexOf(endTag);
+        String merged = index >= 0 && addition.length() > 0 ? xml.substring(0, index) + addition + xml.substring(index) : xml;
+        return merged.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static Map<String, byte[]> readParts(byte[] docx) throws IOException {
+        Map<String, byte[]> parts = new HashMap<>();
+        try (ZipInputStream zipIn = new ZipInputStream(new ByteArrayInputStream(docx))) {
+            ZipEntry entry;
+            while ((entry = zipIn.getNextEntry()) != null) {
+                parts.put(entry.getName(), StreamUtils.copyToByteArray(zipIn));
+            }
+        }
+        return parts;
+    }
+}
@@ -0,0 +1,46 @@
+package org.makotogu.metaReportEngine.rendering.export;
+
+import java.util.Locale;
+
+/**
+ * 报告输出格式 (report_definition.output_format)。
+ */
+public enum OutputFormat {
+
+    /** poi-tl 渲染 Word 模板 */
+    DOCX("application/vnd.openxmlformats-officedocument.wordprocessingml.document", "docx"),
+    /** 表格数据写入 SXSSF 流式工作簿 (每个表格一个 sheet) */
+    XLSX("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet", "xlsx"),
+    /** 第一个表格写为 UTF-8 CSV */
+    CSV("text/csv;charset=UTF-8", "csv");
+
+    private final String contentType;
+    private final String extension;
+
+    OutputFormat(String contentType, String extension) {
+        this.contentType = contentType;
+        this.extension = extension;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * @param value report_definition.output_format，为空时为 DOCX
+     */
+    public static OutputFormat of(String value) {
+        if (value == null || value.trim().isEmpty()) {
+            return DOCX;
+        }
+        try {
+            return valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown output format: " + value + " (expected DOCX, XLSX or CSV)");
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package org.makotogu.metaReportEngine.rendering.export;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Font;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.util.WorkbookUtil;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.makotogu.metaReportEngine.shard.exception.RenderingException;
+import org.makotogu.metaReportEngine.shard.util.MemoryEstimator;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 表格型报告的 XLSX / CSV 输出: 逐行读取表格数据 (TABLE_BUILDER 输出或其他 List&lt;Map&gt;，包括 ColumnarTable / MappedRowTable 的行视图)
+ * 直接写入输出流，写出过程只保留固定大小的缓冲区 (XLSX 为行窗口)，不再复制整个表格。
+ * 表格本身在写出前已经完整生成 (例如 TABLE_BUILDER 的输出)，仍随行数占用内存，只有溢出到磁盘的 MappedRowTable 不占用堆。
+ * <ul>
+ *     <li>XLSX: SXSSF 流式工作簿，内存中最多保留 report.engine.export.xlsx-window-rows 行，其余行写入压缩的临时文件；
+ *     每个表格一个 sheet，超过 Excel 单 sheet 行数上限时续写到 "名称 (2)" 等 sheet。</li>
+ *     <li>CSV: 只写第一个表格，UTF-8 (带 BOM，Excel 可直接打开)，RFC 4180 引号转义，CRLF 换行。</li>
+ * </ul>
+ * 列名取第一行 Map 的 key 顺序 (TABLE_BUILDER 按 columns 配置顺序输出)，后续行缺少的列为空；非 Map 行被跳过。
+ */
+@Slf4j
+@Service
+public class TabularExportService {
+
+    private static final int MAX_SHEET_ROWS = 1_048_576;  // Excel 单 sheet 行数上限 (含表头)
+    private static final int MAX_CELL_LENGTH = 32_767;    // Excel 单元格文本长度上限
+    private static final int CSV_BUFFER_CHARS = 64 * 1024;
+    private static final int XLSX_CELL_OVERHEAD = 48;      // SXSSF 单元格对象 (不含值) 的粗略估算
+
+    /**
+     * CSV 写出时的缓冲区估算 (字符缓冲与编码缓冲)。
+     */
+    public static final long CSV_BUFFER_BYTES = CSV_BUFFER_CHARS * 2L + 8 * 1024;
+
+    @Value("${report.engine.export.xlsx-window-rows:500}")
+    private int xlsxWindowRows;
+
+    /**
+     * XLSX 写出时留在内存中的行估算: 每个 sheet 最多保留 xlsx-window-rows 行 (按各表格第一行估算单行大小)。
+     */
+    public long estimateXlsxBufferBytes(Map<String, ? extends Iterable<?>> tables) {
+        long bytes = 0;
+        for (Iterable<?> rows : tables.values()) {
+            Iterator<?> iterator = rows.iterator();
+            Object first = iterator.hasNext() ? iterator.next() : null;
+            if (first instanceof Map) {
+                Map<?, ?> row = (Map<?, ?>) first;
+                bytes += (MemoryEstimator.estimateMapRowBytes(row) + (long) row.size() * XLSX_CELL_OVERHEAD) * xlsxWindowRows;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @param tables sheet 名称 -> 表格行
+     */
+    public void writeXlsx(Map<String, ? extends Iterable<?>> tables, OutputStream out) throws IOException {
+        SXSSFWorkbook workbook = new SXSSFWorkbook(xlsxWindowRows);
+        workbook.setCompressTempFiles(true);
+        try {
+            CellStyle headerStyle = workbook.createCellStyle();
+            Font headerFont = workbook.createFont();
+            headerFont.setBold(true);
+            headerStyle.setFont(headerFont);
+            CellStyle dateStyle = workbook.createCellStyle();
+            dateStyle.setDataFormat(workbook.createDataFormat().getFormat("yyyy-mm-dd"));
+            CellStyle dateTimeStyle = workbook.createCellStyle();
+            dateTimeStyle.setDataFormat(workbook.createDataFormat().getFormat("yyyy-mm-dd hh:mm:ss"));
+
+            for (Map.Entry<String, ? extends Iterable<?>> table : tables.entrySet()) {
+                String baseName = WorkbookUtil.createSafeSheetName(table.getKey());
+                List<String> columns = null;
+                Sheet sheet = null;
+                int sheetIndex = 0;
+                int rowIndex = 0;
+                long rowCount = 0;
+                for (Object rowObject : table.getValue()) {
+                    if (!(rowObject instanceof Map)) {
+                        continue;
+                    }
+                    Map<?, ?> row = (Map<?, ?>) rowObject;
+                    if (columns == null) {
+                        columns = columnsOf(row);
+                    }
+                    if (sheet == null || rowIndex >= MAX_SHEET_ROWS) {
+                        sheetIndex++;
+                        sheet = workbook.createSheet(sheetIndex == 1 ? baseName : WorkbookUtil.createSafeSheetName(baseName + " (" + sheetIndex + ")"));
+                        rowIndex = 0;
+                        Row header = sheet.createRow(rowIndex++);
+                        for (int c = 0; c < columns.size(); c++) {
+                            Cell cell = header.createCell(c);
+                            cell.setCellValue(columns.get(c));
+                            cell.setCellStyle(headerStyle);
+                        }
+                    }
+                    Row sheetRow = sheet.createRow(rowIndex++);
+                    for (int c = 0; c < columns.size(); c++) {
+                        Object value = row.get(columns.get(c));
+                        if (value != null) {
+                            setCellValue(sheetRow.createCell(c), value, dateStyle, dateTimeStyle);
+                        }
+                    }
+                    rowCount++;
+                }
+                if (sheet == null) { // 空表格也输出一个 sheet
+                    workbook.createSheet(baseName);
+                }
+                log.debug("Exported table '{}' to xlsx: {} rows, {} sheet(s)", table.getKey(), rowCount, Math.max(sheetIndex, 1));
+            }
+            if (tables.isEmpty()) {
+                workbook.createSheet("Sheet1");
+            }
+            workbook.write(out);
+        } finally {
+            workbook.dispose(); // 删除临时文件
+            workbook.close();
+        }
+    }
+
+    /**
+     * 写出 CSV (不关闭输出流)。
+     */
+    public void writeCsv(Iterable<?> rows, OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), CSV_BUFFER_CHARS);
+        writer.write('\uFEFF'); // BOM
+        List<String> columns = null;
+        long rowCount = 0;
+        for (Object rowObject : rows) {
+            if (!(rowObject instanceof Map)) {
+                continue;
+            }
+            Map<?, ?> row = (Map<?, ?>) rowObject;
+            if (columns == null) {
+                columns = columnsOf(row);
+                writeCsvLine(columns, writer);
+            }
+            List<Object> values = new ArrayList<>(columns.size());
+            for (String column : columns) {
+                values.add(row.get(column));
+            }
+            writeCsvLine(values, writer);
+            rowCount++;
+        }
+        writer.flush();
+        log.debug("Exported {} rows to csv", rowCount);
+    }
+
+    private static List<String> columnsOf(Map<?, ?> row) {
+        List<String> columns = new ArrayList<>(row.size());
+        for (Object key : row.keySet()) {
+            columns.add(String.valueOf(key));
+        }
+        return columns;
+    }
+
+    private static void setCellValue(Cell cell, Object value, CellStyle dateStyle, CellStyle dateTimeStyle) {
+        if (value instanceof Number) {
+            cell.setCellValue(((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            cell.setCellValue((Boolean) value);
+        } else if (value instanceof Date) {
+            cell.setCellValue((Date) value);
+            cell.setCellStyle(dateTimeStyle);
+        } else if (value instanceof LocalDate) {
+            cell.setCellValue(Date.from(((LocalDate) value).atStartOfDay(ZoneId.systemDefault()).toInstant()));
+            cell.setCellStyle(dateStyle);
+        } else if (value instanceof LocalDateTime) {
+            cell.setCellValue(Date.from(((LocalDateTime) value).atZone(ZoneId.systemDefault()).toInstant()));
+            cell.setCellStyle(dateTimeStyle);
+        } else {
+            String text = String.valueOf(value);
+            cell.setCellValue(text.length() > MAX_CELL_LENGTH ? text.substring(0, MAX_CELL_LENGTH) : text);
+        }
+    }
+
+    private static void writeCsvLine(List<?> values, Writer writer) throws IOException {
+        for (int i = 0; i < values.size(); i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            Object value = values.get(i);
+            if (value == null) {
+                continue;
+            }
+            String text = String.valueOf(value);
+            boolean quote = false;
+            for (int c = 0; c < text.length() && !quote; c++) {
+                char ch = text.charAt(c);
+                quote = ch == ',' || ch == '"' || ch == '\n' || ch == '\r';
+            }
+            if (quote) {
+                writer.write('"');
+                writer.write(text.replace("\"", "\"\""));
+                writer.write('"');
+            } else {
+                writer.write(text);
+            }
+        }
+        writer.write("\r\n");
+    }
+
+    /**
+     * 从渲染数据中挑选要导出的表格: 优先使用 TABLE_BUILDER 输出的表格，没有时使用渲染数据中所有的列表。
+     *
+     * @throws RenderingException 没有可导出的表格
+     */
+    public Map<String, Iterable<?>> selectTables(Map<String, Object> renderData, List<String> tableKeys) {
+        Map<String, Iterable<?>> tables = new LinkedHashMap<>();
+        for (String tableKey : tableKeys) {
+            if (renderData.get(tableKey) instanceof Iterable) {
+                tables.put(tableKey, (Iterable<?>) renderData.get(tableKey));
+            }
+        }
+        if (tables.isEmpty()) {
+            for (Map.Entry<String, Object> entry : renderData.entrySet()) {
+                if (entry.getValue() instanceof List) {
+                    tables.put(entry.getKey(), (List<?>) entry.getValue());
+                }
+            }
+        }
+        if (tables.isEmpty()) {
+            throw new RenderingException("No table data to export: map a TABLE_BUILDER output (or a list) in report_template_mapping");
+        }
+        return tables;
+    }
+}
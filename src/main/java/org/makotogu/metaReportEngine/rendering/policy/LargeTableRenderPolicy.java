@@ -0,0 +1,338 @@
+package org.makotogu.metaReportEngine.rendering.policy;
+
+import com.deepoove.poi.XWPFTemplate;
+import com.deepoove.poi.config.Configure;
+import com.deepoove.poi.data.TextRenderData;
+import com.deepoove.poi.exception.RenderException;
+import com.deepoove.poi.plugin.table.LoopRowTableRenderPolicy;
+import com.deepoove.poi.policy.RenderPolicy;
+import com.deepoove.poi.policy.TextRenderPolicy;
+import com.deepoove.poi.render.compute.EnvModel;
+import com.deepoove.poi.render.compute.RenderDataCompute;
+import com.deepoove.poi.render.compute.RenderDataComputeFactory;
+import com.deepoove.poi.render.processor.EnvIterator;
+import com.deepoove.poi.resolver.TemplateResolver;
+import com.deepoove.poi.template.ElementTemplate;
+import com.deepoove.poi.template.MetaTemplate;
+import com.deepoove.poi.template.run.RunTemplate;
+import com.deepoove.poi.util.TableTools;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.poi.xwpf.usermodel.XWPFParagraph;
+import org.apache.poi.xwpf.usermodel.XWPFRun;
+import org.apache.poi.xwpf.usermodel.XWPFTable;
+import org.apache.poi.xwpf.usermodel.XWPFTableCell;
+import org.apache.poi.xwpf.usermodel.XWPFTableRow;
+import org.springframework.util.StreamUtils;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * 大表格渲染策略，用法与 {@link LoopRowTableRenderPolicy} 相同 (标签所在行的下一行为模板行，单元格中为 [field] 标签)，
+ * 但不为每个数据行复制 XWPF 行对象:
+ * <ol>
+ *     <li>渲染时只把模板行中的 [field] 替换为占位符，模板行留在文档中。</li>
+ *     <li>{@link #write(byte[], OutputStream)} 写出 docx 时，从序列化后的 document.xml 中取出模板行的 XML，
+ *         按占位符切分为片段 (预编译一次)，对每个数据行依次写出片段与转义后的字段值，直接写入输出的 zip 流。</li>
+ * </ol>
+ * 字段取值与 LoopRowTableRenderPolicy 相同 (Configure 的 RenderDataCompute，可用 #index 等迭代变量)，值按 TextRenderPolicy
+ * 的方式输出 (toString，换行转为 w:br，null 为空)，纵向合并单元格在第一行之后改为 continue，因此输出与逐行复制一致。
+ * 堆上只有模板行片段和当前行，不随行数增长 (输出字节除外)。
+ * <p>
+ * 以下情况退化为 LoopRowTableRenderPolicy: 数据不是 Iterable、模板行中没有 [field] 标签、
+ * 模板行包含非文本标签 (图片等) 或嵌套表格。字段值为 TextRenderData 时只输出文本，不应用其样式。
+ * <p>
+ * 一个实例对应一次渲染 (保存待写出的表格)，不能在多个 XWPFTemplate 之间共享。
+ */
+@Slf4j
+public class LargeTableRenderPolicy implements RenderPolicy {
+
+    private static final AtomicLong TABLE_SEQUENCE = new AtomicLong();
+    private static final String TOKEN_PREFIX = "MRE-LARGE-TABLE-";
+
+    private final List<PendingTable> pendingTables = new ArrayList<>();
+
+    @Override
+    public void render(ElementTemplate eleTemplate, Object data, XWPFTemplate template) {
+        RunTemplate runTemplate = (RunTemplate) eleTemplate;
+        XWPFRun run = runTemplate.getRun();
+        if (!TableTools.isInsideTable(run) || !(data instanceof Iterable)) {
+            new LoopRowTableRenderPolicy().render(eleTemplate, data, template);
+            return;
+        }
+        XWPFTableCell tagCell = (XWPFTableCell) ((XWPFParagraph) run.getParent()).getBody();
+        XWPFTable table = tagCell.getTableRow().getTable();
+        int templateRowIndex = table.getRows().indexOf(tagCell.getTableRow()) + 1;
+        XWPFTableRow templateRow = table.getRow(templateRowIndex);
+        if (templateRow == null) {
+            throw new RenderException("Large table " + eleTemplate + " has no template row below the tag row");
+        }
+
+        // 1. 解析模板行中的 [field] 标签 (拆分在多个 run 中的标签会被合并为一个 run)
+        Configure rowConfig;
+        try {
+            rowConfig = template.getConfig().copy("[", "]");
+        } catch (CloneNotSupportedException e) {
+            throw new RenderException("Cannot copy configure for large table " + eleTemplate, e);
+        }
+        TemplateResolver resolver = new TemplateResolver(rowConfig);
+        List<RunTemplate> fields = new ArrayList<>();
+        for (XWPFTableCell cell : templateRow.getTableCells()) {
+            if (!cell.getTables().isEmpty()) {
+                fallback(eleTemplate, data, template, "template row contains a nested table");
+                return;
+            }
+            for (MetaTemplate meta : resolver.resolveBodyElements(cell.getBodyElements())) {
+                if (!(meta instanceof RunTemplate) || !(((RunTemplate) meta).findPolicy(rowConfig) instanceof TextRenderPolicy)) {
+                    fallback(eleTemplate, data, template, "template row contains non-text tag " + meta);
+                    return;
+                }
+                fields.add((RunTemplate) meta);
+            }
+        }
+        if (fields.isEmpty()) {
+            fallback(eleTemplate, data, template, "template row contains no [field] tags");
+            return;
+        }
+
+        // 2. 标签替换为占位符，写出时按占位符展开
+        run.setText("", 0);
+        long tableId = TABLE_SEQUENCE.incrementAndGet();
+        List<String> tagNames = new ArrayList<>(fields.size());
+        for (int i = 0; i < fields.size(); i++) {
+            fields.get(i).getRun().setText(token(tableId, i), 0);
+            tagNames.add(fields.get(i).getTagName());
+        }
+        pendingTables.add(new PendingTable(tableId, tagNames, (Iterable<?>) data, rowConfig.getRenderDataComputeFactory()));
+        log.debug("Large table {} deferred: {} fields", eleTemplate, tagNames.size());
+    }
+
+    /**
+     * 是否有表格需要在写出时展开 (没有时直接使用 XWPFTemplate.write 即可)。
+     */
+    public boolean hasPendingTables() {
+        return !pendingTables.isEmpty();
+    }
+
+    /**
+     * 复制渲染后的 docx，展开其中的大表格。
+     *
+     * @param renderedDocx XWPFTemplate 渲染并写出后的 docx
+     * @param out          输出流 (不关闭)
+     */
+    public void write(byte[] renderedDocx, OutputStream out) throws IOException {
+        List<PendingTable> remaining = new ArrayList<>(pendingTables);
+        try (ZipInputStream zipIn = new ZipInputStream(new ByteArrayInputStream(renderedDocx))) {
+            ZipOutputStream zipOut = new ZipOutputStream(out);
+            ZipEntry entry;
+            while ((entry = zipIn.getNextEntry()) != null) {
+                zipOut.putNextEntry(new ZipEntry(entry.getName()));
+                if (entry.getName().startsWith("word/") && entry.getName().endsWith(".xml")) {
+                    String xml = new String(StreamUtils.copyToByteArray(zipIn), StandardCharsets.UTF_8);
+                    Writer writer = new BufferedWriter(new OutputStreamWriter(zipOut, StandardCharsets.UTF_8), 64 * 1024);
+                    expand(xml, remaining, writer);
+                    writer.flush();
+                } else {
+                    StreamUtils.copy(zipIn, zipOut);
+                }
+                zipOut.closeEntry();
+            }
+            zipOut.finish();
+        }
+        if (!remaining.isEmpty()) {
+            throw new RenderException("Template row of large table not found in document parts: " + remaining.size() + " table(s)");
+        }
+    }
+
+    private static void expand(String xml, List<PendingTable> remaining, Writer writer) throws IOException {
+        int position = 0;
+        while (true) {
+            PendingTable next = null;
+            int nextIndex = -1;
+            for (PendingTable table : remaining) {
+                int index = xml.indexOf(token(table.id, 0), position);
+                if (index >= 0 && (nextIndex < 0 || index < nextIndex)) {
+                    next = table;
+                    nextIndex = index;
+                }
+            }
+            if (next == null) {
+                writer.write(xml, position, xml.length() - position);
+                return;
+            }
+            RowTemplate rowTemplate = RowTemplate.parse(xml, nextIndex, next);
+            writer.write(xml, position, rowTemplate.rowStart - position);
+            next.writeRows(rowTemplate, writer);
+            position = rowTemplate.rowEnd;
+            remaining.remove(next);
+        }
+    }
+
+    private void fallback(ElementTemplate eleTemplate, Object data, XWPFTemplate template, String reason) {
+        log.debug("Large table {} rendered with LoopRowTableRenderPolicy: {}", eleTemplate, reason);
+        new LoopRowTableRenderPolicy().render(eleTemplate, data, template);
+    }
+
+    private static String token(long tableId, int field) {
+        return TOKEN_PREFIX + tableId + "-" + field + "#";
+    }
+
+    /**
+     * 等待写出的表格。
+     */
+    private static final class PendingTable {
+        private final long id;
+        private final List<String> tagNames;
+        private final Iterable<?> rows;
+        private final RenderDataComputeFactory computeFactory;
+
+        PendingTable(long id, List<String> tagNames, Iterable<?> rows, RenderDataComputeFactory computeFactory) {
+            this.id = id;
+            this.tagNames = tagNames;
+            this.rows = rows;
+            this.computeFactory = computeFactory;
+        }
+
+        void writeRows(RowTemplate rowTemplate, Writer writer) throws IOException {
+            Iterator<?> iterator = rows.iterator();
+            int index = 0;
+            boolean hasNext = iterator.hasNext();
+            while (hasNext) {
+                Object root = iterator.next();
+                hasNext = iterator.hasNext();
+                RenderDataCompute compute = computeFactory.newCompute(EnvModel.of(root, EnvIterator.makeEnv(index, hasNext)));
+                String[] segments = index == 0 ? rowTemplate.firstRowSegments : rowTemplate.segments;
+                for (int i = 0; i < rowTemplate.fields.length; i++) {
+                    writer.write(segments[i]);
+                    writeText(compute.compute(tagNames.get(rowTemplate.fields[i])), rowTemplate.textStartTag, rowTemplate.textEndTag, rowTemplate.breakTag, writer);
+                }
+                writer.write(segments[segments.length - 1]);
+                index++;
+            }
+        }
+    }
+
+    /**
+     * 模板行的 XML 片段: segments[i] 之后写出第 fields[i] 个字段的文本元素。
+     */
+    private static final class RowTemplate {
+        private int rowStart;
+        private int rowEnd;
+        private String[] firstRowSegments;
+        private String[] segments;     // 第二行起: 纵向合并的 restart 改为 continue
+        private int[] fields;
+        private String textStartTag;   // <w:t xml:space="preserve">
+        private String textEndTag;     // </w:t>
+        private String breakTag;       // <w:br/>
+
+        static RowTemplate parse(String xml, int firstTokenIndex, PendingTable table) {
+            int textStart = xml.lastIndexOf('<', firstTokenIndex);
+            String prefix = elementPrefix(xml, textStart);
+            RowTemplate template = new RowTemplate();
+            template.rowStart = lastIndexOfElement(xml, prefix + "tr", textStart);
+            int rowClose = xml.indexOf("</" + prefix + "tr>", firstTokenIndex);
+            if (template.rowStart < 0 || rowClose < 0) {
+                throw new RenderException("Cannot locate template row of large table " + table.id);
+            }
+            template.rowEnd = rowClose + ("</" + prefix + "tr>").length();
+            template.textStartTag = "<" + prefix + "t xml:space=\"preserve\">";
+            template.textEndTag = "</" + prefix + "t>";
+            template.breakTag = "<" + prefix + "br " + prefix + "type=\"textWrapping\"/>"; // 与 XWPFRun.addBreak() 相同
+
+            // 按占位符所在的整个 w:t 元素切分 (模板行中每个字段的文本元素只包含占位符)
+            List<String> segmentList = new ArrayList<>();
+            List<Integer> fieldList = new ArrayList<>();
+            Matcher matcher = Pattern.compile(Pattern.quote(TOKEN_PREFIX + table.id + "-") + "(\\d+)#").matcher(xml);
+            matcher.region(template.rowStart, template.rowEnd);
+            int segmentStart = template.rowStart;
+            while (matcher.find()) {
+                int elementStart = xml.lastIndexOf('<', matcher.start());
+                int elementEnd = xml.indexOf('>', matcher.end()) + 1;
+                if (!xml.startsWith(template.textEndTag, matcher.end())) {
+                    throw new RenderException("Field placeholder of large table " + table.id + " is not a whole text element");
+                }
+                segmentList.add(xml.substring(segmentStart, elementStart));
+                fieldList.add(Integer.parseInt(matcher.group(1)));
+                segmentStart = elementEnd;
+            }
+            segmentList.add(xml.substring(segmentStart, template.rowEnd));
+            template.firstRowSegments = segmentList.toArray(new String[0]);
+            Pattern restart = Pattern.compile("(<" + Pattern.quote(prefix) + "vMerge\\b[^>]*?" + Pattern.quote(prefix) + "val=\")restart\"");
+            template.segments = new String[template.firstRowSegments.length];
+            for (int i = 0; i < template.segments.length; i++) {
+                template.segments[i] = restart.matcher(template.firstRowSegments[i]).replaceAll("$1continue\"");
+            }
+            template.fields = fieldList.stream().mapToInt(Integer::intValue).toArray();
+            return template;
+        }
+
+        private static String elementPrefix(String xml, int elementStart) {
+            int nameEnd = elementStart + 1;
+            while (nameEnd < xml.length() && xml.charAt(nameEnd) != ' ' && xml.charAt(nameEnd) != '>') {
+                nameEnd++;
+            }
+            String name = xml.substring(elementStart + 1, nameEnd);
+            int colon = name.indexOf(':');
+            return colon >= 0 ? name.substring(0, colon + 1) : "";
+        }
+
+        private static int lastIndexOfElement(String xml, String name, int from) {
+            int index = from;
+            while ((index = xml.lastIndexOf("<" + name, index - 1)) >= 0) {
+                char next = xml.charAt(index + name.length() + 1);
+                if (next == ' ' || next == '>') {
+                    return index;
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * 与 TextRenderPolicy 相同: null 为空文本，换行拆分为多个文本元素并以 w:br 分隔。
+     */
+    private static void writeText(Object value, String textStartTag, String textEndTag, String breakTag, Writer writer) throws IOException {
+        String text = value == null ? "" : value instanceof TextRenderData ? ((TextRenderData) value).getText() : value.toString();
+        writer.write(textStartTag);
+        if (text != null) {
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                switch (c) {
+                    case '&':
+                        writer.write("&amp;");
+                        break;
+                    case '<':
+                        writer.write("&lt;");
+                        break;
+                    case '>':
+                        writer.write("&gt;");
+                        break;
+                    case '\n':
+                        writer.write(textEndTag);
+                        writer.write(breakTag);
+                        writer.write(textStartTag);
+                        break;
+                    default:
+                        if (c >= 0x20 || c == '\t' || c == '\r') { // XML 1.0 不允许其他控制字符
+                            writer.write(c);
+                        }
+                }
+            }
+        }
+        writer.write(textEndTag);
+    }
+}
@@ -6,41 +6,81 @@ import com.deepoove.poi.config.ConfigureBuilder;
 import com.deepoove.poi.plugin.table.LoopRowTableRenderPolicy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.makotogu.metaReportEngine.rendering.policy.LargeTableRenderPolicy;
 import org.makotogu.metaReportEngine.shard.exception.RenderingException;
-import org.springframework.core.io.Resource;
-import org.springframework.core.io.ResourceLoader;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.util.CollectionUtils;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * 基于 poi-tl 的 docx 渲染。模板经 {@link TemplateCache} 缓存，每次渲染从内存中的模板字节编译；
+ * 编译与渲染在 {@link RenderExecutor} 的渲染线程中执行，调用线程只等待结果。
+ */
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class PoiTlRenderingService {
 
-    private final ResourceLoader resourceLoader;
+    private final TemplateCache templateCache;
+    private final RenderExecutor renderExecutor;
+
+    @Value("${report.engine.large-table.threshold-rows:2000}")
+    private int largeTableThresholdRows; // 表格数据行数达到该值时使用 LargeTableRenderPolicy, <= 0 表示不使用
+
+    /**
+     * 获取 (缓存的) 模板，调用方可据此检查模板中的标签。
+     */
+    public TemplateCache.CachedTemplate getTemplate(String templatePath, String templateVersion) throws RenderingException {
+        return templateCache.get(templatePath, templateVersion);
+    }
 
     public byte[] renderReport(String templatePath, Map<String, Object> renderData, List<String> tableKeys) throws RenderingException {
-        log.debug("Rendering report from template: {}", templatePath);
-        Resource resource = resourceLoader.getResource(templatePath);
+        return renderReport(templatePath, null, 0, renderData, tableKeys);
+    }
 
-        if (!resource.exists()) {
-            log.error("Template resource not found: {}", templatePath);
-            throw new RenderingException("Template not found: " + templatePath);
-        }
+    /**
+     * @param templateVersion 模板版本 (report_definition 的 version / updated_at)，变化时重新读取模板文件
+     * @param priority        渲染优先级 (report_definition 的 render_priority)，值越大越先渲染
+     */
+    public byte[] renderReport(String templatePath, String templateVersion, int priority, Map<String, Object> renderData,
+                               List<String> tableKeys) throws RenderingException {
+        TemplateCache.CachedTemplate cachedTemplate = templateCache.get(templatePath, templateVersion);
+        return renderExecutor.execute(templatePath, priority, () -> render(cachedTemplate, renderData, tableKeys));
+    }
+
+    public void renderReport(String templatePath, Map<String, Object> renderData, List<String> tableRenderKeys, OutputStream outputStream) throws RenderingException {
+        TemplateCache.CachedTemplate cachedTemplate = templateCache.get(templatePath, null);
+        renderExecutor.execute(templatePath, 0, () -> {
+            render(cachedTemplate, renderData, outputStream);
+            return null;
+        });
+    }
+
+    private byte[] render(TemplateCache.CachedTemplate cachedTemplate, Map<String, Object> renderData, List<String> tableKeys) throws RenderingException {
+        String templatePath = cachedTemplate.getTemplatePath();
+        log.debug("Rendering report from template: {}", templatePath);
 
-        try (InputStream inputStream = resource.getInputStream(); ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
+        try (ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
             ConfigureBuilder builder = Configure.builder();
+            LargeTableRenderPolicy largeTablePolicy = null;
             // 编译模板 (未来可考虑传入 Configure 对象进行定制)
             if (!CollectionUtils.isEmpty(tableKeys)) {
                 for (String tableKey : tableKeys) {
-                    if (renderData.containsKey(tableKey)) { // 确保数据存在
+                    Object tableData = renderData.get(tableKey);
+                    if (isLargeTable(tableData)) { // 大表格直接生成行 XML, 不逐行复制 XWPF 行对象
+                        log.debug("Binding key '{}' to LargeTableRenderPolicy ({} rows)", tableKey, ((Collection<?>) tableData).size());
+                        if (largeTablePolicy == null) {
+                            largeTablePolicy = new LargeTableRenderPolicy();
+                        }
+                        builder.bind(tableKey, largeTablePolicy);
+                    } else if (renderData.containsKey(tableKey)) { // 确保数据存在
                         log.debug("Binding key '{}' to LoopRowTableRenderPolicy", tableKey);
                         builder.bind(tableKey, new LoopRowTableRenderPolicy()); // 使用明确的 Key 绑定
                     } else {
@@ -49,13 +89,19 @@ public class PoiTlRenderingService {
                 }
             }
             Configure configure = builder.build();
-            XWPFTemplate template = XWPFTemplate.compile(inputStream, configure);
+            XWPFTemplate template = templateCache.compile(cachedTemplate, configure);
 
             // 渲染数据
             template.render(renderData);
 
-            // 将渲染结果写入字节数组输出流并关闭 poi-tl 资源
-            template.writeAndClose(baos);
+            // 将渲染结果写入字节数组输出流并关闭 poi-tl 资源 (有大表格时在写出过程中展开表格行)
+            if (largeTablePolicy != null && largeTablePolicy.hasPendingTables()) {
+                ByteArrayOutputStream rendered = new ByteArrayOutputStream();
+                template.writeAndClose(rendered);
+                largeTablePolicy.write(rendered.toByteArray(), baos);
+            } else {
+                template.writeAndClose(baos);
+            }
 
             byte[] reportBytes = baos.toByteArray();
             log.debug("Report rendered successfully, size: {} bytes", reportBytes.length);
@@ -70,18 +116,17 @@ public class PoiTlRenderingService {
         }
     }
 
-    public void renderReport(String templatePath, Map<String, Object> renderData, List<String> tableRenderKeys, OutputStream outputStream) throws RenderingException {
-        log.debug("Rendering report from template: {} to output stream", templatePath);
-        Resource resource = resourceLoader.getResource(templatePath);
+    private boolean isLargeTable(Object tableData) {
+        return largeTableThresholdRows > 0 && tableData instanceof Collection && ((Collection<?>) tableData).size() >= largeTableThresholdRows;
+    }
 
-        if (!resource.exists()) {
-            log.error("Template resource not found: {}", templatePath);
-            throw new RenderingException("Template not found: " + templatePath);
-        }
+    private void render(TemplateCache.CachedTemplate cachedTemplate, Map<String, Object> renderData, OutputStream outputStream) throws RenderingException {
+        String templatePath = cachedTemplate.getTemplatePath();
+        log.debug("Rendering report from template: {} to output stream", templatePath);
 
-        try (InputStream inputStream = resource.getInputStream()) {
+        try {
             // 编译模板
-            XWPFTemplate template = XWPFTemplate.compile(inputStream);
+            XWPFTemplate template = templateCache.compile(cachedTemplate, Configure.createDefault());
             // 渲染数据
             template.render(renderData);
             // 将渲染结果写入指定的输出流并关闭 poi-tl 资源
@@ -0,0 +1,184 @@
+package org.makotogu.metaReportEngine.rendering.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.makotogu.metaReportEngine.shard.exception.RenderingException;
+import org.makotogu.metaReportEngine.shard.exception.RenderingRejectedException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 渲染专用线程池: poi-tl 渲染 (CPU 与内存分配密集) 不再在 Tomcat 请求线程上执行，渲染吞吐量由线程数与队列容量决定，
+ * 而不是 Servlet 线程数。
+ * <ul>
+ *     <li>线程数默认等于 CPU 核数 (report.engine.render-executor.threads，0 = 核数)。</li>
+ *     <li>等待队列有界 (queue-capacity)，队列已满时立即抛出 {@link RenderingRejectedException}。</li>
+ *     <li>队列按报告的 render_priority 排序 (值越大越先渲染)，相同优先级先到先渲染；大报告可配置较低优先级，避免挤占小报告。</li>
+ *     <li>调用线程等待渲染结果，timeout-seconds &gt; 0 时超时抛出 RenderingException (排队中的任务被取消，不再渲染)。</li>
+ * </ul>
+ * 统计排队等待与渲染耗时 (GET /admin/render-executor)。
+ */
+@Slf4j
+@Component
+public class RenderExecutor {
+
+    private final ThreadPoolExecutor executor;
+    private final int queueCapacity;
+    private final long timeoutMillis;
+
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong timedOut = new AtomicLong();
+    private final AtomicLong queueWaitNanos = new AtomicLong();
+    private final AtomicLong maxQueueWaitNanos = new AtomicLong();
+    private final AtomicLong renderNanos = new AtomicLong();
+    private final AtomicLong maxRenderNanos = new AtomicLong();
+
+    public RenderExecutor(@Value("${report.engine.render-executor.threads:0}") int threads,
+                          @Value("${report.engine.render-executor.queue-capacity:100}") int queueCapacity,
+                          @Value("${report.engine.render-executor.timeout-seconds:0}") long timeoutSeconds) {
+        int poolSize = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS, new PriorityBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "report-render-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.queueCapacity = queueCapacity;
+        this.timeoutMillis = TimeUnit.SECONDS.toMillis(timeoutSeconds);
+        log.info("Render executor initialized: {} threads, queue capacity {}, timeout {}s", poolSize, queueCapacity, timeoutSeconds);
+    }
+
+    /**
+     * 在渲染线程池中执行渲染并等待结果。
+     *
+     * @param description 用于日志与错误信息 (例如模板路径)
+     * @param priority    渲染优先级，值越大越先执行
+     * @throws RenderingRejectedException 等待队列已满
+     * @throws RenderingException         渲染失败、超时或等待被中断
+     */
+    public <T> T execute(String description, int priority, Callable<T> render) throws RenderingException {
+        if (queued.incrementAndGet() > queueCapacity) {
+            queued.decrementAndGet();
+            rejected.incrementAndGet();
+            log.warn("Render queue is full ({} waiting), rejected render of {}", queueCapacity, description);
+            throw new RenderingRejectedException("Render queue is full (" + queueCapacity + " waiting), try again later: " + description);
+        }
+        submitted.incrementAndGet();
+        RenderTask<T> task = new RenderTask<>(render, priority, sequence.incrementAndGet());
+        try {
+            executor.execute(task);
+        } catch (RuntimeException e) { // 线程池已关闭
+            queued.decrementAndGet();
+            rejected.incrementAndGet();
+            throw new RenderingRejectedException("Render executor is not accepting tasks: " + description);
+        }
+        try {
+            return timeoutMillis > 0 ? task.get(timeoutMillis, TimeUnit.MILLISECONDS) : task.get();
+        } catch (TimeoutException e) {
+            task.cancel(true);
+            timedOut.incrementAndGet();
+            throw new RenderingException("Rendering timed out after " + timeoutMillis + " ms: " + description);
+        } catch (InterruptedException e) {
+            task.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new RenderingException("Interrupted while waiting for rendering: " + description, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RenderingException) {
+                throw (RenderingException) cause;
+            }
+            throw new RenderingException("Rendering failed: " + description, cause);
+        }
+    }
+
+    public Map<String, Object> getMetrics() {
+        Map<String, Object> metrics = new LinkedHashMap<>();
+        long completedCount = completed.get() + failed.get();
+        metrics.put("threads", executor.getMaximumPoolSize());
+        metrics.put("active", executor.getActiveCount());
+        metrics.put("queued", queued.get());
+        metrics.put("queueCapacity", queueCapacity);
+        metrics.put("submitted", submitted.get());
+        metrics.put("completed", completed.get());
+        metrics.put("failed", failed.get());
+        metrics.put("rejected", rejected.get());
+        metrics.put("timedOut", timedOut.get());
+        metrics.put("avgQueueWaitMillis", completedCount == 0 ? 0.0 : queueWaitNanos.get() / 1_000_000.0 / completedCount);
+        metrics.put("maxQueueWaitMillis", maxQueueWaitNanos.get() / 1_000_000.0);
+        metrics.put("avgRenderMillis", completedCount == 0 ? 0.0 : renderNanos.get() / 1_000_000.0 / completedCount);
+        metrics.put("maxRenderMillis", maxRenderNanos.get() / 1_000_000.0);
+        return metrics;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 队列中的渲染任务: 按优先级 (大者优先)、再按提交顺序排序。
+     */
+    private final class RenderTask<T> extends FutureTask<T> implements Comparable<RenderTask<?>> {
+        private final int priority;
+        private final long sequence;
+        private final long enqueuedAt = System.nanoTime();
+
+        RenderTask(Callable<T> render, int priority, long sequence) {
+            super(render);
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        @Override
+        public void run() {
+            queued.decrementAndGet();
+            if (isCancelled()) {
+                return;
+            }
+            long start = System.nanoTime();
+            record(queueWaitNanos, maxQueueWaitNanos, start - enqueuedAt);
+            super.run();
+            record(renderNanos, maxRenderNanos, System.nanoTime() - start);
+        }
+
+        @Override
+        protected void setException(Throwable t) {
+            failed.incrementAndGet();
+            super.setException(t);
+        }
+
+        @Override
+        protected void set(T value) {
+            completed.incrementAndGet();
+            super.set(value);
+        }
+
+        @Override
+        public int compareTo(RenderTask<?> other) {
+            int byPriority = Integer.compare(other.priority, priority);
+            return byPriority != 0 ? byPriority : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private static void record(AtomicLong total, AtomicLong max, long nanos) {
+        total.addAndGet(nanos);
+        max.accumulateAndGet(nanos, Math::max);
+    }
+}
@@ -0,0 +1,347 @@
+package org.makotogu.metaReportEngine.rendering.service;
+
+import com.deepoove.poi.XWPFTemplate;
+import com.deepoove.poi.config.Configure;
+import com.deepoove.poi.template.BlockTemplate;
+import com.deepoove.poi.template.ElementTemplate;
+import com.deepoove.poi.template.MetaTemplate;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.makotogu.metaReportEngine.shard.exception.RenderingException;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.ResourceLoader;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+import org.springframework.util.StreamUtils;
+
+import javax.annotation.PreDestroy;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 模板缓存: 按 templatePath 缓存模板文件的字节、内容哈希与模板中的标签，渲染时从内存字节编译，不再每次解析 Resource、读取文件。
+ * <p>
+ * poi-tl 1.10 编译出的 XWPFTemplate 在渲染时会被修改，且没有复制文档模型的接口，因此每次渲染仍需从字节编译一次
+ * (解压与 XML 解析)；缓存省去的是资源解析、文件读取，以及加载时的校验编译与标签提取 (标签列表供渲染前的检查使用)。
+ * <p>
+ * 失效方式:
+ * <ul>
+ *     <li>文件系统中的模板 (file: 或解压后的 classpath 资源) 由 WatchService 监听所在目录，文件变化后立即失效。</li>
+ *     <li>调用方传入模板版本 (report_definition 的 version / updated_at)，与缓存条目不一致时重新读取文件，内容哈希不变则沿用原条目。</li>
+ *     <li>{@link #invalidate(String)} / {@link #invalidateAll()} 手动失效 (POST /admin/templates/invalidate)。</li>
+ * </ul>
+ * report.engine.template-cache.enabled = false 时每次渲染都重新读取模板。
+ */
+@Slf4j
+@Component
+public class TemplateCache {
+
+    private final ResourceLoader resourceLoader;
+    private final boolean enabled;
+    private final boolean watchEnabled;
+    private final Cache<String, CachedTemplate> cache;
+
+    private final Map<Path, WatchKey> watchedDirectories = new ConcurrentHashMap<>();
+    private volatile WatchService watchService;
+    private Thread watchThread;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicLong compiles = new AtomicLong();
+    private final AtomicLong compileNanos = new AtomicLong();
+    private final AtomicLong maxCompileNanos = new AtomicLong();
+
+    public TemplateCache(ResourceLoader resourceLoader,
+                         @Value("${report.engine.template-cache.enabled:true}") boolean enabled,
+                         @Value("${report.engine.template-cache.max-entries:200}") long maxEntries,
+                         @Value("${report.engine.template-cache.watch:true}") boolean watchEnabled) {
+        this.resourceLoader = resourceLoader;
+        this.enabled = enabled;
+        this.watchEnabled = enabled && watchEnabled;
+        this.cache = Caffeine.newBuilder().maximumSize(maxEntries).build();
+    }
+
+    /**
+     * 获取模板 (命中缓存时不访问文件)。
+     *
+     * @param templatePath 模板路径 (classpath: / file: 等 Spring Resource 路径)
+     * @param version      模板版本，为 null 时不按版本校验
+     * @throws RenderingException 模板不存在或无法读取、编译
+     */
+    public CachedTemplate get(String templatePath, String version) throws RenderingException {
+        if (!enabled) {
+            misses.incrementAndGet();
+            return load(templatePath, version, null);
+        }
+        CachedTemplate cached = cache.getIfPresent(templatePath);
+        if (cached != null && (version == null || version.equals(cached.getVersion()))) {
+            hits.incrementAndGet();
+            return cached;
+        }
+        misses.incrementAndGet();
+        synchronized (this) {
+            cached = cache.getIfPresent(templatePath);
+            if (cached != null && (version == null || version.equals(cached.getVersion()))) {
+                return cached;
+            }
+            CachedTemplate loaded = load(templatePath, version, cached);
+            cache.put(templatePath, loaded);
+            if (loaded.getFile() != null) {
+                watch(loaded.getFile());
+            }
+            return loaded;
+        }
+    }
+
+    /**
+     * 从缓存的字节编译一个新的 XWPFTemplate (每次渲染一个，渲染后由调用方关闭)。
+     */
+    public XWPFTemplate compile(CachedTemplate template, Configure configure) {
+        long start = System.nanoTime();
+        XWPFTemplate compiled = XWPFTemplate.compile(new ByteArrayInputStream(template.bytes), configure);
+        recordCompile(System.nanoTime() - start);
+        return compiled;
+    }
+
+    public void invalidate(String templatePath) {
+        if (cache.asMap().remove(templatePath) != null) {
+            invalidations.incrementAndGet();
+            log.info("Template cache entry invalidated: {}", templatePath);
+        }
+    }
+
+    public void invalidateAll() {
+        long size = cache.estimatedSize();
+        cache.invalidateAll();
+        invalidations.addAndGet(size);
+        log.info("Template cache cleared ({} entries)", size);
+    }
+
+    /**
+     * 缓存统计与各条目信息。
+     */
+    public Map<String, Object> getStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long hitCount = hits.get();
+        long missCount = misses.get();
+        long compileCount = compiles.get();
+        stats.put("enabled", enabled);
+        stats.put("watch", watchEnabled);
+        stats.put("entries", cache.estimatedSize());
+        stats.put("hits", hitCount);
+        stats.put("misses", missCount);
+        stats.put("hitRate", hitCount + missCount == 0 ? 0.0 : (double) hitCount / (hitCount + missCount));
+        stats.put("loads", loads.get());
+        stats.put("invalidations", invalidations.get());
+        stats.put("compiles", compileCount);
+        stats.put("avgCompileMillis", compileCount == 0 ? 0.0 : compileNanos.get() / 1_000_000.0 / compileCount);
+        stats.put("maxCompileMillis", maxCompileNanos.get() / 1_000_000.0);
+        List<Map<String, Object>> entries = new ArrayList<>();
+        for (CachedTemplate template : cache.asMap().values()) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("templatePath", template.getTemplatePath());
+            entry.put("version", template.getVersion());
+            entry.put("contentHash", template.getContentHash());
+            entry.put("bytes", template.getSize());
+            entry.put("tags", template.getTagNames().size());
+            entry.put("watched", template.getFile() != null && watchedDirectories.containsKey(template.getFile().getParent()));
+            entry.put("loadedAt", template.getLoadedAt());
+            entries.add(entry);
+        }
+        stats.put("templates", entries);
+        return stats;
+    }
+
+    /**
+     * 读取模板文件；内容哈希与旧条目相同时沿用旧条目的标签，否则编译一次提取标签 (同时校验模板)。
+     */
+    private CachedTemplate load(String templatePath, String version, CachedTemplate previous) throws RenderingException {
+        Resource resource = resourceLoader.getResource(templatePath);
+        if (!resource.exists()) {
+            log.error("Template resource not found: {}", templatePath);
+            throw new RenderingException("Template not found: " + templatePath);
+        }
+        byte[] bytes;
+        try (InputStream in = resource.getInputStream()) {
+            bytes = StreamUtils.copyToByteArray(in);
+        } catch (IOException e) {
+            log.error("IO error during template loading for path: {}", templatePath, e);
+            throw new RenderingException("IO error during loading template: " + templatePath, e);
+        }
+        loads.incrementAndGet();
+        String contentHash = DigestUtils.md5DigestAsHex(bytes);
+        Path file = resolveFile(resource);
+        if (previous != null && previous.getContentHash().equals(contentHash)) {
+            log.debug("Template {} unchanged (version {} -> {})", templatePath, previous.getVersion(), version);
+            return new CachedTemplate(templatePath, version, bytes, contentHash, previous.getTagNames(), file);
+        }
+        Set<String> tagNames = new LinkedHashSet<>();
+        long start = System.nanoTime();
+        try (XWPFTemplate template = XWPFTemplate.compile(new ByteArrayInputStream(bytes))) {
+            recordCompile(System.nanoTime() - start);
+            collectTagNames(template.getElementTemplates(), tagNames);
+        } catch (IOException | RuntimeException e) {
+            log.error("Error compiling template for path: {}", templatePath, e);
+            throw new RenderingException("Failed to compile template: " + templatePath, e);
+        }
+        log.info("Template {} loaded: {} bytes, {} tags, hash {}", templatePath, bytes.length, tagNames.size(), contentHash);
+        return new CachedTemplate(templatePath, version, bytes, contentHash, Collections.unmodifiableSet(tagNames), file);
+    }
+
+    /**
+     * 模板中的标签名，包括区块内部的标签 (条件区块 {{?flag}} 为 true 时内部标签按顶层数据取值，不能因为在区块内而被裁剪)。
+     */
+    private static void collectTagNames(List<MetaTemplate> templates, Set<String> tagNames) {
+        for (MetaTemplate template : templates) {
+            if (template instanceof ElementTemplate) {
+                tagNames.add(((ElementTemplate) template).getTagName());
+            } else if (template instanceof BlockTemplate) {
+                BlockTemplate block = (BlockTemplate) template;
+                tagNames.add(block.getStartMark().getTagName());
+                collectTagNames(block.getTemplates(), tagNames);
+            }
+        }
+    }
+
+    private void recordCompile(long nanos) {
+        compiles.incrementAndGet();
+        compileNanos.addAndGet(nanos);
+        maxCompileNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    private static Path resolveFile(Resource resource) {
+        try {
+            return resource.isFile() ? resource.getFile().toPath().toAbsolutePath().normalize() : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // ---------------------------------------------------------------- 文件监听
+
+    private void watch(Path file) {
+        if (!watchEnabled || file.getParent() == null || watchedDirectories.containsKey(file.getParent())) {
+            return;
+        }
+        Path directory = file.getParent();
+        try {
+            if (watchService == null) {
+                watchService = FileSystems.getDefault().newWatchService();
+                watchThread = new Thread(this::watchLoop, "report-template-watcher");
+                watchThread.setDaemon(true);
+                watchThread.start();
+            }
+            watchedDirectories.put(directory, directory.register(watchService, StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE));
+            log.debug("Watching template directory {}", directory);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Cannot watch template directory {}, changes are picked up only via version or manual invalidation: {}", directory, e.toString());
+        }
+    }
+
+    private void watchLoop() {
+        WatchService service = watchService;
+        while (true) {
+            WatchKey key;
+            try {
+                key = service.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            Path directory = (Path) key.watchable();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    invalidateDirectory(directory);
+                    continue;
+                }
+                Path changed = directory.resolve((Path) event.context());
+                for (CachedTemplate template : cache.asMap().values()) {
+                    if (changed.equals(template.getFile())) {
+                        log.info("Template file changed: {}", changed);
+                        invalidate(template.getTemplatePath());
+                    }
+                }
+            }
+            if (!key.reset()) {
+                watchedDirectories.remove(directory);
+                invalidateDirectory(directory);
+            }
+        }
+    }
+
+    private void invalidateDirectory(Path directory) {
+        for (CachedTemplate template : cache.asMap().values()) {
+            if (template.getFile() != null && directory.equals(template.getFile().getParent())) {
+                invalidate(template.getTemplatePath());
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        WatchService service = watchService;
+        if (service != null) {
+            try {
+                service.close();
+            } catch (IOException e) {
+                log.debug("Failed to close template watch service", e);
+            }
+        }
+    }
+
+    /**
+     * 缓存的模板: 文件字节、内容哈希与顶层标签名。
+     */
+    @Getter
+    public static final class CachedTemplate {
+        private final String templatePath;
+        private final String version;
+        @Getter(lombok.AccessLevel.NONE)
+        private final byte[] bytes;
+        private final String contentHash;
+        private final Set<String> tagNames;
+        private final Path file;            // 文件系统中的模板，其他资源为 null
+        private final long loadedAt = System.currentTimeMillis();
+
+        CachedTemplate(String templatePath, String version, byte[] bytes, String contentHash, Set<String> tagNames, Path file) {
+            this.templatePath = templatePath;
+            this.version = version;
+            this.bytes = bytes;
+            this.contentHash = contentHash;
+            this.tagNames = tagNames;
+            this.file = file;
+        }
+
+        public int getSize() {
+            return bytes.length;
+        }
+
+        @Override
+        public String toString() {
+            return templatePath + "@" + Objects.toString(version, "-") + "#" + contentHash;
+        }
+    }
+}
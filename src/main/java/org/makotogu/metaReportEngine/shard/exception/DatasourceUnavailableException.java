@@ -0,0 +1,10 @@
+package org.makotogu.metaReportEngine.shard.exception;
+
+/**
+ * 数据源上下文暂时不可用: 舱壁已满 (等待超时) 或熔断器处于打开状态，查询没有发送到数据库。
+ */
+public class DatasourceUnavailableException extends DatasourceExecutionException {
+    public DatasourceUnavailableException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,10 @@
+package org.makotogu.metaReportEngine.shard.exception;
+
+/**
+ * 全局内存预算不足，报告生成在准入队列中等待超时 (调用方可稍后重试)。
+ */
+public class MemoryAdmissionRejectedException extends ReportGenerationException {
+    public MemoryAdmissionRejectedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,10 @@
+package org.makotogu.metaReportEngine.shard.exception;
+
+/**
+ * 一次报告生成的估算内存超过了报告 (或全局) 的单次生成预算，生成被终止。
+ */
+public class MemoryBudgetExceededException extends ReportGenerationException {
+    public MemoryBudgetExceededException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,10 @@
+package org.makotogu.metaReportEngine.shard.exception;
+
+/**
+ * 渲染线程池的等待队列已满，渲染请求被拒绝 (调用方可稍后重试)。
+ */
+public class RenderingRejectedException extends RenderingException {
+    public RenderingRejectedException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,227 @@
+package org.makotogu.metaReportEngine.shard.util;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.makotogu.metaReportEngine.shard.exception.SpelEvaluationException;
+import org.springframework.context.expression.MapAccessor;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.SpelCompilerMode;
+import org.springframework.expression.spel.SpelParserConfiguration;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.expression.spel.support.StandardEvaluationContext;
+import org.springframework.stereotype.Component;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 模板映射 data_expression 的求值: 从映射的数据 (data_source_ref 对应的值) 中提取 / 转换渲染值。
+ * <ul>
+ *     <li>表达式的根对象为映射的数据，#alias 为执行上下文中的同名数据 (例如 #customerInfo.name)，#context 为完整执行上下文；
+ *         Map 的 key 可按属性访问 (a.b 等价于 a['b'])。</li>
+ *     <li>字段路径 (name、a.b[0]、['key']、#alias.field 等) 不经过 SpEL，直接按 Map / List / 数组逐级取值，中间值为 null 或
+ *         下标越界时结果为 null；路径中遇到其他对象时按 SpEL 求值。</li>
+ *     <li>其他表达式按 SpEL 求值，解析结果按表达式字符串缓存，并启用 SpEL 编译 (MIXED 模式，多次求值后编译为字节码)。</li>
+ * </ul>
+ */
+@Component
+@Slf4j
+public class DataExpressionEvaluator {
+
+    private static final int MAX_CACHED_EXPRESSIONS = 2048;
+    private static final Set<String> LITERALS = new HashSet<>(Arrays.asList("true", "false", "null"));
+    private static final MapAccessor MAP_ACCESSOR = new MapAccessor();
+
+    private final SpelExpressionParser parser = new SpelExpressionParser(
+            new SpelParserConfiguration(SpelCompilerMode.MIXED, DataExpressionEvaluator.class.getClassLoader()));
+    private final Cache<String, CompiledExpression> cache = Caffeine.newBuilder().maximumSize(MAX_CACHED_EXPRESSIONS).build();
+
+    /**
+     * @param expression       data_expression
+     * @param value            映射的数据 (根对象)
+     * @param executionContext 执行上下文
+     * @throws SpelEvaluationException 表达式语法错误或求值失败
+     */
+    public Object evaluate(String expression, Object value, Map<String, Object> executionContext) {
+        CompiledExpression compiled;
+        try {
+            compiled = cache.get(expression, this::compile);
+        } catch (RuntimeException e) {
+            throw new SpelEvaluationException("Invalid data expression: " + expression, e);
+        }
+        return compiled.evaluate(value, executionContext);
+    }
+
+    private CompiledExpression compile(String expression) {
+        String trimmed = expression.trim();
+        FieldPath path = FieldPath.parse(trimmed);
+        Expression spel = parser.parseExpression(trimmed);
+        log.debug("Data expression '{}' compiled ({})", trimmed, path != null ? "field path" : "SpEL");
+        return new CompiledExpression(trimmed, path, spel);
+    }
+
+    private static final class CompiledExpression {
+        private final String expression;
+        private final FieldPath path;  // 字段路径，其他表达式为 null
+        private final Expression spel;
+
+        CompiledExpression(String expression, FieldPath path, Expression spel) {
+            this.expression = expression;
+            this.path = path;
+            this.spel = spel;
+        }
+
+        Object evaluate(Object value, Map<String, Object> executionContext) {
+            if (path != null) {
+                Object result = path.resolve(value, executionContext);
+                if (result != FieldPath.UNRESOLVED) {
+                    return result;
+                }
+            }
+            try {
+                return spel.getValue(new MappingEvaluationContext(value, executionContext));
+            } catch (RuntimeException e) {
+                throw new SpelEvaluationException("Failed to evaluate data expression: " + expression, e);
+            }
+        }
+    }
+
+    /**
+     * 求值上下文: 根对象为映射的数据，未定义的变量从执行上下文中查找。
+     */
+    private static final class MappingEvaluationContext extends StandardEvaluationContext {
+        private final Map<String, Object> executionContext;
+
+        MappingEvaluationContext(Object value, Map<String, Object> executionContext) {
+            super(value);
+            this.executionContext = executionContext;
+            addPropertyAccessor(MAP_ACCESSOR);
+            setVariable("context", executionContext);
+        }
+
+        @Override
+        public Object lookupVariable(String name) {
+            Object variable = super.lookupVariable(name);
+            return variable != null || executionContext == null ? variable : executionContext.get(name);
+        }
+    }
+
+    /**
+     * 字段路径: 可选的 #变量 开头，之后为 .name、[下标]、['key'] 组成的访问链。
+     */
+    private static final class FieldPath {
+        static final Object UNRESOLVED = new Object(); // 遇到 Map / List / 数组以外的对象，需要按 SpEL 求值
+
+        private final String variable;      // #variable，为 null 时从根对象开始
+        private final List<Object> segments; // String (Map key) 或 Integer (下标)
+
+        private FieldPath(String variable, List<Object> segments) {
+            this.variable = variable;
+            this.segments = segments;
+        }
+
+        static FieldPath parse(String expression) {
+            int length = expression.length();
+            int index = 0;
+            String variable = null;
+            List<Object> segments = new ArrayList<>();
+            if (index < length && expression.charAt(index) == '#') {
+                int end = identifierEnd(expression, index + 1);
+                if (end == index + 1) {
+                    return null;
+                }
+                variable = expression.substring(index + 1, end);
+                index = end;
+            } else if (index < length && expression.charAt(index) != '[') {
+                int end = identifierEnd(expression, index);
+                if (end == index || LITERALS.contains(expression.substring(index, end))) {
+                    return null;
+                }
+                segments.add(expression.substring(index, end));
+                index = end;
+            }
+            while (index < length) {
+                char c = expression.charAt(index);
+                if (c == '.') {
+                    int end = identifierEnd(expression, index + 1);
+                    if (end == index + 1) {
+                        return null;
+                    }
+                    segments.add(expression.substring(index + 1, end));
+                    index = end;
+                } else if (c == '[') {
+                    int close = expression.indexOf(']', index);
+                    if (close < 0) {
+                        return null;
+                    }
+                    String key = expression.substring(index + 1, close).trim();
+                    if (key.length() >= 2 && (key.charAt(0) == '\'' || key.charAt(0) == '"') && key.charAt(key.length() - 1) == key.charAt(0)) {
+                        String text = key.substring(1, key.length() - 1);
+                        if (text.indexOf(key.charAt(0)) >= 0) {
+                            return null;
+                        }
+                        segments.add(text);
+                    } else if (!key.isEmpty() && key.chars().allMatch(Character::isDigit)) {
+                        segments.add(Integer.valueOf(key));
+                    } else {
+                        return null;
+                    }
+                    index = close + 1;
+                } else {
+                    return null;
+                }
+            }
+            if (variable == null && segments.isEmpty()) {
+                return null;
+            }
+            return new FieldPath(variable, Collections.unmodifiableList(segments));
+        }
+
+        private static int identifierEnd(String expression, int start) {
+            int index = start;
+            if (index < expression.length() && Character.isJavaIdentifierStart(expression.charAt(index))) {
+                index++;
+                while (index < expression.length() && Character.isJavaIdentifierPart(expression.charAt(index))) {
+                    index++;
+                }
+            }
+            return index;
+        }
+
+        Object resolve(Object value, Map<String, Object> executionContext) {
+            Object current;
+            if (variable == null || "root".equals(variable) || "this".equals(variable)) {
+                current = value;
+            } else if ("context".equals(variable)) {
+                current = executionContext;
+            } else {
+                current = executionContext != null ? executionContext.get(variable) : null;
+            }
+            for (Object segment : segments) {
+                if (current == null) {
+                    return null;
+                }
+                if (current instanceof Map) {
+                    current = ((Map<?, ?>) current).get(segment instanceof Integer ? String.valueOf(segment) : segment);
+                } else if (segment instanceof Integer && current instanceof List) {
+                    List<?> list = (List<?>) current;
+                    int i = (Integer) segment;
+                    current = i < list.size() ? list.get(i) : null;
+                } else if (segment instanceof Integer && current.getClass().isArray()) {
+                    int i = (Integer) segment;
+                    current = i < Array.getLength(current) ? Array.get(current, i) : null;
+                } else {
+                    return UNRESOLVED;
+                }
+            }
+            return current;
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package org.makotogu.metaReportEngine.shard.util;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.math.RoundingMode;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.NumberFormat;
+import java.text.SimpleDateFormat;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.TemporalAccessor;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 格式化器缓存。
+ * <p>
+ * 按 pattern / locale / roundingMode 等维度缓存已编译的格式化器，避免在表格的每个单元格上重复解析 pattern：
+ * <ul>
+ *     <li>{@link DateTimeFormatter} 本身不可变且线程安全，直接全局共享。</li>
+ *     <li>{@link DecimalFormat} / {@link SimpleDateFormat} 非线程安全，全局只保存一份"原型"（pattern 只解析一次），
+ *         每个线程通过 clone 得到自己的实例并放入线程私有的 LRU 池中复用。</li>
+ * </ul>
+ * 调用方应使用 format 系列方法，不要把取到的非线程安全实例传递给其他线程。
+ */
+@Component
+@Slf4j
+public class FormatterCache {
+
+    private static final int MAX_SHARED_ENTRIES = 512;      // 全局原型 / DateTimeFormatter 的最大缓存数
+    private static final int MAX_THREAD_LOCAL_ENTRIES = 64; // 每个线程私有池的最大实例数
+
+    private final Cache<NumberFormatKey, DecimalFormat> decimalPrototypes = Caffeine.newBuilder()
+            .maximumSize(MAX_SHARED_ENTRIES)
+            .build();
+    private final Cache<DateFormatKey, SimpleDateFormat> simpleDatePrototypes = Caffeine.newBuilder()
+            .maximumSize(MAX_SHARED_ENTRIES)
+            .build();
+    private final Cache<DateFormatKey, DateTimeFormatter> dateTimeFormatters = Caffeine.newBuilder()
+            .maximumSize(MAX_SHARED_ENTRIES)
+            .build();
+
+    private final ThreadLocal<Map<NumberFormatKey, DecimalFormat>> localDecimalFormats =
+            ThreadLocal.withInitial(() -> new LruMap<>(MAX_THREAD_LOCAL_ENTRIES));
+    private final ThreadLocal<Map<DateFormatKey, SimpleDateFormat>> localSimpleDateFormats =
+            ThreadLocal.withInitial(() -> new LruMap<>(MAX_THREAD_LOCAL_ENTRIES));
+
+    /**
+     * 使用缓存的 DecimalFormat 格式化数字。
+     *
+     * @param number 要格式化的数字 (Integer, Long, BigDecimal, Double 等)
+     * @param key    格式化参数
+     * @return 格式化后的字符串
+     * @throws IllegalArgumentException 如果 pattern 无效
+     */
+    public String formatNumber(Object number, NumberFormatKey key) {
+        return decimalFormat(key).format(number);
+    }
+
+    /**
+     * 使用缓存的 SimpleDateFormat 格式化 java.util.Date。
+     *
+     * @throws IllegalArgumentException 如果 pattern 无效
+     */
+    public String formatDate(Date date, String pattern, Locale locale) {
+        DateFormatKey key = new DateFormatKey(pattern, resolveLocale(locale));
+        Map<DateFormatKey, SimpleDateFormat> pool = localSimpleDateFormats.get();
+        SimpleDateFormat formatter = pool.get(key);
+        if (formatter == null) {
+            SimpleDateFormat prototype = simpleDatePrototypes.get(key, k -> new SimpleDateFormat(k.getPattern(), k.getLocale()));
+            formatter = (SimpleDateFormat) prototype.clone();
+            pool.put(key, formatter);
+        }
+        return formatter.format(date);
+    }
+
+    /**
+     * 使用共享的 DateTimeFormatter 格式化 Java 8 Time API 类型。
+     *
+     * @throws IllegalArgumentException 如果 pattern 无效
+     * @throws java.time.temporal.UnsupportedTemporalTypeException 如果 pattern 需要的字段在值中不存在
+     */
+    public String formatTemporal(TemporalAccessor temporal, String pattern, Locale locale) {
+        return dateTimeFormatter(pattern, locale).format(temporal);
+    }
+
+    /**
+     * 获取共享的 DateTimeFormatter (不可变, 可跨线程使用)。
+     */
+    public DateTimeFormatter dateTimeFormatter(String pattern, Locale locale) {
+        DateFormatKey key = new DateFormatKey(pattern, resolveLocale(locale));
+        return dateTimeFormatters.get(key, k -> DateTimeFormatter.ofPattern(k.getPattern(), k.getLocale()));
+    }
+
+    /**
+     * 获取当前线程私有的 DecimalFormat。返回的实例只能在当前线程内使用。
+     */
+    private DecimalFormat decimalFormat(NumberFormatKey key) {
+        Map<NumberFormatKey, DecimalFormat> pool = localDecimalFormats.get();
+        DecimalFormat formatter = pool.get(key);
+        if (formatter == null) {
+            DecimalFormat prototype = decimalPrototypes.get(key, FormatterCache::compileDecimalFormat);
+            formatter = (DecimalFormat) prototype.clone();
+            pool.put(key, formatter);
+        }
+        return formatter;
+    }
+
+    private static DecimalFormat compileDecimalFormat(NumberFormatKey key) {
+        // 未指定 pattern 时与 new DecimalFormat() 一致, 使用 locale 默认的数字格式
+        DecimalFormat df = key.getPattern() == null
+                ? (DecimalFormat) NumberFormat.getNumberInstance(key.getLocale())
+                : new DecimalFormat(key.getPattern(), DecimalFormatSymbols.getInstance(key.getLocale()));
+        if (key.getFractionDigits() != null) {
+            df.setMaximumFractionDigits(key.getFractionDigits());
+            df.setMinimumFractionDigits(key.getFractionDigits());
+        }
+        if (key.getRoundingMode() != null) {
+            df.setRoundingMode(key.getRoundingMode());
+        }
+        if (key.getGroupingUsed() != null) {
+            df.setGroupingUsed(key.getGroupingUsed());
+        }
+        log.debug("Compiled DecimalFormat for {}", key);
+        return df;
+    }
+
+    private static Locale resolveLocale(Locale locale) {
+        return locale != null ? locale : Locale.getDefault(Locale.Category.FORMAT);
+    }
+
+    /**
+     * 解析配置中的舍入模式，为空或无效时返回 null: 不设置舍入模式，保持 DecimalFormat 的默认行为 (HALF_EVEN)。
+     */
+    public static RoundingMode parseRoundingMode(String modeStr) {
+        if (!StringUtils.hasText(modeStr)) {
+            return null;
+        }
+        try {
+            return RoundingMode.valueOf(modeStr.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            log.warn("Invalid rounding mode string: '{}'. Keeping the DecimalFormat default (HALF_EVEN).", modeStr);
+            return null;
+        }
+    }
+
+    /**
+     * 将配置中的 locale 字符串 (BCP 47, 例如 "zh-CN") 解析为 Locale，为空时返回 null (使用系统默认)。
+     */
+    public static Locale parseLocale(String languageTag) {
+        return StringUtils.hasText(languageTag) ? Locale.forLanguageTag(languageTag.trim()) : null;
+    }
+
+    /**
+     * 数字格式化器的缓存 Key。值为 null 的属性表示保持 DecimalFormat 的默认行为。
+     */
+    @Getter
+    @EqualsAndHashCode
+    @ToString
+    public static final class NumberFormatKey {
+        private final String pattern;          // DecimalFormat pattern, null 表示使用 locale 的默认数字格式
+        private final Locale locale;
+        private final RoundingMode roundingMode;
+        private final Boolean groupingUsed;
+        private final Integer fractionDigits;  // 同时设置最小/最大小数位数
+
+        public NumberFormatKey(String pattern, Locale locale, RoundingMode roundingMode, Boolean groupingUsed, Integer fractionDigits) {
+            this.pattern = pattern;
+            this.locale = resolveLocale(locale);
+            this.roundingMode = roundingMode;
+            this.groupingUsed = groupingUsed;
+            this.fractionDigits = fractionDigits;
+        }
+
+        public static NumberFormatKey ofPattern(String pattern) {
+            return new NumberFormatKey(pattern, null, null, null, null);
+        }
+    }
+
+    @Getter
+    @EqualsAndHashCode
+    @ToString
+    private static final class DateFormatKey {
+        private final String pattern;
+        private final Locale locale;
+
+        private DateFormatKey(String pattern, Locale locale) {
+            this.pattern = pattern;
+            this.locale = locale;
+        }
+    }
+
+    /**
+     * 线程私有池使用的简单 LRU Map。
+     */
+    private static final class LruMap<K, V> extends LinkedHashMap<K, V> {
+        private static final long serialVersionUID = 1L;
+
+        private final int maxEntries;
+
+        private LruMap(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, V> eldest) {
+            return size() > maxEntries;
+        }
+    }
+}
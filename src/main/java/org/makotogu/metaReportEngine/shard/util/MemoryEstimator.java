@@ -0,0 +1,165 @@
+package org.makotogu.metaReportEngine.shard.util;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.lang.reflect.Array;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * 粗略估算查询结果占用的堆内存，用于调试日志中的内存对比 (按 64 位 JVM、开启压缩指针估算，不是精确值)。
+ */
+public final class MemoryEstimator {
+
+    public static final int OBJECT_HEADER = 12;
+    public static final int REFERENCE = 4;
+    private static final int ARRAY_HEADER = 16;
+    private static final int HASH_MAP_SHALLOW = 48;      // HashMap 对象本身
+    private static final int HASH_MAP_NODE = 32;         // 每个 HashMap.Node
+    private static final int BOXED_NUMBER = 16;          // Integer / Long / Double 等包装对象
+    private static final int BIG_DECIMAL_SHALLOW = 40;
+    private static final int SAMPLE_SIZE = 64;           // 大集合按抽样的元素估算
+    private static final int MAX_DEPTH = 6;
+
+    /**
+     * 能自行估算堆内存的结果对象 (例如列式表格)。
+     */
+    public interface Sized {
+        long estimateBytes();
+    }
+
+    private MemoryEstimator() {
+    }
+
+    /**
+     * 数组占用的字节数 (含对象头，按 8 字节对齐)。
+     */
+    public static long arrayBytes(int length, int elementBytes) {
+        return align(ARRAY_HEADER + (long) length * elementBytes);
+    }
+
+    /**
+     * 估算单个值对象占用的字节数 (不含指向它的引用)。
+     */
+    public static long estimateValueBytes(Object value) {
+        if (value == null || value instanceof Boolean) {
+            return 0; // null 与 Boolean.TRUE/FALSE 不占额外空间
+        }
+        if (value instanceof String) {
+            // String 对象 + char[] (Java 8)
+            return align(OBJECT_HEADER + 12) + arrayBytes(((String) value).length(), 2);
+        }
+        if (value instanceof BigDecimal) {
+            BigInteger unscaled = ((BigDecimal) value).unscaledValue();
+            // 紧凑表示 (unscaled 在 long 范围内) 时不持有 BigInteger
+            return BIG_DECIMAL_SHALLOW + (unscaled.bitLength() < 64 ? 0 : 40 + arrayBytes(unscaled.bitLength() / 32 + 1, 4));
+        }
+        if (value instanceof Number || value instanceof Character) {
+            return BOXED_NUMBER;
+        }
+        return 32; // 日期等其他对象的大致大小
+    }
+
+    /**
+     * 估算一行 HashMap (MyBatis 默认的 Map 结果) 的字节数，包括列名引用与装箱后的值。列名字符串由各行共享，不计入。
+     */
+    public static long estimateMapRowBytes(Map<?, ?> row) {
+        int capacity = tableSizeFor(row.size());
+        long bytes = HASH_MAP_SHALLOW + arrayBytes(capacity, REFERENCE) + (long) row.size() * HASH_MAP_NODE;
+        for (Object value : row.values()) {
+            bytes += estimateValueBytes(value);
+        }
+        return bytes;
+    }
+
+    /**
+     * 估算一个执行上下文中的值 (查询结果、规则输出) 及其引用的对象占用的字节数。
+     * 集合与 Map 超过 {@value #SAMPLE_SIZE} 个元素时按抽样的元素平均大小外推；{@link Sized} 使用其自身的估算。
+     */
+    public static long estimateRetainedBytes(Object value) {
+        return estimateRetainedBytes(value, 0);
+    }
+
+    private static long estimateRetainedBytes(Object value, int depth) {
+        if (value instanceof Sized) {
+            return ((Sized) value).estimateBytes();
+        }
+        if (depth >= MAX_DEPTH) {
+            return value == null ? 0 : REFERENCE;
+        }
+        if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            long bytes = HASH_MAP_SHALLOW + arrayBytes(tableSizeFor(map.size()), REFERENCE) + (long) map.size() * HASH_MAP_NODE;
+            return bytes + sampleBytes(map.values(), map.size(), depth);
+        }
+        if (value instanceof Collection) {
+            Collection<?> collection = (Collection<?>) value;
+            return OBJECT_HEADER + arrayBytes(collection.size(), REFERENCE) + sampleBytes(collection, collection.size(), depth);
+        }
+        if (value != null && value.getClass().isArray()) {
+            int length = Array.getLength(value);
+            if (value.getClass().getComponentType().isPrimitive()) {
+                return arrayBytes(length, 8);
+            }
+            long bytes = arrayBytes(length, REFERENCE);
+            int step = Math.max(1, length / SAMPLE_SIZE);
+            long sampled = 0;
+            int count = 0;
+            for (int i = 0; i < length; i += step, count++) {
+                sampled += estimateRetainedBytes(Array.get(value, i), depth + 1);
+            }
+            return bytes + (count == 0 ? 0 : sampled * length / count);
+        }
+        return estimateValueBytes(value);
+    }
+
+    private static long sampleBytes(Collection<?> elements, int size, int depth) {
+        if (size == 0) {
+            return 0;
+        }
+        long sampled = 0;
+        int count = 0;
+        if (elements instanceof List && elements instanceof RandomAccess) {
+            List<?> list = (List<?>) elements;
+            int step = Math.max(1, size / SAMPLE_SIZE);
+            for (int i = 0; i < size; i += step, count++) {
+                sampled += estimateRetainedBytes(list.get(i), depth + 1);
+            }
+        } else {
+            Iterator<?> iterator = elements.iterator();
+            while (iterator.hasNext() && count < SAMPLE_SIZE) {
+                sampled += estimateRetainedBytes(iterator.next(), depth + 1);
+                count++;
+            }
+        }
+        return count == 0 ? 0 : sampled * size / count;
+    }
+
+    /**
+     * 以可读的形式输出字节数 (e.g., "1.5 MB")。
+     */
+    public static String formatBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        if (bytes < 1024 * 1024) {
+            return String.format("%.1f KB", bytes / 1024d);
+        }
+        return String.format("%.1f MB", bytes / (1024d * 1024d));
+    }
+
+    private static int tableSizeFor(int entries) {
+        int capacity = 16;
+        while (capacity * 0.75 < entries) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static long align(long bytes) {
+        return (bytes + 7) & ~7L;
+    }
+}
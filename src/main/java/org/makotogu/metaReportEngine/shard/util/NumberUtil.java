@@ -0,0 +1,88 @@
+package org.makotogu.metaReportEngine.shard.util;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 数值转换工具类。
+ * <p>
+ * 避免 {@code new BigDecimal(value.toString())} 对每个值额外分配一个 String：
+ * 整数类型直接走 long，Double 使用 {@link BigDecimal#valueOf(double)} (与 Double.toString 的结果一致)。
+ */
+public final class NumberUtil {
+
+    private NumberUtil() {
+    }
+
+    /**
+     * 是否为可以无损放入 long 的整数类型 (Integer, Long, Short, Byte, AtomicInteger, AtomicLong)。
+     */
+    public static boolean isIntegral(Object value) {
+        return value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte
+                || value instanceof AtomicInteger || value instanceof AtomicLong;
+    }
+
+    /**
+     * 将 Number 转换为 BigDecimal，结果与 {@code new BigDecimal(number.toString())} 相同。
+     *
+     * @throws NumberFormatException 如果是 NaN 或 Infinity
+     */
+    public static BigDecimal toBigDecimal(Number number) {
+        if (number instanceof BigDecimal) {
+            return (BigDecimal) number;
+        } else if (isIntegral(number)) {
+            return BigDecimal.valueOf(number.longValue());
+        } else if (number instanceof Double) {
+            return BigDecimal.valueOf(number.doubleValue());
+        } else if (number instanceof BigInteger) {
+            return new BigDecimal((BigInteger) number);
+        }
+        // Float 等其他类型: 保持以字符串形式转换 (Float 直接转 double 会引入二进制误差)
+        return new BigDecimal(number.toString());
+    }
+
+    /**
+     * 将数字字符串解析为 BigDecimal；较短的纯整数字符串走 Long.parseLong 快速路径。
+     *
+     * @throws NumberFormatException 如果字符串不是合法数字
+     */
+    public static BigDecimal parseBigDecimal(String text) {
+        if (isShortInteger(text)) {
+            return BigDecimal.valueOf(Long.parseLong(text));
+        }
+        return new BigDecimal(text);
+    }
+
+    /**
+     * 字符串是否为不会溢出 long 的纯整数 (可带正负号)。
+     */
+    static boolean isShortInteger(String text) {
+        int length = text.length();
+        if (length == 0 || length > 18) {
+            return false;
+        }
+        int start = (text.charAt(0) == '-' || text.charAt(0) == '+') ? 1 : 0;
+        if (start == length) {
+            return false;
+        }
+        for (int i = start; i < length; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 比较两个数字的数值大小。两个都是整数类型时直接比较 long，否则转换为 BigDecimal 比较。
+     */
+    public static int compare(Number left, Number right) {
+        if (isIntegral(left) && isIntegral(right)) {
+            return Long.compare(left.longValue(), right.longValue());
+        }
+        return toBigDecimal(left).compareTo(toBigDecimal(right));
+    }
+}
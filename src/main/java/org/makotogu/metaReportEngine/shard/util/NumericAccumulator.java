@@ -0,0 +1,142 @@
+package org.makotogu.metaReportEngine.shard.util;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Locale;
+
+/**
+ * 数值累加器，供 AGGREGATOR 与 TABLE_BUILDER 合计行共享。
+ * <p>
+ * 两种精度模式:
+ * <ul>
+ *     <li>{@link Mode#DECIMAL} (默认): 精确十进制语义。整数类型在 long 上累加并检测溢出，
+ *         只有遇到小数 / 溢出时才使用 BigDecimal，结果与逐个 BigDecimal.add 完全一致。</li>
+ *     <li>{@link Mode#DOUBLE}: 在 double 上使用 Neumaier 补偿求和，速度快、不分配对象，结果为近似值。</li>
+ * </ul>
+ * 非线程安全，每个聚合指标/列使用独立实例。
+ */
+public final class NumericAccumulator {
+
+    public enum Mode {
+        DECIMAL,
+        DOUBLE;
+
+        /**
+         * 解析配置中的精度模式，为空时返回 DECIMAL。
+         *
+         * @throws IllegalArgumentException 如果模式不受支持
+         */
+        public static Mode parse(String name) {
+            if (name == null || name.trim().isEmpty()) {
+                return DECIMAL;
+            }
+            try {
+                return Mode.valueOf(name.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unsupported numeric mode: " + name + " (expected DECIMAL or DOUBLE)", e);
+            }
+        }
+    }
+
+    private final Mode mode;
+    private long count;
+
+    // DECIMAL 模式: 总和 = decimalPart + longPart
+    private long longPart;
+    private BigDecimal decimalPart;
+
+    // DOUBLE 模式: Neumaier 补偿求和
+    private double doubleSum;
+    private double compensation;
+
+    public NumericAccumulator(Mode mode) {
+        this.mode = mode == null ? Mode.DECIMAL : mode;
+    }
+
+    /**
+     * 累加一个数字。
+     *
+     * @throws NumberFormatException DECIMAL 模式下遇到 NaN / Infinity
+     */
+    public void add(Number value) {
+        if (mode == Mode.DOUBLE) {
+            addDouble(value.doubleValue());
+        } else if (NumberUtil.isIntegral(value)) {
+            addLongExact(value.longValue());
+        } else {
+            addDecimal(NumberUtil.toBigDecimal(value));
+        }
+        count++; // 转换失败 (NaN / Infinity) 的值不计数
+    }
+
+    /**
+     * 累加一个 BigDecimal (例如从字符串解析得到的值)。
+     */
+    public void add(BigDecimal value) {
+        if (mode == Mode.DOUBLE) {
+            addDouble(value.doubleValue());
+        } else {
+            addDecimal(value);
+        }
+        count++;
+    }
+
+    /**
+     * @return 已累加的值的个数
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return 当前总和。DECIMAL 模式下为精确值，DOUBLE 模式下为补偿求和的近似值
+     */
+    public BigDecimal getSum() {
+        if (mode == Mode.DOUBLE) {
+            return BigDecimal.valueOf(doubleSum + compensation);
+        }
+        if (decimalPart == null) {
+            return BigDecimal.valueOf(longPart);
+        }
+        // 始终与 long 部分相加 (即使为 0), 使结果的 scale 与从 BigDecimal.ZERO 开始逐个相加一致
+        return decimalPart.add(BigDecimal.valueOf(longPart));
+    }
+
+    /**
+     * @return 平均值，没有值时返回 null
+     */
+    public BigDecimal getAverage(int scale, RoundingMode roundingMode) {
+        if (count == 0) {
+            return null;
+        }
+        if (mode == Mode.DOUBLE) {
+            return BigDecimal.valueOf((doubleSum + compensation) / count).setScale(scale, roundingMode);
+        }
+        return getSum().divide(BigDecimal.valueOf(count), scale, roundingMode);
+    }
+
+    private void addLongExact(long value) {
+        long result = longPart + value;
+        // 与 Math.addExact 相同的溢出判断: 两个操作数同号且结果符号改变
+        if (((longPart ^ result) & (value ^ result)) < 0) {
+            addDecimal(BigDecimal.valueOf(longPart));
+            longPart = value;
+        } else {
+            longPart = result;
+        }
+    }
+
+    private void addDecimal(BigDecimal value) {
+        decimalPart = decimalPart == null ? value : decimalPart.add(value);
+    }
+
+    private void addDouble(double value) {
+        double t = doubleSum + value;
+        if (Math.abs(doubleSum) >= Math.abs(value)) {
+            compensation += (doubleSum - t) + value;
+        } else {
+            compensation += (value - t) + doubleSum;
+        }
+        doubleSum = t;
+    }
+}
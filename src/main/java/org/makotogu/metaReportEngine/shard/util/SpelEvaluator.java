@@ -1,5 +1,7 @@
 package org.makotogu.metaReportEngine.shard.util;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import lombok.extern.slf4j.Slf4j;
 import org.makotogu.metaReportEngine.shard.exception.SpelEvaluationException;
 import org.springframework.expression.EvaluationContext;
@@ -14,20 +16,54 @@ import java.util.Map;
 
 /**
  * SpEL 表达式评估工具类。
- * 提供安全的 SpEL 执行环境。
+ * 提供安全的 SpEL 执行环境。解析后的 Expression 按表达式字符串缓存 (Expression 可跨线程复用)，每个表达式只解析一次。
  */
 @Component // 作为 Spring Bean，方便注入和管理
 @Slf4j
 public class SpelEvaluator {
 
+    private static final int MAX_CACHED_EXPRESSIONS = 2048; // 缓存的已解析表达式数量上限
+
     private final ExpressionParser expressionParser;
+    private final Cache<String, Expression> expressionCache;
 
     public SpelEvaluator() {
         this.expressionParser = new SpelExpressionParser();
+        this.expressionCache = Caffeine.newBuilder().maximumSize(MAX_CACHED_EXPRESSIONS).build();
         log.info("SpelEvaluator initialized.");
         // 未来可以在此配置 Parser 的行为 (SpelParserConfiguration)
     }
 
+    /**
+     * 获取解析后的表达式 (带缓存)。
+     *
+     * @throws org.springframework.expression.ParseException 如果表达式语法错误
+     */
+    public Expression getExpression(String expressionString) {
+        return expressionCache.get(expressionString, expressionParser::parseExpression);
+    }
+
+    /**
+     * 创建评估上下文: #inputs 为 Transformer 的输入列表, #input0 为第一个输入, #context 为完整执行上下文。
+     */
+    public EvaluationContext createEvaluationContext(List<Object> inputs, Map<String, Object> executionContext) {
+        // 每次评估都创建一个新的 StandardEvaluationContext 是最安全的，避免状态污染
+        EvaluationContext context = new StandardEvaluationContext();
+        // 设置变量，让表达式可以通过 #inputs 和 #context 访问数据
+        context.setVariable("inputs", inputs); // 将整个输入列表作为变量 #inputs
+        if (inputs != null && !inputs.isEmpty()) {
+            // 可选: 将第一个输入作为 #input0 或 #root 方便访问？
+            context.setVariable("input0", inputs.get(0)); // 访问第一个输入
+        }
+        context.setVariable("context", executionContext); // 将完整上下文作为变量 #context
+
+        // TODO: 安全性配置 - 按需限制 SpEL 的能力
+        // 例如，移除 BeanResolver、设置只读属性访问器等，防止恶意表达式
+        // context.setBeanResolver(null);
+        // context.setPropertyAccessors(...); // 只保留需要的访问器
+        return context;
+    }
+
     /**
      * 使用提供的 EvaluationContext 评估 SpEL 表达式。
      *
@@ -47,7 +83,7 @@ public class SpelEvaluator {
         }
 
         try {
-            Expression expression = expressionParser.parseExpression(expressionString);
+            Expression expression = getExpression(expressionString);
             T result = expression.getValue(context, expectedType);
             log.trace("SpEL expression '{}' evaluated to: {}", expressionString, result);
             return result;
@@ -77,24 +113,11 @@ public class SpelEvaluator {
         }
 
         // 1. 创建评估上下文
-        // 每次评估都创建一个新的 StandardEvaluationContext 是最安全的，避免状态污染
-        EvaluationContext context = new StandardEvaluationContext();
-        // 设置变量，让表达式可以通过 #inputs 和 #context 访问数据
-        context.setVariable("inputs", inputs); // 将整个输入列表作为变量 #inputs
-        if (inputs != null && !inputs.isEmpty()) {
-            // 可选: 将第一个输入作为 #input0 或 #root 方便访问？
-            context.setVariable("input0", inputs.get(0)); // 访问第一个输入
-        }
-        context.setVariable("context", executionContext); // 将完整上下文作为变量 #context
-
-        // TODO: 安全性配置 - 按需限制 SpEL 的能力
-        // 例如，移除 BeanResolver、设置只读属性访问器等，防止恶意表达式
-        // context.setBeanResolver(null);
-        // context.setPropertyAccessors(...); // 只保留需要的访问器
+        EvaluationContext context = createEvaluationContext(inputs, executionContext);
 
         try {
-            // 2. 解析表达式
-            Expression expression = expressionParser.parseExpression(expressionString);
+            // 2. 解析表达式 (缓存)
+            Expression expression = getExpression(expressionString);
 
             // 3. 评估表达式并获取期望类型的结果
             T result = expression.getValue(context, expectedType);
@@ -0,0 +1,153 @@
+package org.makotogu.metaReportEngine.shard.util;
+
+import org.springframework.expression.EvaluationContext;
+import org.springframework.expression.Expression;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * 预编译的文本模板。
+ * <p>
+ * 模板在编译时拆分为片段列表，渲染时只需一次 StringBuilder 追加:
+ * <ul>
+ *     <li>字面量文本;</li>
+ *     <li>{{varName}}: 执行上下文中 key 为 varName 的值;</li>
+ *     <li>{{#expr}}: 以 # 开头的占位符为 SpEL 表达式 (例如 {{#context.customer.name}}、{{#input0.amount}})，编译时解析一次。</li>
+ * </ul>
+ * 值为 null 时替换为空字符串。编译后的模板不可变，可以跨线程共享。
+ */
+public final class TextTemplate {
+
+    private static final String OPEN = "{{";
+    private static final String CLOSE = "}}";
+
+    private final String source;
+    private final List<Segment> segments;
+    private final boolean hasExpressions;
+    private final int literalLength;
+
+    private TextTemplate(String source, List<Segment> segments) {
+        this.source = source;
+        this.segments = segments;
+        boolean expressions = false;
+        int length = 0;
+        for (Segment segment : segments) {
+            if (segment.expression != null) {
+                expressions = true;
+            } else if (segment.literal != null) {
+                length += segment.literal.length();
+            }
+        }
+        this.hasExpressions = expressions;
+        this.literalLength = length;
+    }
+
+    /**
+     * 编译模板。
+     *
+     * @param spelEvaluator 用于解析 {{#expr}} 占位符 (带表达式缓存)
+     * @throws org.springframework.expression.ParseException 如果表达式语法错误
+     */
+    public static TextTemplate compile(String template, SpelEvaluator spelEvaluator) {
+        if (template == null || template.isEmpty()) {
+            return new TextTemplate(template == null ? "" : template, Collections.emptyList());
+        }
+        List<Segment> segments = new ArrayList<>();
+        int position = 0;
+        while (position < template.length()) {
+            int open = template.indexOf(OPEN, position);
+            int close = open < 0 ? -1 : template.indexOf(CLOSE, open + OPEN.length() + 1);
+            if (open < 0 || close < 0) {
+                segments.add(Segment.literal(template.substring(position)));
+                break;
+            }
+            if (open > position) {
+                segments.add(Segment.literal(template.substring(position, open)));
+            }
+            String token = template.substring(open + OPEN.length(), close).trim();
+            if (token.startsWith("#")) {
+                segments.add(Segment.expression(token, spelEvaluator.getExpression(token)));
+            } else {
+                segments.add(Segment.variable(token));
+            }
+            position = close + CLOSE.length();
+        }
+        return new TextTemplate(template, Collections.unmodifiableList(segments));
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * 模板是否包含占位符 (不包含时直接返回原文)。
+     */
+    public boolean isConstant() {
+        return segments.size() <= 1 && (segments.isEmpty() || segments.get(0).literal != null);
+    }
+
+    /**
+     * 渲染模板。
+     *
+     * @param context                     {{varName}} 查找的执行上下文
+     * @param evaluationContextSupplier   {{#expr}} 使用的 SpEL 评估上下文, 只在模板包含表达式时调用一次
+     */
+    public String render(Map<String, Object> context, Supplier<EvaluationContext> evaluationContextSupplier) {
+        if (isConstant()) {
+            return source;
+        }
+        EvaluationContext evaluationContext = hasExpressions ? evaluationContextSupplier.get() : null;
+        StringBuilder sb = new StringBuilder(literalLength + 16 * segments.size());
+        for (Segment segment : segments) {
+            Object value;
+            if (segment.literal != null) {
+                sb.append(segment.literal);
+                continue;
+            } else if (segment.expression != null) {
+                value = segment.expression.getValue(evaluationContext);
+            } else {
+                value = context != null ? context.get(segment.name) : null;
+            }
+            if (value != null) {
+                sb.append(value);
+            }
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "TextTemplate[" + segments.size() + " segments]";
+    }
+
+    /**
+     * 模板片段: 字面量、上下文变量或 SpEL 表达式三者之一。
+     */
+    private static final class Segment {
+        private final String literal;
+        private final String name;          // 变量名或表达式原文
+        private final Expression expression;
+
+        private Segment(String literal, String name, Expression expression) {
+            this.literal = literal;
+            this.name = name;
+            this.expression = expression;
+        }
+
+        private static Segment literal(String text) {
+            return new Segment(text, null, null);
+        }
+
+        private static Segment variable(String name) {
+            return new Segment(null, name, null);
+        }
+
+        private static Segment expression(String text, Expression expression) {
+            return new Segment(null, text, expression);
+        }
+    }
+}
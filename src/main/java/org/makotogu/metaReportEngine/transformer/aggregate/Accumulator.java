@@ -0,0 +1,17 @@
+package org.makotogu.metaReportEngine.transformer.aggregate;
+
+/**
+ * 单个聚合指标的累加器。每个分组的每个指标对应一个实例，在一次扫描中逐值累加。
+ */
+public interface Accumulator {
+
+    /**
+     * 累加一个字段值 (可能为 null)。
+     */
+    void add(Object value);
+
+    /**
+     * @return 聚合结果
+     */
+    Object getResult();
+}
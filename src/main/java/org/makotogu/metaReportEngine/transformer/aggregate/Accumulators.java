@@ -0,0 +1,289 @@
+package org.makotogu.metaReportEngine.transformer.aggregate;
+
+import lombok.extern.slf4j.Slf4j;
+import org.makotogu.metaReportEngine.shard.util.NumberUtil;
+import org.makotogu.metaReportEngine.shard.util.NumericAccumulator;
+import org.springframework.util.StringUtils;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 内置聚合函数的累加器实现。
+ */
+@Slf4j
+final class Accumulators {
+
+    private Accumulators() {
+    }
+
+    /**
+     * 将数字或可转换为 BigDecimal 的字符串累加到 NumericAccumulator。
+     * 数字直接走原生类型快速路径, 无法解析的字符串、null 或其他类型的值会被忽略。
+     *
+     * @return 是否累加成功
+     */
+    static boolean addNumeric(NumericAccumulator accumulator, Object value, String field, String function) {
+        if (value instanceof Number) {
+            accumulator.add((Number) value);
+            return true;
+        } else if (value instanceof String && StringUtils.hasText((String) value)) {
+            try {
+                accumulator.add(NumberUtil.parseBigDecimal((String) value));
+                return true;
+            } catch (NumberFormatException e) {
+                log.warn("Cannot parse string '{}' to BigDecimal for {} aggregation on field '{}'. Skipping.", value, function, field);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * SUM: 数字或可转换为 BigDecimal 的字符串求和, 空输入结果为 0。
+     */
+    static final class Sum implements Accumulator {
+        private final String field;
+        private final NumericAccumulator sum;
+
+        Sum(String field, NumericAccumulator.Mode mode) {
+            this.field = field;
+            this.sum = new NumericAccumulator(mode);
+        }
+
+        @Override
+        public void add(Object value) {
+            addNumeric(sum, value, field, "SUM");
+        }
+
+        @Override
+        public Object getResult() {
+            return sum.getSum();
+        }
+    }
+
+    /**
+     * AVG: 按 scale / roundingMode 计算平均值, 没有有效数值时结果为 0。
+     */
+    static final class Avg implements Accumulator {
+        private final String field;
+        private final int scale;
+        private final RoundingMode roundingMode;
+        private final NumericAccumulator sum;
+
+        Avg(String field, int scale, RoundingMode roundingMode, NumericAccumulator.Mode mode) {
+            this.field = field;
+            this.scale = scale;
+            this.roundingMode = roundingMode;
+            this.sum = new NumericAccumulator(mode);
+        }
+
+        @Override
+        public void add(Object value) {
+            addNumeric(sum, value, field, "AVG");
+        }
+
+        @Override
+        public Object getResult() {
+            BigDecimal average = sum.getAverage(scale, roundingMode);
+            if (average == null) {
+                log.warn("Cannot calculate average for field '{}' as no valid numeric values were found.", field);
+                return BigDecimal.ZERO;
+            }
+            return average;
+        }
+    }
+
+    /**
+     * COUNT(field): 统计字段非 null 值的数量。
+     */
+    static final class Count implements Accumulator {
+        private long count;
+
+        @Override
+        public void add(Object value) {
+            if (value != null) {
+                count++;
+            }
+        }
+
+        @Override
+        public Object getResult() {
+            return count;
+        }
+    }
+
+    /**
+     * COUNT (未指定 field): 统计行数。
+     */
+    static final class RowCount implements Accumulator {
+        private long count;
+
+        @Override
+        public void add(Object value) {
+            count++;
+        }
+
+        @Override
+        public Object getResult() {
+            return count;
+        }
+    }
+
+    /**
+     * MIN / MAX: 数字按数值比较, 其他 Comparable (字符串、日期等) 按自然顺序比较, 返回原始值。
+     */
+    static final class Extreme implements Accumulator {
+        private final String field;
+        private final boolean min;
+        private Object current;
+
+        Extreme(String field, boolean min) {
+            this.field = field;
+            this.min = min;
+        }
+
+        @Override
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        public void add(Object value) {
+            if (value == null) {
+                return;
+            }
+            if (value instanceof Number) {
+                if (current != null && !(current instanceof Number)) {
+                    throw new ClassCastException("Cannot compare numeric value with " + current.getClass().getName() + " values on field '" + field + "'");
+                }
+                int cmp = current == null ? 0 : NumberUtil.compare((Number) value, (Number) current);
+                if (current == null || (min ? cmp < 0 : cmp > 0)) {
+                    current = value;
+                }
+            } else if (value instanceof Comparable) {
+                if (current instanceof Number) {
+                    throw new ClassCastException("Cannot compare " + value.getClass().getName() + " with numeric values on field '" + field + "'");
+                }
+                int cmp = current == null ? 0 : ((Comparable) value).compareTo(current);
+                if (current == null || (min ? cmp < 0 : cmp > 0)) {
+                    current = value;
+                }
+            } else {
+                log.trace("Value of type {} on field '{}' is not comparable. Skipping.", value.getClass().getName(), field);
+            }
+        }
+
+        @Override
+        public Object getResult() {
+            return current;
+        }
+    }
+
+    /**
+     * COUNT_DISTINCT: 精确去重计数 (非 null 值)。整数类型统一按 long 比较, BigDecimal 忽略末尾的 0。
+     */
+    static final class CountDistinct implements Accumulator {
+        private final Set<Object> seen = new HashSet<>();
+
+        @Override
+        public void add(Object value) {
+            if (value != null) {
+                seen.add(normalize(value));
+            }
+        }
+
+        @Override
+        public Object getResult() {
+            return (long) seen.size();
+        }
+
+        private static Object normalize(Object value) {
+            if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+                return ((Number) value).longValue();
+            } else if (value instanceof BigDecimal) {
+                return ((BigDecimal) value).stripTrailingZeros();
+            }
+            return value;
+        }
+    }
+
+    /**
+     * COUNT_DISTINCT_APPROX: HyperLogLog 近似去重计数 (非 null 值), 内存固定为 2^precision 字节。
+     */
+    static final class ApproxCountDistinct implements Accumulator {
+        private final HyperLogLog hyperLogLog;
+
+        ApproxCountDistinct(int precision) {
+            this.hyperLogLog = new HyperLogLog(precision);
+        }
+
+        @Override
+        public void add(Object value) {
+            hyperLogLog.add(value);
+        }
+
+        @Override
+        public Object getResult() {
+            return hyperLogLog.estimate();
+        }
+    }
+
+    /**
+     * QUANTILE_APPROX: 近似分位数, 结果按 scale / roundingMode 舍入。没有有效数值时结果为 null。
+     * 配置单个分位数时返回该值, 配置分位数列表时返回 {"p50": v, "p95": v, ...}。
+     */
+    static final class ApproxQuantile implements Accumulator {
+        private final String field;
+        private final QuantileSketch sketch;
+        private final double[] quantiles;
+        private final boolean quantileMap;
+        private final int scale;
+        private final RoundingMode roundingMode;
+
+        ApproxQuantile(String field, double relativeAccuracy, double[] quantiles, boolean quantileMap, int scale, RoundingMode roundingMode) {
+            this.field = field;
+            this.sketch = new QuantileSketch(relativeAccuracy);
+            this.quantiles = quantiles;
+            this.quantileMap = quantileMap;
+            this.scale = scale;
+            this.roundingMode = roundingMode;
+        }
+
+        @Override
+        public void add(Object value) {
+            if (value instanceof Number) {
+                sketch.add(((Number) value).doubleValue());
+            } else if (value instanceof String && StringUtils.hasText((String) value)) {
+                try {
+                    sketch.add(NumberUtil.parseBigDecimal((String) value).doubleValue());
+                } catch (NumberFormatException e) {
+                    log.warn("Cannot parse string '{}' to BigDecimal for QUANTILE_APPROX aggregation on field '{}'. Skipping.", value, field);
+                }
+            }
+        }
+
+        @Override
+        public Object getResult() {
+            if (!quantileMap) {
+                return quantile(quantiles[0]);
+            }
+            Map<String, Object> result = new LinkedHashMap<>();
+            for (double quantile : quantiles) {
+                result.put(quantileKey(quantile), quantile(quantile));
+            }
+            return result;
+        }
+
+        private BigDecimal quantile(double quantile) {
+            Double value = sketch.quantile(quantile);
+            return value == null ? null : BigDecimal.valueOf(value).setScale(scale, roundingMode);
+        }
+
+        /**
+         * 分位数在结果 Map 中的 key, 例如 0.5 → "p50", 0.999 → "p99.9"。
+         */
+        private static String quantileKey(double quantile) {
+            return "p" + BigDecimal.valueOf(quantile).movePointRight(2).stripTrailingZeros().toPlainString();
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package org.makotogu.metaReportEngine.transformer.aggregate;
+
+import java.util.Locale;
+
+/**
+ * AGGREGATOR 支持的聚合函数。
+ */
+public enum AggregateFunction {
+
+    SUM,
+    AVG,
+    COUNT,
+    MIN,
+    MAX,
+    COUNT_DISTINCT,
+    COUNT_DISTINCT_APPROX, // HyperLogLog 近似去重计数
+    QUANTILE_APPROX;       // 相对误差草图近似分位数
+
+    /**
+     * 解析配置中的函数名 (不区分大小写)。
+     *
+     * @throws IllegalArgumentException 如果函数名不受支持
+     */
+    public static AggregateFunction parse(String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("Aggregation function is missing.");
+        }
+        try {
+            return AggregateFunction.valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unsupported aggregation function: " + name, e);
+        }
+    }
+}
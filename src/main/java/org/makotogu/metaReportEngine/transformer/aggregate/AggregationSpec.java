@@ -0,0 +1,221 @@
+package org.makotogu.metaReportEngine.transformer.aggregate;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.Getter;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+import org.makotogu.metaReportEngine.shard.util.NumericAccumulator;
+import org.springframework.util.StringUtils;
+
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 解析后的 AGGREGATOR 规则配置。
+ * <p>
+ * 支持两种配置方式:
+ * <ul>
+ *     <li>单指标 (兼容旧配置): {"field": "amount", "function": "SUM"}，结果为单个值。</li>
+ *     <li>多指标: {"metrics": [{"field": "amount", "function": "SUM", "alias": "totalAmount"}, ...], "groupBy": ["branch"]}，
+ *         无 groupBy 时结果为 {alias: value} 的 Map，有 groupBy 时结果为分组行列表。</li>
+ * </ul>
+ * 近似函数: COUNT_DISTINCT_APPROX (可选 precision) 与 QUANTILE_APPROX (可选 relativeAccuracy、quantile 或 quantiles)，
+ * 均为单次流式扫描、内存固定 (有 groupBy 时每个分组各一份)。
+ */
+@Getter
+@ToString
+@Slf4j
+public class AggregationSpec {
+
+    private static final String CONFIG_FIELD_KEY = "field";     // 配置中指定要聚合的字段名
+    private static final String CONFIG_FUNCTION_KEY = "function"; // 配置中指定聚合函数 (SUM, AVG, COUNT, MIN, MAX, COUNT_DISTINCT)
+    private static final String CONFIG_SCALE_KEY = "scale";       // 可选配置，用于 AVG 的小数位数
+    private static final String CONFIG_ROUNDING_MODE_KEY = "roundingMode"; // 可选配置，用于 AVG 的舍入模式
+    private static final String CONFIG_NUMERIC_MODE_KEY = "numericMode"; // 可选配置, SUM/AVG 的精度模式: DECIMAL (默认, 精确) 或 DOUBLE (补偿求和)
+    private static final String CONFIG_METRICS_KEY = "metrics";   // 多指标配置: [{field, function, alias}, ...]
+    private static final String CONFIG_ALIAS_KEY = "alias";       // 多指标配置中指标的输出名
+    private static final String CONFIG_GROUP_BY_KEY = "groupBy";  // 可选: 分组字段列表
+    private static final String CONFIG_PRECISION_KEY = "precision"; // COUNT_DISTINCT_APPROX: HyperLogLog 精度 (4-18, 默认 14)
+    private static final String CONFIG_RELATIVE_ACCURACY_KEY = "relativeAccuracy"; // QUANTILE_APPROX: 相对误差 (默认 0.01)
+    private static final String CONFIG_QUANTILE_KEY = "quantile";   // QUANTILE_APPROX: 单个分位数, 返回单个值 (默认 0.5)
+    private static final String CONFIG_QUANTILES_KEY = "quantiles"; // QUANTILE_APPROX: 分位数列表, 返回 {"p50": v, ...}
+    private static final String SINGLE_METRIC_ALIAS = "value";    // 单指标模式内部使用的输出名
+
+    private final List<MetricSpec> metrics;
+    private final List<String> groupBy;
+    private final boolean singleMetric;
+
+    private AggregationSpec(List<MetricSpec> metrics, List<String> groupBy, boolean singleMetric) {
+        this.metrics = metrics;
+        this.groupBy = groupBy;
+        this.singleMetric = singleMetric;
+    }
+
+    /**
+     * 解析 AGGREGATOR 规则的 config。
+     *
+     * @throws IllegalArgumentException 如果配置无效
+     */
+    public static AggregationSpec parse(JsonNode config) {
+        if (config != null && config.hasNonNull(CONFIG_METRICS_KEY)) {
+            return new AggregationSpec(parseMetrics(config), parseGroupBy(config), false);
+        }
+        return new AggregationSpec(Collections.singletonList(parseSingleMetric(config)), Collections.emptyList(), true);
+    }
+
+    /**
+     * 在一次扫描中对输入行执行聚合。
+     */
+    public Object aggregate(Iterable<?> rows) {
+        return toResult(HashAggregation.aggregate(rows, metrics, groupBy));
+    }
+
+    /**
+     * 将 {alias: value} 形式的聚合结果转换为规则的输出 (单指标模式下只返回该指标的值)。
+     */
+    public Object toResult(Object aggregated) {
+        if (singleMetric) {
+            return ((Map<?, ?>) aggregated).get(SINGLE_METRIC_ALIAS);
+        }
+        return aggregated;
+    }
+
+    /**
+     * 解析单指标 (旧) 配置: {field, function, scale?, roundingMode?}。
+     */
+    private static MetricSpec parseSingleMetric(JsonNode config) {
+        if (config == null || !config.hasNonNull(CONFIG_FIELD_KEY) || !config.get(CONFIG_FIELD_KEY).isTextual()
+                || !config.hasNonNull(CONFIG_FUNCTION_KEY) || !config.get(CONFIG_FUNCTION_KEY).isTextual()) {
+            throw new IllegalArgumentException(String.format("Configuration error: Missing or invalid '%s' (text) or '%s' (text) in config: %s",
+                    CONFIG_FIELD_KEY, CONFIG_FUNCTION_KEY, config));
+        }
+        String field = config.get(CONFIG_FIELD_KEY).asText();
+        AggregateFunction function = AggregateFunction.parse(config.get(CONFIG_FUNCTION_KEY).asText());
+        // AVG 可能需要额外的 scale 和 roundingMode 配置
+        int scale = config.path(CONFIG_SCALE_KEY).asInt(2); // 默认2位小数
+        RoundingMode roundingMode = parseRoundingMode(config.path(CONFIG_ROUNDING_MODE_KEY).asText("HALF_UP")); // 默认四舍五入
+        NumericAccumulator.Mode numericMode = NumericAccumulator.Mode.parse(config.path(CONFIG_NUMERIC_MODE_KEY).asText(null));
+        return newMetric(config, field, function, SINGLE_METRIC_ALIAS, scale, roundingMode, numericMode);
+    }
+
+    /**
+     * 解析多指标配置。每个指标的 scale / roundingMode / numericMode 未配置时使用顶层配置 (默认 2 位小数、HALF_UP、DECIMAL)。
+     */
+    private static List<MetricSpec> parseMetrics(JsonNode config) {
+        JsonNode metricsNode = config.get(CONFIG_METRICS_KEY);
+        if (!metricsNode.isArray() || metricsNode.size() == 0) {
+            throw new IllegalArgumentException("Configuration error: '" + CONFIG_METRICS_KEY + "' must be a non-empty array. Config: " + config);
+        }
+        int defaultScale = config.path(CONFIG_SCALE_KEY).asInt(2);
+        String defaultRoundingMode = config.path(CONFIG_ROUNDING_MODE_KEY).asText("HALF_UP");
+        String defaultNumericMode = config.path(CONFIG_NUMERIC_MODE_KEY).asText(null);
+
+        List<MetricSpec> metrics = new ArrayList<>(metricsNode.size());
+        Set<String> aliases = new HashSet<>();
+        for (JsonNode metricNode : metricsNode) {
+            if (!metricNode.isObject() || !metricNode.hasNonNull(CONFIG_FUNCTION_KEY)) {
+                throw new IllegalArgumentException("Metric config requires '" + CONFIG_FUNCTION_KEY + "'. Node: " + metricNode);
+            }
+            AggregateFunction function = AggregateFunction.parse(metricNode.get(CONFIG_FUNCTION_KEY).asText());
+            String field = metricNode.path(CONFIG_FIELD_KEY).asText(null);
+            if (!StringUtils.hasText(field)) {
+                if (function != AggregateFunction.COUNT) {
+                    throw new IllegalArgumentException("Metric config requires '" + CONFIG_FIELD_KEY + "' for function " + function + ". Node: " + metricNode);
+                }
+                field = null; // COUNT 未指定字段时统计行数
+            }
+            String alias = metricNode.path(CONFIG_ALIAS_KEY).asText(null);
+            if (!StringUtils.hasText(alias)) {
+                alias = function.name().toLowerCase(Locale.ROOT) + (field != null ? "_" + field : "");
+            }
+            if (!aliases.add(alias)) {
+                throw new IllegalArgumentException("Configuration error: duplicate metric alias '" + alias + "'.");
+            }
+            int scale = metricNode.path(CONFIG_SCALE_KEY).asInt(defaultScale);
+            RoundingMode roundingMode = parseRoundingMode(metricNode.path(CONFIG_ROUNDING_MODE_KEY).asText(defaultRoundingMode));
+            NumericAccumulator.Mode numericMode = NumericAccumulator.Mode.parse(metricNode.path(CONFIG_NUMERIC_MODE_KEY).asText(defaultNumericMode));
+            metrics.add(newMetric(metricNode, field, function, alias, scale, roundingMode, numericMode));
+        }
+        return metrics;
+    }
+
+    /**
+     * 创建指标定义，近似函数额外读取 precision / relativeAccuracy / quantile(s) 配置。
+     */
+    private static MetricSpec newMetric(JsonNode node, String field, AggregateFunction function, String alias, int scale,
+                                        RoundingMode roundingMode, NumericAccumulator.Mode numericMode) {
+        int precision = node.path(CONFIG_PRECISION_KEY).asInt(HyperLogLog.DEFAULT_PRECISION);
+        if (precision < HyperLogLog.MIN_PRECISION || precision > HyperLogLog.MAX_PRECISION) {
+            throw new IllegalArgumentException(String.format("Configuration error: '%s' must be between %d and %d, got: %d",
+                    CONFIG_PRECISION_KEY, HyperLogLog.MIN_PRECISION, HyperLogLog.MAX_PRECISION, precision));
+        }
+        double relativeAccuracy = node.path(CONFIG_RELATIVE_ACCURACY_KEY).asDouble(QuantileSketch.DEFAULT_RELATIVE_ACCURACY);
+        if (!(relativeAccuracy > 0 && relativeAccuracy < 1)) {
+            throw new IllegalArgumentException("Configuration error: '" + CONFIG_RELATIVE_ACCURACY_KEY + "' must be between 0 and 1 (exclusive), got: " + relativeAccuracy);
+        }
+        double[] quantiles;
+        boolean quantileMap = node.hasNonNull(CONFIG_QUANTILES_KEY);
+        if (quantileMap) {
+            JsonNode quantilesNode = node.get(CONFIG_QUANTILES_KEY);
+            if (!quantilesNode.isArray() || quantilesNode.size() == 0) {
+                throw new IllegalArgumentException("Configuration error: '" + CONFIG_QUANTILES_KEY + "' must be a non-empty array of numbers.");
+            }
+            quantiles = new double[quantilesNode.size()];
+            for (int i = 0; i < quantiles.length; i++) {
+                quantiles[i] = validateQuantile(quantilesNode.get(i));
+            }
+        } else {
+            quantiles = new double[]{node.hasNonNull(CONFIG_QUANTILE_KEY) ? validateQuantile(node.get(CONFIG_QUANTILE_KEY)) : 0.5};
+        }
+        return new MetricSpec(field, function, alias, scale, roundingMode, numericMode, precision, relativeAccuracy, quantiles, quantileMap);
+    }
+
+    private static double validateQuantile(JsonNode quantileNode) {
+        if (!quantileNode.isNumber() || quantileNode.asDouble() < 0 || quantileNode.asDouble() > 1) {
+            throw new IllegalArgumentException("Configuration error: quantile must be a number between 0 and 1, got: " + quantileNode);
+        }
+        return quantileNode.asDouble();
+    }
+
+    /**
+     * 解析可选的 groupBy 字段列表 (字符串或字符串数组)。
+     */
+    private static List<String> parseGroupBy(JsonNode config) {
+        JsonNode groupByNode = config.path(CONFIG_GROUP_BY_KEY);
+        if (groupByNode.isMissingNode() || groupByNode.isNull()) {
+            return Collections.emptyList();
+        }
+        if (groupByNode.isTextual()) {
+            return Collections.singletonList(groupByNode.asText());
+        }
+        if (!groupByNode.isArray()) {
+            throw new IllegalArgumentException("Configuration error: '" + CONFIG_GROUP_BY_KEY + "' must be a string or string array.");
+        }
+        List<String> groupBy = new ArrayList<>(groupByNode.size());
+        for (JsonNode keyNode : groupByNode) {
+            if (!keyNode.isTextual() || !StringUtils.hasText(keyNode.asText())) {
+                throw new IllegalArgumentException("Configuration error: invalid '" + CONFIG_GROUP_BY_KEY + "' entry: " + keyNode);
+            }
+            groupBy.add(keyNode.asText());
+        }
+        return groupBy;
+    }
+
+    /**
+     * 解析舍入模式字符串。
+     */
+    private static RoundingMode parseRoundingMode(String modeStr) {
+        try {
+            return RoundingMode.valueOf(modeStr.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            log.warn("Invalid rounding mode string: '{}'. Falling back to HALF_UP.", modeStr);
+            return RoundingMode.HALF_UP; // 默认四舍五入
+        }
+    }
+}
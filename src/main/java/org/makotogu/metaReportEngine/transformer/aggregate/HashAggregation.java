@@ -0,0 +1,188 @@
+package org.makotogu.metaReportEngine.transformer.aggregate;
+
+import lombok.extern.slf4j.Slf4j;
+import org.makotogu.metaReportEngine.datasource.result.ColumnVector;
+import org.makotogu.metaReportEngine.datasource.result.ColumnarTable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 单次扫描的哈希聚合: 对输入列表只遍历一次, 按 groupBy 键维护每个分组的一组累加器。
+ * <p>
+ * 无 groupBy 时返回 {alias: value} 的 Map; 有 groupBy 时返回分组行列表,
+ * 每行包含分组字段以及各指标 alias, 分组顺序与其在输入中首次出现的顺序一致。
+ * <p>
+ * 输入为列式结果 ({@link ColumnarTable}) 时, 每个字段只解析一次列, 之后按行号直接读取列数组, 不创建行视图。
+ */
+@Slf4j
+public final class HashAggregation {
+
+    private HashAggregation() {
+    }
+
+    /**
+     * 执行聚合。
+     *
+     * @param rows    输入行 (通常为 List&lt;Map&gt;)
+     * @param metrics 指标定义, 不能为空
+     * @param groupBy 分组字段, 为空表示整体聚合
+     * @return 无分组时为 Map&lt;String, Object&gt;, 有分组时为 List&lt;Map&lt;String, Object&gt;&gt;
+     */
+    public static Object aggregate(Iterable<?> rows, List<MetricSpec> metrics, List<String> groupBy) {
+        if (rows instanceof ColumnarTable) {
+            return aggregateColumnar((ColumnarTable) rows, metrics, groupBy);
+        }
+        boolean grouped = groupBy != null && !groupBy.isEmpty();
+        if (!grouped) {
+            Accumulator[] accumulators = newAccumulators(metrics);
+            if (rows != null) {
+                for (Object row : rows) {
+                    accumulate(row, metrics, accumulators);
+                }
+            }
+            return toResultRow(Collections.emptyList(), null, metrics, accumulators);
+        }
+
+        Map<Object, Accumulator[]> table = new LinkedHashMap<>();
+        if (rows != null) {
+            int keyCount = groupBy.size();
+            for (Object row : rows) {
+                Object groupKey;
+                if (keyCount == 1) {
+                    groupKey = getValue(row, groupBy.get(0));
+                } else {
+                    Object[] keyValues = new Object[keyCount];
+                    for (int i = 0; i < keyCount; i++) {
+                        keyValues[i] = getValue(row, groupBy.get(i));
+                    }
+                    groupKey = Arrays.asList(keyValues);
+                }
+                Accumulator[] accumulators = table.get(groupKey);
+                if (accumulators == null) {
+                    accumulators = newAccumulators(metrics);
+                    table.put(groupKey, accumulators);
+                }
+                accumulate(row, metrics, accumulators);
+            }
+        }
+
+        List<Map<String, Object>> result = new ArrayList<>(table.size());
+        for (Map.Entry<Object, Accumulator[]> entry : table.entrySet()) {
+            result.add(toResultRow(groupBy, entry.getKey(), metrics, entry.getValue()));
+        }
+        log.debug("Hash aggregation produced {} groups for keys {}", result.size(), groupBy);
+        return result;
+    }
+
+    /**
+     * 列式输入的聚合: 结果与逐行读取 Map 一致 (不存在的列视为 null)。
+     */
+    private static Object aggregateColumnar(ColumnarTable table, List<MetricSpec> metrics, List<String> groupBy) {
+        ColumnVector[] metricColumns = new ColumnVector[metrics.size()];
+        for (int i = 0; i < metricColumns.length; i++) {
+            String field = metrics.get(i).getField();
+            metricColumns[i] = field == null ? null : table.getColumn(field);
+        }
+        int rowCount = table.size();
+        boolean grouped = groupBy != null && !groupBy.isEmpty();
+        if (!grouped) {
+            Accumulator[] accumulators = newAccumulators(metrics);
+            for (int m = 0; m < accumulators.length; m++) {
+                accumulateColumn(metricColumns[m], accumulators[m], rowCount);
+            }
+            return toResultRow(Collections.emptyList(), null, metrics, accumulators);
+        }
+
+        int keyCount = groupBy.size();
+        ColumnVector[] keyColumns = new ColumnVector[keyCount];
+        for (int i = 0; i < keyCount; i++) {
+            keyColumns[i] = table.getColumn(groupBy.get(i));
+        }
+        Map<Object, Accumulator[]> groups = new LinkedHashMap<>();
+        for (int row = 0; row < rowCount; row++) {
+            Object groupKey;
+            if (keyCount == 1) {
+                groupKey = keyColumns[0] != null ? keyColumns[0].get(row) : null;
+            } else {
+                Object[] keyValues = new Object[keyCount];
+                for (int i = 0; i < keyCount; i++) {
+                    keyValues[i] = keyColumns[i] != null ? keyColumns[i].get(row) : null;
+                }
+                groupKey = Arrays.asList(keyValues);
+            }
+            Accumulator[] accumulators = groups.get(groupKey);
+            if (accumulators == null) {
+                accumulators = newAccumulators(metrics);
+                groups.put(groupKey, accumulators);
+            }
+            for (int m = 0; m < accumulators.length; m++) {
+                accumulators[m].add(metricColumns[m] != null ? metricColumns[m].get(row) : null);
+            }
+        }
+
+        List<Map<String, Object>> result = new ArrayList<>(groups.size());
+        for (Map.Entry<Object, Accumulator[]> entry : groups.entrySet()) {
+            result.add(toResultRow(groupBy, entry.getKey(), metrics, entry.getValue()));
+        }
+        log.debug("Columnar hash aggregation produced {} groups for keys {}", result.size(), groupBy);
+        return result;
+    }
+
+    /**
+     * 无分组时按列依次累加: 一个指标扫描一列。
+     */
+    private static void accumulateColumn(ColumnVector column, Accumulator accumulator, int rowCount) {
+        for (int row = 0; row < rowCount; row++) {
+            accumulator.add(column != null ? column.get(row) : null);
+        }
+    }
+
+    private static Accumulator[] newAccumulators(List<MetricSpec> metrics) {
+        Accumulator[] accumulators = new Accumulator[metrics.size()];
+        for (int i = 0; i < accumulators.length; i++) {
+            accumulators[i] = metrics.get(i).newAccumulator();
+        }
+        return accumulators;
+    }
+
+    private static void accumulate(Object row, List<MetricSpec> metrics, Accumulator[] accumulators) {
+        for (int i = 0; i < accumulators.length; i++) {
+            String field = metrics.get(i).getField();
+            accumulators[i].add(field == null ? null : getValue(row, field));
+        }
+    }
+
+    private static Map<String, Object> toResultRow(List<String> groupBy, Object groupKey, List<MetricSpec> metrics, Accumulator[] accumulators) {
+        Map<String, Object> resultRow = new LinkedHashMap<>();
+        if (groupBy.size() == 1) {
+            resultRow.put(groupBy.get(0), groupKey);
+        } else if (groupBy.size() > 1) {
+            List<?> keyValues = (List<?>) groupKey;
+            for (int i = 0; i < groupBy.size(); i++) {
+                resultRow.put(groupBy.get(i), keyValues.get(i));
+            }
+        }
+        for (int i = 0; i < accumulators.length; i++) {
+            resultRow.put(metrics.get(i).getAlias(), accumulators[i].getResult());
+        }
+        return resultRow;
+    }
+
+    /**
+     * 从列表项 (假设是 Map) 中安全地获取指定字段的值。
+     */
+    @SuppressWarnings("unchecked") // 忽略类型转换警告
+    static Object getValue(Object item, String field) {
+        if (item instanceof Map) {
+            return ((Map<String, Object>) item).get(field);
+        }
+        // TODO: 可以添加对 POJO 的反射支持 (如果输入可能是 List<POJO>)
+        log.trace("Item is not a Map, cannot extract field '{}'. Item type: {}", field, item != null ? item.getClass().getName() : "null");
+        return null;
+    }
+}
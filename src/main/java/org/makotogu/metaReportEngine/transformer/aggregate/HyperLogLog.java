@@ -0,0 +1,141 @@
+package org.makotogu.metaReportEngine.transformer.aggregate;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * HyperLogLog 基数估算 (COUNT_DISTINCT_APPROX)。
+ * <p>
+ * 使用 2^precision 个 1 字节寄存器与 64 位哈希，内存固定为 2^precision 字节，
+ * 标准误差约为 1.04 / sqrt(2^precision) (precision = 14 时约 0.81%, 占用 16KB)。
+ * 估算值较小时使用线性计数修正。值的归一化规则与精确 COUNT_DISTINCT 一致: 整数统一按 long、BigDecimal 忽略末尾的 0。
+ */
+public class HyperLogLog {
+
+    public static final int MIN_PRECISION = 4;
+    public static final int MAX_PRECISION = 18;
+    public static final int DEFAULT_PRECISION = 14;
+
+    private final int precision;
+    private final byte[] registers;
+
+    public HyperLogLog(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION) {
+            throw new IllegalArgumentException("HyperLogLog precision must be between " + MIN_PRECISION + " and " + MAX_PRECISION + ", got: " + precision);
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    /**
+     * 加入一个值, null 会被忽略。
+     */
+    public void add(Object value) {
+        if (value != null) {
+            addHash(hash(value));
+        }
+    }
+
+    void addHash(long hash) {
+        int index = (int) (hash >>> (64 - precision));
+        // 剩余位左对齐, 最低位补 1 保证 rank 不超过 64 - precision + 1
+        long remaining = (hash << precision) | (1L << (precision - 1));
+        byte rank = (byte) (Long.numberOfLeadingZeros(remaining) + 1);
+        if (rank > registers[index]) {
+            registers[index] = rank;
+        }
+    }
+
+    /**
+     * 合并另一个同精度的 HyperLogLog (逐寄存器取最大值), 结果等价于把两边的值加入同一个实例。
+     */
+    public void merge(HyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Cannot merge HyperLogLog with precision " + other.precision + " into precision " + precision);
+        }
+        for (int i = 0; i < registers.length; i++) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+
+    /**
+     * 估算不同值的数量。
+     */
+    public long estimate() {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        double estimate = alpha(m) * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            estimate = m * Math.log((double) m / zeros); // 线性计数
+        }
+        return Math.round(estimate);
+    }
+
+    private static double alpha(int m) {
+        switch (m) {
+            case 16:
+                return 0.673;
+            case 32:
+                return 0.697;
+            case 64:
+                return 0.709;
+            default:
+                return 0.7213 / (1 + 1.079 / m);
+        }
+    }
+
+    /**
+     * 计算值的 64 位哈希。
+     */
+    static long hash(Object value) {
+        if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            return mix(((Number) value).longValue());
+        }
+        if (value instanceof BigDecimal) {
+            BigDecimal normalized = ((BigDecimal) value).stripTrailingZeros();
+            return normalized.scale() <= 0 && normalized.precision() - normalized.scale() <= 18
+                    ? mix(normalized.longValue())
+                    : hashBytes(normalized.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        if (value instanceof Double || value instanceof Float) {
+            return mix(Double.doubleToLongBits(((Number) value).doubleValue()));
+        }
+        if (value instanceof CharSequence) {
+            return hashBytes(value.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        return mix(value.hashCode());
+    }
+
+    /**
+     * FNV-1a 64 位哈希，再经过 mix 打散低熵输入。
+     */
+    private static long hashBytes(byte[] bytes) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : bytes) {
+            hash ^= b;
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    /**
+     * MurmurHash3 fmix64。
+     */
+    private static long mix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
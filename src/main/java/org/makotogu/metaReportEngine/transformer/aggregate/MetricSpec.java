@@ -0,0 +1,74 @@
+package org.makotogu.metaReportEngine.transformer.aggregate;
+
+import lombok.Getter;
+import lombok.ToString;
+import org.makotogu.metaReportEngine.shard.util.NumericAccumulator;
+
+import java.math.RoundingMode;
+
+/**
+ * 一个聚合指标的定义: {field, function, alias} 以及 AVG 使用的 scale / roundingMode、SUM / AVG 使用的数值精度模式、
+ * 近似函数使用的精度参数。
+ */
+@Getter
+@ToString
+public class MetricSpec {
+
+    private final String field;      // 要聚合的字段, COUNT 时可为空 (统计行数)
+    private final AggregateFunction function;
+    private final String alias;      // 结果中的输出名
+    private final int scale;         // AVG 的小数位数
+    private final RoundingMode roundingMode; // AVG 的舍入模式
+    private final NumericAccumulator.Mode numericMode; // SUM / AVG 的精度模式 (DECIMAL 精确, DOUBLE 补偿求和)
+    private final int precision;             // COUNT_DISTINCT_APPROX 的 HyperLogLog 精度 (寄存器数 = 2^precision)
+    private final double relativeAccuracy;   // QUANTILE_APPROX 的相对误差
+    private final double[] quantiles;        // QUANTILE_APPROX 要计算的分位数
+    private final boolean quantileMap;       // QUANTILE_APPROX 是否以 {"p50": v, ...} 的 Map 返回多个分位数
+
+    public MetricSpec(String field, AggregateFunction function, String alias, int scale, RoundingMode roundingMode,
+                      NumericAccumulator.Mode numericMode) {
+        this(field, function, alias, scale, roundingMode, numericMode,
+                HyperLogLog.DEFAULT_PRECISION, QuantileSketch.DEFAULT_RELATIVE_ACCURACY, new double[]{0.5}, false);
+    }
+
+    public MetricSpec(String field, AggregateFunction function, String alias, int scale, RoundingMode roundingMode,
+                      NumericAccumulator.Mode numericMode, int precision, double relativeAccuracy, double[] quantiles,
+                      boolean quantileMap) {
+        this.field = field;
+        this.function = function;
+        this.alias = alias;
+        this.scale = scale;
+        this.roundingMode = roundingMode;
+        this.numericMode = numericMode;
+        this.precision = precision;
+        this.relativeAccuracy = relativeAccuracy;
+        this.quantiles = quantiles;
+        this.quantileMap = quantileMap;
+    }
+
+    /**
+     * 创建该指标的新累加器。
+     */
+    public Accumulator newAccumulator() {
+        switch (function) {
+            case SUM:
+                return new Accumulators.Sum(field, numericMode);
+            case AVG:
+                return new Accumulators.Avg(field, scale, roundingMode, numericMode);
+            case COUNT:
+                return field == null ? new Accumulators.RowCount() : new Accumulators.Count();
+            case MIN:
+                return new Accumulators.Extreme(field, true);
+            case MAX:
+                return new Accumulators.Extreme(field, false);
+            case COUNT_DISTINCT:
+                return new Accumulators.CountDistinct();
+            case COUNT_DISTINCT_APPROX:
+                return new Accumulators.ApproxCountDistinct(precision);
+            case QUANTILE_APPROX:
+                return new Accumulators.ApproxQuantile(field, relativeAccuracy, quantiles, quantileMap, scale, roundingMode);
+            default:
+                throw new IllegalArgumentException("Unsupported aggregation function: " + function);
+        }
+    }
+}
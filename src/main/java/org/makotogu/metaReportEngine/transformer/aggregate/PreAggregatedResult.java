@@ -0,0 +1,34 @@
+package org.makotogu.metaReportEngine.transformer.aggregate;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import lombok.Getter;
+import lombok.ToString;
+
+import java.util.Map;
+
+/**
+ * 聚合下推后放入执行上下文的数据源结果。
+ * <p>
+ * 数据源的全部消费者都是 AGGREGATOR 规则时，引擎只执行聚合查询而不加载明细行，
+ * 按规则 config 保存每条规则的最终输出，由 AggregatorTransformer 直接返回。
+ */
+@Getter
+@ToString
+public class PreAggregatedResult {
+
+    private final String datasourceAlias;
+    private final Map<JsonNode, Object> results; // 规则 config → 规则输出
+
+    public PreAggregatedResult(String datasourceAlias, Map<JsonNode, Object> results) {
+        this.datasourceAlias = datasourceAlias;
+        this.results = results;
+    }
+
+    public boolean contains(JsonNode ruleConfig) {
+        return results.containsKey(ruleConfig);
+    }
+
+    public Object get(JsonNode ruleConfig) {
+        return results.get(ruleConfig);
+    }
+}
@@ -0,0 +1,186 @@
+package org.makotogu.metaReportEngine.transformer.aggregate;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.ToString;
+import lombok.extern.slf4j.Slf4j;
+import org.makotogu.metaReportEngine.shard.util.NumberUtil;
+
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * 聚合下推支持。
+ * <p>
+ * 把 {@link AggregationSpec} 拆解为数据库可以直接计算的基础聚合列 (SUM / COUNT / MIN / MAX / COUNT DISTINCT)，
+ * 并根据数据库返回的单行结果还原出与内存聚合一致的规则输出:
+ * <ul>
+ *     <li>AVG 下推为 SUM + COUNT 两列，按配置的 scale / roundingMode 在本地相除，舍入语义与内存聚合一致。</li>
+ *     <li>SUM 在没有数据时返回 0 (数据库返回 NULL)，COUNT 类结果统一为 Long。</li>
+ *     <li>MIN / MAX 由数据库按列类型比较，字符串列的结果受数据库排序规则影响。</li>
+ * </ul>
+ * 基础列的标签为 {@code <function>_<field>} (小写函数名)，COUNT 行数的标签为 {@code count}。
+ */
+@Slf4j
+public final class PushDownAggregation {
+
+    private static final String COUNT_ROWS_LABEL = "count";
+
+    private PushDownAggregation() {
+    }
+
+    /**
+     * 判断规则配置能否下推: 不支持 groupBy 与近似函数, 字段名不能包含双引号 (下推 SQL 中以带引号的标识符引用字段)。
+     */
+    public static boolean supports(AggregationSpec spec) {
+        if (!spec.getGroupBy().isEmpty()) {
+            return false;
+        }
+        for (MetricSpec metric : spec.getMetrics()) {
+            if (metric.getFunction() == AggregateFunction.COUNT_DISTINCT_APPROX || metric.getFunction() == AggregateFunction.QUANTILE_APPROX) {
+                return false;
+            }
+            if (metric.getField() != null && (metric.getField().trim().isEmpty() || metric.getField().indexOf('"') >= 0)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 计算规则需要的基础聚合列 (label → column)。多个指标共用的列只出现一次。
+     *
+     * @throws IllegalArgumentException 如果不同的基础列生成了相同的标签
+     */
+    public static Map<String, Column> columns(AggregationSpec spec) {
+        Map<String, Column> columns = new LinkedHashMap<>();
+        for (MetricSpec metric : spec.getMetrics()) {
+            switch (metric.getFunction()) {
+                case AVG:
+                    addColumn(columns, new Column(AggregateFunction.SUM, metric.getField()));
+                    addColumn(columns, new Column(AggregateFunction.COUNT, metric.getField()));
+                    break;
+                case SUM:
+                case COUNT:
+                case MIN:
+                case MAX:
+                case COUNT_DISTINCT:
+                    addColumn(columns, new Column(metric.getFunction(), metric.getField()));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Aggregation function " + metric.getFunction() + " cannot be pushed down.");
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * 根据数据库返回的聚合行计算规则输出。
+     *
+     * @param row label → 聚合值
+     * @throws IllegalStateException 如果聚合行缺少需要的列
+     */
+    public static Object finish(AggregationSpec spec, Map<String, Object> row) {
+        Map<String, Object> values = new LinkedHashMap<>();
+        for (MetricSpec metric : spec.getMetrics()) {
+            String field = metric.getField();
+            switch (metric.getFunction()) {
+                case SUM: {
+                    BigDecimal sum = toBigDecimal(value(row, label(AggregateFunction.SUM, field)));
+                    values.put(metric.getAlias(), sum != null ? sum : BigDecimal.ZERO);
+                    break;
+                }
+                case AVG: {
+                    BigDecimal sum = toBigDecimal(value(row, label(AggregateFunction.SUM, field)));
+                    long count = toLong(value(row, label(AggregateFunction.COUNT, field)));
+                    if (sum == null || count == 0) {
+                        log.warn("Cannot calculate average for field '{}' as no valid numeric values were found.", field);
+                        values.put(metric.getAlias(), BigDecimal.ZERO);
+                    } else {
+                        values.put(metric.getAlias(), sum.divide(BigDecimal.valueOf(count), metric.getScale(), metric.getRoundingMode()));
+                    }
+                    break;
+                }
+                case COUNT:
+                case COUNT_DISTINCT:
+                    values.put(metric.getAlias(), toLong(value(row, label(metric.getFunction(), field))));
+                    break;
+                default:
+                    values.put(metric.getAlias(), value(row, label(metric.getFunction(), field)));
+                    break;
+            }
+        }
+        return spec.toResult(values);
+    }
+
+    /**
+     * 基础聚合列的标签。
+     */
+    public static String label(AggregateFunction function, String field) {
+        if (field == null) {
+            return COUNT_ROWS_LABEL;
+        }
+        return function.name().toLowerCase(Locale.ROOT) + "_" + field;
+    }
+
+    private static void addColumn(Map<String, Column> columns, Column column) {
+        String label = label(column.getFunction(), column.getField());
+        Column existing = columns.putIfAbsent(label, column);
+        if (existing != null && !existing.equals(column)) {
+            throw new IllegalArgumentException("Aggregate columns " + existing + " and " + column + " share the label '" + label + "'.");
+        }
+    }
+
+    /**
+     * 按标签读取聚合值。声明式聚合语句返回的列名大小写可能与标签不同，找不到时忽略大小写再查找一次。
+     */
+    private static Object value(Map<String, Object> row, String label) {
+        if (row.containsKey(label)) {
+            return row.get(label);
+        }
+        for (Map.Entry<String, Object> entry : row.entrySet()) {
+            if (label.equalsIgnoreCase(entry.getKey())) {
+                return entry.getValue();
+            }
+        }
+        throw new IllegalStateException("Aggregate result is missing column '" + label + "'. Columns: " + row.keySet());
+    }
+
+    private static BigDecimal toBigDecimal(Object value) {
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof Number) {
+            return NumberUtil.toBigDecimal((Number) value);
+        }
+        return NumberUtil.parseBigDecimal(value.toString());
+    }
+
+    private static long toLong(Object value) {
+        if (value == null) {
+            return 0L;
+        }
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        return Long.parseLong(value.toString().trim());
+    }
+
+    /**
+     * 一个基础聚合列: 函数 (SUM / COUNT / MIN / MAX / COUNT_DISTINCT) 与字段 (COUNT 行数时为 null)。
+     */
+    @Getter
+    @EqualsAndHashCode
+    @ToString
+    public static final class Column {
+        private final AggregateFunction function;
+        private final String field;
+
+        public Column(AggregateFunction function, String field) {
+            this.function = function;
+            this.field = field;
+        }
+    }
+}
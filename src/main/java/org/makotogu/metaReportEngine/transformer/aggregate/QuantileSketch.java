@@ -0,0 +1,204 @@
+package org.makotogu.metaReportEngine.transformer.aggregate;
+
+import java.util.Arrays;
+
+/**
+ * 相对误差分位数草图 (DDSketch 算法，QUANTILE_APPROX)。
+ * <p>
+ * 数值按对数分桶: 桶 i 覆盖 (gamma^(i-1), gamma^i]，gamma = (1 + a) / (1 - a)，
+ * 返回的分位数与真实值的相对误差不超过 a (relativeAccuracy)。
+ * 正数、负数各用一个稠密桶数组，桶数超过 maxBins 时合并最低的桶，内存上限固定
+ * (被合并区间的分位数精度下降, 默认 2048 个桶在 a = 1% 时可覆盖约 1e-9 到 1e9 的跨度)。
+ */
+public class QuantileSketch {
+
+    public static final double DEFAULT_RELATIVE_ACCURACY = 0.01;
+    public static final int DEFAULT_MAX_BINS = 2048;
+
+    private final double relativeAccuracy;
+    private final double gamma;
+    private final double logGamma;
+    private final Store positive;
+    private final Store negative;
+    private long zeroCount;
+    private long count;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    public QuantileSketch(double relativeAccuracy) {
+        this(relativeAccuracy, DEFAULT_MAX_BINS);
+    }
+
+    public QuantileSketch(double relativeAccuracy, int maxBins) {
+        if (!(relativeAccuracy > 0 && relativeAccuracy < 1)) {
+            throw new IllegalArgumentException("Relative accuracy must be between 0 and 1 (exclusive), got: " + relativeAccuracy);
+        }
+        this.relativeAccuracy = relativeAccuracy;
+        this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+        this.logGamma = Math.log(gamma);
+        this.positive = new Store(maxBins);
+        this.negative = new Store(maxBins);
+    }
+
+    public void add(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return;
+        }
+        if (value > 0) {
+            positive.add(index(value));
+        } else if (value < 0) {
+            negative.add(index(-value));
+        } else {
+            zeroCount++;
+        }
+        count++;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    /**
+     * 合并另一个相同相对误差的草图, 合并后的分位数误差保证不变。
+     */
+    public void merge(QuantileSketch other) {
+        if (Double.compare(other.relativeAccuracy, relativeAccuracy) != 0) {
+            throw new IllegalArgumentException("Cannot merge QuantileSketch with relative accuracy " + other.relativeAccuracy + " into " + relativeAccuracy);
+        }
+        if (other.count == 0) {
+            return;
+        }
+        positive.merge(other.positive);
+        negative.merge(other.negative);
+        zeroCount += other.zeroCount;
+        count += other.count;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getRelativeAccuracy() {
+        return relativeAccuracy;
+    }
+
+    /**
+     * 估算分位数。
+     *
+     * @param quantile 0 到 1 之间
+     * @return 估算值, 没有数据时返回 null
+     */
+    public Double quantile(double quantile) {
+        if (count == 0) {
+            return null;
+        }
+        if (quantile <= 0) {
+            return min;
+        }
+        if (quantile >= 1) {
+            return max;
+        }
+        long rank = (long) (quantile * (count - 1));
+        double value;
+        if (rank < negative.total) {
+            // 负数区间: 绝对值从大到小
+            value = -value(negative.indexAtRank(negative.total - 1 - rank));
+        } else if (rank < negative.total + zeroCount) {
+            value = 0;
+        } else {
+            value = value(positive.indexAtRank(rank - negative.total - zeroCount));
+        }
+        return Math.max(min, Math.min(max, value));
+    }
+
+    private int index(double value) {
+        return (int) Math.ceil(Math.log(value) / logGamma);
+    }
+
+    private double value(int index) {
+        return 2 * Math.pow(gamma, index) / (gamma + 1);
+    }
+
+    /**
+     * 稠密桶数组, 超过 maxBins 时把最低的桶合并到保留范围的最低桶。
+     */
+    private static final class Store {
+        private final int maxBins;
+        private long[] counts;
+        private int offset;   // counts[0] 对应的桶下标
+        private int minIndex = Integer.MAX_VALUE;
+        private int maxIndex = Integer.MIN_VALUE;
+        private long total;
+
+        private Store(int maxBins) {
+            this.maxBins = maxBins;
+        }
+
+        private void add(int index) {
+            add(index, 1);
+        }
+
+        private void add(int index, long n) {
+            if (counts == null) {
+                counts = new long[Math.min(64, maxBins)];
+                offset = index;
+                minIndex = index;
+                maxIndex = index;
+            } else if (index < minIndex || index > maxIndex) {
+                int newMin = Math.min(minIndex, index);
+                int newMax = Math.max(maxIndex, index);
+                if ((long) newMax - newMin + 1 > maxBins) {
+                    newMin = newMax - maxBins + 1; // 合并最低的桶
+                    index = Math.max(index, newMin);
+                }
+                resize(newMin, newMax);
+            }
+            counts[index - offset] += n;
+            total += n;
+        }
+
+        private void merge(Store other) {
+            for (int i = other.minIndex; i <= other.maxIndex; i++) {
+                long n = other.counts[i - other.offset];
+                if (n > 0) {
+                    add(i, n);
+                }
+            }
+        }
+
+        private void resize(int newMin, int newMax) {
+            if (newMin >= offset && newMax < offset + counts.length) {
+                // 原数组足够: 只需把低于 newMin 的桶合并到 newMin
+                for (int i = minIndex; i < newMin; i++) {
+                    counts[newMin - offset] += counts[i - offset];
+                    counts[i - offset] = 0;
+                }
+            } else {
+                long[] target = new long[Math.min(maxBins, Math.max(newMax - newMin + 1, counts.length * 2))];
+                for (int i = minIndex; i <= maxIndex; i++) {
+                    target[Math.max(i, newMin) - newMin] += counts[i - offset];
+                }
+                counts = target;
+                offset = newMin;
+            }
+            minIndex = newMin;
+            maxIndex = newMax;
+        }
+
+        private int indexAtRank(long rank) {
+            long seen = 0;
+            for (int i = minIndex; i <= maxIndex; i++) {
+                seen += counts[i - offset];
+                if (seen > rank) {
+                    return i;
+                }
+            }
+            return maxIndex;
+        }
+
+        @Override
+        public String toString() {
+            return "Store" + (counts == null ? "[]" : Arrays.toString(Arrays.copyOfRange(counts, minIndex - offset, maxIndex - offset + 1)));
+        }
+    }
+}
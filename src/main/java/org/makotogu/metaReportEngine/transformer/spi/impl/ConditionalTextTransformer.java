@@ -1,23 +1,25 @@
 package org.makotogu.metaReportEngine.transformer.spi.impl;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.makotogu.metaReportEngine.shard.exception.TransformationException;
 import org.makotogu.metaReportEngine.shard.util.SpelEvaluator;
+import org.makotogu.metaReportEngine.shard.util.TextTemplate;
 import org.makotogu.metaReportEngine.transformer.spi.Transformer;
+import org.springframework.expression.EvaluationContext;
 import org.springframework.expression.spel.SpelEvaluationException;
 import org.springframework.stereotype.Service;
-import org.springframework.util.StringUtils;
 
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Conditional Text Transformer: 根据 SpEL 条件表达式选择并输出文本模板.
- * 支持在模板中进行简单的变量替换 {{varName}}.
+ * 支持在模板中进行变量替换 {{varName}} 以及 SpEL 表达式 {{#expr}} (见 {@link TextTemplate}).
+ * 条件表达式与 trueTemplate / falseTemplate 按 config 编译一次并缓存，逐行 / 逐客户批量求值时只需渲染。
  */
 @Service
 @RequiredArgsConstructor
@@ -30,10 +32,11 @@ public class ConditionalTextTransformer implements Transformer {
     private static final String CONFIG_TRUE_TEMPLATE_KEY = "trueTemplate";  // 条件为真时的模板 (字符串)
     private static final String CONFIG_FALSE_TEMPLATE_KEY = "falseTemplate"; // 可选: 条件为假时的模板 (字符串)
 
-    // 用于简单模板变量替换的正则表达式: 匹配 {{ 非贪婪匹配 }}
-    private static final Pattern TEMPLATE_VAR_PATTERN = Pattern.compile("\\{\\{(.+?)\\}\\}");
+    private static final int MAX_COMPILED_CONFIGS = 1024; // 编译结果缓存上限
 
     private final SpelEvaluator spelEvaluator; // 注入 SpEL 工具类
+    // 按 config 缓存编译后的模板 (JsonNode 按内容比较, 同一配置只编译一次)
+    private final Cache<JsonNode, CompiledConfig> compiledConfigs = Caffeine.newBuilder().maximumSize(MAX_COMPILED_CONFIGS).build();
 
     @Override
     public String getTransformerType() {
@@ -50,15 +53,14 @@ public class ConditionalTextTransformer implements Transformer {
                             CONFIG_CONDITION_KEY, CONFIG_TRUE_TEMPLATE_KEY, config));
         }
         String conditionExpression = config.get(CONFIG_CONDITION_KEY).asText();
-        String trueTemplate = config.get(CONFIG_TRUE_TEMPLATE_KEY).asText();
-        // falseTemplate 是可选的
-        String falseTemplate = config.path(CONFIG_FALSE_TEMPLATE_KEY).asText(""); // 默认为空字符串
+        CompiledConfig compiled = compile(config);
 
-        // 2. 评估 SpEL 条件表达式
+        // 2. 评估 SpEL 条件表达式 (评估上下文与模板中的 {{#expr}} 共用)
+        EvaluationContext evaluationContext = spelEvaluator.createEvaluationContext(inputs, executionContext);
         boolean conditionResult;
         try {
             // 期望条件表达式返回 Boolean 类型
-            Boolean result = spelEvaluator.evaluate(conditionExpression, inputs, executionContext, Boolean.class);
+            Boolean result = spelEvaluator.evaluate(conditionExpression, evaluationContext, Boolean.class);
             conditionResult = Boolean.TRUE.equals(result); // 处理 null 的情况，当成 false
             log.debug("[{}] Condition expression '{}' evaluated to: {}", TRANSFORMER_TYPE, conditionExpression, conditionResult);
         } catch (SpelEvaluationException e) {
@@ -68,42 +70,45 @@ public class ConditionalTextTransformer implements Transformer {
             throw new TransformationException(TRANSFORMER_TYPE, "Unexpected error evaluating condition: " + conditionExpression, e);
         }
 
-
         // 3. 根据条件结果选择模板
-        String selectedTemplate = conditionResult ? trueTemplate : falseTemplate;
+        TextTemplate selectedTemplate = conditionResult ? compiled.trueTemplate : compiled.falseTemplate;
 
-        // 4. (可选但常用) 执行简单的模板变量替换
-        // 将模板中的 {{varName}} 替换为 executionContext 中对应 key 的值
-        if (StringUtils.hasText(selectedTemplate) && selectedTemplate.contains("{{")) {
-            try {
-                selectedTemplate = replaceTemplateVariables(selectedTemplate, executionContext);
-            } catch (Exception e) {
-                log.error("[{}] Error during template variable replacement for template snippet: '{}'", TRANSFORMER_TYPE, selectedTemplate.substring(0, Math.min(50, selectedTemplate.length())), e);
-                // 替换失败，可以选择返回原始模板或抛异常
-                // throw new TransformationException(TRANSFORMER_TYPE, "Error replacing variables in template", e);
-            }
+        // 4. 渲染模板: {{varName}} 取 executionContext 中对应 key 的值, {{#expr}} 求值 SpEL
+        try {
+            return selectedTemplate.render(executionContext, () -> evaluationContext);
+        } catch (Exception e) {
+            String source = selectedTemplate.getSource();
+            log.error("[{}] Error during template variable replacement for template snippet: '{}'", TRANSFORMER_TYPE, source.substring(0, Math.min(50, source.length())), e);
+            // 替换失败，返回原始模板
+            // throw new TransformationException(TRANSFORMER_TYPE, "Error replacing variables in template", e);
+            return source;
         }
+    }
 
-        // 5. 返回最终文本
-        return selectedTemplate;
+    /**
+     * 编译 trueTemplate / falseTemplate (按 config 缓存)。
+     */
+    private CompiledConfig compile(JsonNode config) {
+        try {
+            return compiledConfigs.get(config, key -> new CompiledConfig(
+                    TextTemplate.compile(key.get(CONFIG_TRUE_TEMPLATE_KEY).asText(), spelEvaluator),
+                    // falseTemplate 是可选的, 默认为空字符串
+                    TextTemplate.compile(key.path(CONFIG_FALSE_TEMPLATE_KEY).asText(""), spelEvaluator)));
+        } catch (Exception e) {
+            throw new TransformationException(TRANSFORMER_TYPE, "Configuration error: invalid expression in template: " + e.getMessage(), e);
+        }
     }
 
     /**
-     * 简单的模板变量替换。将 {{varName}} 替换为 executionContext 中 key 为 "varName" 的值。
-     * 注意：这里使用的是简单的字符串替换，不是完整的 SpEL 评估。
-     *      如果需要更复杂的表达式，应考虑使用专门的模板引擎或在 SpEL 条件中完成。
+     * 编译后的配置。
      */
-    private String replaceTemplateVariables(String template, Map<String, Object> context) {
-        StringBuffer sb = new StringBuffer();
-        Matcher matcher = TEMPLATE_VAR_PATTERN.matcher(template);
-        while (matcher.find()) {
-            String varName = matcher.group(1).trim(); // 获取括号内的变量名并去除空格
-            Object value = context.get(varName);      // 从上下文中查找值
-            String replacement = (value == null) ? "" : value.toString(); // 如果找不到或为null，替换为空字符串
-            // 需要注意 $ 符号在 appendReplacement 中的特殊含义，进行转义
-            matcher.appendReplacement(sb, Matcher.quoteReplacement(replacement));
+    private static final class CompiledConfig {
+        private final TextTemplate trueTemplate;
+        private final TextTemplate falseTemplate;
+
+        private CompiledConfig(TextTemplate trueTemplate, TextTemplate falseTemplate) {
+            this.trueTemplate = trueTemplate;
+            this.falseTemplate = falseTemplate;
         }
-        matcher.appendTail(sb);
-        return sb.toString();
     }
-}
\ No newline at end of file
+}
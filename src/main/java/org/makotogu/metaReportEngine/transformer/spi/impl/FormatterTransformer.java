@@ -2,32 +2,39 @@ package org.makotogu.metaReportEngine.transformer.spi.impl;
 
 
 import com.fasterxml.jackson.databind.JsonNode;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.makotogu.metaReportEngine.shard.exception.TransformationException;
+import org.makotogu.metaReportEngine.shard.util.FormatterCache;
 import org.makotogu.metaReportEngine.transformer.spi.Transformer;
 import org.springframework.stereotype.Service;
 import org.springframework.util.CollectionUtils;
 
-import java.math.BigDecimal;
-import java.text.DecimalFormat;
-import java.text.NumberFormat;
-import java.text.SimpleDateFormat;
-import java.time.format.DateTimeFormatter;
+import java.math.RoundingMode;
 import java.time.format.DateTimeParseException;
 import java.time.temporal.TemporalAccessor;
 import java.util.Date;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 /**
  * Formatter Transformer: 根据配置中的 pattern 格式化输入值 (数字或日期/时间).
+ * <p>
+ * 输入为 List 时使用列表模式: 标量列表返回格式化后的列表; List&lt;Map&gt; 通过 field 指定列,
+ * 可选 targetField 把结果写入新列 (见 {@link ListModeSupport})。
  */
 @Service
 @Slf4j
+@RequiredArgsConstructor
 public class FormatterTransformer implements Transformer {
 
     private static final String TRANSFORMER_TYPE = "FORMATTER";
     private static final String CONFIG_PATTERN_KEY = "pattern"; // 配置中格式化模式的 key
+    private static final String CONFIG_LOCALE_KEY = "locale"; // 可选: 格式化使用的 locale (e.g., "zh-CN")
+    private static final String CONFIG_ROUNDING_MODE_KEY = "roundingMode"; // 可选: 数字格式化的舍入模式
+
+    private final FormatterCache formatterCache;
 
     @Override
     public String getTransformerType() {
@@ -55,19 +62,34 @@ public class FormatterTransformer implements Transformer {
                     String.format("Configuration error: Missing or invalid '%s' (text) in config: %s", CONFIG_PATTERN_KEY, config));
         }
         String pattern = config.get(CONFIG_PATTERN_KEY).asText();
+        Locale locale = FormatterCache.parseLocale(config.path(CONFIG_LOCALE_KEY).asText(null));
+        RoundingMode roundingMode = FormatterCache.parseRoundingMode(config.path(CONFIG_ROUNDING_MODE_KEY).asText(null)); // 未配置时保持 HALF_EVEN
+        FormatterCache.NumberFormatKey numberFormatKey = new FormatterCache.NumberFormatKey(pattern, locale, roundingMode, null, null);
+
+        // 4. 列表模式: 配置只解析一次, 逐个元素格式化
+        if (valueToFormat instanceof List) {
+            log.debug("FormatterTransformer formatting {} list elements using pattern: {}", ((List<?>) valueToFormat).size(), pattern);
+            return ListModeSupport.apply((List<?>) valueToFormat, config, TRANSFORMER_TYPE,
+                    value -> formatValue(value, pattern, locale, numberFormatKey));
+        }
         log.debug("FormatterTransformer processing value type: {}, using pattern: {}", valueToFormat.getClass().getName(), pattern);
+        return formatValue(valueToFormat, pattern, locale, numberFormatKey);
+    }
 
-        // 4. 根据值的类型进行格式化
+    /**
+     * 根据值的类型进行格式化。
+     */
+    private Object formatValue(Object valueToFormat, String pattern, Locale locale, FormatterCache.NumberFormatKey numberFormatKey) {
         try {
             if (valueToFormat instanceof Number) {
                 // 处理数字类型 (包括 BigDecimal, Integer, Long, Double etc.)
-                return formatNumber((Number) valueToFormat, pattern);
+                return formatNumber((Number) valueToFormat, numberFormatKey);
             } else if (valueToFormat instanceof Date) {
                 // 处理旧版 java.util.Date
-                return formatDate((Date) valueToFormat, pattern);
+                return formatDate((Date) valueToFormat, pattern, locale);
             } else if (valueToFormat instanceof TemporalAccessor) {
                 // 处理 Java 8 Time API 类型 (LocalDate, LocalDateTime, ZonedDateTime, Instant etc.)
-                return formatTemporal((TemporalAccessor) valueToFormat, pattern);
+                return formatTemporal((TemporalAccessor) valueToFormat, pattern, locale);
             } else {
                 // 其他不支持的类型
                 log.warn("Unsupported type for formatting [{}]: {}. Returning its string representation.",
@@ -91,29 +113,22 @@ public class FormatterTransformer implements Transformer {
     }
 
     /**
-     * 格式化数字。
+     * 格式化数字。DecimalFormat 可以直接处理 BigDecimal 以及 Integer, Long, Double 等。
      */
-    private String formatNumber(Number number, String pattern) {
+    private String formatNumber(Number number, FormatterCache.NumberFormatKey numberFormatKey) {
         try {
-            // 对于 BigDecimal，使用 toPlainString 避免科学计数法问题
-            NumberFormat formatter = new DecimalFormat(pattern);
-            if (number instanceof BigDecimal) {
-                return formatter.format(((BigDecimal) number)); // DecimalFormat 可以直接处理 BigDecimal
-            } else {
-                return formatter.format(number); // 处理 Integer, Long, Double 等
-            }
+            return formatterCache.formatNumber(number, numberFormatKey);
         } catch (IllegalArgumentException e) {
-            throw new IllegalArgumentException("Invalid DecimalFormat pattern: " + pattern, e);
+            throw new IllegalArgumentException("Invalid DecimalFormat pattern: " + numberFormatKey.getPattern(), e);
         }
     }
 
     /**
      * 格式化 java.util.Date。
      */
-    private String formatDate(Date date, String pattern) {
+    private String formatDate(Date date, String pattern, Locale locale) {
         try {
-            SimpleDateFormat formatter = new SimpleDateFormat(pattern);
-            return formatter.format(date);
+            return formatterCache.formatDate(date, pattern, locale);
         } catch (IllegalArgumentException e) {
             throw new IllegalArgumentException("Invalid SimpleDateFormat pattern: " + pattern, e);
         }
@@ -122,14 +137,11 @@ public class FormatterTransformer implements Transformer {
     /**
      * 格式化 Java 8 Time API 类型 (TemporalAccessor)。
      */
-    private String formatTemporal(TemporalAccessor temporal, String pattern) {
+    private String formatTemporal(TemporalAccessor temporal, String pattern, Locale locale) {
         try {
-            // DateTimeFormatter 是线程安全的，可以考虑缓存，但每次创建通常也很快
-            DateTimeFormatter formatter = DateTimeFormatter.ofPattern(pattern);
-            // 对于需要时区但输入不含时区的情况 (如 LocalDateTime)，可能需要指定默认时区
-            // ZoneId defaultZone = ZoneId.systemDefault();
-            // formatter = formatter.withZone(defaultZone); // 按需添加
-            return formatter.format(temporal);
+            // DateTimeFormatter 是线程安全的，由 FormatterCache 按 pattern 共享
+            // 对于需要时区但输入不含时区的情况 (如 LocalDateTime)，可能需要指定默认时区 (按需添加 withZone)
+            return formatterCache.formatTemporal(temporal, pattern, locale);
         } catch (IllegalArgumentException | DateTimeParseException e) { // DateTimeParseException 用于解析无效日期时间字符串，这里主要是 IllegalArgumentException
             throw new IllegalArgumentException("Invalid DateTimeFormatter pattern: " + pattern, e);
         } catch (java.time.temporal.UnsupportedTemporalTypeException e) {
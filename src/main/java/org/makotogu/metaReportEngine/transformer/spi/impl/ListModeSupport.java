@@ -0,0 +1,79 @@
+package org.makotogu.metaReportEngine.transformer.spi.impl;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.makotogu.metaReportEngine.shard.exception.TransformationException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * FORMATTER / UNIT_CONVERTER 的列表 (列) 模式。
+ * <p>
+ * 输入为 List 时配置只解析一次，对每个元素复用同一个转换函数:
+ * <ul>
+ *     <li>List&lt;Map&gt;: 通过 field 指定要转换的列。配置 targetField 时结果写入每一行的该列并返回原列表，
+ *         否则返回与输入等长的结果列表。</li>
+ *     <li>标量列表: 返回与输入等长的结果列表。</li>
+ * </ul>
+ * null 元素 / null 值的结果为 null。
+ */
+final class ListModeSupport {
+
+    static final String CONFIG_FIELD_KEY = "field";             // 列表模式: List<Map> 中要转换的字段
+    static final String CONFIG_TARGET_FIELD_KEY = "targetField"; // 列表模式: 可选, 结果写入的字段 (原地写入每一行)
+
+    private ListModeSupport() {
+    }
+
+    /**
+     * 对列表的每个元素执行转换。
+     *
+     * @param converter 单个非 null 值的转换函数
+     */
+    @SuppressWarnings("unchecked")
+    static Object apply(List<?> input, JsonNode config, String transformerType, Function<Object, Object> converter) {
+        String field = textConfig(config, CONFIG_FIELD_KEY);
+        String targetField = textConfig(config, CONFIG_TARGET_FIELD_KEY);
+        if (targetField != null && field == null) {
+            throw new TransformationException(transformerType, "Configuration error: '" + CONFIG_TARGET_FIELD_KEY + "' requires '" + CONFIG_FIELD_KEY + "'.");
+        }
+
+        if (field == null) {
+            List<Object> results = new ArrayList<>(input.size());
+            for (Object element : input) {
+                if (element instanceof Map) {
+                    throw new TransformationException(transformerType, "Configuration error: list input contains rows, '"
+                            + CONFIG_FIELD_KEY + "' is required to select the column to convert.");
+                }
+                results.add(element == null ? null : converter.apply(element));
+            }
+            return results;
+        }
+
+        List<Object> results = targetField == null ? new ArrayList<>(input.size()) : null;
+        for (Object element : input) {
+            Object value = element instanceof Map ? ((Map<String, Object>) element).get(field) : null;
+            Object converted = value == null ? null : converter.apply(value);
+            if (results != null) {
+                results.add(converted);
+            } else if (element instanceof Map) {
+                try {
+                    ((Map<String, Object>) element).put(targetField, converted);
+                } catch (UnsupportedOperationException e) {
+                    throw new TransformationException(transformerType, "Cannot write '" + targetField + "' into a read-only row of type " + element.getClass().getName(), e);
+                }
+            }
+        }
+        return results != null ? results : input;
+    }
+
+    private static String textConfig(JsonNode config, String key) {
+        if (config == null || !config.hasNonNull(key)) {
+            return null;
+        }
+        String value = config.get(key).asText();
+        return value.trim().isEmpty() ? null : value;
+    }
+}
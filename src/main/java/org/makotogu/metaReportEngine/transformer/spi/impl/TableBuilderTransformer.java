@@ -5,6 +5,9 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.makotogu.metaReportEngine.shard.exception.SpelEvaluationException;
 import org.makotogu.metaReportEngine.shard.exception.TransformationException;
+import org.makotogu.metaReportEngine.shard.util.FormatterCache;
+import org.makotogu.metaReportEngine.shard.util.NumberUtil;
+import org.makotogu.metaReportEngine.shard.util.NumericAccumulator;
 import org.makotogu.metaReportEngine.shard.util.SpelEvaluator;
 import org.makotogu.metaReportEngine.transformer.spi.Transformer;
 import lombok.RequiredArgsConstructor;
@@ -18,10 +21,7 @@ import org.springframework.util.StringUtils;
 import java.io.IOException; // For ObjectMapper exception
 import java.math.BigDecimal;
 import java.math.RoundingMode;
-import java.text.DecimalFormat;
-import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.stream.Collectors;
 
 @Service
 @RequiredArgsConstructor
@@ -44,10 +44,16 @@ public class TableBuilderTransformer implements Transformer {
     private static final String TOTAL_FORMATTERS_KEY = "formatters";
     private static final String TOTAL_SCALE_KEY = "avgScale";
     private static final String TOTAL_ROUNDING_MODE_KEY = "avgRoundingMode";
+    private static final String TOTAL_NUMERIC_MODE_KEY = "numericMode"; // 可选: DECIMAL (默认, 精确) 或 DOUBLE (补偿求和)
+    private static final String FMT_PATTERN_KEY = "pattern";
+    private static final String FMT_USE_GROUPING_KEY = "useGrouping";
+    private static final String FMT_LOCALE_KEY = "locale";
+    private static final String FMT_ROUNDING_MODE_KEY = "roundingMode";
 
 
     private final SpelEvaluator spelEvaluator;
     private final ObjectMapper objectMapper;
+    private final FormatterCache formatterCache;
 
     @Override
     public String getTransformerType() {
@@ -74,8 +80,9 @@ public class TableBuilderTransformer implements Transformer {
 
         // 4. 遍历输入数据，构建输出表格行
         List<Map<String, Object>> outputTable = new ArrayList<>(inputList.size());
-        // 用于存储每行需要聚合的原始数值 Map<列Key, 数值>
-        List<Map<String, BigDecimal>> numericValuesForTotal = new ArrayList<>();
+        // 需要合计/平均的列在扫描过程中直接累加 Map<列Key, 累加器>，不再保存每行的数值
+        Map<String, NumericAccumulator> totalAccumulators = createTotalAccumulators(tableConfig);
+        boolean anyNumericValue = false;
 
         for (int rowIndex = 0; rowIndex < inputList.size(); rowIndex++) {
             Object rowInputObject = inputList.get(rowIndex);
@@ -84,8 +91,7 @@ public class TableBuilderTransformer implements Transformer {
                 continue;
             }
             Map<String, Object> rowInputMap = (Map<String, Object>) rowInputObject;
-            Map<String, Object> outputRow = new HashMap<>();
-            Map<String, BigDecimal> currentRowNumerics = tableConfig.needsTotalOrAvg() ? new HashMap<>() : null;
+            Map<String, Object> outputRow = new LinkedHashMap<>(); // 保持 columns 配置的列顺序 (XLSX/CSV 输出按此顺序生成列)
 
             // --- 为当前行创建一个特定的 SpEL 上下文 ---
             EvaluationContext rowSpelContext = new StandardEvaluationContext();
@@ -104,11 +110,11 @@ public class TableBuilderTransformer implements Transformer {
                     cellRawValue = spelEvaluator.evaluate(column.getValueExpression(), rowSpelContext, Object.class); // 使用新的 evaluate 签名
                     cellDisplayValue = cellRawValue; // 默认显示值等于原始值
 
-                    // 存储需要合计/平均的原始数值 (在格式化之前)
-                    if (currentRowNumerics != null && (tableConfig.getSumColumns().contains(column.getOutputKey()) || tableConfig.getAvgColumns().contains(column.getOutputKey()))) {
-                        BigDecimal numericValue = getNumericValueForAggregation(cellRawValue);
-                        if (numericValue != null) {
-                            currentRowNumerics.put(column.getOutputKey(), numericValue);
+                    // 累加需要合计/平均的原始数值 (在格式化之前)
+                    NumericAccumulator totalAccumulator = totalAccumulators.get(column.getOutputKey());
+                    if (totalAccumulator != null) {
+                        if (addNumericValueForAggregation(totalAccumulator, cellRawValue)) {
+                            anyNumericValue = true;
                         } else {
                             // 如果某行需要聚合的列无法获取数值，可以选择记录警告，或在该行合计中忽略此值
                             log.trace("[{}] Could not extract numeric value for aggregation key '{}' from raw value '{}' at row {}",
@@ -117,8 +123,8 @@ public class TableBuilderTransformer implements Transformer {
                     }
 
                     // 应用列格式化 (如果配置了) - 对 cellDisplayValue 进行格式化
-                    if (column.getFormatterConfig() != null && cellDisplayValue != null) {
-                        cellDisplayValue = formatCellValue(cellDisplayValue, column.getFormatterConfig());
+                    if (column.getFormatter() != null && cellDisplayValue != null) {
+                        cellDisplayValue = formatCellValue(cellDisplayValue, column.getFormatter());
                     }
 
                 } catch (SpelEvaluationException e) {
@@ -134,14 +140,11 @@ public class TableBuilderTransformer implements Transformer {
                 outputRow.put(column.getOutputKey(), cellDisplayValue);
             }
             outputTable.add(outputRow);
-            if (currentRowNumerics != null && !currentRowNumerics.isEmpty()) { // 只添加包含有效数值的行
-                numericValuesForTotal.add(currentRowNumerics);
-            }
         }
 
-        // 5. 添加合计行 (如果需要)
-        if (tableConfig.isTotalEnabled()) {
-            Map<String, Object> totalRowMap = calculateAndBuildTotalRow(numericValuesForTotal, tableConfig);
+        // 5. 添加合计行 (如果需要, 且至少有一个有效数值)
+        if (tableConfig.isTotalEnabled() && anyNumericValue) {
+            Map<String, Object> totalRowMap = calculateAndBuildTotalRow(totalAccumulators, tableConfig);
             if (totalRowMap != null) {
                 outputTable.add(totalRowMap);
             }
@@ -168,7 +171,7 @@ public class TableBuilderTransformer implements Transformer {
                 throw new TransformationException(TRANSFORMER_TYPE, "Column config requires non-empty '" + COL_VALUE_EXPR_KEY + "' and '" + COL_OUTPUT_KEY + "'. Node: " + colNode);
             }
             JsonNode formatterConfig = colNode.path(COL_FORMATTER_KEY);
-            columns.add(new ColumnConfig(valueExpr, outputKey, formatterConfig.isMissingNode() ? null : formatterConfig));
+            columns.add(new ColumnConfig(valueExpr, outputKey, formatterConfig.isMissingNode() ? null : compileCellFormatter(formatterConfig)));
         }
         if (columns.isEmpty()) {
             throw new TransformationException(TRANSFORMER_TYPE, "Configuration error: '" + CONFIG_COLUMNS_KEY + "' array cannot be empty.");
@@ -180,9 +183,10 @@ public class TableBuilderTransformer implements Transformer {
         String totalLabelValue = "合计";
         List<String> sumColumns = Collections.emptyList();
         List<String> avgColumns = Collections.emptyList(); // <--- 初始化为空列表
-        Map<String, JsonNode> totalFormatters = Collections.emptyMap();
+        Map<String, CellFormatter> totalFormatters = Collections.emptyMap();
         int avgScale = 2; // <--- 初始化默认值
         RoundingMode avgRoundingMode = RoundingMode.HALF_UP; // <--- 初始化默认值
+        NumericAccumulator.Mode numericMode = NumericAccumulator.Mode.DECIMAL;
 
         JsonNode totalRowNode = config.path(CONFIG_TOTAL_ROW_KEY);
         if (totalRowNode.isObject()) {
@@ -207,50 +211,61 @@ public class TableBuilderTransformer implements Transformer {
                     // ---------------------------
                     // 解析合计行格式化器
                     if (totalRowNode.hasNonNull(TOTAL_FORMATTERS_KEY) && totalRowNode.get(TOTAL_FORMATTERS_KEY).isObject()) {
-                        totalFormatters = objectMapper.convertValue(totalRowNode.get(TOTAL_FORMATTERS_KEY), new TypeReference<Map<String, JsonNode>>() {
+                        Map<String, JsonNode> totalFormatterNodes = objectMapper.convertValue(totalRowNode.get(TOTAL_FORMATTERS_KEY), new TypeReference<Map<String, JsonNode>>() {
                         });
+                        totalFormatters = new HashMap<>();
+                        for (Map.Entry<String, JsonNode> entry : totalFormatterNodes.entrySet()) {
+                            totalFormatters.put(entry.getKey(), compileCellFormatter(entry.getValue()));
+                        }
                     }
                     // --- 实现 解析 AVG 相关配置 ---
                     avgScale = totalRowNode.path(TOTAL_SCALE_KEY).asInt(avgScale); // 使用默认值
                     avgRoundingMode = parseRoundingMode(totalRowNode.path(TOTAL_ROUNDING_MODE_KEY).asText("HALF_UP")); // 使用默认值
                     // ---------------------------------
+                    numericMode = NumericAccumulator.Mode.parse(totalRowNode.path(TOTAL_NUMERIC_MODE_KEY).asText(null));
                 } catch (IOException e) {
                     throw new TransformationException(TRANSFORMER_TYPE, "Error parsing total row config lists/maps.", e);
+                } catch (IllegalArgumentException e) {
+                    throw new TransformationException(TRANSFORMER_TYPE, "Total row config error: " + e.getMessage(), e);
                 }
             }
         }
 
-        return new TableBuildConfig(columns, totalEnabled, totalLabelColumn, totalLabelValue, sumColumns, avgColumns, totalFormatters, avgScale, avgRoundingMode);
+        return new TableBuildConfig(columns, totalEnabled, totalLabelColumn, totalLabelValue, sumColumns, avgColumns, totalFormatters, avgScale, avgRoundingMode, numericMode);
     }
 
     /**
-     * 格式化单元格的值 (保持不变)
+     * 在解析配置时预编译单元格格式化参数，避免逐个单元格重复解析 JSON 配置。
+     * 配置无效时返回 null (单元格保持原值)。
      */
-    private Object formatCellValue(Object cellValue, JsonNode formatterConfig) {
-        if (!formatterConfig.hasNonNull("pattern") || !formatterConfig.get("pattern").isTextual()) {
+    private CellFormatter compileCellFormatter(JsonNode formatterConfig) {
+        if (!formatterConfig.hasNonNull(FMT_PATTERN_KEY) || !formatterConfig.get(FMT_PATTERN_KEY).isTextual()) {
             log.warn("[{}] Invalid formatter config for cell: {}", TRANSFORMER_TYPE, formatterConfig);
-            return cellValue; // 配置无效，返回原值
+            return null; // 配置无效，单元格返回原值
         }
-        String pattern = formatterConfig.get("pattern").asText();
-        boolean useGrouping = formatterConfig.path("useGrouping").asBoolean(true); // 可选
+        String pattern = formatterConfig.get(FMT_PATTERN_KEY).asText();
+        boolean useGrouping = formatterConfig.path(FMT_USE_GROUPING_KEY).asBoolean(true); // 可选
+        Locale locale = FormatterCache.parseLocale(formatterConfig.path(FMT_LOCALE_KEY).asText(null));
+        RoundingMode roundingMode = FormatterCache.parseRoundingMode(formatterConfig.path(FMT_ROUNDING_MODE_KEY).asText(null)); // 未配置时保持 HALF_EVEN
+        return new CellFormatter(pattern, locale, new FormatterCache.NumberFormatKey(pattern, locale, roundingMode, useGrouping, null));
+    }
 
+    /**
+     * 格式化单元格的值，格式化器由 FormatterCache 按 pattern 缓存复用。
+     */
+    private Object formatCellValue(Object cellValue, CellFormatter formatter) {
         if (cellValue instanceof Number) {
             try {
-                DecimalFormat df = new DecimalFormat(pattern);
-                df.setGroupingUsed(useGrouping);
-                // 可以考虑从配置中获取 RoundingMode
-                // df.setRoundingMode(RoundingMode.HALF_UP);
-                return df.format(cellValue);
+                return formatterCache.formatNumber(cellValue, formatter.getNumberFormatKey());
             } catch (IllegalArgumentException e) {
-                log.error("[{}] Invalid number format pattern '{}' in column config. Value: {}", TRANSFORMER_TYPE, pattern, cellValue, e);
+                log.error("[{}] Invalid number format pattern '{}' in column config. Value: {}", TRANSFORMER_TYPE, formatter.getPattern(), cellValue, e);
                 return "FMT_ERR"; // 返回错误标记
             }
         }  else if (cellValue instanceof Date) {
             try {
-                SimpleDateFormat formatter = new SimpleDateFormat(pattern);
-                return formatter.format(cellValue);
+                return formatterCache.formatDate((Date) cellValue, formatter.getPattern(), formatter.getLocale());
             } catch (IllegalArgumentException e) {
-                log.error("[{}] Invalid date format pattern '{}' in column config. Value: {}", TRANSFORMER_TYPE, pattern, cellValue, e);
+                log.error("[{}] Invalid date format pattern '{}' in column config. Value: {}", TRANSFORMER_TYPE, formatter.getPattern(), cellValue, e);
                 return "FMT_ERR";
             }
         } else {
@@ -260,45 +275,57 @@ public class TableBuilderTransformer implements Transformer {
     }
 
     /**
-     * 尝试从单元格值获取 BigDecimal (保持不变)
+     * 为需要合计/平均的列创建累加器 (同一列既求和又求平均时共享一个累加器)。
      */
-    private BigDecimal getNumericValueForAggregation(Object cellValue) {
-        if (cellValue instanceof BigDecimal) {
-            return (BigDecimal) cellValue;
-        } else if (cellValue instanceof Number) {
-            return new BigDecimal(cellValue.toString());
+    private Map<String, NumericAccumulator> createTotalAccumulators(TableBuildConfig config) {
+        if (!config.needsTotalOrAvg()) {
+            return Collections.emptyMap();
+        }
+        Map<String, NumericAccumulator> accumulators = new HashMap<>();
+        for (String key : config.getSumColumns()) {
+            accumulators.put(key, new NumericAccumulator(config.getNumericMode()));
+        }
+        for (String key : config.getAvgColumns()) {
+            accumulators.computeIfAbsent(key, k -> new NumericAccumulator(config.getNumericMode()));
+        }
+        return accumulators;
+    }
+
+    /**
+     * 尝试将单元格值累加到合计累加器。数字直接走原生类型快速路径，字符串先去除千分位等符号再解析。
+     *
+     * @return 是否成功获取到数值
+     */
+    private boolean addNumericValueForAggregation(NumericAccumulator accumulator, Object cellValue) {
+        if (cellValue instanceof Number) {
+            accumulator.add((Number) cellValue);
+            return true;
         } else if (cellValue instanceof String) {
             try {
                 // 尝试去除可能的千分位和货币符号（需要更健壮的逻辑）
                 String numericString = ((String) cellValue).replaceAll("[^\\d.-]", "");
                 if (StringUtils.hasText(numericString)) {
-                    return new BigDecimal(numericString);
+                    accumulator.add(NumberUtil.parseBigDecimal(numericString));
+                    return true;
                 }
             } catch (NumberFormatException e) {
                 log.trace("[{}] Cannot parse string '{}' to BigDecimal for aggregation.", TRANSFORMER_TYPE, cellValue);
             }
         }
-        return null; // 无法获取数值
+        return false; // 无法获取数值
     }
 
     /**
-     * 计算并构建合计行 Map 。
+     * 根据扫描时累加的结果构建合计行 Map 。
      */
     private Map<String, Object> calculateAndBuildTotalRow
-    (List<Map<String, BigDecimal>> numericValuesForTotal, TableBuildConfig config) {
-        if (!config.isTotalEnabled() || CollectionUtils.isEmpty(numericValuesForTotal)) {
-            return null;
-        }
-
-        Map<String, Object> totalRow = new HashMap<>();
+    (Map<String, NumericAccumulator> totalAccumulators, TableBuildConfig config) {
+        Map<String, Object> totalRow = new LinkedHashMap<>();
         totalRow.put(config.getTotalLabelColumn(), config.getTotalLabelValue()); // 设置标签
 
         // --- 计算求和列 ---
         for (String sumColKey : config.getSumColumns()) {
-            BigDecimal sum = numericValuesForTotal.stream()
-                    .map(rowNumerics -> rowNumerics.get(sumColKey)) // 获取该列的值
-                    .filter(Objects::nonNull)                      // 过滤掉 null 值
-                    .reduce(BigDecimal.ZERO, BigDecimal::add);    // 求和
+            BigDecimal sum = totalAccumulators.get(sumColKey).getSum();
 
             Object finalSumValue = formatAggregatedValue(sum, sumColKey, config); // 格式化结果
             totalRow.put(sumColKey, finalSumValue);
@@ -306,16 +333,9 @@ public class TableBuilderTransformer implements Transformer {
 
         // --- 实现 计算平均值列 ---
         for (String avgColKey : config.getAvgColumns()) {
-            List<BigDecimal> validValues = numericValuesForTotal.stream()
-                    .map(rowNumerics -> rowNumerics.get(avgColKey))
-                    .filter(Objects::nonNull)
-                    .collect(Collectors.toList());
-
-            BigDecimal average = BigDecimal.ZERO; // 默认平均值为 0
-            if (!validValues.isEmpty()) {
-                BigDecimal sum = validValues.stream().reduce(BigDecimal.ZERO, BigDecimal::add);
-                average = sum.divide(new BigDecimal(validValues.size()), config.getAvgScale(), config.getAvgRoundingMode());
-            } else {
+            BigDecimal average = totalAccumulators.get(avgColKey).getAverage(config.getAvgScale(), config.getAvgRoundingMode());
+            if (average == null) {
+                average = BigDecimal.ZERO; // 默认平均值为 0
                 log.warn("[{}] Cannot calculate average for column '{}' as no valid numeric values were found in collected data.", TRANSFORMER_TYPE, avgColKey);
             }
 
@@ -332,14 +352,15 @@ public class TableBuilderTransformer implements Transformer {
      * 辅助方法：格式化聚合后的值（求和或平均）
      */
     private Object formatAggregatedValue(BigDecimal value, String columnKey, TableBuildConfig config) {
-        if (config.getTotalFormatters().containsKey(columnKey)) {
+        CellFormatter totalFormatter = config.getTotalFormatters().get(columnKey);
+        if (totalFormatter != null) {
             // 使用合计行特定的格式化器
-            return formatCellValue(value, config.getTotalFormatters().get(columnKey));
+            return formatCellValue(value, totalFormatter);
         } else {
             // 如果没有特定格式化器，可以考虑查找列定义中的格式化器作为备选
             // ColumnConfig colDef = config.getColumns().stream().filter(c -> c.getOutputKey().equals(columnKey)).findFirst().orElse(null);
-            // if (colDef != null && colDef.getFormatterConfig() != null) {
-            //     return formatCellValue(value, colDef.getFormatterConfig());
+            // if (colDef != null && colDef.getFormatter() != null) {
+            //     return formatCellValue(value, colDef.getFormatter());
             // }
             // 或者直接返回 BigDecimal
             return value;
@@ -369,9 +390,10 @@ public class TableBuilderTransformer implements Transformer {
         private final String totalLabelValue;
         private final List<String> sumColumns;
         private final List<String> avgColumns; // 新增
-        private final Map<String, JsonNode> totalFormatters;
+        private final Map<String, CellFormatter> totalFormatters;
         private final int avgScale;           // 新增
         private final RoundingMode avgRoundingMode; // 新增
+        private final NumericAccumulator.Mode numericMode;
 
         public boolean needsTotalOrAvg() {
             return totalEnabled && (!sumColumns.isEmpty() || !avgColumns.isEmpty());
@@ -383,6 +405,17 @@ public class TableBuilderTransformer implements Transformer {
     private static class ColumnConfig {
         private final String valueExpression;
         private final String outputKey;
-        private final JsonNode formatterConfig;
+        private final CellFormatter formatter;
+    }
+
+    /**
+     * 预编译的单元格格式化参数 (pattern + FormatterCache 的缓存 Key)。
+     */
+    @RequiredArgsConstructor
+    @lombok.Getter
+    private static class CellFormatter {
+        private final String pattern;
+        private final Locale locale;
+        private final FormatterCache.NumberFormatKey numberFormatKey;
     }
 }
\ No newline at end of file
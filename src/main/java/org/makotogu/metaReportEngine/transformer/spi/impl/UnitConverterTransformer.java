@@ -5,6 +5,8 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.makotogu.metaReportEngine.shard.exception.TransformationException;
+import org.makotogu.metaReportEngine.shard.util.FormatterCache;
+import org.makotogu.metaReportEngine.shard.util.NumberUtil;
 import org.makotogu.metaReportEngine.transformer.spi.Transformer;
 import org.springframework.stereotype.Service;
 import org.springframework.util.CollectionUtils;
@@ -12,7 +14,6 @@ import org.springframework.util.CollectionUtils;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
-import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
@@ -20,6 +21,9 @@ import java.util.Map;
 
 /**
  * Unit Converter Transformer: 根据配置的阈值和单位自动转换输入数字的单位并格式化输出.
+ * <p>
+ * 输入为 List 时使用列表模式: 数字列表返回转换后的列表; List&lt;Map&gt; 通过 field 指定列,
+ * 可选 targetField 把结果写入新列 (见 {@link ListModeSupport})。
  */
 @Service
 @Slf4j
@@ -38,6 +42,7 @@ public class UnitConverterTransformer implements Transformer {
 
     // ObjectMapper 最好是注入或共享的，这里仅为示例
     private final ObjectMapper objectMapper;
+    private final FormatterCache formatterCache;
 
     @Override
     public String getTransformerType() {
@@ -46,7 +51,7 @@ public class UnitConverterTransformer implements Transformer {
 
     @Override
     public Object transform(List<Object> inputs, JsonNode config, Map<String, Object> executionContext) throws TransformationException {
-        // 1. 验证输入 (通常是单个数字)
+        // 1. 验证输入 (单个数字, 或列表模式下的数字列表 / List<Map>)
         if (CollectionUtils.isEmpty(inputs)) {
             log.warn("[{}] received empty or null inputs. Returning null.", TRANSFORMER_TYPE);
             return null;
@@ -57,13 +62,43 @@ public class UnitConverterTransformer implements Transformer {
             return null;
         }
 
-        // 2. 将输入值转换为 BigDecimal
-        BigDecimal originalValue;
+        // 2. 解析配置 (列表模式下所有元素共用)
+        UnitConversionConfig conversionConfig = parseConfig(config);
+
+        // 3. 列表模式: 逐个元素转换
+        if (inputValue instanceof List) {
+            log.debug("[{}] converting {} list elements.", TRANSFORMER_TYPE, ((List<?>) inputValue).size());
+            return ListModeSupport.apply((List<?>) inputValue, config, TRANSFORMER_TYPE, value -> convert(value, conversionConfig));
+        }
+        return convert(inputValue, conversionConfig);
+    }
+
+    /**
+     * 转换单个值: 无法转换为数字时返回 null。
+     */
+    private String convert(Object inputValue, UnitConversionConfig conversionConfig) {
+        BigDecimal originalValue = toBigDecimal(inputValue);
+        if (originalValue == null) {
+            return null;
+        }
+
+        // 执行单位转换和格式化
         try {
-            if (inputValue instanceof BigDecimal) {
-                originalValue = (BigDecimal) inputValue;
-            } else if (inputValue instanceof Number) {
-                originalValue = new BigDecimal(inputValue.toString());
+            return formatWithUnit(originalValue, conversionConfig);
+        } catch (Exception e) {
+            // 捕获内部处理可能发生的异常
+            log.error("[{}] Error during unit conversion or formatting for value {}: {}", TRANSFORMER_TYPE, originalValue, e.getMessage(), e);
+            throw new TransformationException(TRANSFORMER_TYPE, "Error during unit conversion/formatting: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 将输入值转换为 BigDecimal，不支持的类型或无法解析的字符串返回 null。
+     */
+    private BigDecimal toBigDecimal(Object inputValue) {
+        try {
+            if (inputValue instanceof Number) {
+                return NumberUtil.toBigDecimal((Number) inputValue);
             } else if (inputValue instanceof String) {
                 // 尝试解析字符串, 允许带逗号的数字
                 String stringValue = ((String) inputValue).replace(",", "");
@@ -71,7 +106,7 @@ public class UnitConverterTransformer implements Transformer {
                     log.warn("[{}] input string value is empty. Returning null.", TRANSFORMER_TYPE);
                     return null;
                 }
-                originalValue = new BigDecimal(stringValue);
+                return NumberUtil.parseBigDecimal(stringValue);
             } else {
                 log.warn("[{}] received unsupported input type: {}. Returning null.", TRANSFORMER_TYPE, inputValue.getClass().getName());
                 return null; // 或者抛出异常
@@ -82,18 +117,6 @@ public class UnitConverterTransformer implements Transformer {
             return null; // 或者抛出异常
             // throw new TransformationException(TRANSFORMER_TYPE, "Cannot parse input value to number: " + inputValue, e);
         }
-
-        // 3. 解析配置
-        UnitConversionConfig conversionConfig = parseConfig(config);
-
-        // 4. 执行单位转换和格式化
-        try {
-            return formatWithUnit(originalValue, conversionConfig);
-        } catch (Exception e) {
-            // 捕获内部处理可能发生的异常
-            log.error("[{}] Error during unit conversion or formatting for value {}: {}", TRANSFORMER_TYPE, originalValue, e.getMessage(), e);
-            throw new TransformationException(TRANSFORMER_TYPE, "Error during unit conversion/formatting: " + e.getMessage(), e);
-        }
     }
 
     /**
@@ -188,13 +211,9 @@ public class UnitConverterTransformer implements Transformer {
             displayValue = value.divide(divisor, config.getPrecision() + 5, config.getRoundingMode()); // 保留更多精度进行中间计算
         }
 
-        // 格式化最终显示的值
-        DecimalFormat df = new DecimalFormat();
-        df.setMaximumFractionDigits(config.getPrecision());
-        df.setMinimumFractionDigits(config.getPrecision()); // 保证显示指定位数的小数
-        df.setRoundingMode(config.getRoundingMode());
-        df.setGroupingUsed(config.isUseGrouping()); // 是否使用千分位
-        String formattedValue = df.format(displayValue.setScale(config.getPrecision(), config.getRoundingMode())); // 最终舍入
+        // 格式化最终显示的值 (DecimalFormat 由 FormatterCache 按精度/舍入模式/千分位缓存复用)
+        String formattedValue = formatterCache.formatNumber(
+                displayValue.setScale(config.getPrecision(), config.getRoundingMode()), config.getNumberFormatKey()); // 最终舍入
 
         // 应用输出模板
         return config.getTemplate()
@@ -224,6 +243,7 @@ public class UnitConverterTransformer implements Transformer {
         private final RoundingMode roundingMode;
         private final String baseUnit;
         private final boolean useGrouping;
+        private final FormatterCache.NumberFormatKey numberFormatKey; // 指定位数的小数 + 舍入模式 + 是否使用千分位
 
         public UnitConversionConfig(List<BigDecimal> thresholds, List<String> units, int precision, String template,
                                     RoundingMode roundingMode, String baseUnit, boolean useGrouping) {
@@ -234,6 +254,7 @@ public class UnitConverterTransformer implements Transformer {
             this.roundingMode = roundingMode;
             this.baseUnit = baseUnit;
             this.useGrouping = useGrouping;
+            this.numberFormatKey = new FormatterCache.NumberFormatKey(null, null, roundingMode, useGrouping, precision);
         }
         // 省略 Getters...
         public List<BigDecimal> getThresholds(){ return thresholds; }
@@ -243,6 +264,7 @@ public class UnitConverterTransformer implements Transformer {
         public RoundingMode getRoundingMode() { return roundingMode; }
         public String getBaseUnit() { return baseUnit; }
         public boolean isUseGrouping() { return useGrouping; }
+        public FormatterCache.NumberFormatKey getNumberFormatKey() { return numberFormatKey; }
 
     }
 }
\ No newline at end of file
@@ -0,0 +1,44 @@
+package org.makotogu.metaReportEngine.config;
+
+import org.junit.jupiter.api.Test;
+import org.makotogu.metaReportEngine.test.mapper.LoanMapper;
+import org.mybatis.spring.SqlSessionTemplate;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.mock.env.MockEnvironment;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BusinessDataSourceRegistrarTest {
+
+    @Test
+    void startsWithoutRiskContextWhenNoMapperPackagesAreConfigured() {
+        MockEnvironment environment = new MockEnvironment()
+                .withProperty("report.datasource.contexts.default.url", "jdbc:h2:mem:registrar-default");
+        try (AnnotationConfigApplicationContext context = start(environment)) {
+            assertThat(context.containsBean("defaultBusinessSqlSessionTemplate")).isTrue();
+            assertThat(context.containsBean("riskBusinessSqlSessionTemplate")).isFalse();
+            assertThat(context.getBeanNamesForType(LoanMapper.class)).isEmpty();
+        }
+    }
+
+    @Test
+    void bindsConfiguredMapperPackagesToTheirContext() {
+        MockEnvironment environment = new MockEnvironment()
+                .withProperty("report.datasource.contexts.default.url", "jdbc:h2:mem:registrar-default")
+                .withProperty("report.datasource.contexts.reporting.url", "jdbc:h2:mem:registrar-reporting")
+                .withProperty("report.datasource.contexts.reporting.mapper-base-packages", "org.makotogu.metaReportEngine.test.mapper");
+        try (AnnotationConfigApplicationContext context = start(environment)) {
+            SqlSessionTemplate template = context.getBean("reportingBusinessSqlSessionTemplate", SqlSessionTemplate.class);
+            assertThat(context.getBean(LoanMapper.class)).isNotNull();
+            assertThat(template.getConfiguration().hasMapper(LoanMapper.class)).isTrue();
+        }
+    }
+
+    private static AnnotationConfigApplicationContext start(MockEnvironment environment) {
+        AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+        context.setEnvironment(environment);
+        context.register(BusinessDataSourceConfig.class);
+        context.refresh();
+        return context;
+    }
+}
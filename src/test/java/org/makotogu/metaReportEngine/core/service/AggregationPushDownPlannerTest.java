@@ -0,0 +1,182 @@
+package org.makotogu.metaReportEngine.core.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.makotogu.metaReportEngine.datasource.spi.AggregateColumn;
+import org.makotogu.metaReportEngine.metadata.dto.ReportConfigurationDto;
+import org.makotogu.metaReportEngine.metadata.entity.ReportDataSource;
+import org.makotogu.metaReportEngine.metadata.entity.ReportTemplateMapping;
+import org.makotogu.metaReportEngine.metadata.entity.ReportTransformationRule;
+import org.makotogu.metaReportEngine.transformer.aggregate.PreAggregatedResult;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AggregationPushDownPlannerTest {
+
+    private static final String TOTALS = "{\"metrics\": [{\"field\": \"amount\", \"function\": \"SUM\", \"alias\": \"total\"},"
+            + " {\"field\": \"amount\", \"function\": \"AVG\", \"alias\": \"average\", \"scale\": 2},"
+            + " {\"function\": \"COUNT\", \"alias\": \"loans\"}]}";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final AggregationPushDownPlanner planner = new AggregationPushDownPlanner();
+    private final List<ReportDataSource> dataSources = new ArrayList<>();
+    private final List<ReportTransformationRule> rules = new ArrayList<>();
+    private final List<ReportTemplateMapping> mappings = new ArrayList<>();
+
+    AggregationPushDownPlannerTest() {
+        ReflectionTestUtils.setField(planner, "enabled", true);
+        dataSources.add(dataSource("loans", "list_map", "{\"customerId\": \"#context['customerId']\"}"));
+    }
+
+    @Test
+    void datasourceConsumedOnlyByAggregatorsIsPushedDown() throws Exception {
+        rules.add(rule("loanTotals", "AGGREGATOR", TOTALS, "loans"));
+        rules.add(rule("maxLoan", "AGGREGATOR", "{\"field\": \"amount\", \"function\": \"MAX\"}", "loans"));
+        mappings.add(mapping("total", "loanTotals", "#data['total']"));
+
+        Map<String, AggregationPushDownPlanner.PushDownPlan> plans = planner.plan(config());
+
+        assertThat(plans).containsOnlyKeys("loans");
+        // AVG 拆为 SUM + COUNT, 与 SUM 指标共用 sum_amount 列
+        assertThat(plans.get("loans").getColumns().stream().map(AggregateColumn::getLabel).collect(Collectors.toList()))
+                .containsExactly("sum_amount", "count_amount", "count", "max_amount");
+        assertThat(plans.get("loans").getColumns().get(1).getFunction()).isEqualTo("COUNT");
+        assertThat(plans.get("loans").getColumns().get(2).getField()).isNull();
+    }
+
+    @Test
+    void planFinishesEveryRuleFromTheAggregateRow() throws Exception {
+        rules.add(rule("loanTotals", "AGGREGATOR", TOTALS, "loans"));
+        AggregationPushDownPlanner.PushDownPlan plan = planner.plan(config()).get("loans");
+
+        Map<String, Object> row = new HashMap<>();
+        row.put("SUM_AMOUNT", new BigDecimal("100.00")); // 数据库返回的列名大小写可能不同
+        row.put("COUNT_AMOUNT", 3L);
+        row.put("COUNT", 4L);
+        PreAggregatedResult result = plan.finish(row);
+
+        @SuppressWarnings("unchecked")
+        Map<String, Object> totals = (Map<String, Object>) result.get(objectMapper.readTree(TOTALS));
+        assertThat(totals).containsEntry("total", new BigDecimal("100.00"))
+                .containsEntry("average", new BigDecimal("33.33"))
+                .containsEntry("loans", 4L);
+    }
+
+    @Test
+    void datasourceWithANonAggregatorConsumerIsNotPushedDown() throws Exception {
+        rules.add(rule("loanTotals", "AGGREGATOR", TOTALS, "loans"));
+        rules.add(rule("loanTable", "TABLE", "{}", "loans"));
+
+        assertThat(planner.plan(config())).isEmpty();
+    }
+
+    @Test
+    void aggregatorReadingTheDatasourceAsASecondaryInputIsNotPushedDown() throws Exception {
+        dataSources.add(dataSource("customers", "list_map", "{}"));
+        rules.add(rule("loanTotals", "AGGREGATOR", TOTALS, "customers", "loans"));
+
+        // 第一个输入 customers 仍可下推
+        assertThat(planner.plan(config())).containsOnlyKeys("customers");
+    }
+
+    @Test
+    void groupByAndApproximateFunctionsAreNotPushedDown() throws Exception {
+        rules.add(rule("byStatus", "AGGREGATOR", "{\"metrics\": [{\"field\": \"amount\", \"function\": \"SUM\", \"alias\": \"total\"}], \"groupBy\": [\"status\"]}", "loans"));
+        assertThat(planner.plan(config())).isEmpty();
+
+        rules.clear();
+        rules.add(rule("median", "AGGREGATOR", "{\"field\": \"amount\", \"function\": \"QUANTILE_APPROX\"}", "loans"));
+        assertThat(planner.plan(config())).isEmpty();
+    }
+
+    @Test
+    void datasourceReferencedOutsideItsAggregatorsIsNotPushedDown() throws Exception {
+        rules.add(rule("loanTotals", "AGGREGATOR", TOTALS, "loans"));
+
+        mappings.add(mapping("loanRows", "loans", null));
+        assertThat(planner.plan(config())).isEmpty();
+
+        mappings.clear();
+        mappings.add(mapping("firstLoan", "loanTotals", "#context['loans'][0]"));
+        assertThat(planner.plan(config())).isEmpty();
+
+        mappings.clear();
+        dataSources.add(dataSource("collateral", "list_map", "{\"loanIds\": \"#context['loans']\"}"));
+        assertThat(planner.plan(config())).isEmpty();
+    }
+
+    @Test
+    void referencesAreMatchedAsWholeWords() throws Exception {
+        rules.add(rule("loanTotals", "AGGREGATOR", TOTALS, "loans"));
+        mappings.add(mapping("overdue", "loanTotals", "#context['overdueloans_count']"));
+        dataSources.add(dataSource("collateral", "list_map", "{\"ids\": \"#context['loansExtra']\"}"));
+
+        assertThat(planner.plan(config())).containsOnlyKeys("loans");
+    }
+
+    @Test
+    void singleMapDatasourcesAndDisabledPlannerAreNotPushedDown() throws Exception {
+        dataSources.clear();
+        dataSources.add(dataSource("loans", "single_map", "{}"));
+        rules.add(rule("loanTotals", "AGGREGATOR", TOTALS, "loans"));
+        assertThat(planner.plan(config())).isEmpty();
+
+        dataSources.clear();
+        dataSources.add(dataSource("loans", "list_map", "{}"));
+        ReflectionTestUtils.setField(planner, "enabled", false);
+        assertThat(planner.plan(config())).isEmpty();
+    }
+
+    private ReportConfigurationDto config() {
+        ReportConfigurationDto config = new ReportConfigurationDto();
+        config.setDataSources(dataSources);
+        config.setTransformationRules(rules);
+        config.setTemplateMappings(mappings);
+        return config;
+    }
+
+    private ReportDataSource dataSource(String alias, String resultStructure, String paramMapping) {
+        ReportDataSource dataSource = new ReportDataSource();
+        dataSource.setDatasourceAlias(alias);
+        dataSource.setQueryType("mybatis");
+        dataSource.setQueryRef("LoanMapper." + alias);
+        dataSource.setResultStructure(resultStructure);
+        dataSource.setDatasourceContext("risk");
+        dataSource.setExecutionOrder(dataSources.size());
+        try {
+            dataSource.setParamMapping(objectMapper.readTree(paramMapping));
+        } catch (Exception e) {
+            throw new IllegalArgumentException(e);
+        }
+        return dataSource;
+    }
+
+    private ReportTransformationRule rule(String alias, String transformerType, String config, String... inputRefs) throws Exception {
+        ReportTransformationRule rule = new ReportTransformationRule();
+        rule.setRuleAlias(alias);
+        rule.setTransformerType(transformerType);
+        rule.setInputRefs(Arrays.asList(inputRefs));
+        rule.setConfig(objectMapper.readTree(config));
+        rule.setOutputVariableName(alias);
+        rule.setDependencyRefs(Collections.emptyList());
+        return rule;
+    }
+
+    private static ReportTemplateMapping mapping(String templateTag, String dataSourceRef, String dataExpression) {
+        ReportTemplateMapping mapping = new ReportTemplateMapping();
+        mapping.setTemplateTag(templateTag);
+        mapping.setDataSourceRef(dataSourceRef);
+        mapping.setDataExpression(dataExpression);
+        return mapping;
+    }
+}
@@ -0,0 +1,111 @@
+package org.makotogu.metaReportEngine.core.service;
+
+import org.junit.jupiter.api.Test;
+import org.makotogu.metaReportEngine.shard.exception.MemoryBudgetExceededException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ContextRetentionTrackerTest {
+
+    private final MemoryBudgetManager manager = new MemoryBudgetManager(true, 100, 60, 0, 1, 100);
+
+    @Test
+    void releasedEntriesBecomeTombstonesAndStopCounting() {
+        try (MemoryBudgetManager.Lease lease = manager.admit("release", null)) {
+            LazyContextMap context = new LazyContextMap();
+            ContextRetentionTracker tracker = new ContextRetentionTracker(context, true, lease);
+            List<String> loans = rows(1000);
+            List<String> customers = rows(500);
+            retain(tracker, context, "loans", loans);
+            retain(tracker, context, "sameLoans", loans); // 同一个对象只计一次
+            retain(tracker, context, "customers", customers);
+            long peak = tracker.getRetainedBytes();
+
+            tracker.release(Collections.singletonList("loans"));
+            assertThat(tracker.getRetainedBytes()).isEqualTo(peak); // 仍被 sameLoans 引用
+            tracker.release(Arrays.asList("sameLoans", "customers", "missing"));
+
+            assertThat(tracker.getRetainedBytes()).isZero();
+            assertThat(lease.getUsedBytes()).isZero();
+            assertThat(tracker.getPeakBytes()).isEqualTo(peak);
+            assertThat(tracker.getPeakStage()).isEqualTo("datasource 'customers'");
+            assertThat(tracker.summary()).contains("released 3 entries");
+            assertThat(context.isReleased("loans")).isTrue();
+            assertThat(context.containsKey("missing")).isFalse();
+            assertThatThrownBy(() -> context.get("customers"))
+                    .isInstanceOf(IllegalStateException.class)
+                    .hasMessageContaining("released after its last planned consumer");
+        }
+    }
+
+    @Test
+    void estimatesWithoutReleasingWhenLivenessIsDisabled() {
+        try (MemoryBudgetManager.Lease lease = manager.admit("keep", null)) {
+            LazyContextMap context = new LazyContextMap();
+            ContextRetentionTracker tracker = new ContextRetentionTracker(context, false, lease);
+            retain(tracker, context, "loans", rows(100));
+
+            tracker.release(Collections.singletonList("loans"));
+            assertThat(context.isReleased("loans")).isFalse();
+            assertThat(context.get("loans")).isNotNull();
+            assertThat(tracker.getRetainedBytes()).isPositive();
+        }
+    }
+
+    @Test
+    void lazyValuesAreCountedWhenEvaluated() {
+        try (MemoryBudgetManager.Lease lease = manager.admit("lazy", null)) {
+            LazyContextMap context = new LazyContextMap();
+            ContextRetentionTracker tracker = new ContextRetentionTracker(context, false, lease);
+            context.onEvaluated((name, value) -> tracker.retain(name, value, "lazy '" + name + "'"));
+            AtomicInteger queries = new AtomicInteger();
+            context.putLazy("rows", () -> {
+                queries.incrementAndGet();
+                return rows(1000);
+            });
+
+            assertThat(lease.getUsedBytes()).isZero();
+            context.get("rows");
+            long counted = lease.getUsedBytes();
+            assertThat(counted).isPositive();
+            assertThat(tracker.getPeakStage()).isEqualTo("lazy 'rows'");
+
+            context.get("rows");
+            assertThat(queries).hasValue(1);
+            assertThat(lease.getUsedBytes()).isEqualTo(counted);
+        }
+    }
+
+    @Test
+    void lazyValueOverBudgetFailsEveryRead() {
+        try (MemoryBudgetManager.Lease lease = manager.admit("small", 1)) {
+            LazyContextMap context = new LazyContextMap();
+            ContextRetentionTracker tracker = new ContextRetentionTracker(context, false, lease);
+            context.onEvaluated((name, value) -> tracker.retain(name, value, "lazy '" + name + "'"));
+            context.putLazy("rows", () -> rows(50_000));
+
+            assertThatThrownBy(() -> context.get("rows")).isInstanceOf(MemoryBudgetExceededException.class);
+            assertThatThrownBy(() -> context.get("rows")).isInstanceOf(MemoryBudgetExceededException.class);
+        }
+    }
+
+    private static void retain(ContextRetentionTracker tracker, LazyContextMap context, String name, Object value) {
+        context.put(name, value);
+        tracker.retain(name, value, "datasource '" + name + "'");
+    }
+
+    static List<String> rows(int count) {
+        List<String> rows = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            rows.add("row-" + i);
+        }
+        return rows;
+    }
+}
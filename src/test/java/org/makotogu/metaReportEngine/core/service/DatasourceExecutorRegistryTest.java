@@ -0,0 +1,133 @@
+package org.makotogu.metaReportEngine.core.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.Test;
+import org.makotogu.metaReportEngine.config.BusinessDataSourceProperties;
+import org.makotogu.metaReportEngine.config.BusinessDataSourceRegistrar;
+import org.makotogu.metaReportEngine.datasource.routing.BusinessSqlSessionTemplateRouter;
+import org.makotogu.metaReportEngine.datasource.spi.DatasourceExecutor;
+import org.makotogu.metaReportEngine.datasource.support.QueryParamResolver;
+import org.makotogu.metaReportEngine.datasource.support.ReferenceSnapshotStore;
+import org.makotogu.metaReportEngine.datasource.support.ResultSizeLimiter;
+import org.makotogu.metaReportEngine.metadata.dto.ReportConfigurationDto;
+import org.makotogu.metaReportEngine.metadata.entity.ReportDataSource;
+import org.makotogu.metaReportEngine.shard.util.SpelEvaluator;
+import org.mybatis.spring.SqlSessionTemplate;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DatasourceExecutorRegistryTest {
+
+    private final List<Map<String, Object>> executedParams = new CopyOnWriteArrayList<>();
+    private final AtomicInteger contextReadsDuringQuery = new AtomicInteger();
+    private volatile boolean querying;
+
+    @Test
+    void paramsAreResolvedOnceBeforeTheQueryRuns() {
+        DatasourceExecutorRegistry registry = registry(2);
+        Map<String, Object> executionContext = new HashMap<String, Object>() {
+            @Override
+            public Object get(Object key) {
+                if (querying) {
+                    contextReadsDuringQuery.incrementAndGet();
+                }
+                return super.get(key);
+            }
+        };
+        executionContext.put("customerId", 42);
+
+        Object result = registry.execute(datasource("loans", "{\"id\": \"#context['customerId']\"}"), executionContext);
+
+        assertThat(result).isEqualTo("loans");
+        assertThat(executedParams).singleElement().satisfies(params -> assertThat(params).containsEntry("id", 42));
+        assertThat(contextReadsDuringQuery).hasValue(0); // 查询 (以及可能的对冲尝试) 不读取执行上下文
+    }
+
+    @Test
+    void lazyDependencyInParamMappingRunsBeforeTheOuterQueryTakesAPermit() {
+        DatasourceExecutorRegistry registry = registry(1); // 舱壁只有一个名额
+        LazyContextMap executionContext = new LazyContextMap();
+        executionContext.putLazy("customer", () -> registry.execute(datasource("customer", "{}"), executionContext));
+
+        Object result = registry.execute(datasource("loans", "{\"customer\": \"#context['customer']\"}"), executionContext);
+
+        assertThat(result).isEqualTo("loans");
+        assertThat(executedParams).hasSize(2);
+        assertThat(executedParams.get(1)).containsEntry("customer", "customer");
+    }
+
+    private DatasourceExecutorRegistry registry(int maxConcurrentCalls) {
+        DatasourceExecutorRegistry registry = new DatasourceExecutorRegistry(Collections.singletonList(new StubExecutor()),
+                router(maxConcurrentCalls), new ReferenceSnapshotStore(), new QueryParamResolver(new SpelEvaluator()));
+        registry.initializeExecutorMap();
+        return registry;
+    }
+
+    private static ReportConfigurationDto.DataSourceConfig datasource(String alias, String paramMapping) {
+        ReportDataSource dataSource = new ReportDataSource();
+        dataSource.setDatasourceAlias(alias);
+        dataSource.setQueryType("stub");
+        dataSource.setQueryRef(alias);
+        dataSource.setResultStructure("scalar");
+        dataSource.setDatasourceContext("risk");
+        dataSource.setExecutionOrder(1);
+        try {
+            dataSource.setParamMapping(new ObjectMapper().readTree(paramMapping));
+        } catch (Exception e) {
+            throw new IllegalArgumentException(e);
+        }
+        return new ReportConfigurationDto.DataSourceConfig(dataSource);
+    }
+
+    private static BusinessSqlSessionTemplateRouter router(int maxConcurrentCalls) {
+        BusinessDataSourceProperties.ContextProperties context = new BusinessDataSourceProperties.ContextProperties();
+        context.getBulkhead().setMaxConcurrentCalls(maxConcurrentCalls);
+        context.getBulkhead().setMaxWaitMs(200);
+        BusinessDataSourceProperties properties = new BusinessDataSourceProperties();
+        properties.getContexts().put("risk", context);
+        Configuration configuration = new Configuration(new Environment("risk", new JdbcTransactionFactory(), new JdbcDataSource()));
+        SqlSessionTemplate template = new SqlSessionTemplate(new SqlSessionFactoryBuilder().build(configuration));
+        return new BusinessSqlSessionTemplateRouter(
+                Collections.singletonMap("risk" + BusinessDataSourceRegistrar.SQL_SESSION_TEMPLATE_SUFFIX, template), properties);
+    }
+
+    /**
+     * 记录收到的参数并返回数据源别名。
+     */
+    private class StubExecutor implements DatasourceExecutor {
+
+        @Override
+        public String getQueryType() {
+            return "stub";
+        }
+
+        @Override
+        public Object execute(ReportConfigurationDto.DataSourceConfig datasourceConfig, Map<String, Object> executionContext) {
+            throw new AssertionError("queries must run with resolved params");
+        }
+
+        @Override
+        public Object execute(ReportConfigurationDto.DataSourceConfig datasourceConfig, Map<String, Object> queryParams,
+                              ResultSizeLimiter.GenerationBudget budget) {
+            querying = true;
+            try {
+                executedParams.add(queryParams);
+                return datasourceConfig.getDatasourceAlias();
+            } finally {
+                querying = false;
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package org.makotogu.metaReportEngine.core.service;
+
+import org.junit.jupiter.api.Test;
+import org.makotogu.metaReportEngine.rendering.export.OutputFormat;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GeneratedReportTest {
+
+    @Test
+    void closeRunsHooksOnceInOrderEvenIfOneFails() {
+        List<String> calls = new ArrayList<>();
+        GeneratedReport report = GeneratedReport.streaming("r", OutputFormat.CSV, out -> out.write('x'))
+                .onClose(() -> calls.add("first"))
+                .onClose(() -> {
+                    throw new IllegalStateException("boom");
+                })
+                .onClose(() -> calls.add("third"));
+
+        report.close();
+        report.close();
+
+        assertThat(calls).containsExactly("first", "third");
+    }
+
+    @Test
+    void hooksRunWhenClosedAfterWriting() throws Exception {
+        List<String> calls = new ArrayList<>();
+        try (GeneratedReport report = GeneratedReport.rendered("r", OutputFormat.DOCX, "doc".getBytes(StandardCharsets.UTF_8))
+                .onClose(() -> calls.add("released"))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            report.writeTo(out);
+            assertThat(out.toString("UTF-8")).isEqualTo("doc");
+            assertThat(calls).isEmpty();
+        }
+        assertThat(calls).containsExactly("released");
+    }
+}
@@ -0,0 +1,145 @@
+package org.makotogu.metaReportEngine.core.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class LazyContextMapTest {
+
+    @Test
+    void evaluatesOnFirstReadOnly() {
+        LazyContextMap context = new LazyContextMap(Collections.singletonMap("reportId", "r1"));
+        AtomicInteger evaluations = new AtomicInteger();
+        context.putLazy("loans", () -> {
+            evaluations.incrementAndGet();
+            return Collections.singletonList("loan");
+        });
+
+        assertThat(context.containsKey("loans")).isTrue();
+        assertThat(context.keySet()).containsExactly("reportId", "loans");
+        assertThat(context).hasSize(2);
+        assertThat(context.isEvaluated("loans")).isFalse();
+        assertThat(evaluations).hasValue(0);
+
+        Object first = context.get("loans");
+        assertThat(context.get("loans")).isSameAs(first);
+        assertThat(context.isEvaluated("loans")).isTrue();
+        assertThat(evaluations).hasValue(1);
+    }
+
+    @Test
+    void cachesFailuresInsteadOfRetrying() {
+        LazyContextMap context = new LazyContextMap();
+        AtomicInteger evaluations = new AtomicInteger();
+        IllegalStateException failure = new IllegalStateException("query failed");
+        context.putLazy("loans", () -> {
+            evaluations.incrementAndGet();
+            throw failure;
+        });
+
+        assertThatThrownBy(() -> context.get("loans")).isSameAs(failure);
+        assertThatThrownBy(() -> context.get("loans")).isSameAs(failure);
+        assertThat(evaluations).hasValue(1);
+    }
+
+    @Test
+    void entryIterationEvaluatesOnlyTheEntriesThatAreRead() {
+        LazyContextMap context = new LazyContextMap();
+        AtomicInteger evaluations = new AtomicInteger();
+        context.putLazy("a", () -> "A" + evaluations.incrementAndGet());
+        context.putLazy("b", () -> "B" + evaluations.incrementAndGet());
+
+        List<String> keys = new ArrayList<>();
+        for (Map.Entry<String, Object> entry : context.entrySet()) {
+            keys.add(entry.getKey());
+        }
+        assertThat(keys).containsExactly("a", "b");
+        assertThat(evaluations).hasValue(0);
+
+        Map.Entry<String, Object> second = null;
+        for (Map.Entry<String, Object> entry : context.entrySet()) {
+            second = entry;
+        }
+        assertThat(second.getValue()).isEqualTo("B1");
+        assertThat(context.isEvaluated("a")).isFalse();
+    }
+
+    @Test
+    void putReplacesLazyValueWithoutEvaluatingIt() {
+        LazyContextMap context = new LazyContextMap();
+        context.putLazy("total", () -> {
+            throw new AssertionError("must not be evaluated");
+        });
+
+        assertThat(context.put("total", 10)).isNull();
+        assertThat(context.get("total")).isEqualTo(10);
+        assertThat(context.remove("total")).isEqualTo(10);
+        assertThat(context.containsKey("total")).isFalse();
+    }
+
+    @Test
+    void concurrentReadersShareOneEvaluation() throws Exception {
+        LazyContextMap context = new LazyContextMap();
+        AtomicInteger evaluations = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        context.putLazy("slow", () -> {
+            evaluations.incrementAndGet();
+            started.countDown();
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return new Object();
+        });
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Object>> reads = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                reads.add(pool.submit(() -> context.get("slow")));
+            }
+            assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+            Object value = reads.get(0).get(5, TimeUnit.SECONDS);
+            for (Future<Object> read : reads) {
+                assertThat(read.get(5, TimeUnit.SECONDS)).isSameAs(value);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertThat(evaluations).hasValue(1);
+    }
+
+    @Test
+    void releaseLeavesTombstoneWithoutEvaluatingPendingValues() {
+        LazyContextMap context = new LazyContextMap();
+        context.put("loans", "rows");
+        context.putLazy("pending", () -> {
+            throw new AssertionError("must not be evaluated");
+        });
+
+        assertThat(context.release("loans")).isEqualTo("rows");
+        assertThat(context.release("pending")).isNull();
+        assertThat(context.release("missing")).isNull();
+
+        assertThat(context.isReleased("loans")).isTrue();
+        assertThat(context.isReleased("pending")).isTrue();
+        assertThat(context.containsKey("loans")).isTrue();
+        assertThat(context.containsKey("missing")).isFalse();
+        assertThatThrownBy(() -> context.get("loans")).isInstanceOf(IllegalStateException.class).hasMessageContaining("'loans'");
+        assertThat(context.put("loans", "again")).isNull(); // 墓碑可以被新值替换
+        assertThat(context.get("loans")).isEqualTo("again");
+    }
+}
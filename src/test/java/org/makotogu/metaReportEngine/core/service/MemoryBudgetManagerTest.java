@@ -0,0 +1,91 @@
+package org.makotogu.metaReportEngine.core.service;
+
+import org.junit.jupiter.api.Test;
+import org.makotogu.metaReportEngine.shard.exception.MemoryAdmissionRejectedException;
+import org.makotogu.metaReportEngine.shard.exception.MemoryBudgetExceededException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MemoryBudgetManagerTest {
+
+    private static final long MB = 1024L * 1024L;
+
+    @Test
+    void queuesUntilAnotherGenerationReturnsItsBudget() throws Exception {
+        MemoryBudgetManager manager = new MemoryBudgetManager(true, 10, 60, 0, 8, 5000);
+        MemoryBudgetManager.Lease first = manager.admit("a", null);
+
+        CompletableFuture<MemoryBudgetManager.Lease> second = CompletableFuture.supplyAsync(() -> manager.admit("b", null));
+        awaitMetric(manager, "waiting", 1);
+        assertThat(second).isNotDone();
+
+        first.close();
+        MemoryBudgetManager.Lease admitted = second.get(5, TimeUnit.SECONDS);
+        assertThat(manager.getMetrics()).containsEntry("queued", 1L).containsEntry("active", 1).containsEntry("reservedBytes", 8 * MB);
+        admitted.close();
+        assertThat(manager.getMetrics()).containsEntry("active", 0).containsEntry("reservedBytes", 0L);
+    }
+
+    @Test
+    void rejectsWhenTheQueueWaitTimesOut() {
+        MemoryBudgetManager manager = new MemoryBudgetManager(true, 10, 60, 0, 8, 100);
+        try (MemoryBudgetManager.Lease ignored = manager.admit("a", null)) {
+            assertThatThrownBy(() -> manager.admit("b", null)).isInstanceOf(MemoryAdmissionRejectedException.class);
+        }
+        assertThat(manager.getMetrics()).containsEntry("rejected", 1L).containsEntry("waiting", 0);
+    }
+
+    @Test
+    void alwaysAdmitsWhenNothingElseIsRunning() {
+        MemoryBudgetManager manager = new MemoryBudgetManager(true, 1, 60, 0, 8, 100);
+        try (MemoryBudgetManager.Lease lease = manager.admit("a", null)) {
+            assertThat(manager.getMetrics()).containsEntry("active", 1).containsEntry("queued", 0L);
+        }
+    }
+
+    @Test
+    void failsGenerationThatExceedsItsBudget() {
+        MemoryBudgetManager manager = new MemoryBudgetManager(true, 100, 60, 4, 1, 100);
+        try (MemoryBudgetManager.Lease lease = manager.admit("a", null)) {
+            lease.charge(MemoryBudgetManager.CONTEXT, 3 * MB);
+            assertThatThrownBy(() -> lease.charge(MemoryBudgetManager.RENDER, 2 * MB))
+                    .isInstanceOf(MemoryBudgetExceededException.class)
+                    .hasMessageContaining("context").hasMessageContaining("render");
+        }
+        // 报告级预算覆盖全局的单次生成预算
+        try (MemoryBudgetManager.Lease lease = manager.admit("b", 8)) {
+            lease.charge(MemoryBudgetManager.CONTEXT, 6 * MB);
+        }
+        assertThat(manager.getMetrics()).containsEntry("exceeded", 1L);
+    }
+
+    @Test
+    void growthIsHeldUntilCloseAndPeakBecomesNextReservation() {
+        MemoryBudgetManager manager = new MemoryBudgetManager(true, 100, 60, 0, 2, 100);
+        MemoryBudgetManager.Lease lease = manager.admit("a", null);
+        assertThat(manager.getMetrics()).containsEntry("reservedBytes", 2 * MB);
+
+        lease.charge(MemoryBudgetManager.CONTEXT, 5 * MB);
+        lease.charge(MemoryBudgetManager.CONTEXT, MB); // 释放后回落到预留
+        assertThat(manager.getMetrics()).containsEntry("reservedBytes", 2 * MB).containsEntry("maxReservedBytes", 5 * MB);
+        lease.close();
+        lease.close();
+        assertThat(manager.getMetrics()).containsEntry("reservedBytes", 0L).containsEntry("active", 0);
+
+        try (MemoryBudgetManager.Lease next = manager.admit("a", null)) {
+            assertThat(manager.getMetrics()).containsEntry("reservedBytes", 5 * MB);
+        }
+    }
+
+    private static void awaitMetric(MemoryBudgetManager manager, String name, Object expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!expected.equals(manager.getMetrics().get(name))) {
+            assertThat(System.currentTimeMillis()).as(name + " did not reach " + expected).isLessThan(deadline);
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package org.makotogu.metaReportEngine.core.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.makotogu.metaReportEngine.metadata.dto.ReportConfigurationDto;
+import org.makotogu.metaReportEngine.metadata.entity.ReportDataSource;
+import org.makotogu.metaReportEngine.metadata.entity.ReportDefinition;
+import org.makotogu.metaReportEngine.metadata.entity.ReportTemplateMapping;
+import org.makotogu.metaReportEngine.metadata.entity.ReportTransformationRule;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RenderKeyPlannerTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private final RenderKeyPlanner planner = planner();
+
+    @Test
+    void releasesEachEntryAfterItsLastConsumer() {
+        RenderKeyPlanner.RenderKeyPlan plan = planner.plan(config(), null, null);
+
+        assertThat(plan.isDatasourceSkipped("unused")).isTrue(); // 不为任何映射提供数据
+        assertThat(plan.getReleaseAfterDatasources()).containsExactly("period"); // 只被数据源参数引用
+        assertThat(plan.releasesAfterRule("summaryRule")).containsExactly("loans");
+        assertThat(plan.releasesAfterRule("tableRule")).containsExactly("customers");
+        assertThat(plan.getReleaseAfterMappings()).containsExactlyInAnyOrder("summary", "table");
+    }
+
+    @Test
+    void prunedMappingMovesReleaseToTheLastRemainingConsumer() {
+        RenderKeyPlanner.RenderKeyPlan plan = planner.plan(config(), "hash", new HashSet<>(Collections.singletonList("table")));
+
+        assertThat(plan.getMissingTags()).containsExactly("{{total}}");
+        assertThat(plan.isRuleSkipped("summaryRule")).isFalse(); // tableRule 的 config 引用了 summary
+        assertThat(plan.releasesAfterRule("tableRule")).containsExactlyInAnyOrder("customers", "summary");
+        assertThat(plan.getReleaseAfterMappings()).containsExactly("table");
+    }
+
+    private static RenderKeyPlanner planner() {
+        RenderKeyPlanner planner = new RenderKeyPlanner();
+        ReflectionTestUtils.setField(planner, "enabled", true);
+        return planner;
+    }
+
+    private static ReportConfigurationDto config() {
+        ReportDefinition definition = new ReportDefinition();
+        definition.setReportId("liveness");
+        definition.setTemplatePath("liveness.docx");
+        ReportConfigurationDto config = new ReportConfigurationDto();
+        config.setDefinition(definition);
+        config.setDataSources(Arrays.asList(dataSource("period", "{}"), dataSource("loans", "{}"),
+                dataSource("customers", "{\"asOf\": \"#context['period']\"}"), dataSource("unused", "{}")));
+        config.setTransformationRules(Arrays.asList(
+                rule("summaryRule", Collections.singletonList("loans"), "{}", "summary"),
+                rule("tableRule", Collections.singletonList("customers"), "{\"lookup\": \"#context['summary']\"}", "table")));
+        config.setTemplateMappings(Arrays.asList(mapping("{{#table}}", "table"), mapping("{{total}}", "summary")));
+        return config;
+    }
+
+    private static ReportDataSource dataSource(String alias, String paramMapping) {
+        ReportDataSource dataSource = new ReportDataSource();
+        dataSource.setDatasourceAlias(alias);
+        dataSource.setQueryType("JDBC");
+        dataSource.setResultStructure("list_map");
+        dataSource.setParamMapping(json(paramMapping));
+        dataSource.setExecutionOrder(1);
+        return dataSource;
+    }
+
+    private static ReportTransformationRule rule(String alias, List<String> inputRefs, String config, String output) {
+        ReportTransformationRule rule = new ReportTransformationRule();
+        rule.setRuleAlias(alias);
+        rule.setTransformerType("AGGREGATOR");
+        rule.setInputRefs(inputRefs);
+        rule.setConfig(json(config));
+        rule.setOutputVariableName(output);
+        return rule;
+    }
+
+    private static JsonNode json(String json) {
+        try {
+            return MAPPER.readTree(json);
+        } catch (Exception e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private static ReportTemplateMapping mapping(String tag, String ref) {
+        ReportTemplateMapping mapping = new ReportTemplateMapping();
+        mapping.setTemplateTag(tag);
+        mapping.setDataSourceRef(ref);
+        return mapping;
+    }
+}
@@ -0,0 +1,199 @@
+package org.makotogu.metaReportEngine.datasource.impl;
+
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.Result;
+import org.apache.ibatis.annotations.Results;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.annotations.Update;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.makotogu.metaReportEngine.config.BusinessDataSourceProperties;
+import org.makotogu.metaReportEngine.config.BusinessDataSourceRegistrar;
+import org.makotogu.metaReportEngine.datasource.routing.BusinessSqlSessionTemplateRouter;
+import org.makotogu.metaReportEngine.datasource.spi.AggregateColumn;
+import org.makotogu.metaReportEngine.metadata.dto.ReportConfigurationDto;
+import org.makotogu.metaReportEngine.metadata.entity.ReportDataSource;
+import org.makotogu.metaReportEngine.shard.exception.DatasourceExecutionException;
+import org.mybatis.spring.SqlSessionTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MybatisDatasourceExecutorAggregateTest {
+
+    private static final String MAPPER = LoanMapper.class.getName();
+
+    private static final List<AggregateColumn> TOTALS = Arrays.asList(
+            new AggregateColumn("SUM", "amount", "sum_amount"),
+            new AggregateColumn("COUNT", "amount", "count_amount"),
+            new AggregateColumn("COUNT", null, "count"),
+            new AggregateColumn("MIN", "amount", "min_amount"),
+            new AggregateColumn("COUNT_DISTINCT", "status", "count_distinct_status"));
+
+    private JdbcDataSource dataSource;
+    private MybatisDatasourceExecutor executor;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:aggregate" + System.nanoTime() + ";DB_CLOSE_DELAY=-1");
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE loan (id INT PRIMARY KEY, customer_id INT, loan_amount DECIMAL(12, 2), status VARCHAR(16))");
+            statement.execute("INSERT INTO loan VALUES (1, 7, 100.00, 'OPEN'), (2, 7, 250.50, 'OPEN'), (3, 7, NULL, 'CLOSED'),"
+                    + " (4, 8, 999.00, 'OPEN')");
+        }
+        Configuration configuration = new Configuration(new Environment("test", new JdbcTransactionFactory(), dataSource));
+        configuration.setMapUnderscoreToCamelCase(true);
+        configuration.addMapper(LoanMapper.class);
+        SqlSessionTemplate template = new SqlSessionTemplate(new SqlSessionFactoryBuilder().build(configuration));
+
+        BusinessDataSourceProperties properties = new BusinessDataSourceProperties();
+        properties.getContexts().put("risk", new BusinessDataSourceProperties.ContextProperties());
+        BusinessSqlSessionTemplateRouter router = new BusinessSqlSessionTemplateRouter(
+                Collections.singletonMap("risk" + BusinessDataSourceRegistrar.SQL_SESSION_TEMPLATE_SUFFIX, template), properties);
+        // 聚合查询只用到路由器
+        executor = new MybatisDatasourceExecutor(router, null, null, null);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("SHUTDOWN");
+        }
+    }
+
+    @Test
+    void aggregateSqlWrapsTheOriginalStatement() {
+        String sql = ReflectionTestUtils.invokeMethod(executor, "buildAggregateSql", "SELECT * FROM loan WHERE customer_id = ? ;;",
+                TOTALS, Arrays.asList("\"amount\"", "\"amount\"", null, "\"amount\"", "status"));
+
+        assertThat(sql).isEqualTo("SELECT SUM(\"amount\") AS m0, COUNT(\"amount\") AS m1, COUNT(*) AS m2, MIN(\"amount\") AS m3,"
+                + " COUNT(DISTINCT status) AS m4 FROM (SELECT * FROM loan WHERE customer_id = ?) mre_agg");
+    }
+
+    @Test
+    void mapResultStatementIsAggregatedByQuotedColumnLabels() {
+        Map<String, Object> row = executor.executeAggregate(datasource("mapLoans"), params(7), TOTALS);
+
+        assertThat(row).containsOnlyKeys("sum_amount", "count_amount", "count", "min_amount", "count_distinct_status");
+        assertThat((BigDecimal) row.get("sum_amount")).isEqualByComparingTo("350.50");
+        assertThat(((Number) row.get("count_amount")).longValue()).isEqualTo(2); // NULL 不计入
+        assertThat(((Number) row.get("count")).longValue()).isEqualTo(3);
+        assertThat((BigDecimal) row.get("min_amount")).isEqualByComparingTo("100.00");
+        assertThat(((Number) row.get("count_distinct_status")).longValue()).isEqualTo(2);
+    }
+
+    @Test
+    void resultMapAndCamelCaseFieldsResolveToTheirColumns() {
+        // resultMap 显式映射: amount → loan_amount
+        Map<String, Object> mapped = executor.executeAggregate(datasource("mappedLoans"), params(7),
+                Collections.singletonList(new AggregateColumn("MAX", "amount", "max_amount")));
+        assertThat((BigDecimal) mapped.get("max_amount")).isEqualByComparingTo("250.50");
+
+        // 非 Map 结果类型 + mapUnderscoreToCamelCase: loanAmount → loan_amount
+        Map<String, Object> camelCase = executor.executeAggregate(datasource("beanLoans"), params(8),
+                Collections.singletonList(new AggregateColumn("SUM", "loanAmount", "sum_loanAmount")));
+        assertThat((BigDecimal) camelCase.get("sum_loanAmount")).isEqualByComparingTo("999.00");
+    }
+
+    @Test
+    void declaredAggregateStatementTakesPrecedence() {
+        Map<String, Object> row = executor.executeAggregate(datasource("declaredLoans"), params(7), TOTALS);
+
+        assertThat(row).containsEntry("LABELS", "sum_amount,count_amount,count,min_amount,count_distinct_status");
+    }
+
+    @Test
+    void statementsThatCannotBeWrappedFallBackToTheNormalQuery() {
+        assertThat(executor.executeAggregate(datasource("missing"), params(7), TOTALS)).isNull();
+        assertThat(executor.executeAggregate(datasource("closeLoans"), params(7), TOTALS)).isNull(); // 非 SELECT
+        // resultMap 中映射为非简单标识符的列
+        assertThat(executor.executeAggregate(datasource("computedLoans"), params(7),
+                Collections.singletonList(new AggregateColumn("SUM", "amount", "sum_amount")))).isNull();
+    }
+
+    @Test
+    void failedPushDownIsNotRetriedUntilTheCacheExpires() {
+        List<AggregateColumn> columns = Collections.singletonList(new AggregateColumn("SUM", "unknown", "sum_unknown"));
+
+        assertThatThrownBy(() -> executor.executeAggregate(datasource("mapLoans"), params(7), columns))
+                .isInstanceOf(DatasourceExecutionException.class)
+                .hasMessageContaining(MAPPER + ".mapLoans");
+        // 同一语句与聚合列再次下推时直接回退
+        assertThat(executor.executeAggregate(datasource("mapLoans"), params(7), columns)).isNull();
+        // 其他聚合列不受影响
+        assertThat(executor.executeAggregate(datasource("mapLoans"), params(7), TOTALS)).containsKey("sum_amount");
+    }
+
+    private static Map<String, Object> params(int customerId) {
+        Map<String, Object> params = new HashMap<>();
+        params.put("customerId", customerId);
+        return params;
+    }
+
+    private static ReportConfigurationDto.DataSourceConfig datasource(String statement) {
+        ReportDataSource dataSource = new ReportDataSource();
+        dataSource.setDatasourceAlias("loans");
+        dataSource.setQueryType("mybatis");
+        dataSource.setQueryRef(MAPPER + "." + statement);
+        dataSource.setResultStructure("list_map");
+        dataSource.setDatasourceContext("risk");
+        dataSource.setExecutionOrder(0);
+        return new ReportConfigurationDto.DataSourceConfig(dataSource);
+    }
+
+    public static class Loan {
+        private BigDecimal loanAmount;
+
+        public BigDecimal getLoanAmount() {
+            return loanAmount;
+        }
+
+        public void setLoanAmount(BigDecimal loanAmount) {
+            this.loanAmount = loanAmount;
+        }
+    }
+
+    public interface LoanMapper {
+
+        @Select("SELECT id, loan_amount AS \"amount\", status AS \"status\" FROM loan WHERE customer_id = #{customerId};")
+        List<Map<String, Object>> mapLoans(@Param("customerId") int customerId);
+
+        @Select("SELECT id, loan_amount FROM loan WHERE customer_id = #{customerId}")
+        @Results({@Result(property = "amount", column = "loan_amount")})
+        List<Map<String, Object>> mappedLoans(@Param("customerId") int customerId);
+
+        @Select("SELECT id, loan_amount FROM loan WHERE customer_id = #{customerId}")
+        List<Loan> beanLoans(@Param("customerId") int customerId);
+
+        @Select("SELECT id, loan_amount * 2 FROM loan WHERE customer_id = #{customerId}")
+        @Results({@Result(property = "amount", column = "loan_amount * 2")})
+        List<Map<String, Object>> computedLoans(@Param("customerId") int customerId);
+
+        @Select("SELECT id FROM loan WHERE customer_id = #{customerId}")
+        List<Map<String, Object>> declaredLoans(@Param("customerId") int customerId);
+
+        @Select("<script>SELECT <foreach collection='aggregates' item='a' separator=\" || ',' || \">'${a.label}'</foreach> AS labels"
+                + " FROM loan WHERE customer_id = #{customerId} LIMIT 1</script>")
+        Map<String, Object> declaredLoansAggregate(Map<String, Object> params);
+
+        @Update("UPDATE loan SET status = 'CLOSED' WHERE customer_id = #{customerId}")
+        int closeLoans(@Param("customerId") int customerId);
+    }
+}
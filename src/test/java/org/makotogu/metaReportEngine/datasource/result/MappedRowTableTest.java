@@ -0,0 +1,102 @@
+package org.makotogu.metaReportEngine.datasource.result;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MappedRowTableTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void roundTripsSupportedValueTypes() throws Exception {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("string", "中文 text");
+        row.put("int", 42);
+        row.put("long", Long.MAX_VALUE);
+        row.put("short", (short) 7);
+        row.put("double", 1.5d);
+        row.put("float", 2.5f);
+        row.put("decimal", new BigDecimal("-12345678901234567890.125"));
+        row.put("boolean", true);
+        row.put("timestamp", Timestamp.valueOf("2024-05-06 07:08:09.123"));
+        row.put("sqlDate", java.sql.Date.valueOf("2024-05-06"));
+        row.put("date", new java.util.Date(1_700_000_000_000L));
+        row.put("localDate", LocalDate.of(2024, 2, 29));
+        row.put("localDateTime", LocalDateTime.of(2024, 2, 29, 23, 59, 58));
+        row.put("null", null);
+        Path file = directory.resolve("types.rows");
+
+        MappedRowTable.write(Collections.singletonList(row), file, 123L);
+        MappedRowTable table = MappedRowTable.open(file, null);
+
+        assertThat(table).hasSize(1);
+        assertThat(table.getCreatedAt()).isEqualTo(123L);
+        assertThat(table.getColumns()).containsExactlyElementsOf(row.keySet());
+        assertThat(table.get(0)).isEqualTo(row);
+        assertThat(table.get(0).get("decimal")).isEqualTo(new BigDecimal("-12345678901234567890.125"));
+    }
+
+    @Test
+    void columnsAddedByLaterRowsAreNullForEarlierRows() throws Exception {
+        Path file = directory.resolve("columns.rows");
+        MappedRowTable.write(Arrays.asList(row("id", 1), row("id", 2, "extra", "x")), file, 0L);
+        MappedRowTable table = MappedRowTable.open(file, "id");
+
+        assertThat(table.getColumns()).containsExactly("id", "extra");
+        assertThat(table.get(0).get("extra")).isNull();
+        assertThat(table.get(0).containsKey("extra")).isTrue();
+        assertThat(table.lookupValue(2, "extra")).isEqualTo("x");
+        assertThat(table.lookup(new BigDecimal("1.0")).get("id")).isEqualTo(1); // 数字 key 按数值比较
+        assertThat(table.lookup(3)).isNull();
+    }
+
+    @Test
+    void writableTableKeepsWrittenValuesOnHeapAndReadOnlyTableRejectsThem() throws Exception {
+        Path file = directory.resolve("writable.rows");
+        MappedRowTable.write(Arrays.asList(row("id", 1), row("id", 2)), file, 0L);
+
+        MappedRowTable writable = MappedRowTable.open(file, null, true);
+        long before = writable.estimateBytes();
+        writable.get(1).put("label", "second");
+        assertThat(writable.get(1)).containsEntry("label", "second").containsEntry("id", 2);
+        assertThat(writable.get(0).get("label")).isNull();
+        assertThat(writable.estimateBytes()).isGreaterThan(before);
+
+        MappedRowTable readOnly = MappedRowTable.open(file, null);
+        assertThatThrownBy(() -> readOnly.get(0).put("label", "x")).isInstanceOf(UnsupportedOperationException.class);
+        assertThatThrownBy(() -> readOnly.lookup(1)).isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void rejectsUnsupportedValuesAndUnknownKeyColumns() throws Exception {
+        Path file = directory.resolve("invalid.rows");
+        List<Map<String, Object>> rows = Collections.singletonList(row("id", new Object()));
+        assertThatThrownBy(() -> MappedRowTable.write(rows, file, 0L)).isInstanceOf(IllegalArgumentException.class);
+
+        MappedRowTable.write(Collections.singletonList(row("id", 1)), file, 0L);
+        assertThatThrownBy(() -> MappedRowTable.open(file, "missing")).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    static Map<String, Object> row(Object... keyValues) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            row.put((String) keyValues[i], keyValues[i + 1]);
+        }
+        return row;
+    }
+}
@@ -0,0 +1,88 @@
+package org.makotogu.metaReportEngine.datasource.routing;
+
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.Test;
+import org.makotogu.metaReportEngine.config.BusinessDataSourceProperties;
+import org.makotogu.metaReportEngine.config.BusinessDataSourceRegistrar;
+import org.makotogu.metaReportEngine.shard.exception.DatasourceExecutionException;
+import org.makotogu.metaReportEngine.shard.exception.DatasourceUnavailableException;
+import org.mybatis.spring.SqlSessionTemplate;
+
+import java.sql.SQLTransientConnectionException;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BusinessSqlSessionTemplateRouterTest {
+
+    @Test
+    void bulkheadRejectionInHalfOpenStateDoesNotLeakTrialPermit() throws Exception {
+        BusinessSqlSessionTemplateRouter router = router(1);
+        openAndWait(router);
+
+        // 舱壁名额被其他查询占用: 熔断器已放行的试探调用被舱壁拒绝，名额必须归还
+        ContextBulkhead bulkhead = router.route("risk").getBulkhead();
+        bulkhead.acquire();
+        try {
+            assertThatThrownBy(() -> router.execute("risk", () -> "rejected"))
+                    .isInstanceOf(DatasourceUnavailableException.class)
+                    .hasMessageContaining("Bulkhead full");
+        } finally {
+            bulkhead.release();
+        }
+        assertThat(router.execute("risk", () -> "trial")).isEqualTo("trial");
+        assertThat(router.route("risk").getCircuitBreaker().getState()).isEqualTo(ContextCircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void nonDatabaseErrorsAreNeitherFailuresNorTrialSuccesses() throws Exception {
+        BusinessSqlSessionTemplateRouter router = router(1);
+        ContextCircuitBreaker breaker = router.route("risk").getCircuitBreaker();
+        for (int i = 0; i < 4; i++) {
+            assertThatThrownBy(() -> router.execute("risk", () -> {
+                throw new DatasourceExecutionException("Result of datasource 'loans' exceeds 10 rows");
+            })).isInstanceOf(DatasourceExecutionException.class);
+        }
+        assertThat(breaker.getState()).isEqualTo(ContextCircuitBreaker.State.CLOSED);
+        assertThat(breaker.getMetrics()).containsEntry("bufferedCalls", 0);
+
+        openAndWait(router);
+        assertThatThrownBy(() -> router.execute("risk", () -> {
+            throw new DatasourceUnavailableException("replica unavailable");
+        })).isInstanceOf(DatasourceUnavailableException.class);
+        assertThat(breaker.getState()).isEqualTo(ContextCircuitBreaker.State.HALF_OPEN); // 不计为成功
+        assertThat(router.execute("risk", () -> "trial")).isEqualTo("trial");
+        assertThat(breaker.getState()).isEqualTo(ContextCircuitBreaker.State.CLOSED);
+    }
+
+    private static void openAndWait(BusinessSqlSessionTemplateRouter router) throws InterruptedException {
+        for (int i = 0; i < 2; i++) {
+            assertThatThrownBy(() -> router.execute("risk", () -> {
+                throw new DatasourceExecutionException("Failed to execute query: q", new SQLTransientConnectionException("connection refused"));
+            })).isInstanceOf(DatasourceExecutionException.class);
+        }
+        assertThat(router.route("risk").getCircuitBreaker().getState()).isEqualTo(ContextCircuitBreaker.State.OPEN);
+        Thread.sleep(30);
+    }
+
+    private static BusinessSqlSessionTemplateRouter router(int maxConcurrentCalls) {
+        BusinessDataSourceProperties.ContextProperties context = new BusinessDataSourceProperties.ContextProperties();
+        context.getBulkhead().setMaxConcurrentCalls(maxConcurrentCalls);
+        context.getBulkhead().setMaxWaitMs(0);
+        context.setCircuitBreaker(ContextCircuitBreakerTest.properties(1));
+        BusinessDataSourceProperties properties = new BusinessDataSourceProperties();
+        properties.getContexts().put("risk", context);
+
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:router;DB_CLOSE_DELAY=-1");
+        Configuration configuration = new Configuration(new Environment("risk", new JdbcTransactionFactory(), dataSource));
+        SqlSessionTemplate template = new SqlSessionTemplate(new SqlSessionFactoryBuilder().build(configuration));
+        return new BusinessSqlSessionTemplateRouter(
+                Collections.singletonMap("risk" + BusinessDataSourceRegistrar.SQL_SESSION_TEMPLATE_SUFFIX, template), properties);
+    }
+}
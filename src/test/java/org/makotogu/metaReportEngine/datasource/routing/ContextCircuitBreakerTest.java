@@ -0,0 +1,88 @@
+package org.makotogu.metaReportEngine.datasource.routing;
+
+import org.apache.ibatis.exceptions.PersistenceException;
+import org.junit.jupiter.api.Test;
+import org.makotogu.metaReportEngine.config.BusinessDataSourceProperties;
+import org.makotogu.metaReportEngine.shard.exception.DatasourceConfigurationException;
+import org.makotogu.metaReportEngine.shard.exception.DatasourceExecutionException;
+import org.makotogu.metaReportEngine.shard.exception.DatasourceUnavailableException;
+import org.springframework.dao.QueryTimeoutException;
+
+import java.sql.SQLSyntaxErrorException;
+import java.sql.SQLTimeoutException;
+import java.sql.SQLTransientConnectionException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ContextCircuitBreakerTest {
+
+    @Test
+    void opensOnFailureRateAndClosesAfterSuccessfulTrialCalls() throws Exception {
+        ContextCircuitBreaker breaker = new ContextCircuitBreaker("ctx", properties(2));
+        fail(breaker);
+        fail(breaker);
+        assertThat(breaker.getState()).isEqualTo(ContextCircuitBreaker.State.OPEN);
+        assertThatThrownBy(breaker::acquirePermission).isInstanceOf(DatasourceUnavailableException.class);
+
+        Thread.sleep(30);
+        breaker.acquirePermission();
+        breaker.acquirePermission();
+        assertThat(breaker.getState()).isEqualTo(ContextCircuitBreaker.State.HALF_OPEN);
+        assertThatThrownBy(breaker::acquirePermission).isInstanceOf(DatasourceUnavailableException.class); // 试探名额已用完
+        breaker.onResult(0, false);
+        breaker.onResult(0, false);
+        assertThat(breaker.getState()).isEqualTo(ContextCircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void ignoredTrialCallReturnsItsPermit() throws Exception {
+        ContextCircuitBreaker breaker = new ContextCircuitBreaker("ctx", properties(1));
+        fail(breaker);
+        fail(breaker);
+        Thread.sleep(30);
+
+        breaker.acquirePermission();
+        breaker.onIgnored(); // 例如舱壁拒绝
+        assertThat(breaker.getState()).isEqualTo(ContextCircuitBreaker.State.HALF_OPEN);
+        assertThat(breaker.getMetrics()).containsEntry("bufferedCalls", 0);
+
+        breaker.acquirePermission();
+        breaker.onIgnored();
+        breaker.onIgnored(); // 多余的归还不会增加名额
+        breaker.acquirePermission();
+        assertThatThrownBy(breaker::acquirePermission).isInstanceOf(DatasourceUnavailableException.class);
+        breaker.onResult(0, false);
+        assertThat(breaker.getState()).isEqualTo(ContextCircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void onlyDatabaseErrorsAreRecordedAsFailures() {
+        assertThat(ContextCircuitBreaker.isRecordedFailure(new DatasourceExecutionException("Failed to execute query: q",
+                new PersistenceException(new SQLTransientConnectionException("pool exhausted"))))).isTrue();
+        assertThat(ContextCircuitBreaker.isRecordedFailure(new DatasourceExecutionException("Failed to execute query: q",
+                new QueryTimeoutException("timeout", new SQLTimeoutException("canceled"))))).isTrue();
+
+        assertThat(ContextCircuitBreaker.isRecordedFailure(new DatasourceExecutionException("Failed to execute query: q",
+                new PersistenceException(new SQLSyntaxErrorException("bad column"))))).isFalse();
+        assertThat(ContextCircuitBreaker.isRecordedFailure(new DatasourceExecutionException("Result of datasource 'loans' exceeds 10 rows"))).isFalse();
+        assertThat(ContextCircuitBreaker.isRecordedFailure(new DatasourceConfigurationException("Unsupported query type: x"))).isFalse();
+        assertThat(ContextCircuitBreaker.isRecordedFailure(new DatasourceUnavailableException("Bulkhead full"))).isFalse();
+        assertThat(ContextCircuitBreaker.isRecordedFailure(new IllegalStateException("released"))).isFalse();
+    }
+
+    static BusinessDataSourceProperties.CircuitBreakerProperties properties(int permittedCallsInHalfOpenState) {
+        BusinessDataSourceProperties.CircuitBreakerProperties properties = new BusinessDataSourceProperties.CircuitBreakerProperties();
+        properties.setSlidingWindowSize(4);
+        properties.setMinimumCalls(2);
+        properties.setFailureRateThreshold(50);
+        properties.setWaitInOpenStateMs(20);
+        properties.setPermittedCallsInHalfOpenState(permittedCallsInHalfOpenState);
+        return properties;
+    }
+
+    private static void fail(ContextCircuitBreaker breaker) {
+        breaker.acquirePermission();
+        breaker.onResult(0, true);
+    }
+}
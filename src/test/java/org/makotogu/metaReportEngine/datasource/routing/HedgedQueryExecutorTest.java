@@ -0,0 +1,157 @@
+package org.makotogu.metaReportEngine.datasource.routing;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.makotogu.metaReportEngine.config.BusinessDataSourceProperties;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HedgedQueryExecutorTest {
+
+    private static final int WARM_UP = 4;
+
+    private final ExecutorService pool = new ThreadPoolExecutor(0, 4, 60, TimeUnit.SECONDS, new SynchronousQueue<>());
+    private final CountDownLatch slowAttempt = new CountDownLatch(1);
+    private final AtomicInteger invocations = new AtomicInteger();
+    private final AtomicInteger discarded = new AtomicInteger();
+
+    @AfterEach
+    void tearDown() {
+        slowAttempt.countDown();
+        pool.shutdownNow();
+    }
+
+    @Test
+    void slowPrimaryIsHedgedToAnotherMemberAndHoldsItsPermitUntilDone() throws Exception {
+        ReplicaSetDataSource replicaSet = ReplicaSetDataSourceTest.replicaSet("hedge", BusinessDataSourceProperties.ReplicaSelection.LEAST_OUTSTANDING, 2);
+        HedgedQueryExecutor hedged = new HedgedQueryExecutor("hedge", replicaSet, hedging(), pool);
+        ContextBulkhead bulkhead = bulkhead(2);
+        warmUp(hedged, bulkhead, replicaSet);
+
+        String[] slowMember = new String[1];
+        String result = execute(hedged, bulkhead, () -> {
+            String member = ReplicaSetDataSourceTest.queryMemberName(replicaSet);
+            if (invocations.incrementAndGet() == WARM_UP + 1) {
+                slowMember[0] = member;
+                awaitSlowAttempt();
+            }
+            HedgedQueryExecutor.onResultDiscarded(discarded::incrementAndGet);
+            return member;
+        });
+
+        assertThat(result).isNotEqualTo(slowMember[0]);
+        assertThat(hedged.getMetrics()).containsEntry("hedgedCalls", 1L);
+        awaitCondition(() -> Long.valueOf(1).equals(hedged.getMetrics().get("hedgeWins"))); // 在完成结果之后计数
+        // 落后的尝试仍在执行，继续占用舱壁名额
+        awaitCondition(() -> Integer.valueOf(1).equals(bulkhead.getMetrics().get("inFlight")));
+        assertThat(discarded).hasValue(0);
+
+        slowAttempt.countDown();
+        awaitCondition(() -> discarded.get() == 1);
+        awaitCondition(() -> Integer.valueOf(0).equals(bulkhead.getMetrics().get("inFlight")));
+        assertThat(hedged.getMetrics()).containsEntry("discardedResults", 1L);
+    }
+
+    @Test
+    void hedgeIsSkippedWhenBulkheadIsFull() {
+        ReplicaSetDataSource replicaSet = ReplicaSetDataSourceTest.replicaSet("full", BusinessDataSourceProperties.ReplicaSelection.LEAST_OUTSTANDING, 2);
+        HedgedQueryExecutor hedged = new HedgedQueryExecutor("full", replicaSet, hedging(), pool);
+        ContextBulkhead bulkhead = bulkhead(1);
+        warmUp(hedged, bulkhead, replicaSet);
+
+        String result = execute(hedged, bulkhead, () -> {
+            String member = ReplicaSetDataSourceTest.queryMemberName(replicaSet);
+            if (invocations.incrementAndGet() == WARM_UP + 1) {
+                sleep(200);
+            }
+            return member;
+        });
+
+        assertThat(result).isNotNull();
+        assertThat(hedged.getMetrics()).containsEntry("hedgedCalls", 0L).containsEntry("skippedHedges", 1L);
+        assertThat(invocations).hasValue(WARM_UP + 1);
+        awaitCondition(() -> Integer.valueOf(0).equals(bulkhead.getMetrics().get("inFlight")));
+    }
+
+    @Test
+    void runsInCallerWhenHedgePoolIsFull() {
+        ReplicaSetDataSource replicaSet = ReplicaSetDataSourceTest.replicaSet("saturated", BusinessDataSourceProperties.ReplicaSelection.LEAST_OUTSTANDING, 2);
+        HedgedQueryExecutor hedged = new HedgedQueryExecutor("saturated", replicaSet, hedging(), runnable -> {
+            throw new RejectedExecutionException("full");
+        });
+        ContextBulkhead bulkhead = bulkhead(2);
+        warmUp(hedged, bulkhead, replicaSet);
+
+        Thread caller = Thread.currentThread();
+        assertThat(execute(hedged, bulkhead, () -> Thread.currentThread() == caller)).isTrue();
+        assertThat(hedged.getMetrics()).containsEntry("skippedHedges", 1L);
+        assertThat(bulkhead.getMetrics()).containsEntry("inFlight", 0);
+    }
+
+    /**
+     * 与 BusinessSqlSessionTemplateRouter.execute 相同: 调用方为第一次尝试获取名额，由执行器归还。
+     */
+    private static <T> T execute(HedgedQueryExecutor hedged, ContextBulkhead bulkhead, Supplier<T> query) {
+        bulkhead.acquire();
+        return hedged.execute(query, bulkhead);
+    }
+
+    private void warmUp(HedgedQueryExecutor hedged, ContextBulkhead bulkhead, ReplicaSetDataSource replicaSet) {
+        for (int i = 0; i < WARM_UP; i++) {
+            execute(hedged, bulkhead, () -> {
+                invocations.incrementAndGet();
+                return ReplicaSetDataSourceTest.queryMemberName(replicaSet);
+            });
+        }
+        assertThat(hedged.getMetrics().get("hedgeDelayMs")).isNotNull();
+    }
+
+    private static BusinessDataSourceProperties.HedgingProperties hedging() {
+        BusinessDataSourceProperties.HedgingProperties properties = new BusinessDataSourceProperties.HedgingProperties();
+        properties.setEnabled(true);
+        properties.setMinimumSamples(WARM_UP);
+        properties.setSampleSize(16);
+        properties.setMinDelayMs(20);
+        return properties;
+    }
+
+    private static ContextBulkhead bulkhead(int maxConcurrentCalls) {
+        BusinessDataSourceProperties.BulkheadProperties properties = new BusinessDataSourceProperties.BulkheadProperties();
+        properties.setMaxConcurrentCalls(maxConcurrentCalls);
+        properties.setMaxWaitMs(0);
+        return new ContextBulkhead("test", properties, maxConcurrentCalls);
+    }
+
+    private void awaitSlowAttempt() {
+        try {
+            slowAttempt.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void awaitCondition(Supplier<Boolean> condition) {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.get()) {
+            assertThat(System.currentTimeMillis()).as("condition not met within 5s").isLessThan(deadline);
+            sleep(10);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package org.makotogu.metaReportEngine.datasource.routing;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.Test;
+import org.makotogu.metaReportEngine.config.BusinessDataSourceProperties;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ReplicaSetDataSourceTest {
+
+    @Test
+    void leastOutstandingAvoidsMembersWithBorrowedConnections() throws SQLException {
+        ReplicaSetDataSource replicaSet = replicaSet("least", BusinessDataSourceProperties.ReplicaSelection.LEAST_OUTSTANDING, 3);
+        try (Connection first = replicaSet.getConnection();
+             Connection second = replicaSet.getConnection();
+             Connection third = replicaSet.getConnection()) {
+            Set<String> names = new HashSet<>();
+            names.add(memberName(first));
+            names.add(memberName(second));
+            names.add(memberName(third));
+            assertThat(names).containsExactlyInAnyOrder("least-0", "least-1", "least-2");
+        }
+        for (Map<String, Object> metrics : replicaSet.getMemberMetrics()) {
+            assertThat(metrics.get("outstanding")).isEqualTo(0);
+            assertThat(metrics.get("selected")).isEqualTo(1L);
+        }
+    }
+
+    @Test
+    void latencyAwarePrefersUnsampledThenFasterMembers() throws Exception {
+        ReplicaSetDataSource replicaSet = replicaSet("latency", BusinessDataSourceProperties.ReplicaSelection.LATENCY_AWARE, 2);
+        String slow;
+        try (Connection connection = replicaSet.getConnection()) {
+            slow = memberName(connection);
+            Thread.sleep(50);
+        }
+        String fast;
+        try (Connection connection = replicaSet.getConnection()) {
+            fast = memberName(connection); // 没有样本的成员优先
+        }
+        assertThat(fast).isNotEqualTo(slow);
+        for (int i = 0; i < 5; i++) {
+            try (Connection connection = replicaSet.getConnection()) {
+                assertThat(memberName(connection)).isEqualTo(fast);
+            }
+        }
+    }
+
+    @Test
+    void attemptAvoidsExcludedMemberAndRecordsChoice() {
+        ReplicaSetDataSource replicaSet = replicaSet("attempt", BusinessDataSourceProperties.ReplicaSelection.LEAST_OUTSTANDING, 2);
+        ReplicaSetDataSource.Attempt first = new ReplicaSetDataSource.Attempt(-1);
+        String firstName = replicaSet.callOn(first, () -> queryMemberName(replicaSet));
+        ReplicaSetDataSource.Attempt second = new ReplicaSetDataSource.Attempt(first.getChosen());
+        for (int i = 0; i < 4; i++) {
+            assertThat(replicaSet.callOn(second, () -> queryMemberName(replicaSet))).isNotEqualTo(firstName);
+        }
+        assertThat(second.getChosen()).isNotEqualTo(first.getChosen());
+    }
+
+    static ReplicaSetDataSource replicaSet(String prefix, BusinessDataSourceProperties.ReplicaSelection selection, int size) {
+        Map<String, DataSource> members = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+            String name = prefix + "-" + i;
+            members.put(name, memberDataSource(name));
+        }
+        return new ReplicaSetDataSource(prefix, selection, members);
+    }
+
+    static String queryMemberName(DataSource dataSource) {
+        try (Connection connection = dataSource.getConnection()) {
+            return memberName(connection);
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static DataSource memberDataSource(String name) {
+        JdbcDataSource dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + name + ";DB_CLOSE_DELAY=-1");
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("create table if not exists member (name varchar(64))");
+            statement.execute("delete from member");
+            statement.execute("insert into member values ('" + name + "')");
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+        return dataSource;
+    }
+
+    private static String memberName(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement(); ResultSet rs = statement.executeQuery("select name from member")) {
+            rs.next();
+            return rs.getString(1);
+        }
+    }
+}
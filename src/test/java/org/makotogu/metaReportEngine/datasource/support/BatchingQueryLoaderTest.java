@@ -0,0 +1,199 @@
+package org.makotogu.metaReportEngine.datasource.support;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.ibatis.exceptions.PersistenceException;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.makotogu.metaReportEngine.shard.exception.DatasourceExecutionException;
+import org.mybatis.spring.SqlSessionTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BatchingQueryLoaderTest {
+
+    private final BatchingQueryLoader loader = loader();
+    private final ExecutorService requests = Executors.newFixedThreadPool(2);
+    private final List<Map<String, Object>> batchParams = new CopyOnWriteArrayList<>();
+
+    @AfterEach
+    void tearDown() {
+        requests.shutdownNow();
+        loader.shutdown();
+    }
+
+    @Test
+    void rowsOfOneBatchAreDispatchedByKey() throws Exception {
+        StubTemplate template = new StubTemplate(params -> loans(keys(params)));
+
+        Future<List<Map<String, Object>>> first = requests.submit(() -> loader.load(spec(), "risk", template, params(1)));
+        awaitPendingBatch(1);
+        List<Map<String, Object>> second = loader.load(spec(), "risk", template, params(2)); // 凑满批次, 在当前线程执行
+
+        assertThat(batchParams).singleElement().satisfies(params -> {
+            assertThat(params).containsEntry("region", "east").doesNotContainKey("customerId");
+            assertThat(keys(params)).containsExactly(1, 2);
+        });
+        assertThat(first.get(5, TimeUnit.SECONDS)).extracting(row -> row.get("loan_id")).containsExactly("1-a", "1-b");
+        assertThat(second).extracting(row -> row.get("loan_id")).containsExactly("2-a", "2-b");
+    }
+
+    @Test
+    void numericKeysAreComparedByValueAndEachWaiterGetsItsOwnRows() throws Exception {
+        // 请求的 key 分别为 Integer 与 Long，结果中的 key 列为 BigDecimal
+        StubTemplate template = new StubTemplate(params -> loans(new BigDecimal("7.0")));
+
+        Future<List<Map<String, Object>>> byInteger = requests.submit(() -> loader.load(spec(), "risk", template, params(7)));
+        awaitPendingBatch(1);
+        Future<List<Map<String, Object>>> byLong = requests.submit(() -> loader.load(spec(), "risk", template, params(7L)));
+        awaitPendingBatch(2);
+        List<Map<String, Object>> other = loader.load(spec(), "risk", template, params(8)); // 第二个 key 凑满批次
+
+        assertThat(keys(batchParams.get(0))).containsExactly(7, 8); // 相同的数值 key 只查询一次
+        assertThat(other).isEmpty();
+        List<Map<String, Object>> first = byInteger.get(5, TimeUnit.SECONDS);
+        List<Map<String, Object>> second = byLong.get(5, TimeUnit.SECONDS);
+        assertThat(first).hasSize(2).isNotSameAs(second);
+        assertThat(second.get(0)).isEqualTo(first.get(0)).isNotSameAs(first.get(0));
+
+        second.get(0).put("amount", "formatted"); // 例如 FORMATTER 原地写入 targetField
+        assertThat(first.get(0).get("amount")).isEqualTo(100);
+    }
+
+    @Test
+    void failureIsReportedToEveryWaiter() throws Exception {
+        StubTemplate template = new StubTemplate(params -> {
+            throw new PersistenceException("connection reset");
+        });
+
+        Future<List<Map<String, Object>>> first = requests.submit(() -> loader.load(spec(), "risk", template, params(1)));
+        awaitPendingBatch(1);
+        assertThatThrownBy(() -> loader.load(spec(), "risk", template, params(2)))
+                .isInstanceOf(DatasourceExecutionException.class)
+                .hasMessageContaining("Batched statement failed: getLoansByCustomerIds")
+                .hasCauseInstanceOf(PersistenceException.class);
+        assertThatThrownBy(() -> first.get(5, TimeUnit.SECONDS))
+                .hasCauseInstanceOf(DatasourceExecutionException.class)
+                .hasRootCauseMessage("connection reset");
+    }
+
+    @Test
+    void nullKeyReturnsNoRowsWithoutQuerying() {
+        StubTemplate template = new StubTemplate(params -> loans(1));
+        Map<String, Object> params = new HashMap<>();
+        params.put("customerId", null);
+
+        assertThat(loader.load(spec(), "risk", template, params)).isEmpty();
+        assertThat(batchParams).isEmpty();
+    }
+
+    /**
+     * 等待后台请求加入当前批次 (一个批次, waiters 个等待的请求)。
+     */
+    private void awaitPendingBatch(int waiters) throws InterruptedException {
+        Map<?, ?> pending = (Map<?, ?>) ReflectionTestUtils.getField(loader, "pendingBatches");
+        for (int i = 0; i < 500 && countWaiters(pending) < waiters; i++) {
+            Thread.sleep(10);
+        }
+        assertThat(pending).hasSize(1);
+        assertThat(countWaiters(pending)).isEqualTo(waiters);
+    }
+
+    private static int countWaiters(Map<?, ?> pending) {
+        int count = 0;
+        for (Object batch : pending.values()) {
+            for (Object futures : ((Map<?, ?>) ReflectionTestUtils.getField(batch, "waiters")).values()) {
+                count += ((List<?>) futures).size();
+            }
+        }
+        return count;
+    }
+
+    private static BatchingQueryLoader loader() {
+        BatchingQueryLoader loader = new BatchingQueryLoader(1);
+        ReflectionTestUtils.setField(loader, "enabled", true);
+        ReflectionTestUtils.setField(loader, "waitTimeoutMillis", 5000L);
+        return loader;
+    }
+
+    private static BatchingQueryLoader.BatchSpec spec() {
+        try {
+            // 窗口足够长: 批次只会因凑满两个 key 而执行
+            return BatchingQueryLoader.BatchSpec.parse(new ObjectMapper().readTree("{\"statement\": \"getLoansByCustomerIds\", "
+                    + "\"keyParam\": \"customerId\", \"keysParam\": \"customerIds\", \"keyColumn\": \"customer_id\", "
+                    + "\"maxBatchSize\": 2, \"windowMillis\": 60000}"));
+        } catch (Exception e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private static Map<String, Object> params(Object customerId) {
+        Map<String, Object> params = new HashMap<>();
+        params.put("customerId", customerId);
+        params.put("region", "east");
+        return params;
+    }
+
+    private static List<Object> keys(Map<String, Object> params) {
+        return new ArrayList<>((Collection<?>) params.get("customerIds"));
+    }
+
+    private static List<Map<String, Object>> loans(Object... customerIds) {
+        return loans(Arrays.asList(customerIds));
+    }
+
+    private static List<Map<String, Object>> loans(Collection<?> customerIds) {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (Object customerId : customerIds) {
+            for (String suffix : new String[]{"a", "b"}) {
+                Map<String, Object> row = new LinkedHashMap<>();
+                row.put("customer_id", customerId);
+                row.put("loan_id", customerId + "-" + suffix);
+                row.put("amount", 100);
+                rows.add(row);
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * 只实现 selectList 的 SqlSessionTemplate: 记录批量语句的参数并返回给定的行。
+     */
+    private class StubTemplate extends SqlSessionTemplate {
+        private final Function<Map<String, Object>, List<Map<String, Object>>> rows;
+
+        StubTemplate(Function<Map<String, Object>, List<Map<String, Object>>> rows) {
+            super(new SqlSessionFactoryBuilder().build(new Configuration(new Environment("stub", new JdbcTransactionFactory(), new JdbcDataSource()))));
+            this.rows = rows;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <E> List<E> selectList(String statement, Object parameter) {
+            Map<String, Object> params = (Map<String, Object>) parameter;
+            batchParams.add(params);
+            return (List<E>) rows.apply(params);
+        }
+    }
+}
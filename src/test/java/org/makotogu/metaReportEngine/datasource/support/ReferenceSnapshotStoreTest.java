@@ -0,0 +1,150 @@
+package org.makotogu.metaReportEngine.datasource.support;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.makotogu.metaReportEngine.datasource.result.MappedRowTable;
+import org.makotogu.metaReportEngine.metadata.dto.ReportConfigurationDto;
+import org.makotogu.metaReportEngine.metadata.entity.ReportDataSource;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ReferenceSnapshotStoreTest {
+
+    @TempDir
+    Path directory;
+
+    private final AtomicInteger liveQueries = new AtomicInteger();
+
+    @Test
+    void servesMappedSnapshotAfterTheFirstLiveQuery() throws Exception {
+        ReferenceSnapshotStore store = store();
+        ReportConfigurationDto.DataSourceConfig config = config("{\"reference\": {\"keyColumn\": \"code\"}}");
+        ReferenceSnapshotStore.ReferenceSpec spec = store.getReferenceSpec(config);
+
+        Object first = store.load(spec, config, new HashMap<>(), this::branches, this::branches);
+        Object second = store.load(spec, config, new HashMap<>(), this::branches, this::branches);
+
+        assertThat(liveQueries).hasValue(1);
+        assertThat(first).isInstanceOf(MappedRowTable.class).isSameAs(second);
+        MappedRowTable table = (MappedRowTable) first;
+        assertThat(table).hasSize(3);
+        assertThat(table.lookupValue(2L, "name")).isEqualTo("branch-2");
+        assertThat(table.lookup(2).get("name")).isEqualTo("branch-2"); // 整数 key 按数值比较
+    }
+
+    @Test
+    void reusesSnapshotFileAfterRestart() {
+        ReportConfigurationDto.DataSourceConfig config = config("{\"reference\": true}");
+        ReferenceSnapshotStore before = store();
+        before.load(before.getReferenceSpec(config), config, new HashMap<>(), this::branches, this::branches);
+
+        ReferenceSnapshotStore after = store();
+        Object restored = after.load(after.getReferenceSpec(config), config, new HashMap<>(), this::branches, this::branches);
+
+        assertThat(liveQueries).hasValue(1);
+        assertThat(restored).isInstanceOf(MappedRowTable.class);
+        assertThat(after.getSnapshotInfo()).singleElement().satisfies(info -> assertThat(info).containsEntry("rows", 3));
+    }
+
+    @Test
+    void fallsBackToLiveQueriesWhenResultCannotBeSnapshotted() {
+        ReferenceSnapshotStore store = store();
+        ReportConfigurationDto.DataSourceConfig config = config("{\"reference\": true}");
+        Supplier<Object> notAList = () -> {
+            liveQueries.incrementAndGet();
+            return "scalar";
+        };
+
+        assertThat(store.load(store.getReferenceSpec(config), config, new HashMap<>(), notAList, notAList)).isEqualTo("scalar");
+        assertThat(store.load(store.getReferenceSpec(config), config, new HashMap<>(), notAList, notAList)).isEqualTo("scalar");
+        assertThat(liveQueries).hasValue(2);
+        assertThat(store.getSnapshotInfo()).singleElement().satisfies(info -> assertThat(info).containsEntry("disabled", true));
+    }
+
+    @Test
+    void staleSnapshotIsRefreshedInTheBackgroundWithTheRefreshQuery() throws Exception {
+        ReferenceSnapshotStore store = store();
+        ReportConfigurationDto.DataSourceConfig config = config("{\"reference\": {\"refreshSeconds\": 1}}");
+        ReferenceSnapshotStore.ReferenceSpec spec = store.getReferenceSpec(config);
+        Map<String, Object> params = Collections.singletonMap("region", "east");
+        Object first = store.load(spec, config, params, this::branches, this::branches);
+        Thread.sleep(1100);
+
+        CountDownLatch refreshed = new CountDownLatch(1);
+        Supplier<Object> requestBound = () -> {
+            throw new AssertionError("the live query is bound to the request and must not run in the background");
+        };
+        Object stale = store.load(spec, config, params, requestBound, () -> {
+            Object rows = branches();
+            refreshed.countDown();
+            return rows;
+        });
+
+        assertThat(stale).isSameAs(first); // 刷新期间照常返回当前快照
+        assertThat(refreshed.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(liveQueries).hasValue(2);
+        for (int i = 0; i < 50 && store.load(spec, config, params, requestBound, requestBound) == first; i++) {
+            Thread.sleep(20);
+        }
+        assertThat(store.load(spec, config, params, requestBound, requestBound)).isNotSameAs(first);
+    }
+
+    @Test
+    void ignoresDatasourcesWithoutReferenceOrWithNonListResults() {
+        ReferenceSnapshotStore store = store();
+        assertThat(store.getReferenceSpec(config(null))).isNull();
+        assertThat(store.getReferenceSpec(config("{\"reference\": false}"))).isNull();
+        ReportConfigurationDto.DataSourceConfig single = config("{\"reference\": true}");
+        single.setResultStructure("single_map");
+        assertThat(store.getReferenceSpec(single)).isNull();
+    }
+
+    private ReferenceSnapshotStore store() {
+        ReferenceSnapshotStore store = new ReferenceSnapshotStore();
+        ReflectionTestUtils.setField(store, "enabled", true);
+        ReflectionTestUtils.setField(store, "directory", directory.toString());
+        return store;
+    }
+
+    private Object branches() {
+        liveQueries.incrementAndGet();
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (int i = 1; i <= 3; i++) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            row.put("code", (long) i);
+            row.put("name", "branch-" + i);
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    private static ReportConfigurationDto.DataSourceConfig config(String options) {
+        ReportDataSource dataSource = new ReportDataSource();
+        dataSource.setDatasourceAlias("branches");
+        dataSource.setQueryType("JDBC");
+        dataSource.setQueryRef("select code, name from branch");
+        dataSource.setResultStructure("list_map");
+        dataSource.setDatasourceContext("default");
+        dataSource.setExecutionOrder(1);
+        try {
+            dataSource.setOptions(options != null ? new ObjectMapper().readTree(options) : null);
+        } catch (Exception e) {
+            throw new IllegalArgumentException(e);
+        }
+        return new ReportConfigurationDto.DataSourceConfig(dataSource);
+    }
+}
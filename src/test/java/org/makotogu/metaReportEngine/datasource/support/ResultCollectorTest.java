@@ -0,0 +1,131 @@
+package org.makotogu.metaReportEngine.datasource.support;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.makotogu.metaReportEngine.datasource.result.ColumnarTable;
+import org.makotogu.metaReportEngine.datasource.result.MappedRowTable;
+import org.makotogu.metaReportEngine.shard.exception.DatasourceExecutionException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ResultCollectorTest {
+
+    @TempDir
+    Path spillDirectory;
+
+    @Test
+    void keepsRowsOnHeapWithinLimits() {
+        ResultSizeLimiter.GenerationBudget budget = new ResultSizeLimiter.GenerationBudget(0, 0);
+        ResultCollector collector = collector(new ResultSizeLimiter.Limits(10, 0, ResultSizeLimiter.Policy.FAIL), budget, false);
+        for (int i = 0; i < 10; i++) {
+            collector.add(row(i));
+        }
+
+        List<?> result = collector.finish();
+        assertThat(result).isInstanceOf(ArrayList.class).hasSize(10);
+        assertThat(budget.getRows()).isEqualTo(10);
+        assertThat(budget.getBytes()).isPositive();
+    }
+
+    @Test
+    void failPolicyThrowsAndReturnsItsBudget() {
+        ResultSizeLimiter.GenerationBudget budget = new ResultSizeLimiter.GenerationBudget(0, 0);
+        ResultCollector collector = collector(new ResultSizeLimiter.Limits(3, 0, ResultSizeLimiter.Policy.FAIL), budget, false);
+        collector.add(row(0));
+        collector.add(row(1));
+        collector.add(row(2));
+
+        assertThatThrownBy(() -> collector.add(row(3)))
+                .isInstanceOf(DatasourceExecutionException.class)
+                .hasMessageContaining("exceeded max rows 3");
+        assertThat(budget.getRows()).isZero();
+        assertThat(budget.getBytes()).isZero();
+    }
+
+    @Test
+    void spillPolicyMovesAllRowsToAMappedFile() throws IOException {
+        ResultSizeLimiter.GenerationBudget budget = new ResultSizeLimiter.GenerationBudget(0, 0);
+        ResultCollector collector = collector(new ResultSizeLimiter.Limits(100, 0, ResultSizeLimiter.Policy.SPILL), budget, false);
+        for (int i = 0; i < 1000; i++) {
+            collector.add(row(i));
+        }
+
+        List<?> result = collector.finish();
+        assertThat(result).isInstanceOf(MappedRowTable.class).hasSize(1000);
+        @SuppressWarnings("unchecked")
+        Map<String, Object> last = (Map<String, Object>) result.get(999);
+        assertThat(last).containsEntry("id", 999).containsEntry("name", "row-999");
+        // 溢出的行不再计入堆上的结果预算，映射后文件即删除
+        assertThat(budget.getRows()).isZero();
+        assertThat(budget.getBytes()).isZero();
+        assertThat(listSpillFiles()).isEmpty();
+    }
+
+    @Test
+    void generationBudgetTriggersSpillForColumnarResults() {
+        ResultSizeLimiter.GenerationBudget budget = new ResultSizeLimiter.GenerationBudget(50, 0);
+        ResultCollector collector = collector(new ResultSizeLimiter.Limits(0, 0, ResultSizeLimiter.Policy.SPILL), budget, true);
+        for (int i = 0; i < 40; i++) {
+            collector.add(row(i));
+        }
+        assertThat(collector.finish()).isInstanceOf(ColumnarTable.class);
+
+        ResultCollector second = collector(new ResultSizeLimiter.Limits(0, 0, ResultSizeLimiter.Policy.SPILL), budget, true);
+        for (int i = 0; i < 40; i++) {
+            second.add(row(i));
+        }
+        assertThat(second.finish()).isInstanceOf(MappedRowTable.class).hasSize(40);
+        assertThat(budget.getRows()).isEqualTo(40); // 第一个结果仍留在堆上
+    }
+
+    @Test
+    void abortDeletesSpillFileAndReturnsBudget() throws IOException {
+        ResultSizeLimiter.GenerationBudget budget = new ResultSizeLimiter.GenerationBudget(0, 0);
+        ResultCollector collector = collector(new ResultSizeLimiter.Limits(2, 0, ResultSizeLimiter.Policy.SPILL), budget, false);
+        for (int i = 0; i < 5; i++) {
+            collector.add(row(i));
+        }
+        assertThat(listSpillFiles()).hasSize(1);
+
+        collector.abort();
+        assertThat(listSpillFiles()).isEmpty();
+        assertThat(budget.getRows()).isZero();
+    }
+
+    @Test
+    void nonMapRowsCannotBeSpilled() {
+        ResultCollector collector = collector(new ResultSizeLimiter.Limits(1, 0, ResultSizeLimiter.Policy.SPILL), null, false);
+        collector.add("first");
+        assertThatThrownBy(() -> collector.add("second"))
+                .isInstanceOf(DatasourceExecutionException.class)
+                .hasMessageContaining("cannot be spilled");
+    }
+
+    private ResultCollector collector(ResultSizeLimiter.Limits limits, ResultSizeLimiter.GenerationBudget budget, boolean columnar) {
+        return new ResultCollector("test", limits, budget, spillDirectory, null, columnar);
+    }
+
+    private List<Path> listSpillFiles() throws IOException {
+        try (Stream<Path> files = Files.list(spillDirectory)) {
+            return files.collect(Collectors.toList());
+        }
+    }
+
+    private static Map<String, Object> row(int id) {
+        Map<String, Object> row = new LinkedHashMap<>();
+        row.put("id", id);
+        row.put("name", "row-" + id);
+        return row;
+    }
+}
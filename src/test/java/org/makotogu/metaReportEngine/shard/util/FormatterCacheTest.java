@@ -0,0 +1,51 @@
+package org.makotogu.metaReportEngine.shard.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.text.DecimalFormat;
+import java.util.Locale;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FormatterCacheTest {
+
+    private static final String PATTERN = "#,##0.00";
+
+    private final FormatterCache formatterCache = new FormatterCache();
+
+    @Test
+    void unconfiguredRoundingModeKeepsDecimalFormatDefault() {
+        FormatterCache.NumberFormatKey key = new FormatterCache.NumberFormatKey("0", Locale.US, null, null, null);
+
+        assertThat(formatterCache.formatNumber(new BigDecimal("2.5"), key)).isEqualTo(new DecimalFormat("0").format(new BigDecimal("2.5")));
+        assertThat(formatterCache.formatNumber(new BigDecimal("2.5"), key)).isEqualTo("2"); // HALF_EVEN
+    }
+
+    @Test
+    void configuredRoundingModeIsApplied() {
+        FormatterCache.NumberFormatKey key = new FormatterCache.NumberFormatKey("0", Locale.US, RoundingMode.HALF_UP, null, null);
+
+        assertThat(formatterCache.formatNumber(new BigDecimal("2.5"), key)).isEqualTo("3");
+    }
+
+    @Test
+    void parseRoundingModeReturnsNullForMissingOrInvalidMode() {
+        assertThat(FormatterCache.parseRoundingMode(null)).isNull();
+        assertThat(FormatterCache.parseRoundingMode(" ")).isNull();
+        assertThat(FormatterCache.parseRoundingMode("ROUND_SOMETIMES")).isNull();
+        assertThat(FormatterCache.parseRoundingMode("half_down")).isEqualTo(RoundingMode.HALF_DOWN);
+    }
+
+    @Test
+    void cachedFormattersAreSeparatePerThread() throws Exception {
+        FormatterCache.NumberFormatKey key = FormatterCache.NumberFormatKey.ofPattern(PATTERN);
+        String[] otherThreadResult = new String[1];
+        Thread thread = new Thread(() -> otherThreadResult[0] = formatterCache.formatNumber(1234.5, key));
+        thread.start();
+        thread.join();
+
+        assertThat(formatterCache.formatNumber(1234.5, key)).isEqualTo(otherThreadResult[0]);
+    }
+}
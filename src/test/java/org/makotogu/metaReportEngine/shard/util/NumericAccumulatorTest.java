@@ -0,0 +1,55 @@
+package org.makotogu.metaReportEngine.shard.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class NumericAccumulatorTest {
+
+    @Test
+    void rejectedNaNAndInfinityAreNotCounted() {
+        NumericAccumulator accumulator = new NumericAccumulator(NumericAccumulator.Mode.DECIMAL);
+        accumulator.add(10);
+        assertThatThrownBy(() -> accumulator.add(Double.NaN)).isInstanceOf(NumberFormatException.class);
+        assertThatThrownBy(() -> accumulator.add(Double.POSITIVE_INFINITY)).isInstanceOf(NumberFormatException.class);
+        accumulator.add(new BigDecimal("20.5"));
+
+        assertThat(accumulator.getCount()).isEqualTo(2);
+        assertThat(accumulator.getSum()).isEqualByComparingTo("30.5");
+        assertThat(accumulator.getAverage(2, RoundingMode.HALF_UP)).isEqualByComparingTo("15.25");
+    }
+
+    @Test
+    void decimalModeMatchesBigDecimalAdditionAcrossLongOverflow() {
+        NumericAccumulator accumulator = new NumericAccumulator(NumericAccumulator.Mode.DECIMAL);
+        BigDecimal expected = BigDecimal.ZERO;
+        Number[] values = {Long.MAX_VALUE, Long.MAX_VALUE, 1.25, -3, new BigDecimal("0.10")};
+        for (Number value : values) {
+            accumulator.add(value);
+            expected = expected.add(NumberUtil.toBigDecimal(value));
+        }
+
+        assertThat(accumulator.getSum()).isEqualTo(expected);
+        assertThat(accumulator.getCount()).isEqualTo(values.length);
+    }
+
+    @Test
+    void doubleModeUsesCompensatedSum() {
+        NumericAccumulator accumulator = new NumericAccumulator(NumericAccumulator.Mode.DOUBLE);
+        for (int i = 0; i < 10; i++) {
+            accumulator.add(0.1);
+        }
+
+        assertThat(accumulator.getSum().doubleValue()).isEqualTo(1.0);
+        assertThat(accumulator.getAverage(2, RoundingMode.HALF_UP)).isEqualByComparingTo("0.10");
+    }
+
+    @Test
+    void averageOfNothingIsNull() {
+        assertThat(new NumericAccumulator(null).getAverage(2, RoundingMode.HALF_UP)).isNull();
+    }
+}
@@ -0,0 +1,73 @@
+package org.makotogu.metaReportEngine.transformer.aggregate;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+class HyperLogLogTest {
+
+    @Test
+    void estimateStaysWithinTheStandardErrorOfThePrecision() {
+        for (int distinct : new int[]{1_000, 100_000}) {
+            HyperLogLog hyperLogLog = new HyperLogLog(HyperLogLog.DEFAULT_PRECISION);
+            for (int i = 0; i < distinct; i++) {
+                hyperLogLog.add("customer-" + i);
+                hyperLogLog.add("customer-" + i); // 重复值不影响估算
+            }
+
+            // 标准误差 1.04 / sqrt(2^14) ≈ 0.81%, 取 3 倍
+            assertThat((double) hyperLogLog.estimate()).isCloseTo(distinct, within(distinct * 3 * 1.04 / Math.sqrt(1 << 14)));
+        }
+    }
+
+    @Test
+    void emptyAndNullOnlyInputEstimatesZero() {
+        HyperLogLog hyperLogLog = new HyperLogLog(HyperLogLog.DEFAULT_PRECISION);
+        assertThat(hyperLogLog.estimate()).isZero();
+
+        hyperLogLog.add(null);
+        assertThat(hyperLogLog.estimate()).isZero();
+    }
+
+    @Test
+    void numericValuesAreNormalizedLikeExactCountDistinct() {
+        HyperLogLog hyperLogLog = new HyperLogLog(HyperLogLog.DEFAULT_PRECISION);
+        hyperLogLog.add(42);
+        hyperLogLog.add(42L);
+        hyperLogLog.add(new BigDecimal("42.00"));
+        hyperLogLog.add(new BigDecimal("1.50"));
+        hyperLogLog.add(new BigDecimal("1.5"));
+
+        assertThat(hyperLogLog.estimate()).isEqualTo(2);
+    }
+
+    @Test
+    void mergeEqualsAddingAllValuesToOneInstance() {
+        HyperLogLog left = new HyperLogLog(12);
+        HyperLogLog right = new HyperLogLog(12);
+        HyperLogLog all = new HyperLogLog(12);
+        for (long i = 0; i < 60_000; i++) {
+            // 两边有 20000 个重叠值
+            (i < 40_000 ? left : right).add(i);
+            if (i >= 20_000 && i < 40_000) {
+                right.add(i);
+            }
+            all.add(i);
+        }
+
+        left.merge(right);
+
+        assertThat(left.estimate()).isEqualTo(all.estimate());
+        assertThat((double) left.estimate()).isCloseTo(60_000, within(60_000 * 3 * 1.04 / Math.sqrt(1 << 12)));
+    }
+
+    @Test
+    void mergeRejectsDifferentPrecision() {
+        assertThatThrownBy(() -> new HyperLogLog(12).merge(new HyperLogLog(14)))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
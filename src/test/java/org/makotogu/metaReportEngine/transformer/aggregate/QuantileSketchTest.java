@@ -0,0 +1,108 @@
+package org.makotogu.metaReportEngine.transformer.aggregate;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+class QuantileSketchTest {
+
+    private static final double[] QUANTILES = {0.01, 0.25, 0.5, 0.75, 0.9, 0.95, 0.99};
+
+    @Test
+    void quantilesStayWithinTheRelativeAccuracy() {
+        // 对数正态分布, 跨越多个数量级
+        Random random = new Random(7);
+        double[] values = new double[50_000];
+        QuantileSketch sketch = new QuantileSketch(QuantileSketch.DEFAULT_RELATIVE_ACCURACY);
+        for (int i = 0; i < values.length; i++) {
+            values[i] = Math.exp(random.nextGaussian() * 2 + 5);
+            sketch.add(values[i]);
+        }
+        Arrays.sort(values);
+
+        assertThat(sketch.getCount()).isEqualTo(values.length);
+        for (double quantile : QUANTILES) {
+            double expected = values[(int) (quantile * (values.length - 1))];
+            assertThat(sketch.quantile(quantile)).isCloseTo(expected, within(expected * QuantileSketch.DEFAULT_RELATIVE_ACCURACY));
+        }
+        assertThat(sketch.quantile(0)).isEqualTo(values[0]);
+        assertThat(sketch.quantile(1)).isEqualTo(values[values.length - 1]);
+    }
+
+    @Test
+    void negativeZeroAndPositiveValuesKeepTheirOrder() {
+        QuantileSketch sketch = new QuantileSketch(0.02);
+        double[] values = new double[2001];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i - 1000; // -1000 .. 1000
+            sketch.add(values[i]);
+        }
+
+        for (double quantile : QUANTILES) {
+            double expected = values[(int) (quantile * (values.length - 1))];
+            assertThat(sketch.quantile(quantile)).isCloseTo(expected, within(Math.abs(expected) * 0.02));
+        }
+        assertThat(sketch.quantile(0.5)).isZero();
+    }
+
+    @Test
+    void emptyInputHasNoQuantile() {
+        QuantileSketch sketch = new QuantileSketch(QuantileSketch.DEFAULT_RELATIVE_ACCURACY);
+        sketch.add(Double.NaN);
+        sketch.add(Double.POSITIVE_INFINITY);
+
+        assertThat(sketch.getCount()).isZero();
+        assertThat(sketch.quantile(0.5)).isNull();
+        assertThat(sketch.quantile(0)).isNull();
+    }
+
+    @Test
+    void mergeEqualsAddingAllValuesToOneSketch() {
+        Random random = new Random(11);
+        QuantileSketch left = new QuantileSketch(QuantileSketch.DEFAULT_RELATIVE_ACCURACY);
+        QuantileSketch right = new QuantileSketch(QuantileSketch.DEFAULT_RELATIVE_ACCURACY);
+        QuantileSketch all = new QuantileSketch(QuantileSketch.DEFAULT_RELATIVE_ACCURACY);
+        for (int i = 0; i < 20_000; i++) {
+            // 左右两边的取值范围不同, 合并时需要扩展桶数组
+            double value = i % 2 == 0 ? random.nextDouble() * 10 : -random.nextDouble() * 1_000 + (i % 7 == 0 ? 0 : 5_000);
+            (i % 2 == 0 ? left : right).add(value);
+            all.add(value);
+        }
+        left.merge(new QuantileSketch(QuantileSketch.DEFAULT_RELATIVE_ACCURACY)); // 合并空草图不改变结果
+
+        left.merge(right);
+
+        assertThat(left.getCount()).isEqualTo(all.getCount());
+        assertThat(left.quantile(0)).isEqualTo(all.quantile(0));
+        assertThat(left.quantile(1)).isEqualTo(all.quantile(1));
+        for (double quantile : QUANTILES) {
+            assertThat(left.quantile(quantile)).isEqualTo(all.quantile(quantile));
+        }
+    }
+
+    @Test
+    void mergeIntoEmptySketchCopiesTheOther() {
+        QuantileSketch empty = new QuantileSketch(0.05);
+        QuantileSketch other = new QuantileSketch(0.05);
+        for (int i = 1; i <= 100; i++) {
+            other.add(i);
+        }
+
+        empty.merge(other);
+
+        assertThat(empty.getCount()).isEqualTo(100);
+        assertThat(empty.quantile(0.5)).isEqualTo(other.quantile(0.5));
+        assertThat(empty.quantile(0)).isEqualTo(1.0);
+    }
+
+    @Test
+    void mergeRejectsDifferentRelativeAccuracy() {
+        assertThatThrownBy(() -> new QuantileSketch(0.01).merge(new QuantileSketch(0.02)))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
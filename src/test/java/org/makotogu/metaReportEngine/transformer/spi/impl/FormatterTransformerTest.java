@@ -0,0 +1,41 @@
+package org.makotogu.metaReportEngine.transformer.spi.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.makotogu.metaReportEngine.shard.util.FormatterCache;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.HashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FormatterTransformerTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final FormatterTransformer transformer = new FormatterTransformer(new FormatterCache());
+
+    @Test
+    void numbersWithoutRoundingModeUseHalfEven() throws Exception {
+        Object result = transformer.transform(Collections.singletonList(new BigDecimal("0.125")),
+                objectMapper.readTree("{\"pattern\":\"0.00\",\"locale\":\"en-US\"}"), new HashMap<>());
+
+        assertThat(result).isEqualTo("0.12");
+    }
+
+    @Test
+    void invalidRoundingModeFallsBackToHalfEven() throws Exception {
+        Object result = transformer.transform(Collections.singletonList(new BigDecimal("0.125")),
+                objectMapper.readTree("{\"pattern\":\"0.00\",\"locale\":\"en-US\",\"roundingMode\":\"NEAREST\"}"), new HashMap<>());
+
+        assertThat(result).isEqualTo("0.12");
+    }
+
+    @Test
+    void configuredRoundingModeIsApplied() throws Exception {
+        Object result = transformer.transform(Collections.singletonList(new BigDecimal("0.125")),
+                objectMapper.readTree("{\"pattern\":\"0.00\",\"locale\":\"en-US\",\"roundingMode\":\"HALF_UP\"}"), new HashMap<>());
+
+        assertThat(result).isEqualTo("0.13");
+    }
+}